@@ -15,8 +15,11 @@ package edu.jhu.icm;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Scanner;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter;
+import edu.jhu.icm.ecgFormatConverter.muse.GEMuse_wrapper;
+import edu.jhu.icm.ecgFormatConverter.zip.ParallelZipWriter;
 
 /*
  * This is the main class to generate GE MUSE compatible output files, 
@@ -38,6 +41,10 @@ import java.util.zip.ZipOutputStream;
  * the manifest and all the folders it created.  Once the zip file has been created, the tool cleans up
  * after itself, removing all the folders and files it generated for the corresponding input files.
  * 
+ * When an output format is given (4th parameter, e.g. WFDB_16 or HL7), the rhythm section is handed 
+ * straight to the GE MUSE loader as it is read and converted in the same pass; the 10 second rhythm 
+ * file is not written and the converted files are zipped in its place.
+ * 
  * The tool requires the standard Java IO and Utility libraries to function properly.
  */
 
@@ -49,6 +56,9 @@ public class GEMUSESplitter {
 	private String outputDir, metaDataFileName, tenSecFileName;
 	private String medianFileName, zipManifestFileName, zipFileName;
 	private ArrayList<String> files = new ArrayList<String>();
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private ECGformatConverter.fileFormat outputFormat = null;
+	private GEMuse_wrapper rhythm = null;
 	boolean extraLine = false;
 
 
@@ -174,19 +184,57 @@ public class GEMUSESplitter {
 		this.outputDir = outputDir;
 	}
 
+	/** Returns the compressionLevel variable. 
+	 * @return - deflate level (0-9) used for the zip entries.
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/** Procedure to set the compressionLevel variable.
+	 * @param compressionLevel - deflate level (0-9), or -1 for the default level
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	/** Returns the outputFormat variable. 
+	 * @return - format the rhythm section is converted to, or null to write the 10 second rhythm file.
+	 */
+	public ECGformatConverter.fileFormat getOutputFormat() {
+		return outputFormat;
+	}
+
+	/** Procedure to set the outputFormat variable.
+	 * @param outputFormat - format the rhythm section is converted to, or null to write the 10 second rhythm file
+	 */
+	public void setOutputFormat(ECGformatConverter.fileFormat outputFormat) {
+		this.outputFormat = outputFormat;
+	}
+
 	/** main for GEMUSESplitter class
-	 * java -jar GEMUSESplitter.jar <filename of your zip file> <string at the start of your file names> <file extension of your input files>
+	 * java -jar GEMUSESplitter.jar <filename of your zip file> <string at the start of your file names> <file extension of your input files> [compression level 0-9] [output format]
 	 * Example: java -jar GEMUSESplitter.jar "MESA_ECGs" "JHU" "txt"
+	 * Example: java -jar GEMUSESplitter.jar "MESA_ECGs" "JHU" "txt" -1 WFDB_16
 	 * @param args - parameters entered in the command line conforming to the example provided
 	 */
 	public static void main(String[] args) throws FileNotFoundException {
 		if (args.length > 2) {
-			GEMUSESplitter parser = new GEMUSESplitter(args[0],args[1],args[2]);
+			int level = Deflater.DEFAULT_COMPRESSION;
+			ECGformatConverter.fileFormat format = null;
+			if (args.length > 3) {
+				level = Integer.parseInt(args[3]);
+			}
+			if (args.length > 4) {
+				format = ECGformatConverter.fileFormat.valueOf(args[4].toUpperCase());
+			}
+			GEMUSESplitter parser = new GEMUSESplitter(args[0],args[1],args[2],level,format);
 			parser.cleanUp(args[1]);
 			auditlogger("Done.");
 		} else {
-			auditlogger("java -jar GEMUSESplitter.jar <filename of your zip file> <string at the start of your file names> <file extension of your input files>");
+			auditlogger("java -jar GEMUSESplitter.jar <filename of your zip file> <string at the start of your file names> <file extension of your input files> [compression level 0-9] [output format]");
 			auditlogger("Example: java -jar GEMUSESplitter.jar \"MESA_ECGs\" \"JHU\" \"txt\"");
+			auditlogger("Example: java -jar GEMUSESplitter.jar \"MESA_ECGs\" \"JHU\" \"txt\" -1 WFDB_16");
 		}
 	}
 
@@ -196,7 +244,30 @@ public class GEMUSESplitter {
 	 * @param endPattern - text string pattern to match at the end of your file names
 	 */
 	public GEMUSESplitter(String zipFileName, String startPattern, String endPattern){
+		this(zipFileName, startPattern, endPattern, Deflater.DEFAULT_COMPRESSION);
+	}
 
+	/** Constructor for the GEMUSESplitter class
+	 * @param zipFileName - chosen file name for the zip that will be generated
+	 * @param startPattern - text string pattern to match at the beginning of your file names
+	 * @param endPattern - text string pattern to match at the end of your file names
+	 * @param compressionLevel - deflate level (0-9) for the zip entries, or -1 for the default level
+	 */
+	public GEMUSESplitter(String zipFileName, String startPattern, String endPattern, int compressionLevel){
+		this(zipFileName, startPattern, endPattern, compressionLevel, null);
+	}
+
+	/** Constructor for the GEMUSESplitter class
+	 * @param zipFileName - chosen file name for the zip that will be generated
+	 * @param startPattern - text string pattern to match at the beginning of your file names
+	 * @param endPattern - text string pattern to match at the end of your file names
+	 * @param compressionLevel - deflate level (0-9) for the zip entries, or -1 for the default level
+	 * @param outputFormat - format to convert the rhythm section to in the same pass, or null to write the 10 second rhythm file
+	 */
+	public GEMUSESplitter(String zipFileName, String startPattern, String endPattern, int compressionLevel, ECGformatConverter.fileFormat outputFormat){
+
+		setCompressionLevel(compressionLevel);
+		setOutputFormat(outputFormat);
 		try {
 
 			File dir = new File(".");
@@ -212,7 +283,9 @@ public class GEMUSESplitter {
 					setTenSecFileName(baseFileName);
 					setMedianFileName(baseFileName);
 					setFiles(getMetaDataFileName());
-					setFiles(getTenSecFileName());
+					if (getOutputFormat() == null) {
+						setFiles(getTenSecFileName());
+					}
 					setFiles(getMedianFileName());
 					processLineByLine();
 				}
@@ -238,7 +311,11 @@ public class GEMUSESplitter {
 			while ( scanner.hasNextLine() ){
 				processLine( scanner.nextLine() );
 			}
-			writeFile(sb.toString(), getTenSecFileName());
+			if (getOutputFormat() == null) {
+				writeFile(sb.toString(), getTenSecFileName());
+			} else {
+				convertRhythm();
+			}
 			iCount = 0;
 			sb = new StringBuffer();
 		}
@@ -277,6 +354,13 @@ public class GEMUSESplitter {
 					iCount++;
 					writeFile(sb.toString(), getMedianFileName());
 					sb = new StringBuffer();
+					if (getOutputFormat() != null) {
+						rhythm = new GEMuse_wrapper();
+						if (!rhythm.parseHeaderLine(aLine)) {
+							rhythm = null;
+						}
+						return;
+					}
 					sb.append("\n\n\n\n");
 					setExtraLine(true);
 				}
@@ -285,6 +369,10 @@ public class GEMUSESplitter {
 					sb.append("\n");
 					setExtraLine(false);
 				}
+			} else if (getOutputFormat() != null) {
+				if (rhythm != null && !rhythm.parseSampleLine(aLine)) {
+					rhythm = null;
+				}
 			} else {
 				sb.append(aLine + "\n");				
 			}
@@ -292,6 +380,30 @@ public class GEMUSESplitter {
 
 	}
 
+	/** Procedure to convert the rhythm section parsed by processLine() into the output format,
+	 * adding the converted files to the zip in place of the 10 second rhythm file.
+	 */
+	protected void convertRhythm() {
+		ECGformatConverter converter = new ECGformatConverter();
+		if (rhythm == null || !converter.load_geMuse(rhythm)) {
+			auditlogger("No valid Rhythm signal in " + fFile.getName() + ", nothing converted.");
+			return;
+		}
+		String recordName = new File(getTenSecFileName()).getName();
+		recordName = recordName.substring(0, recordName.lastIndexOf("."));
+		if (converter.write(getOutputFormat(), getOutputDir() + File.separator, recordName) > 0) {
+			String[] outputs = converter.getOutputFilenames();
+			if (outputs != null) {
+				for (int i=0; i < outputs.length; i++) {
+					setFiles(outputs[i]);
+				}
+			}
+		} else {
+			auditlogger("Conversion of " + fFile.getName() + " to " + getOutputFormat() + " failed.");
+		}
+		rhythm = null;
+	}
+
 	/** Procedure to output information extracted from the input file
 	 * @param aText - String variable containing the output
 	 * @param outputFileName - file name for the output file generated 
@@ -330,28 +442,17 @@ public class GEMUSESplitter {
 
 	}
 	
-	/** Procedure to zip up all the output files
+	/** Procedure to zip up all the output files. 
+	 * The entries are compressed concurrently, one per available processor.
 	 * @param zipFileEntryNames - list of files to be zipped
 	 * @param zipFileName - file name for the zip that will be generated
 	 */
 	protected void addFileToZip(Object[] zipFileEntryNames, String zipFileName){
 
 		try {
-			FileOutputStream dest = new FileOutputStream(zipFileName);
-			ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(dest));
-			byte data[] = new byte[BUFFER];
-			for (int i=0; i < zipFileEntryNames.length; i++) {
-				FileInputStream fi = new FileInputStream((String) zipFileEntryNames[i]);
-				ZipEntry entry = new ZipEntry(((String) zipFileEntryNames[i]).replace(File.separator, "/"));
-				out.putNextEntry(entry);
-				int count;
-				while((count = fi.read(data, 0, BUFFER)) != -1) {
-					out.write(data, 0, count);
-				}
-				fi.close();
-			}
-
-			out.close();
+			ParallelZipWriter out = new ParallelZipWriter(zipFileName, getCompressionLevel(), 0);
+			out.addFiles(zipFileEntryNames);
+			out.finish();
 		} catch(Exception e) {
 			e.printStackTrace();
 		}
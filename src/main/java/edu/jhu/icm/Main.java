@@ -1,7 +1,13 @@
 package edu.jhu.icm;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import edu.jhu.icm.ecgFormatConverter.ECGformatConverter;
+import edu.jhu.icm.ecgFormatConverter.batch.ConversionCatalog;
+import edu.jhu.icm.ecgFormatConverter.batch.ThumbnailRenderer;
+import edu.jhu.icm.ecgFormatConverter.zip.ParallelZipWriter;
 
 
 public class Main {
@@ -26,7 +32,12 @@ public class Main {
 		String outputPath = "/home/WIN/dhopki12/Desktop/QRS-score-mod2/output/";
 		String fileSuffix = "xml"; 
 		
-		convertSubDirectories(inputPath, outputPath, fileSuffix);
+		if(args.length > 0){
+			// java edu.jhu.icm.Main bundle.zip : also bundle all the output files into one archive
+			convertSubDirectoriesToZip(inputPath, outputPath, fileSuffix, args[0], -1);
+		}else{
+			convertSubDirectories(inputPath, outputPath, fileSuffix);
+		}
 		
 		//**************************************
 		// QA testing, circular translation through all formats:
@@ -154,6 +165,89 @@ public class Main {
 	 * @param nameSuffix
 	 */
 	static void convertSubDirectories(String sParentDir, String sResultDir, String nameSuffix){
+		convertSubDirectories(sParentDir, sResultDir, nameSuffix, null, null);
+	}
+
+	/** Converts (recursively) the files found in the parent directory which end with nameSuffix 
+	 * and are new or have changed since the last run, according to the catalog file.
+	 * 
+	 * @param sParentDir
+	 * @param sResultDir
+	 * @param nameSuffix
+	 * @param catalogFileName - path/name of the catalog, created if it does not exist.
+	 */
+	static void convertSubDirectoriesIncremental(String sParentDir, String sResultDir, String nameSuffix, String catalogFileName){
+		try {
+			ConversionCatalog catalog = new ConversionCatalog(catalogFileName);
+			try {
+				convertSubDirectories(sParentDir, sResultDir, nameSuffix, null, catalog);
+			} finally {
+				catalog.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+
+	/** Converts (recursively) all the files found in the parent directory which end with nameSuffix, 
+	 * then bundles every output file (e.g. the WFDB .hea/.dat pairs) into one zip archive.
+	 * 
+	 * @param sParentDir
+	 * @param sResultDir
+	 * @param nameSuffix
+	 * @param zipFileName - path/name.zip of the archive to create.
+	 * @param compressionLevel - deflate level (0-9), or -1 for the default level
+	 */
+	static void convertSubDirectoriesToZip(String sParentDir, String sResultDir, String nameSuffix, String zipFileName, int compressionLevel){
+		ParallelZipWriter bundle = new ParallelZipWriter(zipFileName, compressionLevel, 0);
+		convertSubDirectories(sParentDir, sResultDir, nameSuffix, bundle, null);
+		try {
+			bundle.finish();
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+
+	/** Renders a preview PNG (lead II, first 10 seconds) of every file found (recursively) in the parent directory 
+	 * which ends with nameSuffix, on one render thread per processor.
+	 * 
+	 * @param sParentDir
+	 * @param sResultDir - directory for the PNG files
+	 * @param nameSuffix
+	 */
+	static void renderThumbnails(String sParentDir, String sResultDir, String nameSuffix){
+		List<File> inputs = new ArrayList<File>();
+		listFiles(new File(sParentDir), nameSuffix, inputs);
+		try {
+			int rendered = new ThumbnailRenderer(0).renderAll(inputs, new File(sResultDir));
+			System.out.println("Rendered " + rendered + " of " + inputs.size() + " thumbnails.");
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+
+	private static void listFiles(File dir, String nameSuffix, List<File> found){
+		File[] children = dir.listFiles();
+		if(children != null){
+			for (File child : children) {
+				if(child.isDirectory()){
+					listFiles(child, nameSuffix, found);
+				}else if(child.getName().endsWith(nameSuffix)){
+					found.add(child);
+				}
+			}
+		}
+	}
+
+	/** Converts (recursively) all the files found in the parent directory which end with nameSuffix.
+	 * 
+	 * @param sParentDir
+	 * @param sResultDir
+	 * @param nameSuffix
+	 * @param bundle - if not null, every output file is queued in it under its own file name.
+	 * @param catalog - if not null, inputs it lists as unchanged are skipped and every conversion is recorded in it.
+	 */
+	static void convertSubDirectories(String sParentDir, String sResultDir, String nameSuffix, ParallelZipWriter bundle, ConversionCatalog catalog){
 		int signalsRequested = 0; // zero means all.
 		String currentFile="";
 		//ECGformatConverter.fileFormat ff = ECGformatConverter.fileFormat.MUSEXML;
@@ -172,12 +266,26 @@ public class Main {
 				currentFile = sParentDir + inFiles[i]; // trim off "-"
 				File child = new File(currentFile);
 				if(child.isDirectory()){
-					convertSubDirectories(currentFile + "\\" , sResultDir, nameSuffix);
+					convertSubDirectories(currentFile + "\\" , sResultDir, nameSuffix, bundle, catalog);
 				}else{
 					if ((currentFile.endsWith(nameSuffix))) {
 						String baseFileName = child.getName();
 						
 						System.out.println ("FileName: " + baseFileName );
+						
+						try {
+							if(catalog != null && catalog.isUpToDate(child, ff.WFDB_16)){
+								System.out.println ("Unchanged, skipped: " + baseFileName );
+								if(bundle != null){
+									for (String output : catalog.getEntry(child).getOutputs()) {
+										bundle.addFile(new File(output).getName(), output);
+									}
+								}
+								continue;
+							}
+						} catch (IOException e) {
+							System.err.println("Error: " + e.getMessage());
+						}
 					
 //						ECGformatConverter conv20 = new ECGformatConverter();
 ////					ff.RAW_XY_CONST_SAMPLE
@@ -187,7 +295,25 @@ public class Main {
 						ECGformatConverter convMUSE = new ECGformatConverter();
 						//convMUSE.convert(ff.MUSEXML, ff.WFDB_16, baseFileName, signalsRequested, sParentDir, sResultDir);
 						//convMUSE.convert(ff.PHILIPS104, ff.WFDB_16, baseFileName, signalsRequested, sParentDir, sResultDir);
-						convMUSE.convert(ff.SCHILLER, ff.WFDB_16, baseFileName, signalsRequested, sParentDir, sResultDir);
+						//convMUSE.convert(ff.SCHILLER, ff.WFDB_16, baseFileName, signalsRequested, sParentDir, sResultDir);
+						// input format is detected from the file's content, see FormatDetector.
+						int rowsWritten = convMUSE.convert(ff.WFDB_16, baseFileName, signalsRequested, sParentDir, sResultDir);
+						if(catalog != null){
+							// a failed write may still return 0 rows, only a conversion with output files counts.
+							String[] outputs = convMUSE.getOutputFilenames();
+							boolean converted = rowsWritten > 0 && outputs != null && outputs.length > 0;
+							try {
+								catalog.record(child, convMUSE.getInputFileFormat(), ff.WFDB_16, 
+										converted ? ConversionCatalog.Status.CONVERTED : ConversionCatalog.Status.FAILED, outputs);
+							} catch (IOException e) {
+								System.err.println("Error: " + e.getMessage());
+							}
+						}
+						if(bundle != null && convMUSE.getOutputFilenames() != null){
+							for (String output : convMUSE.getOutputFilenames()) {
+								bundle.addFile(new File(output).getName(), output);
+							}
+						}
 						convMUSE = null;
 					}
 				}
@@ -1,21 +1,34 @@
 package edu.jhu.icm.ecgFormatConverter;
 import java.io.File;
-import java.util.Iterator;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
+import edu.jhu.icm.ecgFormatConverter.arrow.ArrowWriter;
+import edu.jhu.icm.ecgFormatConverter.cache.ConversionCache;
+import edu.jhu.icm.ecgFormatConverter.csv.CSVWriter;
+import edu.jhu.icm.ecgFormatConverter.ecgz.ECGZReader;
+import edu.jhu.icm.ecgFormatConverter.ecgz.ECGZWriter;
 import edu.jhu.icm.ecgFormatConverter.hl7.HL7Reader;
 import edu.jhu.icm.ecgFormatConverter.hl7.HL7_wrapper;
 import edu.jhu.icm.ecgFormatConverter.muse.GEMuse_wrapper;
 import edu.jhu.icm.ecgFormatConverter.muse.MuseXML_wrapper;
 import edu.jhu.icm.ecgFormatConverter.philips.Philips103_wrapper;
 import edu.jhu.icm.ecgFormatConverter.philips.Philips104_wrapper;
+import edu.jhu.icm.ecgFormatConverter.pyramid.WaveformPyramid;
 import edu.jhu.icm.ecgFormatConverter.rdt.RDTParser;
 import edu.jhu.icm.ecgFormatConverter.schiller.SCHILLER_wrapper;
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+import edu.jhu.icm.ecgFormatConverter.store.HeapSampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStores;
 import edu.jhu.icm.ecgFormatConverter.wfdb.WFDBApplicationWrapper;
+import edu.jhu.icm.ecgFormatConverter.wfdb.WFDBHeaderCache;
 import edu.jhu.icm.ecgFormatConverter.xy.XYWrapper;
 import edu.jhu.icm.enums.LeadEnum;
+import edu.jhu.icm.parser.LeadDataset;
 import edu.jhu.icm.parser.Writer;
 
 /** Loads ECG data from one of several file formats and 
@@ -33,10 +46,20 @@ public class ECGformatConverter {
 	private float samplingRate=0; // Hz read by LoadXXX methods
 	private String leadNames;
 	private fileFormat inputFileFormat = null;
+	private String[] outputFilenames = null; // files produced by the last Write method
+	private boolean gzipOutput = false; // applies to CSV and TSV output
+	private boolean physicalUnits = false; // CSV and TSV leads in mV instead of ADC units
+	private ConversionCache outputCache = null; // consulted by convert() when set
+	private LeadSelection leadSelection = null; // leads the Load methods read, null for all
+	private TimeWindow timeWindow = null; // strip the Load methods read, null for the whole recording
+	private boolean writePyramid = false; // convert() also writes a WaveformPyramid sidecar
+	private long offHeapThreshold = SampleStores.NEVER; // samples above which loaders fill a memory mapped store
+	private int segmentThreshold = SampleStores.NEVER_SEGMENTED; // channel length above which loaders fill a segmented store
+	private SampleStore sampleStore = null; // set instead of data by loaders which fill a SampleStore
 	
 	private int numberOfPoints;
 	
-	static public enum fileFormat  {RDT, HL7, WFDB, WFDB_16, WFDB_61, WFDB_212, GEMUSE, RAW_XY_CONST_SAMPLE, RAW_XY_VAR_SAMPLE, PHILIPS103, PHILIPS104, SCHILLER, MUSEXML};
+	static public enum fileFormat  {RDT, HL7, WFDB, WFDB_16, WFDB_61, WFDB_212, GEMUSE, RAW_XY_CONST_SAMPLE, RAW_XY_VAR_SAMPLE, PHILIPS103, PHILIPS104, SCHILLER, MUSEXML, CSV, TSV, ECGZ, ARROW, ARROW_STREAM};
 	private static final boolean verbose = false;
 	private String sep = File.separator;
 
@@ -45,11 +68,19 @@ public class ECGformatConverter {
 	private String museXMLData;
 	
 /*********** Get result properties ********************************/
-	/** Returns the ECG data array which was produced by the last Load method */
+	/** Returns the ECG data array which was produced by the last Load method, null if it was loaded into a memory mapped or segmented store (see getSampleStore()) */
 	public int[][] getData() {
 		return this.data;
 	}
 
+	/** Returns the samples produced by the last Load method, memory mapped, segmented or wrapping the data array (see setOffHeapThreshold() and setSegmentThreshold()) */
+	public SampleStore getSampleStore() {
+		if (sampleStore == null && data != null) {
+			sampleStore = new HeapSampleStore(data, samplesPerChannel);
+		}
+		return sampleStore;
+	}
+
 	/** Returns the number of channels in the ECG data which was produced by the last Load method */
 	public int getChannelCount() {
 		return this.channels;
@@ -64,6 +95,16 @@ public class ECGformatConverter {
 	public int getAduGain() {
 		return this.aduGain;
 	}
+
+	/** Returns the data produced by the last Load method as a plottable dataset, without copying it (see DrawEcg.combinedPlot(LeadDataset)). */
+	public LeadDataset getLeadDataset() {
+		if (data == null) {
+			log.error("The samples are not in a data array (see setOffHeapThreshold()), read a TimeWindow of them to plot.");
+			return null;
+		}
+		String[] names = (leadNames == null) ? null : leadNames.split(",");
+		return new LeadDataset(data, samplingRate, aduGain, names).getWindow(0, samplesPerChannel);
+	}
 /*********** Main method ********************************/
 		
 	/**
@@ -82,11 +123,35 @@ public class ECGformatConverter {
 	 * @return - number of rows written, -1 on error.
 	 */
 	public int convert(fileFormat inputFormat, fileFormat outputFormat, String fileName, int signalsRequested, String inputPath, String outputPath) {
+		// the buffers loaders and writers borrow go back to this thread's arena for the next file
+		BufferArena arena = BufferArena.current();
+		arena.open();
+		try {
+			return convertRecord(inputFormat, outputFormat, fileName, signalsRequested, inputPath, outputPath);
+		} finally {
+			releaseSampleStore(); // a segmented store's chunks are among them, and a mapped store's temp file is not needed any more
+			arena.close();
+		}
+	}
+
+	private int convertRecord(fileFormat inputFormat, fileFormat outputFormat, String fileName, int signalsRequested, String inputPath, String outputPath) {
 		
 		inputFileFormat = inputFormat;
 		
 		String recordName = fileName.substring(0, fileName.lastIndexOf(".")); // trim off the extension
 		
+		String cacheKey = null;
+		if(outputCache != null){
+			cacheKey = cacheKey(inputFormat, outputFormat, fileName, signalsRequested, inputPath, recordName);
+			ConversionCache.Result cached = (cacheKey == null) ? null : outputCache.get(cacheKey, outputPath);
+			if(cached != null){
+				releaseRecord(); // nothing is loaded on a hit, the previous record must not show through the getters
+				outputFilenames = cached.getOutputFilenames();
+				log.info("rowsWritten = " + cached.getRowsWritten() + " outputFormat = " + outputFormat.toString() + " (cached)");
+				return cached.getRowsWritten();
+			}
+		}
+		
 		boolean ret = read(inputFormat, fileName, signalsRequested, inputPath, recordName);
 		
 		if(!ret){
@@ -97,13 +162,185 @@ public class ECGformatConverter {
 		int rowsWritten = write(outputFormat, outputPath, recordName);
 		log.info("rowsWritten = " + rowsWritten + " outputFormat = " + outputFormat.toString());
 		
+		if(writePyramid && rowsWritten >= 0 && outputFilenames != null){
+			writePyramid(outputPath, recordName);
+		}
+		
+		if(cacheKey != null && rowsWritten >= 0 && outputFilenames != null){
+			outputCache.put(cacheKey, outputFilenames, rowsWritten);
+		}
+		
 		return rowsWritten;
 	}
 
+	/** Writes the min/max/mean pyramid of the loaded data as outputPath/recordName.pyr and adds it to the output files. */
+	private void writePyramid(String outputPath, String recordName) {
+		File pyramidFile = new File(outputPath + recordName + WaveformPyramid.EXTENSION);
+		try {
+			WaveformPyramid.build(getSampleStore(), samplingRate).write(pyramidFile);
+			String[] outputs = new String[outputFilenames.length + 1];
+			System.arraycopy(outputFilenames, 0, outputs, 0, outputFilenames.length);
+			outputs[outputFilenames.length] = pyramidFile.getPath();
+			outputFilenames = outputs;
+		} catch (IOException e) {
+			log.error("Could not write " + pyramidFile + ": " + e.getMessage());
+		}
+	}
+
+	/** Key of a conversion in the output cache: the content of every input file, 
+	 * the output format and the settings the output depends on. 
+	 * 
+	 * @return - the key, null if the inputs could not be read.
+	 */
+	private String cacheKey(fileFormat inputFormat, fileFormat outputFormat, String fileName, int signalsRequested, String inputPath, String recordName) {
+		List<File> inputs = new ArrayList<File>();
+		try {
+			switch(inputFormat) {
+				case WFDB:
+				case WFDB_16:
+				case WFDB_61:
+				case WFDB_212: // the header plus each signal file it names
+					inputs = WFDBHeaderCache.getRecordFiles(new File(inputPath + recordName + ".hea"));
+					if(inputs == null){
+						return null;
+					}
+					break;
+				default:
+					inputs.add(new File(inputPath + fileName));
+					break;
+			}
+			return ConversionCache.key(inputs, outputFormat, cacheOptions(inputFormat, signalsRequested, recordName));
+		} catch (IOException e) {
+			log.warn("Output cache not used for " + fileName + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/** Everything besides the input content that changes what write() produces. */
+	private String cacheOptions(fileFormat inputFormat, int signalsRequested, String recordName) {
+		return "input=" + inputFormat + ";record=" + recordName + ";signals=" + signalsRequested 
+				+ ";gzip=" + gzipOutput + ";physical=" + physicalUnits + ";leads=" + leadSelection
+				+ ";window=" + timeWindow + ";pyramid=" + writePyramid;
+	}
+
+	/**
+	 * Converts an electrocardiogram (ECG) file to another format, detecting the input format from the file's content.
+	 * 
+	 * @param outputFormat - format of the output file(s)
+	 * @param fileName - input and output filename, minus the paths and extensions
+	 * @param signalsRequested - Number of signals to read, starting with 1st signal. Only used when reading WFDB format.   
+	 * @param inputPath - location of the input file.
+	 * @param outputPath - location to put the output file(s)
+	 * 
+	 * @return - number of rows written, -1 on error or if the input format was not recognized.
+	 */
+	public int convert(fileFormat outputFormat, String fileName, int signalsRequested, String inputPath, String outputPath) {
+		fileFormat inputFormat = detectFormat(inputPath + fileName);
+		if(inputFormat == null){
+			return -1;
+		}
+		return convert(inputFormat, outputFormat, fileName, signalsRequested, inputPath, outputPath);
+	}
+
+	/** Reads a file into the converter's work space, detecting its format from the content (see FormatDetector).
+	 * 
+	 * @return - success/fail, fail if the format was not recognized.
+	 */
+	public boolean read(String fileName, int signalsRequested, String inputPath, String recordName) {
+		fileFormat inputFormat = detectFormat(inputPath + fileName);
+		if(inputFormat == null){
+			return false;
+		}
+		inputFileFormat = inputFormat;
+		return read(inputFormat, fileName, signalsRequested, inputPath, recordName);
+	}
+
+	private fileFormat detectFormat(String filePath) {
+		try {
+			FormatDetector.Detection detection = FormatDetector.detect(filePath);
+			if (verbose) log.info("Detected format: " + detection + " for " + filePath);
+			if(!detection.isRecognized()){
+				log.error("Input format not recognized: " + filePath);
+			}
+			return detection.getFormat();
+		} catch (IOException e) {
+			log.error("Format detection failed: " + filePath + " " + e.getMessage());
+			return null;
+		}
+	}
+
+	/** Reads the channel count, sampling rate, length and lead names of a file without loading its samples.
+	 * The converter's work space is not changed.
+	 * 
+	 * @param inputFormat - format of the input file
+	 * @param filePath - full path of the input file, for WFDB the .hea file or the record name
+	 * @return - the metadata, null on error or if the format can not be read.
+	 */
+	public RecordMetadata probe(fileFormat inputFormat, String filePath) {
+		WrapperLoader loader;
+		switch(inputFormat) {
+			case RDT:
+				loader = new RDTParser();
+				break;
+			case HL7:
+				loader = new HL7_wrapper();
+				break;
+			case WFDB:
+			case WFDB_16:
+			case WFDB_61:
+			case WFDB_212:
+				loader = new WFDBApplicationWrapper();
+				break;
+			case GEMUSE:
+				loader = new GEMuse_wrapper();
+				break;
+			case RAW_XY_CONST_SAMPLE:
+			case RAW_XY_VAR_SAMPLE:
+				loader = new XYWrapper();
+				break;
+			case PHILIPS103:
+				loader = new Philips103_wrapper();
+				break;
+			case PHILIPS104:
+				loader = new Philips104_wrapper();
+				break;
+			case SCHILLER:
+				loader = new SCHILLER_wrapper();
+				break;
+			case MUSEXML:
+				loader = new MuseXML_wrapper();
+				break;
+			case ECGZ:
+				loader = new ECGZReader();
+				break;
+			default:
+				return null; // no loader for this format.
+		}
+		return loader.probe(filePath);
+	}
+
+	/** Probes a file, detecting its format from the content first (see FormatDetector).
+	 * 
+	 * @return - the metadata, null on error or if the format was not recognized.
+	 */
+	public RecordMetadata probe(String filePath) {
+		fileFormat inputFormat = detectFormat(filePath);
+		if(inputFormat == null){
+			return null;
+		}
+		return probe(inputFormat, filePath);
+	}
+
 	public  int write(fileFormat outputFormat, String outputPath, String recordName) {
 		int rowsWritten;
+		outputFilenames = null;
 		// 	write functions populate and return this.rowsWritten
 		if (verbose) log.info("Write format:" + outputFormat.toString());
+		if (data == null && sampleStore != null && (outputFormat == fileFormat.HL7 || outputFormat == fileFormat.GEMUSE)) {
+			log.error(outputFormat + " output needs the data array, the samples are in a " + sampleStore.getClass().getSimpleName() 
+					+ ". Write CSV, TSV, WFDB, ECGZ or Arrow, or raise the off-heap and segment thresholds.");
+			return -1;
+		}
 		switch(outputFormat) {
 			case RDT:
 				rowsWritten = writeRDT(outputPath, recordName);
@@ -124,6 +361,21 @@ public class ECGformatConverter {
 			case GEMUSE:
 				rowsWritten = write_geMuse(outputPath, recordName);
 				break;
+			case CSV:
+				rowsWritten = writeCSV(outputPath, recordName, ',');
+				break;
+			case TSV:
+				rowsWritten = writeCSV(outputPath, recordName, '\t');
+				break;
+			case ECGZ:
+				rowsWritten = writeECGZ(outputPath, recordName);
+				break;
+			case ARROW:
+				rowsWritten = writeArrow(outputPath, recordName, false);
+				break;
+			case ARROW_STREAM:
+				rowsWritten = writeArrow(outputPath, recordName, true);
+				break;
 			default:
 				rowsWritten=-1; // write format not specified.
 				break;		
@@ -135,6 +387,7 @@ public class ECGformatConverter {
 			int signalsRequested, String inputPath, String recordName) {
 		boolean ret;
 		if (verbose) log.info("Load format:" + inputFormat.toString());
+		releaseRecord(); // not every loader sets every property, e.g. lead names, none may be left from the previous record
 		switch(inputFormat) {
 			case RDT:
 				ret = loadRDT(inputPath + fileName);
@@ -171,6 +424,9 @@ public class ECGformatConverter {
 			case SCHILLER:
 				ret = loadSCHILLER(inputPath + fileName);
 				break;
+			case ECGZ:
+				ret = loadECGZ(inputPath + fileName);
+				break;
 			default:
 				ret = false; // load format not specified.
 				break;		
@@ -185,6 +441,8 @@ public class ECGformatConverter {
 		boolean ret = false;
 		File geMuseFile = new File(filePath);
 		XYWrapper geMuseWrap = new XYWrapper(geMuseFile);
+		geMuseWrap.setLeadSelection(leadSelection);
+		geMuseWrap.setTimeWindow(timeWindow);
 		if(geMuseWrap.parse(variableSample)) {
 			samplingRate = (float)geMuseWrap.getSamplingRate();
 			samplesPerChannel = geMuseWrap.getSamplesPerChannel();
@@ -208,11 +466,15 @@ public class ECGformatConverter {
 		
 		File rdtFile = new File(fileName);
 		RDTParser rdtPar = new RDTParser(rdtFile);
+		rdtPar.setLeadSelection(leadSelection);
+		rdtPar.setTimeWindow(timeWindow);
+		rdtPar.setStoreThresholds(offHeapThreshold, segmentThreshold);
 		if(rdtPar.parse()) {
 			samplingRate = (float)rdtPar.getSamplingRate();
 			samplesPerChannel = rdtPar.getCounts();
 			channels = rdtPar.getChannels();
 			data = rdtPar.getData();
+			sampleStore = rdtPar.getSampleStore();
 			aduGain = rdtPar.getAduGain();
 			numberOfPoints = rdtPar.getNumberOfPoints();
 			ret = true;
@@ -234,6 +496,8 @@ public class ECGformatConverter {
 			//HL7Reader hl7 =  new HL7Reader(hl7FileName);
 			
 			HL7_wrapper hl7 = new HL7_wrapper(hl7FileName);
+			hl7.setLeadSelection(leadSelection);
+			hl7.setTimeWindow(timeWindow);
 			
 			if(hl7.parse()) {
 				samplingRate = (float)hl7.getSamplingRate();
@@ -281,6 +545,9 @@ public class ECGformatConverter {
 	public boolean loadWFDB(String filePath, String recordName, int signalsRequested) {
 		WFDBApplicationWrapper wfdbWrap = new WFDBApplicationWrapper();
 		wfdbWrap.setFilePath(filePath);
+		wfdbWrap.setLeadSelection(leadSelection);
+		wfdbWrap.setTimeWindow(timeWindow);
+		wfdbWrap.setStoreThresholds(offHeapThreshold, segmentThreshold);
 		
 		samplesPerChannel = wfdbWrap.WFDBtoArray(recordName, signalsRequested);
 
@@ -288,11 +555,15 @@ public class ECGformatConverter {
 			samplingRate = wfdbWrap.getSamplingRate();
 			channels = wfdbWrap.getChannels();
 			data = wfdbWrap.getData();
+			sampleStore = wfdbWrap.getSampleStore();
 			aduGain = wfdbWrap.getAduGain();
 			numberOfPoints = wfdbWrap.getNumberOfPoints();
 			this.setLeadNames(wfdbWrap.getLeadNames());
 			return true;
 		}else { 
+			if (wfdbWrap.getSampleStore() != null) {
+				wfdbWrap.getSampleStore().close();
+			}
 			log.error("samplesPerChannel == " + samplesPerChannel);
 			return false;
 		}
@@ -306,24 +577,42 @@ public class ECGformatConverter {
 	public boolean load_geMuse(String filePath) {
 		File geMuseFile = new File(filePath);
 		GEMuse_wrapper geMuseWrap = new GEMuse_wrapper(geMuseFile);
+		geMuseWrap.setLeadSelection(leadSelection);
+		geMuseWrap.setTimeWindow(timeWindow);
 		if(geMuseWrap.parse()) {
-			samplingRate = (float)geMuseWrap.getSamplingRate();
-			samplesPerChannel = geMuseWrap.getSamplesPerChannel();
-			channels = geMuseWrap.getChannels();
-			data = geMuseWrap.getData();
-			aduGain = geMuseWrap.getAduGain();
-			numberOfPoints = geMuseWrap.getNumberOfPoints();
-			return true;
+			return load_geMuse(geMuseWrap);
 		}
 
 		return false;
 	}
+
+	/** Copies the channels of an already populated geMuse wrapper into the converter's work space.
+	 * Used when the rhythm section was parsed in memory (see GEMuse_wrapper.parseHeaderLine()) instead of read from a file.
+	 * 
+	 * @param geMuseWrap - wrapper holding the parsed rhythm samples
+	 * @return - success/fail 
+	 */ 
+	public boolean load_geMuse(GEMuse_wrapper geMuseWrap) {
+		if(geMuseWrap.getData() == null) {
+			return false;
+		}
+		inputFileFormat = fileFormat.GEMUSE;
+		samplingRate = (float)geMuseWrap.getSamplingRate();
+		samplesPerChannel = geMuseWrap.getSamplesPerChannel();
+		channels = geMuseWrap.getChannels();
+		data = geMuseWrap.getData();
+		aduGain = geMuseWrap.getAduGain();
+		numberOfPoints = geMuseWrap.getNumberOfPoints();
+		return true;
+	}
 	
 	private boolean loadPhilips103(String filePath) {
 		// Put in calls to the Sierra ECG Library here.  Then call the Philips103_wrapper
 		try {
 			Philips103_wrapper philipsWrap = new Philips103_wrapper();
 			philipsWrap.init(filePath);
+			philipsWrap.setLeadSelection(leadSelection);
+			philipsWrap.setTimeWindow(timeWindow);
 			
 			if(philipsWrap.parse()) {
 				samplingRate = philipsWrap.getSamplingRate();
@@ -347,6 +636,8 @@ public class ECGformatConverter {
 	
 	private boolean loadMuseXML(String filePath) {
 		MuseXML_wrapper museXMLWrap = new MuseXML_wrapper();
+		museXMLWrap.setLeadSelection(leadSelection);
+		museXMLWrap.setTimeWindow(timeWindow);
 		
 		if(museXMLWrap.parse(filePath)) {
 			samplingRate = museXMLWrap.getSamplingRate();
@@ -368,6 +659,8 @@ public class ECGformatConverter {
 		try {
 			Philips104_wrapper philipsWrap = new Philips104_wrapper();
 			philipsWrap.init(filePath);
+			philipsWrap.setLeadSelection(leadSelection);
+			philipsWrap.setTimeWindow(timeWindow);
 			
 			if(philipsWrap.parse()) {
 				samplingRate = philipsWrap.getSamplingRate();
@@ -394,6 +687,8 @@ public class ECGformatConverter {
 		try {
 			SCHILLER_wrapper schillerWrap = new SCHILLER_wrapper();
 			schillerWrap.init(filePath);
+			schillerWrap.setLeadSelection(leadSelection);
+			schillerWrap.setTimeWindow(timeWindow);
 			
 			if(schillerWrap.parse()) {
 				samplingRate = schillerWrap.getSamplingRate();
@@ -414,6 +709,28 @@ public class ECGformatConverter {
 		return false;
 	}
 
+	/** Loads the named ECGZ file into the converter's work space, decoding only the selected leads and time window.
+	 * 
+	 * @param filePath - path/name.ext of the ECGZ file to load
+	 * @return - success/fail 
+	 */
+	public boolean loadECGZ(String filePath) {
+		ECGZReader reader = new ECGZReader(new File(filePath));
+		reader.setLeadSelection(leadSelection);
+		reader.setTimeWindow(timeWindow);
+		if(reader.parse()) {
+			samplingRate = reader.getSamplingRate();
+			samplesPerChannel = reader.getSamplesPerChannel();
+			channels = reader.getChannels();
+			data = reader.getData();
+			aduGain = reader.getAduGain();
+			numberOfPoints = reader.getNumberOfPoints();
+			this.setLeadNames(reader.getLeadNames());
+			return true;
+		}
+		return false;
+	}
+
 
 /*********** Writing (output) methods **********************************/
 	
@@ -427,6 +744,7 @@ public class ECGformatConverter {
 		String fileName = recordName + ".rdt";
 		File rdtFile = new File(filePath + sep + fileName);
 		RDTParser rdtPar = new RDTParser(rdtFile);
+		outputFilenames = new String[]{rdtFile.getPath()};
 //		rdtPar.setChannels(channels);
 //		rdtPar.setSamplesPerChannel(samplesPerChannel);
 //		rdtPar.setSamplingRate(samplingRate);
@@ -444,6 +762,7 @@ public class ECGformatConverter {
 	 * */
 	public int writeHL7(String filePath, String fileName) {
 		Writer.writeHL7(filePath + fileName, data, samplingRate);
+		outputFilenames = new String[]{filePath + fileName};
 		
 		return samplesPerChannel;
 	}
@@ -466,8 +785,9 @@ public class ECGformatConverter {
 		wrap.gain = aduGain;
 		
 		try {
-			wrap.setData(data);
+			wrap.setSampleStore(getSampleStore());
 			rowsWritten = wrap.arrayToWFDB();
+			outputFilenames = wrap.getOutputFilenames();
 		} catch (Exception e) {
 			e.printStackTrace();
 			log.error(e.getMessage());
@@ -490,10 +810,164 @@ public class ECGformatConverter {
 		geMuseWrap.setSamplesPerChannel(samplesPerChannel);
 		geMuseWrap.setSamplingRate((int) samplingRate);
 		geMuseWrap.setData(data);		
+		outputFilenames = new String[]{geMuseFile.getPath()};
 		
 		return geMuseWrap.write_geMuse();
 	}
 
+	/**
+	 * writes the data array out as delimited text, a time column (seconds) followed by one column per lead.
+	 * @param filePath - output directory, including the trailing separator
+	 * @param recordName - Used as the file name, ".csv" or ".tsv" (plus ".gz") will be added
+	 * @param delimiter - ',' for CSV or '\t' for TSV
+	 * @return - rowsWritten, -1 on error.
+	 */
+	public int writeCSV(String filePath, String recordName, char delimiter) {
+		String fileName = recordName + (delimiter == '\t' ? ".tsv" : ".csv") + (gzipOutput ? ".gz" : "");
+		File csvFile = new File(filePath + fileName);
+		CSVWriter csvWriter = new CSVWriter(csvFile, delimiter);
+		csvWriter.setChannels(channels);
+		csvWriter.setSamplesPerChannel(samplesPerChannel);
+		csvWriter.setSamplingRate(samplingRate);
+		csvWriter.setSampleStore(getSampleStore());
+		csvWriter.setAduGain(aduGain);
+		csvWriter.setPhysicalUnits(physicalUnits);
+		csvWriter.setGzipOutput(gzipOutput);
+		if (leadNames != null) {
+			csvWriter.setLeadNames(leadNames.split(","));
+		}
+		outputFilenames = new String[]{csvFile.getPath()};
+
+		return csvWriter.write();
+	}
+
+	/**
+	 * writes the data array out as a lossless compressed ECGZ archive (see ECGZWriter).
+	 * @param filePath - output directory, including the trailing separator
+	 * @param recordName - Used as the file name, ".ecgz" will be added
+	 * @return - rowsWritten, -1 on error.
+	 */
+	public int writeECGZ(String filePath, String recordName) {
+		File ecgzFile = new File(filePath + recordName + ECGZWriter.EXTENSION);
+		ECGZWriter writer = new ECGZWriter(ecgzFile);
+		writer.setChannels(channels);
+		writer.setSamplesPerChannel(samplesPerChannel);
+		writer.setSamplingRate(samplingRate);
+		writer.setSampleStore(getSampleStore());
+		writer.setAduGain(aduGain);
+		if (leadNames != null) {
+			writer.setLeadNames(leadNames.split(","));
+		}
+		outputFilenames = new String[]{ecgzFile.getPath()};
+
+		return writer.write();
+	}
+
+	/**
+	 * writes the data array out in the Apache Arrow IPC format, one int16 or int32 column per lead (see ArrowWriter).
+	 * @param filePath - output directory, including the trailing separator
+	 * @param recordName - Used as the file name, ".arrow" or ".arrows" will be added
+	 * @param stream - true for the IPC stream format, false for the IPC file format
+	 * @return - rowsWritten, -1 on error.
+	 */
+	public int writeArrow(String filePath, String recordName, boolean stream) {
+		File arrowFile = new File(filePath + recordName + (stream ? ArrowWriter.STREAM_EXTENSION : ArrowWriter.EXTENSION));
+		ArrowWriter writer = new ArrowWriter(arrowFile, stream);
+		writer.setChannels(channels);
+		writer.setSamplesPerChannel(samplesPerChannel);
+		writer.setSamplingRate(samplingRate);
+		writer.setSampleStore(getSampleStore());
+		writer.setAduGain(aduGain);
+		if (leadNames != null) {
+			writer.setLeadNames(leadNames.split(","));
+		}
+		outputFilenames = new String[]{arrowFile.getPath()};
+
+		return writer.write();
+	}
+
+	/** Restricts the Load methods (and so convert()) to the selected leads, by name or channel index; null reads all of them.
+	 * Each loader skips the unselected leads as early as its format allows, see WrapperLoader.setLeadSelection(). */
+	public void setLeadSelection(LeadSelection leadSelection) {
+		this.leadSelection = leadSelection;
+	}
+
+	/** Restricts the Load methods (and so convert()) to a strip of the recording, e.g. new TimeWindow(3600, 10); null reads all of it.
+	 * Fixed frame formats (RDT, WFDB) seek to the strip, so its cost does not depend on the length of the recording. */
+	public void setTimeWindow(TimeWindow timeWindow) {
+		this.timeWindow = timeWindow;
+	}
+
+	/** Sets the recording size, in samples over all channels, above which the Load methods keep the samples in a
+	 * memory mapped temp file instead of the data array, so the heap does not grow with the length of the recording.
+	 * Then getData() returns null, getSampleStore() the samples, and only CSV, TSV, WFDB, ECGZ and Arrow can be written.
+	 * convert() releases the store when it returns; to use getSampleStore() afterwards, call read() and write() instead.
+	 * Currently RDT and WFDB input is loaded off the heap; the other formats always fill the data array.
+	 *
+	 * @param offHeapThreshold - e.g. 50000000 (200 MB of samples), SampleStores.NEVER (the default) to always use the heap
+	 */
+	public void setOffHeapThreshold(long offHeapThreshold) {
+		this.offHeapThreshold = offHeapThreshold;
+	}
+
+	/** Sets the channel length, in samples, above which the Load methods keep each channel in a SegmentedIntArray
+	 * (chunks of 64 KB) instead of a single int[], so long records on the heap need no large contiguous allocations.
+	 * As for setOffHeapThreshold(), getData() then returns null; applies to RDT and WFDB input.
+	 * The chunks come from the thread's BufferArena, which convert() takes them back into when it returns, after releasing
+	 * the store; to use getSampleStore() afterwards, call read() and write() instead of convert().
+	 *
+	 * @param segmentThreshold - e.g. 100000, SampleStores.NEVER_SEGMENTED (the default) for plain arrays
+	 */
+	public void setSegmentThreshold(int segmentThreshold) {
+		this.segmentThreshold = segmentThreshold;
+	}
+
+	/** Releases the samples of the last Load method; a memory mapped store's temp file is deleted. */
+	public void releaseSampleStore() {
+		if (sampleStore != null) {
+			sampleStore.close();
+			sampleStore = null;
+		}
+	}
+
+	/** Forgets everything the last Load method produced: the samples (see releaseSampleStore()), lead names, 
+	 * channel and sample counts, sampling rate, gain and the parsed XML documents. The settings (lead selection, time window, thresholds ...) are kept. */
+	public void releaseRecord() {
+		releaseSampleStore();
+		data = null;
+		leadNames = null;
+		channels = 0;
+		samplesPerChannel = 0;
+		samplingRate = 0;
+		aduGain = 200;
+		numberOfPoints = 0;
+		philipsRestingecgdata = null;
+		comXiriuzSemaXmlSchillerEDISchillerEDI = null;
+		museXMLData = null;
+	}
+
+	/** Sets whether convert() also writes a WaveformPyramid of the record (recordName.pyr) next to its outputs,
+	 * for viewers that draw zoomed out views of long recordings. */
+	public void setWritePyramid(boolean writePyramid) {
+		this.writePyramid = writePyramid;
+	}
+
+	/** Sets the cache convert() consults before reading an input and fills after writing its outputs, null for none.
+	 * On a cache hit only the output files and getOutputFilenames() are produced, nothing is loaded (see releaseRecord()). */
+	public void setOutputCache(ConversionCache outputCache) {
+		this.outputCache = outputCache;
+	}
+
+	/** Sets whether CSV and TSV output is gzipped as it is written (adds ".gz" to the file name) */
+	public void setGzipOutput(boolean gzipOutput) {
+		this.gzipOutput = gzipOutput;
+	}
+
+	/** Sets whether CSV and TSV output is written in milliVolts (using the ADU gain) instead of ADC units */
+	public void setPhysicalUnits(boolean physicalUnits) {
+		this.physicalUnits = physicalUnits;
+	}
+
 	public Object getPhilipsRestingecgdata() {
 		return philipsRestingecgdata;
 	}
@@ -506,6 +980,11 @@ public class ECGformatConverter {
 		return museXMLData;
 	}
 
+	/** Returns the full paths of the files produced by the last Write method, or null if nothing was written. */
+	public String[] getOutputFilenames() {
+		return outputFilenames;
+	}
+
 	public int getNumberOfPoints() {
 		return numberOfPoints;
 	}
@@ -519,19 +998,15 @@ public class ECGformatConverter {
 		
 		if(leadNames != null){
 			boolean leadNamesOK = true;
-			String lName = null;
-			try{
-				for (Iterator<String> iterator = leadNames.iterator(); iterator.hasNext();) {
-					lName = iterator.next();
-					if(LeadEnum.valueOf(lName) == null){
-						leadNamesOK = false;
-						break;
-					}
+			List<String> canonicalNames = new ArrayList<String>(leadNames.size());
+			for (String lName : leadNames) {
+				LeadEnum lead = LeadEnum.fromAlias(lName);
+				if(lead == null){
+					log.error("Lead not found: " + lName);
+					leadNamesOK = false;
+					break;
 				}
-			}catch (Exception e){
-				//System.err.println("Lead not found: " + lName);
-				log.error("Lead not found: " + lName);
-				leadNamesOK = false;
+				canonicalNames.add(lead.name());
 			}
 			
 			if(!leadNamesOK){
@@ -552,7 +1027,7 @@ public class ECGformatConverter {
 				log.info("Setting leadNamesOut based on ChannelCount of " + this.getChannelCount() + " to: '" + leadNamesOut + "'");
 			}else{
 				StringBuilder sb = new StringBuilder();
-				for (String l : leadNames) {
+				for (String l : canonicalNames) {
 					sb.append(l).append(',');
 				}
 				sb.deleteCharAt(sb.length()-1);
@@ -567,5 +1042,10 @@ public class ECGformatConverter {
 		return leadNames;
 	}
 
+	/** Returns the format of the last input read, e.g. the one chosen by format detection. */
+	public fileFormat getInputFileFormat() {
+		return inputFileFormat;
+	}
+
 }
 
@@ -0,0 +1,345 @@
+package edu.jhu.icm.ecgFormatConverter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+
+/** Guesses the format of an ECG file from its first few KB, without running any of the parsers.
+ *
+ * Signatures used:
+ * XML root element (RestingECG, restingecgdata + documentversion, SchillerEDI, AnnotatedECG),
+ * the "Rhythm signal:" line of GE MUSE text, the record/signal lines of a WFDB .hea file
+ * (a .dat file is looked up through its .hea), comma separated time/value rows for raw XY,
+ * the "ECGZ" magic number of the ECGZ archive format, and a plausible, aligned RDT header for anything else binary.
+ */
+public class FormatDetector {
+
+	/** Maximum number of bytes read from any file. */
+	public static final int SNIFF_BYTES = 8192;
+
+	private static final Pattern XML_ROOT = Pattern.compile("<([A-Za-z_][\\w.\\-]*:)?([A-Za-z_][\\w.\\-]*)[\\s/>]");
+	private static final Pattern PHILIPS_VERSION = Pattern.compile("<documentversion>\\s*([\\d.]+)");
+	private static final Pattern WFDB_RECORD_LINE = Pattern.compile("^[\\w\\-.~]+(/\\d+)?\\s+\\d+(\\s+[\\d.eE+\\-/()]+)?(\\s+\\d+)?(\\s.*)?$");
+	private static final Pattern XY_ROW = Pattern.compile("^\\s*-?[\\d.]+([eE][+\\-]?\\d+)?(\\s*,\\s*-?[\\d.]+([eE][+\\-]?\\d+)?)+\\s*,?\\s*$");
+
+	/** A detected format and how sure the detector is of it, 0 (no idea) to 1 (certain). */
+	public static class Detection {
+		private final fileFormat format;
+		private final float confidence;
+
+		public Detection(fileFormat format, float confidence) {
+			this.format = format;
+			this.confidence = confidence;
+		}
+
+		/** @return - the detected format, or null if the content was not recognized. */
+		public fileFormat getFormat() {
+			return format;
+		}
+
+		public float getConfidence() {
+			return confidence;
+		}
+
+		public boolean isRecognized() {
+			return format != null;
+		}
+
+		@Override
+		public String toString() {
+			return format + " (" + confidence + ")";
+		}
+	}
+
+	private static final Detection UNKNOWN = new Detection(null, 0);
+
+	private FormatDetector() {
+	}
+
+	/** Detects the format of the file at filePath.
+	 *
+	 * @param filePath - full path of the input file
+	 * @return - the detection, with a null format if the content was not recognized.
+	 */
+	public static Detection detect(String filePath) throws IOException {
+		return detect(new File(filePath));
+	}
+
+	/** Detects the format of the given file by reading at most SNIFF_BYTES of it.
+	 *
+	 * @param file - input file
+	 * @return - the detection, with a null format if the content was not recognized.
+	 */
+	public static Detection detect(File file) throws IOException {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".dat")) {
+			// WFDB signal files have no signature of their own, the header says what they are.
+			File header = new File(file.getParentFile(), file.getName().substring(0, file.getName().length() - 4) + ".hea");
+			if (header.exists()) {
+				String text = text(readHead(header));
+				Detection d = (text == null) ? UNKNOWN : detectWFDBHeader(text);
+				if (d.isRecognized()) {
+					return d;
+				}
+			}
+		}
+
+		byte[] head = readHead(file);
+		if (head.length == 0) {
+			return UNKNOWN;
+		}
+		if (head.length >= 4 && head[0] == 'E' && head[1] == 'C' && head[2] == 'G' && head[3] == 'Z') {
+			return new Detection(fileFormat.ECGZ, 0.99f);
+		}
+		boolean truncated = head.length < file.length();
+
+		String text = text(head);
+		if (text != null) {
+			String trimmed = text.trim();
+			if (trimmed.startsWith("<")) {
+				return detectXML(trimmed);
+			}
+			if (text.contains("Rhythm signal:")) {
+				return new Detection(fileFormat.GEMUSE, 0.9f);
+			}
+			Detection d = detectWFDBHeader(text);
+			if (d.isRecognized()) {
+				return d;
+			}
+			d = detectXY(text, truncated);
+			if (d.isRecognized()) {
+				return d;
+			}
+		}
+		return detectRDT(head, file.length());
+	}
+
+	private static Detection detectXML(String text) {
+		int pos = 0;
+		// skip the prolog: <?xml ... ?>, comments and the DOCTYPE.
+		while (pos < text.length()) {
+			int lt = text.indexOf('<', pos);
+			if (lt < 0 || lt + 1 >= text.length()) {
+				return UNKNOWN;
+			}
+			char next = text.charAt(lt + 1);
+			if (next == '?') {
+				pos = endOf(text, "?>", lt);
+			} else if (text.startsWith("<!--", lt)) {
+				pos = endOf(text, "-->", lt);
+			} else if (next == '!') {
+				pos = endOf(text, ">", lt);
+			} else {
+				Matcher m = XML_ROOT.matcher(text);
+				if (!m.find(lt) || m.start() != lt) {
+					return UNKNOWN;
+				}
+				return detectXMLRoot(m.group(2), text);
+			}
+			if (pos < 0) {
+				return UNKNOWN;
+			}
+		}
+		return UNKNOWN;
+	}
+
+	private static Detection detectXMLRoot(String root, String text) {
+		if (root.equals("RestingECG")) {
+			return new Detection(fileFormat.MUSEXML, 0.95f);
+		}
+		if (root.equals("AnnotatedECG")) {
+			return new Detection(fileFormat.HL7, 0.95f);
+		}
+		if (root.equalsIgnoreCase("SchillerEDI")) {
+			return new Detection(fileFormat.SCHILLER, 0.95f);
+		}
+		if (root.equals("restingecgdata")) {
+			Matcher m = PHILIPS_VERSION.matcher(text);
+			if (m.find()) {
+				if (m.group(1).startsWith("1.03")) {
+					return new Detection(fileFormat.PHILIPS103, 0.95f);
+				}
+				if (m.group(1).startsWith("1.04")) {
+					return new Detection(fileFormat.PHILIPS104, 0.95f);
+				}
+			}
+			return new Detection(fileFormat.PHILIPS104, 0.6f); // version not within the first few KB
+		}
+		return UNKNOWN;
+	}
+
+	/** A .hea file: a record line ("name[/segments] signals [freq [samples ...]]") followed by
+	 * signal lines whose second field is the storage format. */
+	private static Detection detectWFDBHeader(String text) {
+		String[] lines = text.split("\r?\n");
+		int lineCount = 0;
+		int signals = -1;
+		int format = -1;
+		for (String line : lines) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			if (lineCount == 0) {
+				if (!WFDB_RECORD_LINE.matcher(line).matches()) {
+					return UNKNOWN;
+				}
+				String[] fields = line.split("\\s+");
+				try {
+					signals = Integer.parseInt(fields[1]);
+				} catch (NumberFormatException e) {
+					return UNKNOWN;
+				}
+				if (fields[0].indexOf('/') >= 0 || signals == 0) {
+					return new Detection(fileFormat.WFDB, 0.7f); // multi-segment record, formats are in the segment headers.
+				}
+			} else {
+				String[] fields = line.split("\\s+");
+				if (fields.length < 2) {
+					return UNKNOWN;
+				}
+				try {
+					format = Integer.parseInt(fields[1].split("[x:+]")[0]);
+				} catch (NumberFormatException e) {
+					return UNKNOWN;
+				}
+				break;
+			}
+			lineCount++;
+		}
+		switch (format) {
+			case 16:
+				return new Detection(fileFormat.WFDB_16, 0.9f);
+			case 61:
+				return new Detection(fileFormat.WFDB_61, 0.9f);
+			case 212:
+				return new Detection(fileFormat.WFDB_212, 0.9f);
+			case 0: case 8: case 24: case 32: case 80: case 160: case 310: case 311: case 508: case 516: case 524:
+				return new Detection(fileFormat.WFDB, 0.8f); // other WFDB storage formats
+			case -1:
+				return signals > 0 ? new Detection(fileFormat.WFDB, 0.5f) : UNKNOWN;
+			default:
+				return UNKNOWN; // not a WFDB storage format, probably a column of numbers.
+		}
+	}
+
+	/** Rows of comma separated numbers, time (ms) first. Evenly spaced times mean a constant sample rate. */
+	private static Detection detectXY(String text, boolean truncated) {
+		String[] lines = text.split("\r?\n");
+		int rows = 0;
+		double first = 0, previous = 0, interval = -1;
+		boolean constant = true;
+		// the last line may have been cut off by the read limit.
+		int lineCount = truncated ? lines.length - 1 : lines.length;
+		for (int i = 0; i < lineCount; i++) {
+			String line = lines[i];
+			if (line.trim().length() == 0) {
+				continue;
+			}
+			if (!XY_ROW.matcher(line).matches()) {
+				return UNKNOWN;
+			}
+			double time;
+			try {
+				time = Double.parseDouble(line.substring(0, line.indexOf(',')).trim());
+			} catch (NumberFormatException e) {
+				return UNKNOWN;
+			}
+			if (rows == 0) {
+				first = time;
+			} else if (rows == 1) {
+				interval = time - first;
+			} else if (Math.abs((time - previous) - interval) > Math.abs(interval) * 0.01) {
+				constant = false;
+			}
+			previous = time;
+			rows++;
+		}
+		if (rows < 2) {
+			return UNKNOWN;
+		}
+		return new Detection(constant ? fileFormat.RAW_XY_CONST_SAMPLE : fileFormat.RAW_XY_VAR_SAMPLE, 0.7f);
+	}
+
+	/** RDT has no magic number, only a little endian (channels, sampling rate) header and interleaved 16 bit samples. */
+	private static Detection detectRDT(byte[] head, long fileLength) {
+		if (head.length < 4) {
+			return UNKNOWN;
+		}
+		int channels = (head[0] & 0xff) | (head[1] << 8);
+		int samplingRate = (head[2] & 0xff) | (head[3] << 8);
+		if (channels < 1 || channels > 64 || samplingRate < 50 || samplingRate > 20000) {
+			return UNKNOWN;
+		}
+		long body = fileLength - 4;
+		if (body <= 0 || body % (channels * 2) != 0) {
+			return UNKNOWN;
+		}
+		return new Detection(fileFormat.RDT, isText(head) ? 0.2f : 0.6f);
+	}
+
+	private static int endOf(String text, String end, int from) {
+		int i = text.indexOf(end, from);
+		return i < 0 ? -1 : i + end.length();
+	}
+
+	/** True if the bytes look like text: no NULs and few control characters. */
+	private static boolean isText(byte[] head) {
+		int control = 0;
+		for (byte b : head) {
+			if (b == 0) {
+				return false;
+			}
+			if (b > 0 && b < 32 && b != '\n' && b != '\r' && b != '\t' && b != '\f') {
+				control++;
+			}
+		}
+		return control * 20 < head.length;
+	}
+
+	/** Decodes the bytes as text, or returns null if they look binary. 
+	 * Only the ASCII parts matter for the signatures, so anything without a UTF-16 byte order mark is read as ISO-8859-1. */
+	private static String text(byte[] head) {
+		try {
+			if (head.length >= 2 && (((head[0] & 0xff) == 0xFF && (head[1] & 0xff) == 0xFE) || ((head[0] & 0xff) == 0xFE && (head[1] & 0xff) == 0xFF))) {
+				return new String(head, "UTF-16"); // e.g. MUSE XML exports
+			}
+			if (!isText(head)) {
+				return null;
+			}
+			int offset = 0;
+			if (head.length >= 3 && (head[0] & 0xff) == 0xEF && (head[1] & 0xff) == 0xBB && (head[2] & 0xff) == 0xBF) {
+				offset = 3; // UTF-8 byte order mark
+			}
+			return new String(head, offset, head.length - offset, "ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	private static byte[] readHead(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[(int) Math.min(SNIFF_BYTES, file.length())];
+			int total = 0;
+			int count;
+			while (total < buffer.length && (count = in.read(buffer, total, buffer.length - total)) != -1) {
+				total += count;
+			}
+			if (total < buffer.length) {
+				byte[] shorter = new byte[total];
+				System.arraycopy(buffer, 0, shorter, 0, total);
+				return shorter;
+			}
+			return buffer;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package edu.jhu.icm.ecgFormatConverter;
+
+import java.util.Iterator;
+import java.util.List;
+
+/** Helpers for moving decoded lead samples into the int[channel][sample] arrays used by the wrappers. */
+public class LeadArrays {
+
+	private LeadArrays() {
+	}
+
+	/** Copies a decoded lead into a new int array in one pass. This is not a System.arraycopy():
+	 * the vendor libraries decode leads into List&lt;Integer&gt; (DecodedLead) and expose no primitive array,
+	 * so every sample has to be unboxed once.
+	 * The list is walked with its iterator, which is sequential for any List and allocates no intermediate array.
+	 *
+	 * @param lead - decoded samples
+	 * @param length - length of the returned array; samples past the end of the lead are left 0.
+	 * @return - the samples as ints
+	 */
+	public static int[] toIntArray(List<Integer> lead, int length) {
+		int[] row = new int[length];
+		int j = 0;
+		for (Iterator<Integer> samples = lead.iterator(); j < length && samples.hasNext(); j++) {
+			row[j] = samples.next().intValue();
+		}
+		return row;
+	}
+
+	/** Copies part of a decoded lead, as toIntArray(lead, length) does for the whole lead.
+	 * Only the samples in the window are unboxed.
+	 *
+	 * @param lead - decoded samples
+	 * @param first - index of the first sample to copy
+	 * @param length - length of the returned array; samples past the end of the lead are left 0.
+	 * @return - the samples as ints
+	 */
+	public static int[] toIntArray(List<Integer> lead, int first, int length) {
+		int from = Math.min(first, lead.size());
+		return toIntArray(lead.subList(from, Math.min(lead.size(), from + length)), length);
+	}
+
+	/** Copies the first channelCount decoded leads into a new int[channel][sample] array.
+	 *
+	 * @param leads - decoded leads, all at least sampleCount long
+	 * @param channelCount - number of channels to copy
+	 * @param sampleCount - samples per channel
+	 * @return - int[channelCount][sampleCount]
+	 */
+	public static int[][] toIntArrays(List<Integer>[] leads, int channelCount, int sampleCount) {
+		int[][] data = new int[channelCount][];
+		for (int i = 0; i < channelCount; i++) {
+			data[i] = (i < leads.length) ? toIntArray(leads[i], sampleCount) : new int[sampleCount];
+		}
+		return data;
+	}
+
+	/** Copies the selected decoded leads into a new int[selected.length][sample] array, in the order given.
+	 *
+	 * @param leads - decoded leads, all at least sampleCount long
+	 * @param selected - indices of the leads to copy, see LeadSelection.resolve()
+	 * @param sampleCount - samples per channel
+	 * @return - int[selected.length][sampleCount]
+	 */
+	public static int[][] toIntArrays(List<Integer>[] leads, int[] selected, int sampleCount) {
+		return toIntArrays(leads, selected, 0, sampleCount);
+	}
+
+	/** Copies a window of the selected decoded leads into a new int[selected.length][sampleCount] array.
+	 *
+	 * @param leads - decoded leads
+	 * @param selected - indices of the leads to copy, see LeadSelection.resolve()
+	 * @param first - first sample of the window, see TimeWindow.firstSample()
+	 * @param sampleCount - samples per channel
+	 * @return - int[selected.length][sampleCount]
+	 */
+	public static int[][] toIntArrays(List<Integer>[] leads, int[] selected, int first, int sampleCount) {
+		int[][] data = new int[selected.length][];
+		for (int i = 0; i < selected.length; i++) {
+			data[i] = (selected[i] < leads.length) ? toIntArray(leads[selected[i]], first, sampleCount) : new int[sampleCount];
+		}
+		return data;
+	}
+}
@@ -0,0 +1,177 @@
+package edu.jhu.icm.ecgFormatConverter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.icm.enums.LeadEnum;
+
+/** The leads a loader should decode, by name (any alias LeadEnum knows, e.g. "II", "Lead V1", "MDC_ECG_LEAD_V5")
+ * or by zero based channel index. Loaders resolve it against the leads of the file being read and only decode
+ * and allocate the resolved channels, in the requested order.<br>
+ * <br>
+ * Files without lead names (RDT, GE MUSE text, raw XY) are assumed to hold the standard 12 leads
+ * (I, II, III, aVR, aVL, aVF, V1-V6) when they have 12 channels; otherwise only index selections apply to them.
+ */
+public class LeadSelection {
+	private static final Logger log = Logger.getLogger(LeadSelection.class);
+
+	private static final List<String> STANDARD_12 = Arrays.asList("I", "II", "III", "AVR", "AVL", "AVF", "V1", "V2", "V3", "V4", "V5", "V6");
+
+	private final List<String> names; // canonical names, null for an index selection
+	private final int[] indices;
+
+	private LeadSelection(List<String> names, int[] indices) {
+		this.names = names;
+		this.indices = indices;
+	}
+
+	/** Selects leads by name, in the given order. */
+	public static LeadSelection byName(String... leadNames) {
+		List<String> canonical = new ArrayList<String>(leadNames.length);
+		for (String name : leadNames) {
+			canonical.add(LeadEnum.normalize(name));
+		}
+		return new LeadSelection(canonical, null);
+	}
+
+	/** Selects leads by zero based channel index, in the given order. */
+	public static LeadSelection byIndex(int... channelIndices) {
+		return new LeadSelection(null, channelIndices.clone());
+	}
+
+	/** Selects the first count channels, the meaning of signalsRequested. */
+	public static LeadSelection first(int count) {
+		int[] channelIndices = new int[count];
+		for (int i = 0; i < count; i++) {
+			channelIndices[i] = i;
+		}
+		return new LeadSelection(null, channelIndices);
+	}
+
+	/** Parses a comma separated list, either all channel indices ("0,1,6") or all lead names ("II,V1,V5").
+	 *
+	 * @return - the selection, null for an empty or null list.
+	 */
+	public static LeadSelection parse(String list) {
+		if (list == null || list.trim().length() == 0) {
+			return null;
+		}
+		String[] items = list.trim().split("\\s*,\\s*");
+		int[] channelIndices = new int[items.length];
+		try {
+			for (int i = 0; i < items.length; i++) {
+				channelIndices[i] = Integer.parseInt(items[i]);
+			}
+			return new LeadSelection(null, channelIndices);
+		} catch (NumberFormatException e) {
+			return byName(items);
+		}
+	}
+
+	/** Resolves a selection against the leads of a file.
+	 * Names or indices the file does not have are left out and logged; if none are left the result is empty
+	 * and the loader fails the record, rather than converting leads nobody asked for. A name selection which
+	 * can not be resolved because the file has no lead names is ignored, every channel is returned.
+	 *
+	 * @param selection - requested leads, null for all
+	 * @param leadNames - the file's lead names in channel order, null if it has none
+	 * @param channelCount - number of channels in the file
+	 * @return - channel indices to decode, in output order; empty if none of the requested leads is in the file.
+	 */
+	public static int[] resolve(LeadSelection selection, List<String> leadNames, int channelCount) {
+		if (selection == null) {
+			return all(channelCount);
+		}
+		List<Integer> resolved = new ArrayList<Integer>();
+		List<Object> missing = new ArrayList<Object>();
+		if (selection.names == null) {
+			for (int index : selection.indices) {
+				if (index < 0 || index >= channelCount) {
+					missing.add(index);
+				} else if (!resolved.contains(index)) {
+					resolved.add(index);
+				}
+			}
+		} else {
+			List<String> fileNames = leadNames;
+			if (fileNames == null && channelCount == STANDARD_12.size()) {
+				fileNames = STANDARD_12;
+			}
+			if (fileNames == null) {
+				log.warn("Lead selection " + selection + " ignored, the file has no lead names.");
+				return all(channelCount);
+			}
+			fileNames = LeadEnum.normalize(fileNames);
+			for (String name : selection.names) {
+				int index = fileNames.indexOf(name);
+				if (index < 0 || index >= channelCount) {
+					missing.add(name);
+				} else if (!resolved.contains(index)) {
+					resolved.add(index);
+				}
+			}
+		}
+		if (resolved.isEmpty()) {
+			log.error("None of the leads " + selection + " found, the file has " 
+					+ (leadNames != null ? LeadEnum.normalize(leadNames).toString() : channelCount + " channels") + ".");
+		} else if (!missing.isEmpty()) {
+			log.warn("Leads " + missing + " not found, reading " + resolved.size() + " of the selected leads.");
+		}
+		int[] channels = new int[resolved.size()];
+		for (int i = 0; i < channels.length; i++) {
+			channels[i] = resolved.get(i);
+		}
+		return channels;
+	}
+
+	/** Inverse of a resolved selection: for each channel of the file its output position, or -1 if it is not selected. */
+	public static int[] targets(int[] selected, int channelCount) {
+		int[] targets = new int[channelCount];
+		Arrays.fill(targets, -1);
+		for (int i = 0; i < selected.length; i++) {
+			targets[selected[i]] = i;
+		}
+		return targets;
+	}
+
+	/** The entries of a per channel list for the selected channels, null if the list is null. */
+	public static <T> List<T> select(List<T> perChannel, int[] selected) {
+		if (perChannel == null) {
+			return null;
+		}
+		List<T> result = new ArrayList<T>(selected.length);
+		for (int index : selected) {
+			result.add(index < perChannel.size() ? perChannel.get(index) : null);
+		}
+		return result;
+	}
+
+	/** True if the resolved selection is every channel in file order, i.e. nothing needs to be skipped. */
+	public static boolean isAll(int[] selected, int channelCount) {
+		if (selected.length != channelCount) {
+			return false;
+		}
+		for (int i = 0; i < selected.length; i++) {
+			if (selected[i] != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int[] all(int channelCount) {
+		int[] channels = new int[Math.max(channelCount, 0)];
+		for (int i = 0; i < channels.length; i++) {
+			channels[i] = i;
+		}
+		return channels;
+	}
+
+	@Override
+	public String toString() {
+		return names != null ? names.toString() : Arrays.toString(indices);
+	}
+}
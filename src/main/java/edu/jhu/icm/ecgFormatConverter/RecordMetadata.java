@@ -0,0 +1,65 @@
+package edu.jhu.icm.ecgFormatConverter;
+
+import java.util.List;
+
+/** Header level description of an ECG record, as returned by WrapperLoader.probe(),
+ * available without decoding the waveforms.
+ */
+public class RecordMetadata {
+
+	private final int channels;
+	private final float samplingRate; // Hz
+	private final int samplesPerChannel;
+	private final List<String> leadNames;
+	private final int aduGain;
+
+	/**
+	 * @param channels - number of leads
+	 * @param samplingRate - Hz
+	 * @param samplesPerChannel - samples in each lead, 0 if unknown
+	 * @param leadNames - lead names in order, null if unknown
+	 * @param aduGain - ADC units per milliVolt
+	 */
+	public RecordMetadata(int channels, float samplingRate, int samplesPerChannel, List<String> leadNames, int aduGain) {
+		this.channels = channels;
+		this.samplingRate = samplingRate;
+		this.samplesPerChannel = samplesPerChannel;
+		this.leadNames = leadNames;
+		this.aduGain = aduGain;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public float getSamplingRate() {
+		return samplingRate;
+	}
+
+	public int getSamplesPerChannel() {
+		return samplesPerChannel;
+	}
+
+	/** @return - (getChannels() * getSamplesPerChannel()) */
+	public long getNumberOfPoints() {
+		return (long) channels * samplesPerChannel;
+	}
+
+	public List<String> getLeadNames() {
+		return leadNames;
+	}
+
+	public int getAduGain() {
+		return aduGain;
+	}
+
+	/** @return - length of the record in seconds, 0 if the sampling rate is unknown. */
+	public double getDurationSeconds() {
+		return samplingRate > 0 ? samplesPerChannel / (double) samplingRate : 0;
+	}
+
+	@Override
+	public String toString() {
+		return channels + " channels, " + samplesPerChannel + " samples at " + samplingRate + "Hz, leads " + leadNames;
+	}
+}
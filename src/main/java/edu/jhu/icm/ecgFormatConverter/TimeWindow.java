@@ -0,0 +1,74 @@
+package edu.jhu.icm.ecgFormatConverter;
+
+/** A strip of a recording, from a start time for a duration, both in seconds from the first sample.
+ * Loaders convert it to a sample range with the file's sampling rate and skip (or seek past) the samples before it
+ * and stop reading after it, see WrapperLoader.setTimeWindow().
+ */
+public class TimeWindow {
+
+	private final double startSeconds;
+	private final double durationSeconds;
+
+	/**
+	 * @param startSeconds - start of the strip, seconds from the first sample
+	 * @param durationSeconds - length of the strip in seconds, zero or less for the rest of the recording
+	 */
+	public TimeWindow(double startSeconds, double durationSeconds) {
+		if (startSeconds < 0) {
+			throw new IllegalArgumentException("Negative start time: " + startSeconds);
+		}
+		this.startSeconds = startSeconds;
+		this.durationSeconds = durationSeconds;
+	}
+
+	public double getStartSeconds() {
+		return startSeconds;
+	}
+
+	/** @return - length in seconds, zero or less meaning the rest of the recording */
+	public double getDurationSeconds() {
+		return durationSeconds;
+	}
+
+	/** True if the window runs to the end of the recording. */
+	public boolean isOpenEnded() {
+		return durationSeconds <= 0;
+	}
+
+	/** First sample of the window, 0 for no window.
+	 *
+	 * @param window - the window, may be null
+	 * @param samplingRate - Hz
+	 */
+	public static int firstSample(TimeWindow window, float samplingRate) {
+		if (window == null) {
+			return 0;
+		}
+		return (int) Math.round(window.startSeconds * samplingRate);
+	}
+
+	/** Number of samples in the window, limited to what the recording holds after the first sample.
+	 *
+	 * @param window - the window, may be null for the whole recording
+	 * @param samplingRate - Hz
+	 * @param totalSamples - samples per channel in the recording, Integer.MAX_VALUE if not known in advance
+	 */
+	public static int sampleCount(TimeWindow window, float samplingRate, int totalSamples) {
+		if (window == null) {
+			return totalSamples;
+		}
+		long available = (long) totalSamples - firstSample(window, samplingRate);
+		if (available <= 0) {
+			return 0;
+		}
+		if (window.isOpenEnded()) {
+			return (int) available;
+		}
+		return (int) Math.min(available, Math.round(window.durationSeconds * samplingRate));
+	}
+
+	@Override
+	public String toString() {
+		return startSeconds + "s+" + (isOpenEnded() ? "end" : durationSeconds + "s");
+	}
+}
@@ -37,5 +37,27 @@ public interface WrapperLoader {
 	 * @return List of extracted lead names from original file. 
 	 * */
 	public List<String> getLeadNames();
+	/**
+	 * Reads only the header or metadata section of a file, without decoding the waveforms 
+	 * and without changing what the getters above return. <br>
+	 * <br>
+	 * @param filePath - full path of the input file
+	 * @return channels, sampling rate, samples per channel, lead names and gain; null if the file could not be read.
+	 * */
+	public RecordMetadata probe(String filePath);
+	/**
+	 * Restricts the next parse to the selected leads; the others are not decoded or allocated 
+	 * where the format allows it. getChannels(), getData() and getLeadNames() then cover the selected leads only.<br>
+	 * <br>
+	 * @param leadSelection - leads to read, null for all.
+	 * */
+	public void setLeadSelection(LeadSelection leadSelection);
+	/**
+	 * Restricts the next parse to a strip of the recording. Fixed frame formats seek to its first sample, 
+	 * text and XML formats stop decoding after its last; getSamplesPerChannel() and getData() then cover the window only.<br>
+	 * <br>
+	 * @param timeWindow - part of the recording to read, null for all.
+	 * */
+	public void setTimeWindow(TimeWindow timeWindow);
 	
 }
@@ -0,0 +1,91 @@
+package edu.jhu.icm.ecgFormatConverter;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/** Shared StAX set up for the probe() methods, which read only the metadata part of the XML formats. */
+public class XMLStreams {
+
+	private static final XMLInputFactory factory = createFactory();
+
+	private XMLStreams() {
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory f = XMLInputFactory.newInstance();
+		// MUSE files declare a DTD which is not shipped with them, and nothing here needs entities.
+		f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		return f;
+	}
+
+	/** Opens a streaming reader; the factory is configured once and shared. */
+	public static XMLStreamReader open(InputStream in) throws XMLStreamException {
+		return factory.createXMLStreamReader(in);
+	}
+
+	/** Reads the text of the current element, leaving the reader on its end tag. 
+	 * @return - the trimmed text, child elements are skipped.
+	 */
+	public static String text(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder sb = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (depth == 1 && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+				sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			}
+		}
+		return sb.toString().trim();
+	}
+
+	/** Skips the current element and its children without keeping their text, leaving the reader on its end tag. */
+	public static void skip(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/** Counts the whitespace separated tokens in the current element's text without creating Strings,
+	 * leaving the reader on its end tag. Used to size numeric lists (e.g. HL7 digits) without parsing them.
+	 */
+	public static int countTokens(XMLStreamReader reader) throws XMLStreamException {
+		int count = 0;
+		boolean inToken = false;
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (depth == 1 && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+				char[] chars = reader.getTextCharacters();
+				int end = reader.getTextStart() + reader.getTextLength();
+				for (int i = reader.getTextStart(); i < end; i++) {
+					boolean space = Character.isWhitespace(chars[i]);
+					if (!space && !inToken) {
+						count++;
+					}
+					inToken = !space;
+				}
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,347 @@
+package edu.jhu.icm.ecgFormatConverter.arrow;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.icm.ecgFormatConverter.WrapperWriter;
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+import edu.jhu.icm.ecgFormatConverter.store.HeapSampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStore;
+
+/** Writes the ECG samples out in the Apache Arrow IPC format, as a file (".arrow", random access through its footer)
+ * or as a stream (".arrows"), so analytics (pyarrow, Spark, R) can memory map the samples instead of parsing text.<br>
+ * <br>
+ * Each lead is a non-nullable column named after the lead, int16 if all of its samples fit, int32 otherwise.
+ * The schema's custom metadata holds "samplingRate" (Hz), "aduGain" (ADC units per milliVolt) and "leadNames"
+ * (comma separated). The rows are written in record batches of BATCH_ROWS samples per lead; within a batch
+ * each column is one contiguous little endian buffer, padded to a multiple of 64 bytes.
+ */
+public class ArrowWriter implements WrapperWriter {
+	protected Logger log = Logger.getLogger(ArrowWriter.class);
+
+	public static final String EXTENSION = ".arrow";
+	public static final String STREAM_EXTENSION = ".arrows";
+	/** Rows per record batch. */
+	public static final int BATCH_ROWS = 64 * 1024;
+
+	static final byte[] MAGIC = {'A', 'R', 'R', 'O', 'W', '1'};
+	private static final int CONTINUATION = 0xFFFFFFFF;
+	private static final int ALIGNMENT = 64;
+	// from the Arrow format's Schema.fbs and Message.fbs
+	private static final short METADATA_V5 = 4;
+	private static final byte HEADER_SCHEMA = 1;
+	private static final byte HEADER_RECORD_BATCH = 3;
+	private static final byte TYPE_INT = 2;
+
+	private File arrowFile;
+	private boolean stream;
+	private int channels, samplesPerChannel;
+	private float samplingRate;
+	private int aduGain = 200;
+	private String[] leadNames;
+	private SampleStore store;
+
+	private DataOutputStream out;
+	private long pos; // counted here, DataOutputStream.size() stops at 2 GB
+
+	/**
+	 * @param arrowFile - the file to write
+	 * @param stream - true for the IPC stream format, false for the IPC file format
+	 */
+	public ArrowWriter(File arrowFile, boolean stream) {
+		this.arrowFile = arrowFile;
+		this.stream = stream;
+	}
+
+	/**
+	 * Writes the schema, the record batches and, for the file format, the footer.
+	 *
+	 * @return - rows written, -1 on error.
+	 */
+	public int write() {
+		BufferArena arena = BufferArena.current();
+		arena.open();
+		try {
+			int[] widths = columnWidths();
+			int batches = (samplesPerChannel + BATCH_ROWS - 1) / BATCH_ROWS;
+			long[] blockOffsets = new long[batches]; // the record batch Blocks of the footer
+			int[] blockMetadata = new int[batches];
+			long[] blockBodies = new long[batches];
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(arrowFile), 64*1024));
+			try {
+				pos = 0;
+				if (!stream) {
+					writeBytes(MAGIC, MAGIC.length);
+					writeBytes(new byte[2], 2);
+				}
+				FlatBufferBuilder fb = new FlatBufferBuilder();
+				writeMessage(fb, HEADER_SCHEMA, schema(fb, widths), 0);
+
+				int[] samples = arena.borrowInts(BATCH_ROWS);
+				byte[] column = arena.borrowBytes(BATCH_ROWS * 4 + ALIGNMENT);
+				for (int b = 0; b < batches; b++) {
+					int first = b * BATCH_ROWS;
+					int rows = Math.min(BATCH_ROWS, samplesPerChannel - first);
+					long bodyLength = 0;
+					for (int c = 0; c < channels; c++) {
+						bodyLength += padded(rows * widths[c]);
+					}
+					fb = new FlatBufferBuilder();
+					blockOffsets[b] = pos;
+					blockMetadata[b] = writeMessage(fb, HEADER_RECORD_BATCH, recordBatch(fb, rows, widths), bodyLength);
+					blockBodies[b] = bodyLength;
+					for (int c = 0; c < channels; c++) {
+						store.read(c, first, samples, 0, rows);
+						int length = (widths[c] == 2) ? int16(samples, rows, column) : int32(samples, rows, column);
+						int total = padded(length);
+						for (int i = length; i < total; i++) {
+							column[i] = 0;
+						}
+						writeBytes(column, total);
+					}
+				}
+				writeLittleEndianInt(CONTINUATION); // end of stream
+				writeLittleEndianInt(0);
+
+				if (!stream) {
+					fb = new FlatBufferBuilder();
+					byte[] footer = fb.finish(footer(fb, widths, blockOffsets, blockMetadata, blockBodies));
+					writeBytes(footer, footer.length);
+					writeLittleEndianInt(footer.length);
+					writeBytes(MAGIC, MAGIC.length);
+				}
+			} finally {
+				out.close();
+				out = null;
+			}
+		} catch (IOException e) {
+			log.error("write() failed. " + e.getMessage());
+			return -1;
+		} finally {
+			arena.close();
+		}
+		return samplesPerChannel;
+	}
+
+	/** Bytes per sample of each column: 2 if all of the lead's samples fit in a short, otherwise 4. */
+	private int[] columnWidths() {
+		int[] widths = new int[channels];
+		int[] samples = BufferArena.current().borrowInts(BATCH_ROWS);
+		for (int c = 0; c < channels; c++) {
+			widths[c] = 2;
+			for (int first = 0; first < samplesPerChannel && widths[c] == 2; first += BATCH_ROWS) {
+				int rows = Math.min(BATCH_ROWS, samplesPerChannel - first);
+				store.read(c, first, samples, 0, rows);
+				for (int i = 0; i < rows; i++) {
+					if (samples[i] != (short) samples[i]) {
+						widths[c] = 4;
+						break;
+					}
+				}
+			}
+		}
+		return widths;
+	}
+
+	private static int padded(int length) {
+		return (length + ALIGNMENT - 1) & -ALIGNMENT;
+	}
+
+	private static int int16(int[] samples, int rows, byte[] column) {
+		for (int i = 0, j = 0; i < rows; i++, j += 2) {
+			int s = samples[i];
+			column[j] = (byte) s;
+			column[j + 1] = (byte) (s >> 8);
+		}
+		return rows * 2;
+	}
+
+	private static int int32(int[] samples, int rows, byte[] column) {
+		for (int i = 0, j = 0; i < rows; i++, j += 4) {
+			int s = samples[i];
+			column[j] = (byte) s;
+			column[j + 1] = (byte) (s >> 8);
+			column[j + 2] = (byte) (s >> 16);
+			column[j + 3] = (byte) (s >> 24);
+		}
+		return rows * 4;
+	}
+
+	private void writeBytes(byte[] bytes, int length) throws IOException {
+		out.write(bytes, 0, length);
+		pos += length;
+	}
+
+	private void writeLittleEndianInt(int value) throws IOException {
+		out.writeInt(Integer.reverseBytes(value));
+		pos += 4;
+	}
+
+	/** Writes an encapsulated message: continuation marker, metadata length, then the Message flatbuffer padded to 8 bytes.
+	 * The body, if any, is written by the caller.
+	 *
+	 * @return - bytes written, the metaDataLength of the file format's Block
+	 */
+	private int writeMessage(FlatBufferBuilder fb, byte headerType, int header, long bodyLength) throws IOException {
+		fb.startTable(5);
+		fb.addFieldLong(3, bodyLength);
+		fb.addFieldOffset(2, header);
+		fb.addFieldShort(0, METADATA_V5);
+		fb.addFieldByte(1, headerType);
+		byte[] metadata = fb.finish(fb.endTable());
+		int length = (metadata.length + 7) & -8;
+		writeLittleEndianInt(CONTINUATION);
+		writeLittleEndianInt(length);
+		writeBytes(metadata, metadata.length);
+		writeBytes(new byte[length - metadata.length], length - metadata.length);
+		return 8 + length;
+	}
+
+	private String leadName(int c) {
+		return (leadNames != null && c < leadNames.length) ? leadNames[c].trim() : "Channel" + (c + 1);
+	}
+
+	private int keyValue(FlatBufferBuilder fb, String key, String value) {
+		int k = fb.createString(key);
+		int v = fb.createString(value);
+		fb.startTable(2);
+		fb.addFieldOffset(0, k);
+		fb.addFieldOffset(1, v);
+		return fb.endTable();
+	}
+
+	/** @return - offset of the Schema table */
+	private int schema(FlatBufferBuilder fb, int[] widths) {
+		int[] fields = new int[channels];
+		StringBuilder names = new StringBuilder();
+		for (int c = 0; c < channels; c++) {
+			int name = fb.createString(leadName(c));
+			fb.startTable(2);
+			fb.addFieldInt(0, widths[c] * 8); // bitWidth
+			fb.addFieldByte(1, 1); // is_signed
+			int type = fb.endTable();
+			int children = fb.createOffsetVector(new int[0]);
+			fb.startTable(7);
+			fb.addFieldOffset(0, name);
+			fb.addFieldOffset(3, type);
+			fb.addFieldOffset(5, children);
+			fb.addFieldByte(1, 0); // nullable
+			fb.addFieldByte(2, TYPE_INT);
+			fields[c] = fb.endTable();
+			if (c > 0) {
+				names.append(',');
+			}
+			names.append(leadName(c));
+		}
+		int fieldVector = fb.createOffsetVector(fields);
+		List<Integer> metadata = new ArrayList<Integer>();
+		metadata.add(keyValue(fb, "samplingRate", Float.toString(samplingRate)));
+		metadata.add(keyValue(fb, "aduGain", Integer.toString(aduGain)));
+		metadata.add(keyValue(fb, "leadNames", names.toString()));
+		int[] keyValues = new int[metadata.size()];
+		for (int i = 0; i < keyValues.length; i++) {
+			keyValues[i] = metadata.get(i);
+		}
+		int metadataVector = fb.createOffsetVector(keyValues);
+		fb.startTable(4);
+		fb.addFieldOffset(1, fieldVector);
+		fb.addFieldOffset(2, metadataVector);
+		fb.addFieldShort(0, 0); // little endian
+		return fb.endTable();
+	}
+
+	/** @return - offset of the RecordBatch table: per column one FieldNode and two Buffers (empty validity, data) */
+	private int recordBatch(FlatBufferBuilder fb, int rows, int[] widths) {
+		fb.startVector(16, channels, 8);
+		for (int c = channels - 1; c >= 0; c--) {
+			fb.prep(8, 16);
+			fb.putLong(0); // null_count
+			fb.putLong(rows); // length
+		}
+		int nodes = fb.endVector();
+		long[] offsets = new long[channels];
+		long offset = 0;
+		for (int c = 0; c < channels; c++) {
+			offsets[c] = offset;
+			offset += padded(rows * widths[c]);
+		}
+		fb.startVector(16, 2 * channels, 8);
+		for (int c = channels - 1; c >= 0; c--) {
+			fb.prep(8, 16); // data
+			fb.putLong(rows * widths[c]);
+			fb.putLong(offsets[c]);
+			fb.prep(8, 16); // validity, omitted as there are no nulls
+			fb.putLong(0);
+			fb.putLong(offsets[c]);
+		}
+		int buffers = fb.endVector();
+		fb.startTable(5);
+		fb.addFieldLong(0, rows);
+		fb.addFieldOffset(1, nodes);
+		fb.addFieldOffset(2, buffers);
+		return fb.endTable();
+	}
+
+	/** @return - offset of the file format's Footer table */
+	private int footer(FlatBufferBuilder fb, int[] widths, long[] offsets, int[] metadataLengths, long[] bodyLengths) {
+		int schema = schema(fb, widths);
+		int dictionaries = fb.createOffsetVector(new int[0]);
+		fb.startVector(24, offsets.length, 8);
+		for (int b = offsets.length - 1; b >= 0; b--) {
+			fb.prep(8, 24);
+			fb.putLong(bodyLengths[b]);
+			fb.putInt(0); // padding
+			fb.putInt(metadataLengths[b]);
+			fb.putLong(offsets[b]);
+		}
+		int recordBatches = fb.endVector();
+		fb.startTable(5);
+		fb.addFieldOffset(1, schema);
+		fb.addFieldOffset(2, dictionaries);
+		fb.addFieldOffset(3, recordBatches);
+		fb.addFieldShort(0, METADATA_V5);
+		return fb.endTable();
+	}
+
+	@Override
+	public void setSamplesPerChannel(int samplesPerChannel) {
+		this.samplesPerChannel = samplesPerChannel;
+	}
+
+	@Override
+	public void setChannels(int channels) {
+		this.channels = channels;
+	}
+
+	@Override
+	public void setSamplingRate(float frequency) {
+		this.samplingRate = frequency;
+	}
+
+	@Override
+	public void setData(int[][] data) {
+		this.store = new HeapSampleStore(data, samplesPerChannel);
+	}
+
+	/** @param store - the samples to write, instead of setData() */
+	public void setSampleStore(SampleStore store) {
+		this.store = store;
+	}
+
+	/** @param leadNames - one per channel; missing names default to "ChannelN" */
+	public void setLeadNames(String[] leadNames) {
+		this.leadNames = leadNames;
+	}
+
+	/** @param aduGain - ADC units per milliVolt */
+	public void setAduGain(int aduGain) {
+		this.aduGain = aduGain;
+	}
+}
@@ -0,0 +1,204 @@
+package edu.jhu.icm.ecgFormatConverter.arrow;
+
+import java.nio.charset.Charset;
+
+/** The part of a FlatBuffers builder the Arrow IPC metadata needs (tables, strings, vectors of offsets and of
+ * structs), so the writer does not depend on the flatbuffers and Arrow libraries.<br>
+ * <br>
+ * Like the reference builder, the buffer is filled from the back, children before the tables which point at them,
+ * and an offset is a position counted from the end of the buffer. Values are little endian and aligned to their
+ * size. Identical vtables are not shared, which only costs a few bytes per table.
+ */
+class FlatBufferBuilder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private byte[] bytes = new byte[1024];
+	private int space = bytes.length; // first used byte
+	private int minAlign = 1;
+	private int[] vtable; // offsets of the current table's fields, 0 if not set
+	private int objectStart;
+	private int vectorElements;
+
+	/** Bytes written so far; also the offset of the last thing written. */
+	int offset() {
+		return bytes.length - space;
+	}
+
+	private void grow() {
+		byte[] grown = new byte[bytes.length * 2];
+		System.arraycopy(bytes, space, grown, grown.length - offset(), offset());
+		space += grown.length - bytes.length;
+		bytes = grown;
+	}
+
+	private void pad(int n) {
+		for (int i = 0; i < n; i++) {
+			bytes[--space] = 0;
+		}
+	}
+
+	/** Aligns so that size bytes can follow additional bytes at a multiple of size, growing as needed. */
+	void prep(int size, int additional) {
+		if (size > minAlign) {
+			minAlign = size;
+		}
+		int alignSize = (-(offset() + additional)) & (size - 1);
+		while (space < alignSize + size + additional) {
+			grow();
+		}
+		pad(alignSize);
+	}
+
+	void putByte(int value) {
+		bytes[--space] = (byte) value;
+	}
+
+	void putShort(int value) {
+		putByte(value >> 8);
+		putByte(value);
+	}
+
+	void putInt(int value) {
+		putShort(value >> 16);
+		putShort(value);
+	}
+
+	void putLong(long value) {
+		putInt((int) (value >> 32));
+		putInt((int) value);
+	}
+
+	private void setInt(int at, int value) {
+		bytes[at] = (byte) value;
+		bytes[at + 1] = (byte) (value >> 8);
+		bytes[at + 2] = (byte) (value >> 16);
+		bytes[at + 3] = (byte) (value >> 24);
+	}
+
+	void addByte(int value) {
+		prep(1, 0);
+		putByte(value);
+	}
+
+	void addShort(int value) {
+		prep(2, 0);
+		putShort(value);
+	}
+
+	void addInt(int value) {
+		prep(4, 0);
+		putInt(value);
+	}
+
+	void addLong(long value) {
+		prep(8, 0);
+		putLong(value);
+	}
+
+	/** Adds a reference to something written earlier, relative to where the reference is stored. */
+	void addOffset(int target) {
+		prep(4, 0);
+		putInt(offset() - target + 4);
+	}
+
+	/** @return - offset of a null terminated UTF-8 string */
+	int createString(String s) {
+		byte[] utf8 = s.getBytes(UTF8);
+		addByte(0);
+		startVector(1, utf8.length, 1);
+		space -= utf8.length;
+		System.arraycopy(utf8, 0, bytes, space, utf8.length);
+		return endVector();
+	}
+
+	/** Starts a vector of count elements; add them last one first, then call endVector(). */
+	void startVector(int elementSize, int count, int alignment) {
+		vectorElements = count;
+		prep(4, elementSize * count);
+		prep(alignment, elementSize * count);
+	}
+
+	/** @return - offset of the vector */
+	int endVector() {
+		putInt(vectorElements);
+		return offset();
+	}
+
+	/** @return - offset of a vector of references */
+	int createOffsetVector(int[] offsets) {
+		startVector(4, offsets.length, 4);
+		for (int i = offsets.length - 1; i >= 0; i--) {
+			addOffset(offsets[i]);
+		}
+		return endVector();
+	}
+
+	void startTable(int fields) {
+		vtable = new int[fields];
+		objectStart = offset();
+	}
+
+	/** Records that field was just added. */
+	private void slot(int field) {
+		vtable[field] = offset();
+	}
+
+	void addFieldByte(int field, int value) {
+		addByte(value);
+		slot(field);
+	}
+
+	void addFieldShort(int field, int value) {
+		addShort(value);
+		slot(field);
+	}
+
+	void addFieldInt(int field, int value) {
+		addInt(value);
+		slot(field);
+	}
+
+	void addFieldLong(int field, long value) {
+		addLong(value);
+		slot(field);
+	}
+
+	void addFieldOffset(int field, int target) {
+		addOffset(target);
+		slot(field);
+	}
+
+	/** Writes the table's vtable just before the table.
+	 *
+	 * @return - offset of the table
+	 */
+	int endTable() {
+		addInt(0); // replaced by the vtable's position, relative to the table
+		int table = offset();
+		int fields = vtable.length;
+		while (fields > 0 && vtable[fields - 1] == 0) {
+			fields--;
+		}
+		for (int i = fields - 1; i >= 0; i--) {
+			addShort(vtable[i] == 0 ? 0 : table - vtable[i]);
+		}
+		addShort(table - objectStart);
+		addShort((fields + 2) * 2);
+		setInt(bytes.length - table, offset() - table);
+		vtable = null;
+		return table;
+	}
+
+	/** Writes the reference to the root table.
+	 *
+	 * @return - the finished buffer
+	 */
+	byte[] finish(int root) {
+		prep(minAlign, 4);
+		addOffset(root);
+		byte[] finished = new byte[offset()];
+		System.arraycopy(bytes, space, finished, 0, finished.length);
+		return finished;
+	}
+}
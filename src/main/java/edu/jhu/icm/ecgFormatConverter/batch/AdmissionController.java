@@ -0,0 +1,199 @@
+package edu.jhu.icm.ecgFormatConverter.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter;
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+import edu.jhu.icm.ecgFormatConverter.FormatDetector;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+
+/** Starts concurrent conversions only while their estimated peak memory fits in a budget, queueing the rest.<br>
+ * <br>
+ * A job's footprint is estimated from a header probe (see ECGformatConverter.probe()) before its samples are read:
+ * the int[channels][samples] work space plus what the input and output formats hold on top of it
+ * (see estimate()). Jobs are admitted in arrival order, so a large job is not overtaken forever by small ones;
+ * a job larger than the whole budget runs once nothing else is running.<br>
+ * <br>
+ * Usage, from any number of worker threads:<br>
+ * admission.convert(converter, fileFormat.CSV, fileName, 0, inputPath, outputPath)<br>
+ * or acquire(estimate(...)), convert, and release() the same amount in a finally block.
+ */
+public class AdmissionController {
+	protected Logger log = Logger.getLogger(AdmissionController.class);
+
+	/** Converter, buffers and output blocks of any job. */
+	private static final long BASE_BYTES = 4L * 1024 * 1024;
+
+	// Sizes of what the loaders and writers build, as upper bounds for a 64 bit JVM without compressed references:
+	// 16 byte object headers, 24 byte array headers, 8 byte references, objects padded to 8 bytes, lists and
+	// StringBuilders grown to at most twice their content.
+	/** Document tree (nodes, attributes and UTF-16 text) per byte of XML. */
+	private static final long XML_TREE_BYTES_PER_BYTE = 12;
+	/** A boxed sample in a List<Integer>: the Integer and up to two list slots. */
+	private static final long BOXED_SAMPLE_BYTES = 16 + 2 * 8;
+	/** A chart sample (XYDataItem) of the HL7 library: the item, a Double for x and for y, and up to two list slots. */
+	private static final long XY_ITEM_BYTES = 32 + 24 + 24 + 2 * 8;
+	/** A value of an XY row kept as text: its slot in the row's String[], the String, the char[] header and padding; 
+	 * the characters themselves are counted per byte of input. */
+	private static final long XY_VALUE_BYTES = 8 + 32 + 24 + 8;
+	/** An XY row: the String[] header and padding, the Double of its time, their slots in two Vectors, and its prevMSec entry. */
+	private static final long XY_ROW_BYTES = 32 + 24 + 2 * 2 * 8 + 8;
+	/** An HL7 output sample as list text: up to 7 UTF-16 characters, built in a StringBuilder and copied. */
+	private static final long HL7_OUTPUT_SAMPLE_BYTES = 3 * 7 * 2;
+
+	private final long budget;
+	private long inUse = 0;
+	private int running = 0;
+	private long nextTicket = 0; // tickets are handed out in arrival order
+	private long serving = 0; // the ticket which may be admitted next
+	private final Set<Long> abandoned = new HashSet<Long>(); // tickets of interrupted waiters
+
+	/**
+	 * @param budgetBytes - memory the running conversions may use together, e.g. 3/4 of Runtime.maxMemory()
+	 */
+	public AdmissionController(long budgetBytes) {
+		if (budgetBytes <= 0) {
+			throw new IllegalArgumentException("Memory budget must be positive: " + budgetBytes);
+		}
+		this.budget = budgetBytes;
+	}
+
+	/** Estimates the peak heap use of converting a record, as an upper bound for well-formed input:
+	 * the work space plus the document tree and decoded leads of XML inputs, the rows of XY text inputs,
+	 * which are all held as strings before the sampling rate is known, and the in-memory document of HL7 output.
+	 * GEMUSE lines are parsed straight into the work space, RDT and WFDB are read in blocks.
+	 *
+	 * @param inputFormat - format of the input
+	 * @param outputFormat - format written
+	 * @param metadata - from ECGformatConverter.probe(), null if the probe failed
+	 * @param inputBytes - total size of the input file(s)
+	 * @return - bytes
+	 */
+	public static long estimate(fileFormat inputFormat, fileFormat outputFormat, RecordMetadata metadata, long inputBytes) {
+		long bytes = BASE_BYTES;
+		long points, rows;
+		if (metadata != null) {
+			points = metadata.getNumberOfPoints();
+			rows = metadata.getSamplesPerChannel();
+		} else {
+			points = inputBytes; // at most one sample per byte for text formats, one per two for binary ones
+			rows = points; // at most one sample per row
+		}
+		bytes += points * 4; // int[channels][samples]
+		switch (inputFormat) {
+			case HL7: // the library's document tree, and its chart series of the leads
+				bytes += inputBytes * XML_TREE_BYTES_PER_BYTE + points * XY_ITEM_BYTES;
+				break;
+			case MUSEXML: // the XML text in a StringBuilder and a String, its tree and the base64 strings; the decoded leads become the work space
+				bytes += inputBytes * (XML_TREE_BYTES_PER_BYTE + 4 + 2 + 2);
+				break;
+			case PHILIPS103:
+			case PHILIPS104:
+			case SCHILLER: // the library's document tree, and the decoded leads as lists of Integer
+				bytes += inputBytes * XML_TREE_BYTES_PER_BYTE + points * BOXED_SAMPLE_BYTES;
+				break;
+			case RAW_XY_CONST_SAMPLE:
+			case RAW_XY_VAR_SAMPLE: // every value as a String (at most two bytes per character of input), every row's time as a Double
+				bytes += points * XY_VALUE_BYTES + rows * XY_ROW_BYTES + inputBytes * 2;
+				break;
+			default: // GEMUSE parses line by line into the work space, RDT and WFDB stream their samples
+				break;
+		}
+		if (outputFormat == fileFormat.HL7) {
+			bytes += points * HL7_OUTPUT_SAMPLE_BYTES;
+		}
+		return bytes;
+	}
+
+	/** Waits until the job is first in line and fits in the budget, then reserves its bytes.
+	 *
+	 * @param bytes - the job's estimate
+	 * @throws InterruptedException - if interrupted while queued; nothing is reserved then.
+	 */
+	public synchronized void acquire(long bytes) throws InterruptedException {
+		long ticket = nextTicket++;
+		try {
+			while (ticket != serving || (running > 0 && inUse + bytes > budget)) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			if (ticket == serving) {
+				advance();
+			} else {
+				abandoned.add(ticket);
+			}
+			notifyAll();
+			throw e;
+		}
+		advance();
+		inUse += bytes;
+		running++;
+		notifyAll(); // the next in line may fit as well
+	}
+
+	private void advance() {
+		serving++;
+		while (abandoned.remove(serving)) {
+			serving++;
+		}
+	}
+
+	/** Returns the bytes reserved by acquire() once the job is done. */
+	public synchronized void release(long bytes) {
+		inUse -= bytes;
+		running--;
+		notifyAll();
+	}
+
+	/** Probes the input, waits for admission, converts it and releases its reservation.
+	 *
+	 * @param converter - converter of the calling thread, with its settings applied
+	 * @return - number of rows written, -1 on error or if the input format was not recognized.
+	 * @throws InterruptedException - if interrupted while queued, the file is not converted.
+	 */
+	public int convert(ECGformatConverter converter, fileFormat outputFormat, String fileName, int signalsRequested, String inputPath, String outputPath) throws InterruptedException {
+		File input = new File(inputPath + fileName);
+		fileFormat inputFormat;
+		try {
+			inputFormat = FormatDetector.detect(input.getPath()).getFormat();
+		} catch (IOException e) {
+			log.error("Format detection failed: " + input + " " + e.getMessage());
+			return -1;
+		}
+		if (inputFormat == null) {
+			log.error("Input format not recognized: " + input);
+			return -1;
+		}
+		RecordMetadata metadata = converter.probe(inputFormat, input.getPath());
+		long bytes = estimate(inputFormat, outputFormat, metadata, input.length());
+		acquire(bytes);
+		try {
+			return converter.convert(inputFormat, outputFormat, fileName, signalsRequested, inputPath, outputPath);
+		} finally {
+			release(bytes);
+		}
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/** Bytes reserved by the running jobs. */
+	public synchronized long getBytesInUse() {
+		return inUse;
+	}
+
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	/** Jobs waiting for admission. */
+	public synchronized int getQueued() {
+		return (int) (nextTicket - serving - abandoned.size());
+	}
+}
@@ -0,0 +1,428 @@
+package edu.jhu.icm.ecgFormatConverter.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+import edu.jhu.icm.ecgFormatConverter.wfdb.WFDBHeaderCache;
+
+/** File backed record of which input files have been converted, so a batch run over a directory
+ * can skip the inputs that have not changed since the previous run.<br>
+ * <br>
+ * The catalog is a UTF-8 text file with one tab separated line per conversion:
+ * status, size, modification time, SHA-1 of the content, input format, output format, input path, output paths.
+ * Lines are only ever appended (and flushed) so an interrupted run loses at most the line being written;
+ * when a path appears more than once the last line wins. close() rewrites the file without the superseded lines
+ * once they outnumber the live ones.<br>
+ * <br>
+ * An input is up to date when its size and modification time match the catalog, the conversion succeeded
+ * into the same output format and produced outputs which all still exist. If only the modification time differs
+ * (e.g. the file was copied again) the content hash decides.<br>
+ * <br>
+ * A WFDB record is more than its input file: size, modification time and hash then cover the .hea file and every
+ * signal file it names (total size, summed times, one hash over their contents), so a rewritten .dat is noticed.
+ */
+public class ConversionCatalog {
+	protected Logger log = Logger.getLogger(ConversionCatalog.class);
+
+	public static enum Status {CONVERTED, FAILED};
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String HEADER = "#ECG conversion catalog 1";
+	private static final int BUFFER = 64*1024;
+
+	/** One catalog line: the state of an input file when it was last converted. */
+	public static class Entry {
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final String hash;
+		private final fileFormat inputFormat;
+		private final fileFormat outputFormat;
+		private final Status status;
+		private final String[] outputs;
+
+		public Entry(String path, long size, long lastModified, String hash, fileFormat inputFormat, fileFormat outputFormat, Status status, String[] outputs) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.inputFormat = inputFormat;
+			this.outputFormat = outputFormat;
+			this.status = status;
+			this.outputs = (outputs == null) ? new String[0] : outputs;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		/** @return - total size of the input files, see inputFiles() */
+		public long getSize() {
+			return size;
+		}
+
+		/** @return - modification time of the input file, for several input files the sum of their times
+		 * so that touching any one of them changes it. */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/** @return - hex SHA-1 of the input files' content */
+		public String getHash() {
+			return hash;
+		}
+
+		/** @return - the detected input format, null if it was not recognized. */
+		public fileFormat getInputFormat() {
+			return inputFormat;
+		}
+
+		public fileFormat getOutputFormat() {
+			return outputFormat;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/** @return - path/name.ext of every file the conversion produced */
+		public String[] getOutputs() {
+			return outputs;
+		}
+	}
+
+	private final File catalogFile;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private int lineCount = 0;
+	private Writer out;
+
+	/** Opens (or creates) the catalog file and loads its entries.
+	 *
+	 * @param catalogFile - the catalog, created on the first record() if it does not exist.
+	 * @throws IOException - if an existing catalog can not be read.
+	 */
+	public ConversionCatalog(File catalogFile) throws IOException {
+		this.catalogFile = catalogFile;
+		if (catalogFile.exists()) {
+			load();
+		}
+	}
+
+	public ConversionCatalog(String catalogFileName) throws IOException {
+		this(new File(catalogFileName));
+	}
+
+	private void load() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(catalogFile), UTF8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				Entry entry = parseLine(line);
+				if (entry == null) {
+					log.warn("Skipping malformed catalog line in " + catalogFile + ": " + line);
+					continue;
+				}
+				entries.put(entry.getPath(), entry);
+				lineCount++;
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/** Returns the latest entry for the input file, or null if it was never converted. */
+	public synchronized Entry getEntry(File input) {
+		return entries.get(input.getAbsolutePath());
+	}
+
+	/** Number of input files in the catalog. */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/** Checks whether the input file was converted to outputFormat and has not changed since.
+	 *
+	 * @param input - the input file
+	 * @param outputFormat - format the batch run is converting to
+	 * @return - true if the conversion can be skipped.
+	 * @throws IOException - if the input has to be hashed and can not be read.
+	 */
+	public synchronized boolean isUpToDate(File input, fileFormat outputFormat) throws IOException {
+		Entry entry = entries.get(input.getAbsolutePath());
+		if (entry == null || entry.getStatus() != Status.CONVERTED || entry.getOutputFormat() != outputFormat) {
+			return false;
+		}
+		List<File> files = inputFiles(input, entry.getInputFormat());
+		long size = totalLength(files);
+		if (size != entry.getSize() || !outputsExist(entry)) {
+			return false;
+		}
+		long lastModified = lastModified(files);
+		if (lastModified == entry.getLastModified()) {
+			return true;
+		}
+		// touched, but possibly the same content.
+		String hash = hash(files);
+		if (!hash.equals(entry.getHash())) {
+			return false;
+		}
+		append(new Entry(entry.getPath(), size, lastModified, hash, entry.getInputFormat(),
+				outputFormat, Status.CONVERTED, entry.getOutputs()));
+		return true;
+	}
+
+	/** Records the result of converting an input file, hashing its current content.
+	 *
+	 * @param input - the input file
+	 * @param inputFormat - the detected input format, null if it was not recognized.
+	 * @param outputFormat - format converted to
+	 * @param status - CONVERTED or FAILED
+	 * @param outputs - path/name.ext of the files produced, may be null.
+	 * @throws IOException - if the input can not be hashed or the catalog can not be written.
+	 */
+	public synchronized void record(File input, fileFormat inputFormat, fileFormat outputFormat, Status status, String[] outputs) throws IOException {
+		List<File> files = inputFiles(input, inputFormat);
+		append(new Entry(input.getAbsolutePath(), totalLength(files), lastModified(files), hash(files), inputFormat, outputFormat, status, outputs));
+	}
+
+	/** The files a conversion of the input reads: for a WFDB record the .hea file and each signal file it names,
+	 * otherwise the input alone. Missing files are left out, a removed signal file then changes the total size.
+	 *
+	 * @param input - the input file, for WFDB the .hea or .dat file
+	 * @param inputFormat - the detected input format, may be null.
+	 */
+	private static List<File> inputFiles(File input, fileFormat inputFormat) throws IOException {
+		List<File> files = null;
+		if (inputFormat == fileFormat.WFDB || inputFormat == fileFormat.WFDB_16 
+				|| inputFormat == fileFormat.WFDB_61 || inputFormat == fileFormat.WFDB_212) {
+			String name = input.getName();
+			if (name.endsWith(".hea") || name.endsWith(".dat")) {
+				name = name.substring(0, name.length() - 4);
+			}
+			files = WFDBHeaderCache.getRecordFiles(new File(input.getParentFile(), name + ".hea"));
+		}
+		List<File> existing = new ArrayList<File>();
+		if (files == null || !files.contains(input)) {
+			existing.add(input);
+		}
+		if (files != null) {
+			for (File file : files) {
+				if (file.exists()) {
+					existing.add(file);
+				}
+			}
+		}
+		return existing;
+	}
+
+	private static long totalLength(List<File> files) {
+		long length = 0;
+		for (File file : files) {
+			length += file.length();
+		}
+		return length;
+	}
+
+	private static long lastModified(List<File> files) {
+		long lastModified = 0;
+		for (File file : files) {
+			lastModified += file.lastModified();
+		}
+		return lastModified;
+	}
+
+	/** Closes the catalog file, first compacting it if most of its lines are superseded. */
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+		if (lineCount > 2 * entries.size()) {
+			compact();
+		}
+	}
+
+	/** Rewrites the catalog with only the latest line of each input, through a temp file and a rename. */
+	public synchronized void compact() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+		File temp = new File(catalogFile.getPath() + ".tmp");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+		try {
+			writer.write(HEADER);
+			writer.write('\n');
+			for (Entry entry : entries.values()) {
+				writer.write(formatLine(entry));
+			}
+		} finally {
+			writer.close();
+		}
+		if (!catalogFile.delete() && catalogFile.exists() || !temp.renameTo(catalogFile)) {
+			throw new IOException("Could not replace " + catalogFile + " with " + temp);
+		}
+		lineCount = entries.size();
+	}
+
+	private void append(Entry entry) throws IOException {
+		if (out == null) {
+			boolean created = !catalogFile.exists() || catalogFile.length() == 0;
+			File parent = catalogFile.getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(catalogFile, true), UTF8));
+			if (created) {
+				out.write(HEADER);
+				out.write('\n');
+			}
+		}
+		out.write(formatLine(entry));
+		out.flush();
+		entries.put(entry.getPath(), entry);
+		lineCount++;
+	}
+
+	/** @return - false if the conversion produced no outputs, or one of them is gone. */
+	private static boolean outputsExist(Entry entry) {
+		if (entry.getOutputs().length == 0) {
+			return false;
+		}
+		for (String output : entry.getOutputs()) {
+			if (!new File(output).exists()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String formatLine(Entry entry) {
+		StringBuilder line = new StringBuilder(256);
+		line.append(entry.getStatus()).append('\t')
+			.append(entry.getSize()).append('\t')
+			.append(entry.getLastModified()).append('\t')
+			.append(entry.getHash()).append('\t')
+			.append(entry.getInputFormat() == null ? "-" : entry.getInputFormat().name()).append('\t')
+			.append(entry.getOutputFormat() == null ? "-" : entry.getOutputFormat().name()).append('\t');
+		escape(entry.getPath(), line);
+		for (String output : entry.getOutputs()) {
+			line.append('\t');
+			escape(output, line);
+		}
+		return line.append('\n').toString();
+	}
+
+	private static Entry parseLine(String line) {
+		String[] fields = line.split("\t", -1);
+		if (fields.length < 7) {
+			return null;
+		}
+		try {
+			String[] outputs = new String[fields.length - 7];
+			for (int i = 0; i < outputs.length; i++) {
+				outputs[i] = unescape(fields[7 + i]);
+			}
+			return new Entry(unescape(fields[6]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3],
+					parseFormat(fields[4]), parseFormat(fields[5]), Status.valueOf(fields[0]), outputs);
+		} catch (IllegalArgumentException e) { // includes NumberFormatException
+			return null;
+		}
+	}
+
+	private static fileFormat parseFormat(String field) {
+		return field.equals("-") ? null : fileFormat.valueOf(field);
+	}
+
+	/** Paths may in principle contain the separators, so tab, newline and backslash are escaped. */
+	private static void escape(String value, StringBuilder line) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '\\': line.append("\\\\"); break;
+				case '\t': line.append("\\t"); break;
+				case '\n': line.append("\\n"); break;
+				case '\r': line.append("\\r"); break;
+				default: line.append(c);
+			}
+		}
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder result = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				switch (next) {
+					case 't': result.append('\t'); break;
+					case 'n': result.append('\n'); break;
+					case 'r': result.append('\r'); break;
+					default: result.append(next);
+				}
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	/** Hex SHA-1 of a file's content. */
+	public static String hash(File file) throws IOException {
+		List<File> files = new ArrayList<File>();
+		files.add(file);
+		return hash(files);
+	}
+
+	/** Hex SHA-1 of the files' contents, one after the other. */
+	public static String hash(List<File> files) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		byte[] buffer = new byte[BUFFER];
+		for (File file : files) {
+			InputStream in = new FileInputStream(file);
+			try {
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, count);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		byte[] bytes = digest.digest();
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,275 @@
+package edu.jhu.icm.ecgFormatConverter.batch;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.jfree.chart.ChartUtilities;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.StandardXYItemRenderer;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter;
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStores;
+import edu.jhu.icm.parser.DecimatedXYDataset;
+import edu.jhu.icm.parser.LeadDataset;
+
+/** Renders a preview strip (one lead, the first seconds) of many ECG files concurrently, as PNG files.<br>
+ * <br>
+ * Records are loaded and drawn on a fixed pool of render threads; each thread keeps its own converter and its own
+ * chart, plot, renderer and axes, and only swaps the dataset between records. Only the strip is read
+ * (see ECGformatConverter.setTimeWindow() and setLeadSelection()) and the lead is decimated to the image width
+ * before drawing. The finished images are PNG encoded and written on a separate pool, so rendering does not
+ * wait for compression or disk. A bounded number of records is in flight at a time, so memory does not grow
+ * with the size of the batch. Run with -Djava.awt.headless=true on servers.<br>
+ * <br>
+ * Usage: new ThumbnailRenderer(0).renderAll(files, outputDir)
+ */
+public class ThumbnailRenderer {
+	protected Logger log = Logger.getLogger(ThumbnailRenderer.class);
+
+	public static final String EXTENSION = ".png";
+
+	private final int threads;
+	private int width = 1200;
+	private int height = 200;
+	private String leadName = "II";
+	private TimeWindow strip = new TimeWindow(0, 10);
+	private long offHeapThreshold = SampleStores.NEVER;
+	private int segmentThreshold = SampleStores.NEVER_SEGMENTED;
+
+	/** The reusable chart of one render thread. */
+	private class StripChart {
+		private final XYPlot plot;
+		private final JFreeChart chart;
+
+		private StripChart() {
+			NumberAxis timeAxis = new NumberAxis();
+			NumberAxis voltageAxis = new NumberAxis();
+			voltageAxis.setAutoRangeIncludesZero(false);
+			StandardXYItemRenderer renderer = new StandardXYItemRenderer();
+			renderer.setSeriesPaint(0, Color.YELLOW);
+			plot = new XYPlot(null, timeAxis, voltageAxis, renderer);
+			plot.setBackgroundPaint(Color.BLACK);
+			chart = new JFreeChart(plot);
+			chart.removeLegend();
+			chart.setBackgroundPaint(Color.BLACK);
+		}
+
+		private BufferedImage draw(LeadDataset lead) {
+			plot.setDataset(new DecimatedXYDataset(lead, width));
+			BufferedImage image = chart.createBufferedImage(width, height);
+			plot.setDataset(null); // do not keep the record's samples reachable until the next one
+			return image;
+		}
+	}
+
+	private final ThreadLocal<StripChart> charts = new ThreadLocal<StripChart>() {
+		@Override
+		protected StripChart initialValue() {
+			return new StripChart();
+		}
+	};
+
+	private final ThreadLocal<ECGformatConverter> converters = new ThreadLocal<ECGformatConverter>() {
+		@Override
+		protected ECGformatConverter initialValue() {
+			return new ECGformatConverter();
+		}
+	};
+
+	/**
+	 * @param threads - number of render threads, zero or less means one per available processor.
+	 */
+	public ThumbnailRenderer(int threads) {
+		if(threads <= 0){
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.threads = threads;
+	}
+
+	/** Renders a strip of every file as outputDir/name.png, the input format is detected from each file's content.
+	 *
+	 * @param inputs - ECG files
+	 * @param outputDir - directory for the PNG files, created if needed
+	 * @return - number of PNG files written.
+	 * @throws IOException - if the output directory can not be created.
+	 */
+	public int renderAll(List<File> inputs, final File outputDir) throws IOException {
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("Could not create " + outputDir);
+		}
+		ExecutorService renderPool = Executors.newFixedThreadPool(threads);
+		ExecutorService encodePool = Executors.newFixedThreadPool(Math.max(1, threads / 2));
+		LinkedList<Future<Boolean>> encodings = new LinkedList<Future<Boolean>>();
+		int written = 0;
+		try {
+			LinkedList<Future<BufferedImage>> window = new LinkedList<Future<BufferedImage>>();
+			LinkedList<File> windowFiles = new LinkedList<File>();
+			int next = 0;
+			while (next < inputs.size() || !window.isEmpty()) {
+				while (next < inputs.size() && window.size() < threads * 2) {
+					final File input = inputs.get(next++);
+					window.add(renderPool.submit(new Callable<BufferedImage>() {
+						public BufferedImage call() {
+							return render(input);
+						}
+					}));
+					windowFiles.add(input);
+				}
+				final File input = windowFiles.removeFirst();
+				final BufferedImage image = get(window.removeFirst(), input);
+				if (image != null) {
+					encodings.add(encodePool.submit(new Callable<Boolean>() {
+						public Boolean call() {
+							return encode(image, new File(outputDir, baseName(input) + EXTENSION));
+						}
+					}));
+				}
+				// keep the encoder queue from holding more images than are being rendered
+				while (encodings.size() > threads * 2) {
+					if (Boolean.TRUE.equals(get(encodings.removeFirst(), null))) {
+						written++;
+					}
+				}
+			}
+			while (!encodings.isEmpty()) {
+				if (Boolean.TRUE.equals(get(encodings.removeFirst(), null))) {
+					written++;
+				}
+			}
+		} finally {
+			renderPool.shutdownNow();
+			encodePool.shutdown();
+		}
+		return written;
+	}
+
+	/** Loads the strip of one file and draws it on this thread's chart; the read buffers go back to the thread's BufferArena
+	 * and the converter forgets the record, so nothing of it (samples, lead names) is kept until the thread's next file.
+	 *
+	 * @return - the image, null if the file could not be read.
+	 */
+	private BufferedImage render(File input) {
+		BufferArena arena = BufferArena.current();
+		arena.open();
+		ECGformatConverter converter = converters.get();
+		try {
+			return renderStrip(converter, input);
+		} finally {
+			converter.releaseRecord();
+			arena.close();
+		}
+	}
+
+	private BufferedImage renderStrip(ECGformatConverter converter, File input) {
+		converter.setTimeWindow(strip);
+		converter.setLeadSelection(LeadSelection.byName(leadName));
+		converter.setOffHeapThreshold(offHeapThreshold);
+		converter.setSegmentThreshold(segmentThreshold);
+		String fileName = input.getName();
+		String inputPath = input.getAbsoluteFile().getParent() + File.separator;
+		if (!converter.read(fileName, 0, inputPath, baseName(input))) {
+			// a file without the lead fails the load (see LeadSelection.resolve()), its first lead is drawn instead
+			converter.setLeadSelection(LeadSelection.first(1));
+			if (!converter.read(fileName, 0, inputPath, baseName(input))) {
+				log.error("Could not read " + input);
+				return null;
+			}
+		}
+		LeadDataset lead = (converter.getData() != null) ? converter.getLeadDataset() : copyFirstLead(converter);
+		if (lead == null || lead.getSeriesCount() == 0 || lead.getItemCount(0) == 0) {
+			log.error("No samples to draw in " + input);
+			return null;
+		}
+		return charts.get().draw(lead.getLeadView(0));
+	}
+
+	/** The lead drawn, copied out of a memory mapped or segmented store (which has no data array to view); only the strip was read.
+	 *
+	 * @return - the lead, null if nothing was loaded.
+	 */
+	private static LeadDataset copyFirstLead(ECGformatConverter converter) {
+		SampleStore store = converter.getSampleStore();
+		if (store == null || store.getChannels() == 0) {
+			return null;
+		}
+		int[][] samples = new int[1][store.getSamplesPerChannel()];
+		store.read(0, 0, samples[0], 0, samples[0].length);
+		String[] names = (converter.getLeadNames() == null) ? null : new String[]{converter.getLeadNames().split(",")[0]};
+		return new LeadDataset(samples, converter.getSamplingRate(), converter.getAduGain(), names);
+	}
+
+	private boolean encode(BufferedImage image, File pngFile) {
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(pngFile), 64*1024);
+			try {
+				ChartUtilities.writeBufferedImageAsPNG(out, image);
+			} finally {
+				out.close();
+			}
+			return true;
+		} catch (IOException e) {
+			log.error("Could not write " + pngFile + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	private <T> T get(Future<T> future, File input) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			log.error("Thumbnail failed" + (input == null ? "" : " for " + input) + ": " + e.getCause());
+			return null;
+		}
+	}
+
+	private static String baseName(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return (dot > 0) ? name.substring(0, dot) : name;
+	}
+
+	/** Size of the PNG files, 1200x200 by default like DrawEcg. */
+	public void setImageSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/** Lead drawn, by any name LeadEnum knows; "II" by default. Files without it show their first lead. */
+	public void setLeadName(String leadName) {
+		this.leadName = leadName;
+	}
+
+	/** Part of each recording drawn, the first 10 seconds by default. */
+	public void setStrip(TimeWindow strip) {
+		this.strip = strip;
+	}
+
+	/** Store thresholds of the converters, see ECGformatConverter.setOffHeapThreshold() and setSegmentThreshold(); 
+	 * the defaults keep every record in a data array. */
+	public void setStoreThresholds(long offHeapThreshold, int segmentThreshold) {
+		this.offHeapThreshold = offHeapThreshold;
+		this.segmentThreshold = segmentThreshold;
+	}
+}
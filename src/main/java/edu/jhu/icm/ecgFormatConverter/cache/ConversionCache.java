@@ -0,0 +1,343 @@
+package edu.jhu.icm.ecgFormatConverter.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+
+/** On-disk cache of conversion outputs, keyed by the content of the input file(s), the output format
+ * and the options that affect the output (record name, signals requested, ...).<br>
+ * <br>
+ * Each entry is a directory named after its key holding a copy of every output file plus an entry.properties
+ * with the rows written. A hit copies the cached files into the requested output directory. They are not
+ * hard-linked: the writers truncate existing output files in place, which would corrupt a linked entry.<br>
+ * <br>
+ * The total size is bounded: the least recently used entries are deleted once it goes over maxBytes.
+ * The entry directory's modification time records its last use, so the order survives restarts.
+ * Several converters, threads or processes may share one cache directory; entries are installed with an
+ * atomic rename, each put() picks up the entries other processes added so maxBytes holds for the directory,
+ * get() finds them too, and a hit that loses a race with eviction is treated as a miss.
+ */
+public class ConversionCache {
+	protected Logger log = Logger.getLogger(ConversionCache.class);
+
+	private static final String ENTRY_FILE = "entry.properties";
+	private static final String TEMP_PREFIX = "tmp-";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER = 64*1024;
+	private static final long STALE_TEMP_MILLIS = 60*60*1000; // an unfinished put older than this was interrupted
+
+	/** The outputs of a cache hit, already placed in the output directory. */
+	public static class Result {
+		private final int rowsWritten;
+		private final String[] outputFilenames;
+
+		public Result(int rowsWritten, String[] outputFilenames) {
+			this.rowsWritten = rowsWritten;
+			this.outputFilenames = outputFilenames;
+		}
+
+		public int getRowsWritten() {
+			return rowsWritten;
+		}
+
+		/** @return - full paths of the output files */
+		public String[] getOutputFilenames() {
+			return outputFilenames;
+		}
+	}
+
+	private final File directory;
+	private final long maxBytes;
+	private long totalBytes = 0;
+	private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<String, Long>(64, 0.75f, true); // key -> bytes, least recently used first
+
+	/**
+	 * @param directory - cache directory, created if it does not exist.
+	 * @param maxBytes - upper bound of the total size of the cached files.
+	 * @throws IOException - if the directory can not be created.
+	 */
+	public ConversionCache(File directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create cache directory " + directory);
+		}
+		load();
+	}
+
+	/** Registers the existing entries, least recently used first, and removes leftovers of interrupted puts. */
+	private synchronized void load() {
+		File[] dirs = directory.listFiles();
+		if (dirs == null) {
+			return;
+		}
+		Arrays.sort(dirs, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long diff = a.lastModified() - b.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+		for (File dir : dirs) {
+			if (!dir.isDirectory()) {
+				continue;
+			}
+			if (dir.getName().startsWith(TEMP_PREFIX) || !new File(dir, ENTRY_FILE).exists()) {
+				if (dir.lastModified() < System.currentTimeMillis() - STALE_TEMP_MILLIS) {
+					delete(dir);
+				}
+				continue;
+			}
+			register(dir);
+		}
+		evict();
+	}
+
+	/** Brings the registered entries in line with the directory, which other processes may have changed:
+	 * adds the entries they put, as most recently used, and forgets the ones they evicted. */
+	private synchronized void refresh() {
+		File[] dirs = directory.listFiles();
+		if (dirs == null) {
+			return;
+		}
+		Map<String, File> onDisk = new LinkedHashMap<String, File>();
+		for (File dir : dirs) {
+			if (dir.isDirectory() && !dir.getName().startsWith(TEMP_PREFIX) && new File(dir, ENTRY_FILE).exists()) {
+				onDisk.put(dir.getName(), dir);
+			}
+		}
+		Iterator<Map.Entry<String, Long>> it = entrySizes.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Long> known = it.next();
+			if (onDisk.remove(known.getKey()) == null) {
+				it.remove();
+				totalBytes -= known.getValue();
+			}
+		}
+		for (File dir : onDisk.values()) {
+			register(dir);
+		}
+	}
+
+	/** Adds an installed entry directory to the registered entries, as most recently used. */
+	private synchronized void register(File entryDir) {
+		long size = sizeOf(entryDir);
+		Long previous = entrySizes.put(entryDir.getName(), size);
+		totalBytes += size - ((previous == null) ? 0 : previous);
+	}
+
+	/** Builds the cache key for a conversion.
+	 *
+	 * @param inputs - every file the conversion reads (e.g. a WFDB record's .hea and .dat files)
+	 * @param outputFormat - format converted to
+	 * @param options - anything else the output depends on, such as the record name and signals requested
+	 * @return - hex SHA-1 of the inputs' content, the output format and the options.
+	 * @throws IOException - if an input can not be read.
+	 */
+	public static String key(List<File> inputs, fileFormat outputFormat, String options) throws IOException {
+		MessageDigest digest = sha1();
+		byte[] buffer = new byte[BUFFER];
+		for (File input : inputs) {
+			InputStream in = new FileInputStream(input);
+			try {
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, count);
+				}
+			} finally {
+				in.close();
+			}
+			digest.update((byte) 0);
+		}
+		digest.update((outputFormat.name() + '\n' + options).getBytes(UTF8));
+		return hex(digest.digest());
+	}
+
+	/** Places the cached outputs for key in outputPath.
+	 *
+	 * @param key - from key()
+	 * @param outputPath - output directory, including the trailing separator
+	 * @return - the cached result, null on a miss.
+	 */
+	public Result get(String key, String outputPath) {
+		File entryDir = new File(directory, key);
+		synchronized (this) {
+			if (entrySizes.get(key) == null) { // also moves it to the most recently used end
+				if (!new File(entryDir, ENTRY_FILE).exists()) {
+					return null;
+				}
+				register(entryDir); // put by another process
+			}
+			entryDir.setLastModified(System.currentTimeMillis());
+		}
+		try {
+			Properties entry = readEntry(entryDir);
+			int rows = Integer.parseInt(entry.getProperty("rows"));
+			int count = Integer.parseInt(entry.getProperty("outputs"));
+			String[] outputs = new String[count];
+			for (int i = 0; i < count; i++) {
+				String name = entry.getProperty("output." + i);
+				File target = new File(outputPath + name);
+				materialize(new File(entryDir, name), target);
+				outputs[i] = target.getPath();
+			}
+			return new Result(rows, outputs);
+		} catch (Exception e) { // evicted by another process, or a damaged entry
+			log.warn("Cache entry " + key + " could not be used: " + e.getMessage());
+			synchronized (this) {
+				Long size = entrySizes.remove(key);
+				if (size != null) {
+					totalBytes -= size;
+				}
+			}
+			delete(entryDir);
+			return null;
+		}
+	}
+
+	/** Copies the outputs of a conversion into the cache.
+	 *
+	 * @param key - from key()
+	 * @param outputFilenames - full paths of the output files, all in the same directory with distinct names.
+	 * @param rowsWritten - returned to later hits
+	 * @return - true if the entry is now in the cache, false if it could not be stored
+	 * 	or another process stored the same key first (its entry is used by later hits).
+	 */
+	public boolean put(String key, String[] outputFilenames, int rowsWritten) {
+		synchronized (this) {
+			if (entrySizes.containsKey(key)) {
+				return true;
+			}
+		}
+		File temp = new File(directory, TEMP_PREFIX + key + "-" + Thread.currentThread().getId() + "-" + System.nanoTime());
+		try {
+			if (!temp.mkdir()) {
+				throw new IOException("Could not create " + temp);
+			}
+			Properties entry = new Properties();
+			entry.setProperty("rows", Integer.toString(rowsWritten));
+			entry.setProperty("outputs", Integer.toString(outputFilenames.length));
+			for (int i = 0; i < outputFilenames.length; i++) {
+				File output = new File(outputFilenames[i]);
+				Files.copy(output.toPath(), new File(temp, output.getName()).toPath());
+				entry.setProperty("output." + i, output.getName());
+			}
+			OutputStream out = new FileOutputStream(new File(temp, ENTRY_FILE));
+			try {
+				entry.store(out, null);
+			} finally {
+				out.close();
+			}
+
+			synchronized (this) {
+				File entryDir = new File(directory, key);
+				if (!temp.renameTo(entryDir)) { // put by another process in the meantime, or the directory is not writable
+					log.warn("Could not install cache entry " + key);
+					delete(temp);
+					return false;
+				}
+				refresh(); // registers the new entry, with the ones other processes put
+				evict();
+			}
+			return true;
+		} catch (IOException e) {
+			log.error("Could not cache " + key + ": " + e.getMessage());
+			delete(temp);
+			return false;
+		}
+	}
+
+	/** Total size of the cached files, in bytes. */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/** Number of cached conversions. */
+	public synchronized int size() {
+		return entrySizes.size();
+	}
+
+	/** Deletes least recently used entries until the total size is within maxBytes. */
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> it = entrySizes.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> lru = it.next();
+			it.remove();
+			totalBytes -= lru.getValue();
+			delete(new File(directory, lru.getKey()));
+		}
+	}
+
+	private static void materialize(File cached, File target) throws IOException {
+		Files.copy(cached.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static Properties readEntry(File entryDir) throws IOException {
+		Properties entry = new Properties();
+		InputStream in = new FileInputStream(new File(entryDir, ENTRY_FILE));
+		try {
+			entry.load(in);
+		} finally {
+			in.close();
+		}
+		return entry;
+	}
+
+	private static long sizeOf(File dir) {
+		long size = 0;
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (!f.getName().equals(ENTRY_FILE)) {
+					size += f.length();
+				}
+			}
+		}
+		return size;
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static MessageDigest sha1() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,248 @@
+package edu.jhu.icm.ecgFormatConverter.csv;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.icm.ecgFormatConverter.WrapperWriter;
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+import edu.jhu.icm.ecgFormatConverter.store.HeapSampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStore;
+
+/** Writes the ECG data array out as delimited text (CSV or TSV):
+ * a time column in seconds followed by one column per lead.
+ *
+ * Numbers are formatted straight into a byte block which is flushed to the
+ * (optionally gzipped) output stream when full, so no String is created per value.
+ * The samples are drained from a SampleStore a block of rows at a time, so a memory mapped
+ * recording is written without bringing it onto the heap.
+ */
+public class CSVWriter implements WrapperWriter {
+
+	protected Logger log = Logger.getLogger(CSVWriter.class);
+
+	private static final int BLOCK_SIZE = 64 * 1024;
+	private static final int ROWS_PER_READ = 4 * 1024;
+	private static final int MIN_TIME_DECIMALS = 3;
+	private static final int MAX_TIME_DECIMALS = 6;
+	private static final int UNIT_DECIMALS = 3; // mV with microVolt resolution
+	private static final byte[] DIGITS = {'0','1','2','3','4','5','6','7','8','9'};
+
+	private File csvFile;
+	private byte delimiter = ',';
+	private boolean gzipOutput = false;
+	private boolean physicalUnits = false;
+	private int channels, samplesPerChannel;
+	private float samplingRate;
+	private int aduGain = 200;
+	private SampleStore store;
+	private String[] leadNames;
+
+	private byte[] block;
+	private int blockPos = 0;
+	private byte[] scratch = new byte[20];
+	private OutputStream out;
+
+	public CSVWriter(File csvFile) {
+		this.csvFile = csvFile;
+	}
+
+	public CSVWriter(File csvFile, char delimiter) {
+		this.csvFile = csvFile;
+		this.delimiter = (byte) delimiter;
+	}
+
+	/**
+	 * Writes the header line and all the samples.
+	 *
+	 * @return - rows written, -1 on error.
+	 */
+	public int write() {
+		if (store == null) {
+			log.error("write() failed, no samples: setData() or setSampleStore() was not called, or given null.");
+			return -1;
+		}
+		int s = 0;
+		int timeDecimals = timeDecimals(samplingRate);
+		long timeScale = pow10(timeDecimals);
+		double rate = samplingRate > 0 ? samplingRate : 1;
+
+		block = BufferArena.current().borrowBytes(BLOCK_SIZE);
+		blockPos = 0;
+		try {
+			OutputStream fos = new FileOutputStream(csvFile);
+			out = gzipOutput ? new GZIPOutputStream(fos, BLOCK_SIZE) : fos;
+			try {
+				writeHeader();
+				int rowsPerRead = Math.min(ROWS_PER_READ, Math.max(samplesPerChannel, 1));
+				int[][] rows = BufferArena.current().borrowInts(channels, rowsPerRead);
+				for (int first = 0; first < samplesPerChannel; first += rowsPerRead) {
+					int count = Math.min(rowsPerRead, samplesPerChannel - first);
+					for (int c = 0; c < channels; c++) {
+						store.read(c, first, rows[c], 0, count);
+					}
+					for (int r = 0; r < count; r++, s++) {
+						ensureRoom();
+						appendFixed(Math.round(s * timeScale / rate), timeDecimals);
+						for (int c = 0; c < channels; c++) {
+							block[blockPos++] = delimiter;
+							if (physicalUnits) {
+								appendFixed(Math.round(rows[c][r] * 1000.0 / aduGain), UNIT_DECIMALS);
+							} else {
+								appendLong(rows[c][r]);
+							}
+						}
+						block[blockPos++] = '\n';
+					}
+				}
+				flushBlock();
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			log.error("write() failed. " + e.getMessage());
+			return -1;
+		}
+		return s;
+	}
+
+	private void writeHeader() throws IOException {
+		StringBuilder header = new StringBuilder(physicalUnits ? "Time (s)" : "Time");
+		for (int c = 0; c < channels; c++) {
+			header.append((char) delimiter);
+			if (leadNames != null && c < leadNames.length) {
+				header.append(leadNames[c].trim());
+			} else {
+				header.append("Channel").append(c + 1);
+			}
+			if (physicalUnits) {
+				header.append(" (mV)");
+			}
+		}
+		header.append('\n');
+		out.write(header.toString().getBytes("UTF-8"));
+	}
+
+	/** Flushes the block if the next row (worst case 21 bytes per column) might not fit. */
+	private void ensureRoom() throws IOException {
+		if (blockPos + (channels + 1) * 21 + 1 > block.length) {
+			flushBlock();
+			if ((channels + 1) * 21 + 1 > block.length) {
+				block = new byte[(channels + 1) * 21 + 1];
+			}
+		}
+	}
+
+	private void flushBlock() throws IOException {
+		out.write(block, 0, blockPos);
+		blockPos = 0;
+	}
+
+	private void appendLong(long value) {
+		if (value < 0) {
+			block[blockPos++] = '-';
+			value = -value;
+		}
+		int i = scratch.length;
+		do {
+			scratch[--i] = DIGITS[(int) (value % 10)];
+			value /= 10;
+		} while (value != 0);
+		int len = scratch.length - i;
+		System.arraycopy(scratch, i, block, blockPos, len);
+		blockPos += len;
+	}
+
+	/** Appends value / 10^decimals with exactly "decimals" digits after the point. */
+	private void appendFixed(long value, int decimals) {
+		if (value < 0) {
+			block[blockPos++] = '-';
+			value = -value;
+		}
+		int i = scratch.length;
+		for (int d = 0; d < decimals; d++) {
+			scratch[--i] = DIGITS[(int) (value % 10)];
+			value /= 10;
+		}
+		scratch[--i] = '.';
+		do {
+			scratch[--i] = DIGITS[(int) (value % 10)];
+			value /= 10;
+		} while (value != 0);
+		int len = scratch.length - i;
+		System.arraycopy(scratch, i, block, blockPos, len);
+		blockPos += len;
+	}
+
+	/** Fewest decimals (3 to 6) which represent every sample time exactly, e.g. 3 for 500Hz and 250Hz, 4 for 400Hz.
+	 * Rates which divide no power of ten up to 10^6 (360Hz, 128Hz, non integer rates) get 6 decimals,
+	 * i.e. their sample times are rounded to the microsecond. */
+	private static int timeDecimals(float samplingRate) {
+		if (samplingRate > 0 && samplingRate == Math.rint(samplingRate)) {
+			long rate = (long) samplingRate;
+			for (int d = MIN_TIME_DECIMALS; d <= MAX_TIME_DECIMALS; d++) {
+				if (pow10(d) % rate == 0) {
+					return d;
+				}
+			}
+		}
+		return MAX_TIME_DECIMALS;
+	}
+
+	private static long pow10(int n) {
+		long p = 1;
+		for (int i = 0; i < n; i++) {
+			p *= 10;
+		}
+		return p;
+	}
+
+	@Override
+	public void setSamplesPerChannel(int samplesPerChannel) {
+		this.samplesPerChannel = samplesPerChannel;
+	}
+
+	@Override
+	public void setChannels(int channels) {
+		this.channels = channels;
+	}
+
+	@Override
+	public void setSamplingRate(float frequency) {
+		this.samplingRate = frequency;
+	}
+
+	@Override
+	public void setData(int[][] data) {
+		this.store = (data == null) ? null : new HeapSampleStore(data, samplesPerChannel);
+	}
+
+	/** @param store - the samples to write, instead of setData() */
+	public void setSampleStore(SampleStore store) {
+		this.store = store;
+	}
+
+	/** @param leadNames - column titles, one per channel; missing names default to "ChannelN" */
+	public void setLeadNames(String[] leadNames) {
+		this.leadNames = leadNames;
+	}
+
+	/** @param aduGain - ADC units per milliVolt, used when writing physical units */
+	public void setAduGain(int aduGain) {
+		this.aduGain = aduGain;
+	}
+
+	/** @param physicalUnits - true to write the leads in milliVolts instead of raw ADC units */
+	public void setPhysicalUnits(boolean physicalUnits) {
+		this.physicalUnits = physicalUnits;
+	}
+
+	/** @param gzipOutput - true to gzip the file while it is written */
+	public void setGzipOutput(boolean gzipOutput) {
+		this.gzipOutput = gzipOutput;
+	}
+}
@@ -0,0 +1,300 @@
+package edu.jhu.icm.ecgFormatConverter.ecgz;
+
+import java.io.IOException;
+
+/** Block coding of the ECGZ format, shared by ECGZWriter and ECGZReader.<br>
+ * <br>
+ * A block is one channel's samples for BLOCK_SIZE sample times. Each sample is predicted from the ones before it
+ * with a fixed polynomial predictor of order 0 (zero), 1 (the previous sample) or 2 (linear extrapolation of the
+ * two previous samples), whichever gives the smallest residuals for the block. The residuals are zigzag mapped to
+ * unsigned numbers and Rice coded with the block's parameter k: the quotient u >>> k in unary (ones ended by a zero)
+ * followed by the k low bits. A quotient of ESCAPE or more is written as ESCAPE ones and the 32 bit value instead.
+ * All arithmetic wraps like int, so any int[] round trips exactly.<br>
+ * <br>
+ * Block layout: order (1 byte), k (1 byte), then the bit stream, most significant bit first, padded to a byte:
+ * the first "order" samples as 32 bit values, then one Rice code per remaining sample.
+ */
+class ECGZCodec {
+
+	static final int BLOCK_SIZE = 4096;
+	private static final int ESCAPE = 24;
+	private static final int MAX_ORDER = 2;
+	private static final int MAX_K = 31;
+
+	private ECGZCodec() {
+	}
+
+	private static int residual(int[] x, int i, int order) {
+		switch (order) {
+			case 0:
+				return x[i];
+			case 1:
+				return x[i] - x[i - 1];
+			default:
+				return x[i] - 2 * x[i - 1] + x[i - 2];
+		}
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	/** Encodes samples[0..count) as one block.
+	 *
+	 * @param out - receives the block, reset first
+	 */
+	static void encodeBlock(int[] samples, int count, BitWriter out) {
+		out.reset();
+		int order = Math.min(MAX_ORDER, count);
+		long bestSum = Long.MAX_VALUE;
+		for (int o = 0; o <= Math.min(MAX_ORDER, count); o++) {
+			long sum = 0;
+			for (int i = MAX_ORDER; i < count; i++) { // the same samples for every order, so the sums compare
+				sum += zigzag(residual(samples, i, o)) & 0xFFFFFFFFL;
+			}
+			if (sum < bestSum) {
+				bestSum = sum;
+				order = o;
+			}
+		}
+		order = Math.min(order, count);
+		int k = riceParameter(samples, count, order);
+		out.writeByte(order);
+		out.writeByte(k);
+		for (int i = 0; i < order; i++) {
+			out.write(samples[i], 32);
+		}
+		for (int i = order; i < count; i++) {
+			int u = zigzag(residual(samples, i, order));
+			int q = u >>> k;
+			if (q >= ESCAPE || q < 0) {
+				out.writeOnes(ESCAPE);
+				out.write(u, 32);
+			} else {
+				out.writeOnes(q);
+				out.write(0, 1);
+				out.write(u, k);
+			}
+		}
+		out.flush();
+	}
+
+	/** The k (of log2(mean) - 1 to log2(mean) + 1) which codes the residuals in the fewest bits. */
+	private static int riceParameter(int[] samples, int count, int order) {
+		int n = count - order;
+		if (n <= 0) {
+			return 0;
+		}
+		long sum = 0;
+		for (int i = order; i < count; i++) {
+			sum += zigzag(residual(samples, i, order)) & 0xFFFFFFFFL;
+		}
+		long mean = sum / n;
+		int guess = (mean == 0) ? 0 : 63 - Long.numberOfLeadingZeros(mean);
+		int best = guess;
+		long bestBits = Long.MAX_VALUE;
+		for (int k = Math.max(0, guess - 1); k <= Math.min(31, guess + 1); k++) {
+			long bits = 0;
+			for (int i = order; i < count; i++) {
+				long q = (zigzag(residual(samples, i, order)) & 0xFFFFFFFFL) >>> k;
+				bits += (q >= ESCAPE) ? ESCAPE + 32 : q + 1 + k;
+			}
+			if (bits < bestBits) {
+				bestBits = bits;
+				best = k;
+			}
+		}
+		return best;
+	}
+
+	/** The fewest bytes a block of count samples can take: order 0 and a one bit code per sample. */
+	static long minBlockLength(int count) {
+		return 2 + (count + 7L) / 8;
+	}
+
+	/** Decodes a block of count samples from data[offset..offset+length) into samples[0..count).
+	 *
+	 * @throws IOException - the order or k is out of range, or the codes run past the end of the block
+	 */
+	static void decodeBlock(byte[] data, int offset, int length, int[] samples, int count) throws IOException {
+		if (length < minBlockLength(count)) {
+			throw new IOException("Corrupt ECGZ block, " + length + " bytes for " + count + " samples.");
+		}
+		int order = data[offset] & 0xFF;
+		int k = data[offset + 1] & 0xFF;
+		if (order > Math.min(MAX_ORDER, count) || k > MAX_K) {
+			throw new IOException("Corrupt ECGZ block, predictor order " + order + ", Rice parameter " + k + ".");
+		}
+		BitReader in = new BitReader(data, offset + 2, offset + length);
+		for (int i = 0; i < order && i < count; i++) {
+			samples[i] = in.read(32);
+		}
+		int p1 = (order > 0 && count > 0) ? samples[order - 1] : 0;
+		int p2 = (order > 1) ? samples[order - 2] : 0;
+		for (int i = order; i < count; i++) {
+			int q = in.readOnes(ESCAPE);
+			int u = (q == ESCAPE) ? in.read(32) : (q << k) | in.read(k);
+			int r = (u >>> 1) ^ -(u & 1);
+			int x;
+			switch (order) {
+				case 0:
+					x = r;
+					break;
+				case 1:
+					x = p1 + r;
+					break;
+				default:
+					x = 2 * p1 - p2 + r;
+					break;
+			}
+			samples[i] = x;
+			p2 = p1;
+			p1 = x;
+		}
+		if (in.isOverrun()) {
+			throw new IOException("Corrupt ECGZ block, the codes run past its " + length + " bytes.");
+		}
+	}
+
+	/** Growable bit stream, most significant bit first. */
+	static class BitWriter {
+		private byte[] bytes = new byte[16 * 1024];
+		private int size = 0;
+		private long pending = 0; // bits not yet written to bytes, right aligned
+		private int pendingBits = 0;
+
+		void reset() {
+			size = 0;
+			pending = 0;
+			pendingBits = 0;
+		}
+
+		void writeByte(int value) {
+			ensure(1);
+			bytes[size++] = (byte) value;
+		}
+
+		/** Writes the low n (0 to 32) bits of value. */
+		void write(int value, int n) {
+			if (n == 0) {
+				return;
+			}
+			pending = (pending << n) | (value & ((1L << n) - 1));
+			pendingBits += n;
+			drain();
+		}
+
+		void writeOnes(int n) {
+			while (n > 0) {
+				int chunk = Math.min(n, 32);
+				write(-1, chunk);
+				n -= chunk;
+			}
+		}
+
+		private void drain() {
+			ensure(8);
+			while (pendingBits >= 8) {
+				pendingBits -= 8;
+				bytes[size++] = (byte) (pending >>> pendingBits);
+			}
+		}
+
+		/** Pads the last byte with zero bits. */
+		void flush() {
+			if (pendingBits > 0) {
+				write(0, 8 - pendingBits);
+			}
+			pending = 0;
+		}
+
+		private void ensure(int more) {
+			if (size + more > bytes.length) {
+				byte[] grown = new byte[Math.max(size + more, bytes.length * 2)];
+				System.arraycopy(bytes, 0, grown, 0, size);
+				bytes = grown;
+			}
+		}
+
+		byte[] bytes() {
+			return bytes;
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	/** Reads a bit stream written by BitWriter through a 64 bit window; reads past the end return zero bits. */
+	static class BitReader {
+		private final byte[] data;
+		private int pos;
+		private final int end;
+		private long window = 0; // next bit is bit 63
+		private int bits = 0; // valid bits in window
+		private int padding = 0; // zero bytes added to the window past the end
+
+		BitReader(byte[] data, int offset, int end) {
+			this.data = data;
+			this.pos = offset;
+			this.end = end;
+		}
+
+		private void refill() {
+			while (bits <= 56) {
+				long b = 0;
+				if (pos < end) {
+					b = data[pos++] & 0xFF;
+				} else {
+					padding++;
+				}
+				window |= b << (56 - bits);
+				bits += 8;
+			}
+		}
+
+		private void skip(int n) {
+			window = (n == 64) ? 0 : window << n;
+			bits -= n;
+		}
+
+		/** Reads n (0 to 32) bits. */
+		int read(int n) {
+			if (n == 0) {
+				return 0;
+			}
+			if (bits < n) {
+				refill();
+			}
+			int value = (int) (window >>> (64 - n));
+			skip(n);
+			return value;
+		}
+
+		/** True when more bits were consumed than the stream holds. */
+		boolean isOverrun() {
+			return padding * 8 > bits;
+		}
+
+		/** Counts and consumes ones up to the terminating zero (consumed too), or up to max ones (no zero consumed). */
+		int readOnes(int max) {
+			int q = 0;
+			while (true) {
+				if (bits < 32) {
+					refill();
+				}
+				int ones = Math.min(Long.numberOfLeadingZeros(~window), bits);
+				if (q + ones >= max) {
+					skip(max - q);
+					return max;
+				}
+				if (ones < bits) {
+					skip(ones + 1);
+					return q + ones;
+				}
+				q += ones;
+				skip(ones);
+			}
+		}
+	}
+}
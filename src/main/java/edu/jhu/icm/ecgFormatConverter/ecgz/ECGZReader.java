@@ -0,0 +1,227 @@
+package edu.jhu.icm.ecgFormatConverter.ecgz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
+import edu.jhu.icm.ecgFormatConverter.WrapperLoader;
+
+/** Reads an ECGZ file (see ECGZWriter). Through the block index only the blocks of the selected leads
+ * which overlap the time window are read and decoded. */
+public class ECGZReader implements WrapperLoader {
+	protected Logger log = Logger.getLogger(ECGZReader.class);
+
+	private File ecgzFile;
+	private int channels, samplesPerChannel;
+	private float samplingRate;
+	private int aduGain = 200;
+	private int[][] data;
+	private List<String> leadNames;
+	private LeadSelection leadSelection;
+	private TimeWindow timeWindow;
+
+	/** Header fields, as written by ECGZWriter. */
+	private static class Header {
+		private int channels;
+		private float samplingRate;
+		private int samplesPerChannel;
+		private int aduGain;
+		private int blockSize;
+		private List<String> leadNames;
+	}
+
+	public ECGZReader() {
+	}
+
+	public ECGZReader(File ecgzFile) {
+		this.ecgzFile = ecgzFile;
+	}
+
+	public void setLeadSelection(LeadSelection leadSelection) {
+		this.leadSelection = leadSelection;
+	}
+
+	/** The block index gives the file position of the window's first block, blocks before it are not read. */
+	public void setTimeWindow(TimeWindow timeWindow) {
+		this.timeWindow = timeWindow;
+	}
+
+	private static Header readHeader(RandomAccessFile raf) throws IOException {
+		if (raf.length() < 7 * 4 + 12 || raf.readInt() != ECGZWriter.MAGIC) {
+			throw new IOException("Not an ECGZ file.");
+		}
+		int version = raf.readInt();
+		if (version != ECGZWriter.VERSION) {
+			throw new IOException("ECGZ version " + version + " is not supported.");
+		}
+		Header header = new Header();
+		header.channels = raf.readInt();
+		header.samplingRate = raf.readFloat();
+		header.samplesPerChannel = raf.readInt();
+		header.aduGain = raf.readInt();
+		header.blockSize = raf.readInt();
+		if (header.channels < 0 || header.samplesPerChannel < 0 || header.blockSize <= 0) {
+			throw new IOException("Corrupt ECGZ header.");
+		}
+		header.leadNames = new ArrayList<String>(header.channels);
+		for (int c = 0; c < header.channels; c++) {
+			header.leadNames.add(raf.readUTF());
+		}
+		return header;
+	}
+
+	/** Reads the header, without the index or any samples. */
+	public RecordMetadata probe(String filePath) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(filePath, "r");
+			try {
+				Header header = readHeader(raf);
+				return new RecordMetadata(header.channels, header.samplingRate, header.samplesPerChannel, header.leadNames, header.aduGain);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/** Opens the File object which was passed into the constructor and decodes the selected leads and window.
+	 *
+	 * @return - success/fail
+	 */
+	public boolean parse() {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(ecgzFile, "r");
+			try {
+				Header header = readHeader(raf);
+				long headerEnd = raf.getFilePointer();
+				int blockSize = header.blockSize;
+				int blocks = (int) (((long) header.samplesPerChannel + blockSize - 1) / blockSize);
+
+				raf.seek(raf.length() - 12);
+				long indexOffset = raf.readLong();
+				if (raf.readInt() != ECGZWriter.MAGIC) {
+					throw new IOException("ECGZ trailer missing, the file is truncated.");
+				}
+				long indexLength = (long) header.channels * blocks * 12;
+				if (indexOffset < headerEnd || indexOffset + indexLength != raf.length() - 12) {
+					throw new IOException("Corrupt ECGZ index, " + header.channels + " channels of " + blocks + " blocks do not fit the file.");
+				}
+				byte[] indexBytes = new byte[(int) indexLength];
+				raf.seek(indexOffset);
+				raf.readFully(indexBytes);
+				ByteBuffer index = ByteBuffer.wrap(indexBytes);
+				checkIndex(index, header, blocks, headerEnd, indexOffset);
+
+				int[] selected = LeadSelection.resolve(leadSelection, header.leadNames, header.channels);
+				if (selected.length == 0) {
+					return false; // resolve() logged the leads which were not found
+				}
+				int first = Math.min(TimeWindow.firstSample(timeWindow, header.samplingRate), header.samplesPerChannel);
+				int count = TimeWindow.sampleCount(timeWindow, header.samplingRate, header.samplesPerChannel);
+
+				int[][] leads = new int[selected.length][count];
+				int[] decoded = new int[Math.min(blockSize, header.samplesPerChannel)];
+				byte[] encoded = new byte[0];
+				int firstBlock = first / blockSize;
+				int endBlock = (count == 0) ? firstBlock : (first + count - 1) / blockSize + 1;
+				for (int i = 0; i < selected.length; i++) {
+					for (int b = firstBlock; b < endBlock; b++) {
+						int entry = (selected[i] * blocks + b) * 12;
+						long offset = index.getLong(entry);
+						int length = index.getInt(entry + 8);
+						if (length > encoded.length) {
+							encoded = new byte[Math.max(length, encoded.length * 2)];
+						}
+						raf.seek(offset);
+						raf.readFully(encoded, 0, length);
+						int blockFirst = b * blockSize;
+						int blockCount = Math.min(blockSize, header.samplesPerChannel - blockFirst);
+						ECGZCodec.decodeBlock(encoded, 0, length, decoded, blockCount);
+						int from = Math.max(first, blockFirst);
+						int to = Math.min(first + count, blockFirst + blockCount);
+						System.arraycopy(decoded, from - blockFirst, leads[i], from - first, to - from);
+					}
+				}
+
+				channels = selected.length;
+				samplesPerChannel = count;
+				samplingRate = header.samplingRate;
+				aduGain = header.aduGain;
+				leadNames = LeadSelection.select(header.leadNames, selected);
+				data = leads;
+				return true;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException | RuntimeException e) {
+			log.error("parse() failed for " + ecgzFile + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/** Checks every block lies between the header and the index, without overlapping, and is long enough for
+	 * its samples; so the sample count in the header is bounded by the file size before anything is allocated. */
+	private static void checkIndex(ByteBuffer index, Header header, int blocks, long headerEnd, long indexOffset) throws IOException {
+		long total = 0;
+		for (int c = 0; c < header.channels; c++) {
+			for (int b = 0; b < blocks; b++) {
+				int entry = (c * blocks + b) * 12;
+				long offset = index.getLong(entry);
+				int length = index.getInt(entry + 8);
+				int blockCount = Math.min(header.blockSize, header.samplesPerChannel - b * header.blockSize);
+				if (offset < headerEnd || length < ECGZCodec.minBlockLength(blockCount) || offset + length > indexOffset) {
+					throw new IOException("Corrupt ECGZ index, block " + b + " of channel " + c + ".");
+				}
+				total += length;
+			}
+		}
+		if (total > indexOffset - headerEnd) {
+			throw new IOException("Corrupt ECGZ index, the blocks overlap.");
+		}
+	}
+
+	@Override
+	public float getSamplingRate() {
+		return samplingRate;
+	}
+
+	@Override
+	public int getSamplesPerChannel() {
+		return samplesPerChannel;
+	}
+
+	@Override
+	public int getChannels() {
+		return channels;
+	}
+
+	@Override
+	public int[][] getData() {
+		return data;
+	}
+
+	@Override
+	public int getAduGain() {
+		return aduGain;
+	}
+
+	@Override
+	public int getNumberOfPoints() {
+		return channels * samplesPerChannel;
+	}
+
+	@Override
+	public List<String> getLeadNames() {
+		return leadNames;
+	}
+}
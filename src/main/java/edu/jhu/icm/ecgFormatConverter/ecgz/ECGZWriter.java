@@ -0,0 +1,131 @@
+package edu.jhu.icm.ecgFormatConverter.ecgz;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import edu.jhu.icm.ecgFormatConverter.WrapperWriter;
+import edu.jhu.icm.ecgFormatConverter.store.HeapSampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStore;
+
+/** Writes the ECG samples out in the ECGZ format, a lossless compressed archive of a record.<br>
+ * <br>
+ * The file is big endian: the header ("ECGZ", version, channels, sampling rate, samples per channel, ADU gain,
+ * block size, then each lead name as modified UTF-8), the blocks (for each block of sample times, one block per
+ * channel, see ECGZCodec), the block index (offset and length of every block, channel by channel) and a trailer
+ * holding the position of the index and "ECGZ" again. The index lets a reader seek straight to the blocks of
+ * the leads and the time window it needs.
+ */
+public class ECGZWriter implements WrapperWriter {
+	protected Logger log = Logger.getLogger(ECGZWriter.class);
+
+	public static final String EXTENSION = ".ecgz";
+	static final int MAGIC = 0x4543475A; // "ECGZ"
+	static final int VERSION = 1;
+
+	private File ecgzFile;
+	private int channels, samplesPerChannel;
+	private float samplingRate;
+	private int aduGain = 200;
+	private String[] leadNames;
+	private SampleStore store;
+
+	public ECGZWriter(File ecgzFile) {
+		this.ecgzFile = ecgzFile;
+	}
+
+	/**
+	 * Writes the header, the blocks, the index and the trailer.
+	 *
+	 * @return - rows written, -1 on error.
+	 */
+	public int write() {
+		int blocks = (samplesPerChannel + ECGZCodec.BLOCK_SIZE - 1) / ECGZCodec.BLOCK_SIZE;
+		long[][] offsets = new long[channels][blocks];
+		int[][] lengths = new int[channels][blocks];
+		int[] samples = new int[ECGZCodec.BLOCK_SIZE];
+		ECGZCodec.BitWriter encoded = new ECGZCodec.BitWriter();
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(ecgzFile), 64*1024));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(channels);
+				out.writeFloat(samplingRate);
+				out.writeInt(samplesPerChannel);
+				out.writeInt(aduGain);
+				out.writeInt(ECGZCodec.BLOCK_SIZE);
+				for (int c = 0; c < channels; c++) {
+					out.writeUTF((leadNames != null && c < leadNames.length) ? leadNames[c].trim() : "Channel" + (c + 1));
+				}
+				long pos = out.size(); // counted here, DataOutputStream.size() stops at 2 GB
+				for (int b = 0; b < blocks; b++) {
+					int first = b * ECGZCodec.BLOCK_SIZE;
+					int count = Math.min(ECGZCodec.BLOCK_SIZE, samplesPerChannel - first);
+					for (int c = 0; c < channels; c++) {
+						store.read(c, first, samples, 0, count);
+						ECGZCodec.encodeBlock(samples, count, encoded);
+						offsets[c][b] = pos;
+						lengths[c][b] = encoded.size();
+						out.write(encoded.bytes(), 0, encoded.size());
+						pos += encoded.size();
+					}
+				}
+				long indexOffset = pos;
+				for (int c = 0; c < channels; c++) {
+					for (int b = 0; b < blocks; b++) {
+						out.writeLong(offsets[c][b]);
+						out.writeInt(lengths[c][b]);
+					}
+				}
+				out.writeLong(indexOffset);
+				out.writeInt(MAGIC);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			log.error("write() failed. " + e.getMessage());
+			return -1;
+		}
+		return samplesPerChannel;
+	}
+
+	@Override
+	public void setSamplesPerChannel(int samplesPerChannel) {
+		this.samplesPerChannel = samplesPerChannel;
+	}
+
+	@Override
+	public void setChannels(int channels) {
+		this.channels = channels;
+	}
+
+	@Override
+	public void setSamplingRate(float frequency) {
+		this.samplingRate = frequency;
+	}
+
+	@Override
+	public void setData(int[][] data) {
+		this.store = new HeapSampleStore(data, samplesPerChannel);
+	}
+
+	/** @param store - the samples to write, instead of setData() */
+	public void setSampleStore(SampleStore store) {
+		this.store = store;
+	}
+
+	/** @param leadNames - one per channel; missing names default to "ChannelN" */
+	public void setLeadNames(String[] leadNames) {
+		this.leadNames = leadNames;
+	}
+
+	/** @param aduGain - ADC units per milliVolt */
+	public void setAduGain(int aduGain) {
+		this.aduGain = aduGain;
+	}
+}
@@ -6,6 +6,9 @@ import java.util.List;
 
 import org.jfree.data.xy.XYDataset;
 
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
 import edu.jhu.icm.ecgFormatConverter.WrapperLoader;
 import edu.jhu.icm.parser.EcgLeadData;
 
@@ -122,6 +125,21 @@ public class HL7Reader implements WrapperLoader{
 		return ret;
 	}
 
+	/** Not supported by this reader, all leads are read; use HL7_wrapper. */
+	@Override
+	public void setLeadSelection(LeadSelection leadSelection) {
+	}
+
+	/** Not supported by this reader, the whole recording is read; use HL7_wrapper. */
+	@Override
+	public void setTimeWindow(TimeWindow timeWindow) {
+	}
+
+	@Override
+	public RecordMetadata probe(String filePath) {
+		return new HL7_wrapper().probe(filePath);
+	}
+
 	public void viewData(int count) {
 		if (this.data != null) {
 			for (int index = 0; index < count; index++) {
@@ -1,15 +1,27 @@
 package edu.jhu.icm.ecgFormatConverter.hl7;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
 import org.cvrgrid.hl7aecg.HL7PreprocessReturn;
 import org.cvrgrid.hl7aecg.Hl7Ecg;
 import org.cvrgrid.hl7aecg.Hl7EcgLeadData;
 import org.jfree.data.xy.XYDataset;
 
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
 import edu.jhu.icm.ecgFormatConverter.WrapperLoader;
+import edu.jhu.icm.ecgFormatConverter.XMLStreams;
+import edu.jhu.icm.enums.LeadEnum;
 
 public class HL7_wrapper implements WrapperLoader{
 	
@@ -22,7 +34,15 @@ public class HL7_wrapper implements WrapperLoader{
 	private int counts;
 	private int aduGain = 200;
 	private List<String> leadNames;
+	private LeadSelection leadSelection;
+	private TimeWindow timeWindow;
+	
+	
+	private static final String LEAD_CODE_PREFIX = "MDC_ECG_LEAD_";
 	
+	/** For probe() only, nothing is preprocessed. */
+	public HL7_wrapper() {
+	}
 	
 	public HL7_wrapper(String file) throws Exception {
 		this.hl7FileName = file;
@@ -56,7 +76,19 @@ public class HL7_wrapper implements WrapperLoader{
 		int page=1;// 1 based dta page number currently being read
        	int sampleOffset=0;
        	int sampleCount=ds.getNumberOfPoints();
-        data = new int[leadCount][sampleCount];
+       	List<String> fileLeadNames = LeadEnum.normalize(Arrays.asList(ds.getLeadName()));
+       	int[] selected = LeadSelection.resolve(leadSelection, fileLeadNames, leadCount);
+       	if (selected.length == 0) {
+       		return false; // resolve() logged the leads which were not found
+       	}
+       	int[] targets = LeadSelection.targets(selected, leadCount); // -1 for the leads which are not copied
+		if(ds.getTimeUnit().equalsIgnoreCase("s")){
+			samplingRate = (int)(1/ds.getTimeIncrement());
+		}
+		TimeWindow window = (samplingRate > 0) ? timeWindow : null; // without a rate the window can not be placed
+		int first = TimeWindow.firstSample(window, samplingRate);
+		int windowCount = TimeWindow.sampleCount(window, samplingRate, sampleCount);
+        data = new int[selected.length][windowCount];
 
 		for (page=1; page<=pageCount; page++){
 			ds.setPageNumber(page);		
@@ -71,24 +103,27 @@ public class HL7_wrapper implements WrapperLoader{
 	        for (int s = 0; s < setCount; s++) {
 	            XYDataset oneDataset = allDatasets[s];
 	            itemCount = oneDataset.getItemCount(0);
+	            if (s >= targets.length || targets[s] < 0) {
+	            	continue;
+	            }
 	    		//System.out.println(s + ")" + itemCount );
-        		for (int i=0;i<itemCount;i++){
+	            // only the part of the page inside the time window
+	            int from = Math.max(0, first - sampleOffset);
+	            int to = Math.min(itemCount, first + windowCount - sampleOffset);
+        		for (int i=from;i<to;i++){
             		time = oneDataset.getXValue(s, i); // all leads should have the same time samples.
         			volt = oneDataset.getYValue(s, i);
         			
-        			data[s][i + sampleOffset] =   (int) (volt * ds.getLeadScaleValue(s));
+        			data[targets[s]][i + sampleOffset - first] =   (int) (volt * ds.getLeadScaleValue(s));
         		}
 	        }
 			sampleOffset += itemCount;
 		}
 		
-		this.channels = leadCount;
-		this.counts = sampleOffset;
-		if(ds.getTimeUnit().equalsIgnoreCase("s")){
-			samplingRate = (int)(1/ds.getTimeIncrement());
-		}
+		this.channels = selected.length;
+		this.counts = Math.max(0, Math.min(sampleOffset - first, windowCount));
 		
-		this.leadNames = Arrays.asList(ds.getLeadName());
+		this.leadNames = LeadSelection.select(fileLeadNames, selected);
 		
 		viewData(10);
 		
@@ -101,6 +136,89 @@ public class HL7_wrapper implements WrapperLoader{
 		return true;
 	}
 
+	/** The HL7 library decodes every sequence, the unselected leads are only left out of the data array. */
+	@Override
+	public void setLeadSelection(LeadSelection leadSelection) {
+		this.leadSelection = leadSelection;
+	}
+
+	/** The HL7 library decodes every sequence, only the samples in the window are copied into the data array. */
+	@Override
+	public void setTimeWindow(TimeWindow timeWindow) {
+		this.timeWindow = timeWindow;
+	}
+	
+	/** Reads the first sequenceSet with StAX: the TIME_* sequence's increment gives the sampling rate,
+	 * the MDC_ECG_LEAD_* sequences the leads, and the digits of the first lead the sample count.
+	 * The remaining leads' digits are skipped rather than parsed.
+	 */
+	@Override
+	public RecordMetadata probe(String filePath) {
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(filePath));
+			try {
+				XMLStreamReader reader = XMLStreams.open(in);
+				try {
+					boolean inSet = false, inSequence = false;
+					String code = null;
+					float rate = 0;
+					int samples = 0;
+					List<String> names = new ArrayList<String>();
+					while (reader.hasNext()) {
+						int event = reader.next();
+						if (event == XMLStreamConstants.END_ELEMENT) {
+							String name = reader.getLocalName();
+							if (name.equals("sequence")) {
+								inSequence = false;
+								code = null;
+							} else if (name.equals("sequenceSet")) {
+								break;
+							}
+							continue;
+						}
+						if (event != XMLStreamConstants.START_ELEMENT) {
+							continue;
+						}
+						String name = reader.getLocalName();
+						if (name.equals("sequenceSet")) {
+							inSet = true;
+						} else if (inSet && name.equals("sequence")) {
+							inSequence = true;
+						} else if (inSequence && code == null && name.equals("code")) {
+							code = reader.getAttributeValue(null, "code");
+							if (code != null && code.startsWith(LEAD_CODE_PREFIX)) {
+								LeadEnum lead = LeadEnum.fromAlias(code);
+								names.add(lead != null ? lead.name() : code.substring(LEAD_CODE_PREFIX.length()));
+							}
+						} else if (inSequence && name.equals("increment") && code != null && code.startsWith("TIME_")) {
+							double increment = Double.parseDouble(reader.getAttributeValue(null, "value"));
+							String unit = reader.getAttributeValue(null, "unit");
+							if ("ms".equalsIgnoreCase(unit)) {
+								rate = (float) (1000 / increment);
+							} else {
+								rate = (float) (1 / increment);
+							}
+						} else if (inSequence && name.equals("digits")) {
+							if (names.size() == 1) {
+								samples = XMLStreams.countTokens(reader);
+							} else {
+								XMLStreams.skip(reader);
+							}
+						}
+					}
+					return new RecordMetadata(names.size(), rate, samples, names, aduGain);
+				} finally {
+					reader.close();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			return null;
+		}
+	}
+	
 	public void viewData(int count) {
 		if (this.data != null) {
 			for (int index = 0; index < count; index++) {
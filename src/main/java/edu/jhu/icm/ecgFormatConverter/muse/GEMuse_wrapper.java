@@ -7,11 +7,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
 import edu.jhu.icm.ecgFormatConverter.WrapperLoader;
 import edu.jhu.icm.ecgFormatConverter.WrapperWriter;
 
@@ -23,10 +27,16 @@ public class GEMuse_wrapper implements WrapperLoader, WrapperWriter{
 	private BufferedReader br;
 	private int channels, samplingRate;
 	private int sampleCount;
+	private int samplesRead;
 	private int[][] data; 
 	private int aduGain = 200;
 	private static final boolean verbose = true;
 	private List<String> leadNames;
+	private LeadSelection leadSelection;
+	private int[] selected; // columns of the sample lines which are read, in output order
+	private TimeWindow timeWindow;
+	private int linesToSkip; // sample lines before the time window
+	private int extraLines; // sample lines after the declared sample count, ignored
 
 	public GEMuse_wrapper() {
 	}
@@ -94,23 +104,17 @@ public class GEMuse_wrapper implements WrapperLoader, WrapperWriter{
 		    geMuseDis = new DataInputStream(geMuseFis);
 		    br = new BufferedReader(new InputStreamReader(geMuseDis));
 		    String strLine;
-		    String[] words;
 		    //Read File Line By Line
 		    while ((strLine = br.readLine()) != null)   {
 		      // Print the content on the console
 		    	if(strLine.length()>0) {
 		    		System.out.println (strLine);
-		    		words = strLine.split("\\s");
-		    		this.samplingRate = 500; // 500 samples per second (Hz) fixed
-		    		this.sampleCount = Integer.parseInt(words[2]);
-		    		this.channels = Integer.parseInt(words[4]);
+		    		if (!parseHeaderLine(strLine)) {
+		    			throw new IllegalArgumentException("Invalid Rhythm signal header, or none of the selected leads in it: " + strLine);
+		    		}
 		    		break;
 		    	}
 		    }
-			this.data = new int[channels][sampleCount];
-			if (verbose) {
-				System.out.println("'channels' is " + channels + " 'count' is "+ this.sampleCount);
-			}
 
 
 		}catch (Exception e){//Catch exception if any
@@ -136,26 +140,11 @@ public class GEMuse_wrapper implements WrapperLoader, WrapperWriter{
 
 			// Open the file that is the first 
 		    // command line parameter
-			int s = 0;
 		    String strLine;
-		    String[] numbers;
-		    //Read File Line By Line
-		    while ((strLine = br.readLine()) != null)   {
-		      // Print the content on the console
-		    	strLine = strLine.trim();
-		    	if(strLine.length()>0) {
-		    		numbers = strLine.split("\\s");
-					for (int c = 0; c < channels; c++) {
-						short value = Short.parseShort(numbers[c]);
-						if ((s < 3) & verbose) {
-							System.out.print(value + " ");
-						}
-						this.data[c][s] = value;
-					}
-					if ((s < 3) & verbose) {
-						System.out.println("  s(" + s + ")");
-					}
-					s++;
+		    //Read File Line By Line, up to the end of the time window
+		    while (samplesRead < sampleCount && (strLine = br.readLine()) != null)   {
+		    	if (!parseSampleLine(strLine)) {
+		    		return false;
 		    	}
 		    }
 		    //Close the input stream
@@ -174,6 +163,135 @@ public class GEMuse_wrapper implements WrapperLoader, WrapperWriter{
 		return true;
 	}
 
+	/**
+	 * Parses the "Rhythm signal: [samples] X [channels]" line and allocates data[][] for the sample lines which follow.
+	 * Together with parseSampleLine() this lets a caller which already holds the rhythm section in memory 
+	 * (e.g. GEMUSESplitter) fill the wrapper without writing and re-reading a 10sec file.
+	 * 
+	 * @param strLine - the Rhythm signal header line
+	 * @return - success/fail, also fail if none of the selected leads is in the record
+	 */
+	public boolean parseHeaderLine(String strLine) {
+		String[] words = strLine.trim().split("\\s+");
+		try {
+			this.samplingRate = 500; // 500 samples per second (Hz) fixed
+			this.sampleCount = Integer.parseInt(words[2]);
+			this.channels = Integer.parseInt(words[4]);
+		} catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			return false;
+		}
+		this.selected = LeadSelection.resolve(leadSelection, null, channels);
+		if (selected.length == 0) {
+			return false; // resolve() logged the leads which were not found
+		}
+		this.channels = selected.length;
+		this.linesToSkip = TimeWindow.firstSample(timeWindow, samplingRate);
+		this.sampleCount = TimeWindow.sampleCount(timeWindow, samplingRate, sampleCount);
+		this.data = new int[channels][sampleCount];
+		this.samplesRead = 0;
+		this.extraLines = 0;
+		if (verbose) {
+			System.out.println("'channels' is " + channels + " 'count' is "+ this.sampleCount);
+		}
+		return true;
+	}
+
+	/**
+	 * Parses one line of whitespace separated sample values (one per channel) into the next row of data[][].
+	 * Blank lines, and sample lines outside the time window, are skipped. Lines beyond the sample count of the header
+	 * and lines with too few values are reported and ignored, they do not fail the record.
+	 * parseHeaderLine() must have been called first.
+	 * 
+	 * @param strLine - line of sample values
+	 * @return - success/fail
+	 */
+	public boolean parseSampleLine(String strLine) {
+		if (data == null) {
+			System.err.println("Error: sample line before the Rhythm signal header.");
+			return false;
+		}
+		strLine = strLine.trim();
+		if(strLine.length() == 0) {
+			return true;
+		}
+		if (linesToSkip > 0) {
+			linesToSkip--;
+			return true;
+		}
+		if (samplesRead >= sampleCount) {
+			if (extraLines++ == 0 && timeWindow == null) {
+				System.err.println("Warning: more sample lines than the " + sampleCount + " in the Rhythm signal header, ignoring them.");
+			}
+			return true;
+		}
+		int s = samplesRead;
+		try {
+			String[] numbers = strLine.split("\\s+");
+			for (int c = 0; c < channels; c++) {
+				if (selected[c] >= numbers.length) {
+					System.err.println("Warning: sample line " + (s + 1) + " has " + numbers.length + " values, ignoring it.");
+					return true;
+				}
+			}
+			for (int c = 0; c < channels; c++) {
+				short value = Short.parseShort(numbers[selected[c]]);
+				if ((s < 3) & verbose) {
+					System.out.print(value + " ");
+				}
+				this.data[c][s] = value;
+			}
+		} catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			return false;
+		}
+		if ((s < 3) & verbose) {
+			System.out.println("  s(" + s + ")");
+		}
+		samplesRead++;
+		return true;
+	}
+
+	/** Applies to the next parseHeaderLine(), i.e. set it before parse(). */
+	public void setLeadSelection(LeadSelection leadSelection) {
+		this.leadSelection = leadSelection;
+	}
+
+	/** Applies to the next parseHeaderLine(), i.e. set it before parse(). */
+	public void setTimeWindow(TimeWindow timeWindow) {
+		this.timeWindow = timeWindow;
+	}
+
+	/**
+	 * Reads the "Rhythm signal: [samples] X [channels]" line only.
+	 */
+	public RecordMetadata probe(String filePath) {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(filePath));
+			String strLine;
+			while ((strLine = reader.readLine()) != null) {
+				strLine = strLine.trim();
+				if (strLine.length() > 0) {
+					String[] words = strLine.split("\\s+");
+					// 500 samples per second (Hz) fixed
+					return new RecordMetadata(Integer.parseInt(words[4]), 500, Integer.parseInt(words[2]), null, aduGain);
+				}
+			}
+		} catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					System.err.println("Error: " + e.getMessage());
+				}
+			}
+		}
+		return null;
+	}
+
 	public int write_geMuse() {
 		String headerLine="",dataLine="", EOL = "\r\n";
 		FileOutputStream fos;
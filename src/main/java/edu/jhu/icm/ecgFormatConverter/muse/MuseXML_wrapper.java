@@ -1,9 +1,20 @@
 package edu.jhu.icm.ecgFormatConverter.muse;
 
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
 import edu.jhu.icm.ecgFormatConverter.WrapperLoader;
+import edu.jhu.icm.ecgFormatConverter.XMLStreams;
+import edu.jhu.icm.enums.LeadEnum;
 import edu.jhu.icm.parser.MuseBase64Parser;
 
 public class MuseXML_wrapper implements WrapperLoader{
@@ -63,7 +74,7 @@ public class MuseXML_wrapper implements WrapperLoader{
 			
 			aduGain = base64Parser.getAduGain();
 			museRawXML = base64Parser.getInitialXML();
-			leadNames = base64Parser.getLeadNames();
+			leadNames = LeadEnum.normalize(base64Parser.getLeadNames());
 			
 			return true;
 		} catch (Exception e) {
@@ -73,6 +84,78 @@ public class MuseXML_wrapper implements WrapperLoader{
 		
 	}
 	
+	/** Leads I and II are still decoded when one of the leads derived from them is selected. */
+	public void setLeadSelection(LeadSelection leadSelection) {
+		base64Parser.setLeadSelection(leadSelection);
+	}
+	
+	/** Only the base64 characters covering the window are decoded. */
+	public void setTimeWindow(TimeWindow timeWindow) {
+		base64Parser.setTimeWindow(timeWindow);
+	}
+	
+	/** Reads the Rhythm Waveform's SampleBase and LeadData headers with StAX, skipping the base64 WaveFormData.
+	 * Like parse(), counts the leads III, aVR, aVL and aVF which are reconstructed from I and II. 
+	 */
+	@Override
+	public RecordMetadata probe(String filePath) {
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(filePath));
+			try {
+				XMLStreamReader reader = XMLStreams.open(in);
+				try {
+					String type = null;
+					int rate = 0, leads = 0, samples = 0, gain = aduGain;
+					List<String> names = new ArrayList<String>();
+					while (reader.hasNext()) {
+						int event = reader.next();
+						if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("Waveform")) {
+							if ("Rhythm".equals(type)) {
+								if (leads >= 2) {
+									leads += 4;
+									names.add(2, "III");
+									names.add(3, "AVR");
+									names.add(4, "AVL");
+									names.add(5, "AVF");
+								}
+								return new RecordMetadata(leads, rate, samples, names, gain);
+							}
+							type = null;
+							rate = leads = samples = 0;
+							names = new ArrayList<String>();
+						}
+						if (event != XMLStreamConstants.START_ELEMENT) {
+							continue;
+						}
+						String name = reader.getLocalName();
+						if (name.equals("WaveformType")) {
+							type = XMLStreams.text(reader);
+						} else if (name.equals("SampleBase")) {
+							rate = Integer.valueOf(XMLStreams.text(reader));
+						} else if (name.equals("LeadData")) {
+							leads++;
+						} else if (name.equals("LeadSampleCountTotal")) {
+							samples = Integer.valueOf(XMLStreams.text(reader));
+						} else if (name.equals("LeadAmplitudeUnitsPerBit")) {
+							gain = (int)Math.round(1.0/Double.valueOf(XMLStreams.text(reader))*1000);
+						} else if (name.equals("LeadID")) {
+							names.add(LeadEnum.normalize(XMLStreams.text(reader)));
+						} else if (name.equals("WaveFormData")) {
+							XMLStreams.skip(reader);
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
 	@Override
 	public int[][] getData() {
 		return data;
@@ -14,7 +14,12 @@ import org.sierraecg.schema.Leadmeasurement;
 import org.sierraecg.schema.Restingecgdata;
 import org.sierraecg.schema.Signalcharacteristics;
 
+import edu.jhu.icm.ecgFormatConverter.LeadArrays;
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
 import edu.jhu.icm.ecgFormatConverter.WrapperLoader;
+import edu.jhu.icm.enums.LeadEnum;
 
 public class Philips103_wrapper implements WrapperLoader{
 	private Restingecgdata philipsECG;
@@ -26,6 +31,8 @@ public class Philips103_wrapper implements WrapperLoader{
 	private int sampleCount;
 	private int aduGain = 200;
 	private List<String> leadNames;
+	private LeadSelection leadSelection;
+	private TimeWindow timeWindow;
 	
 	// Initialization happens outside of the constructor since the methods called throw exceptions.
 	public void init(String filePath) throws IOException, JAXBException {
@@ -45,7 +52,7 @@ public class Philips103_wrapper implements WrapperLoader{
 			if(leads != null){
 				leadNames = new ArrayList<String>();
 				for (Leadmeasurement lead : leads) {
-					leadNames.add(lead.getLeadname().toUpperCase());
+					leadNames.add(LeadEnum.normalize(lead.getLeadname()));
 				}
 			}
 			
@@ -67,14 +74,23 @@ public class Philips103_wrapper implements WrapperLoader{
 				}
 			}
 			
-			// Parse out each lead and add it to the data.  Allocate each new row and column size
-			// Use the Sierra library in order to get each lead row
-			data = new int[validChannels][sampleCount];
-			
-			for(int i=0; i<leadData.length; i++) {
-				for(int j=0; j<leadData[i].size(); j++) {
-					data[i][j] = leadData[i].get(j);
-				}
+			// Parse out each selected lead and add it to the data.  Allocate each new row and column size
+			// Use the Sierra library in order to get each lead row, one unboxing pass per lead over the time window only
+			// (the library decodes into List<Integer>, there is no primitive array to copy from).
+			int[] selected = LeadSelection.resolve(leadSelection, leadNames, validChannels);
+			if (selected.length == 0) {
+				return false; // resolve() logged the leads which were not found
+			}
+			int first = TimeWindow.firstSample(timeWindow, samplingRate);
+			sampleCount = TimeWindow.sampleCount(timeWindow, samplingRate, sampleCount);
+			data = LeadArrays.toIntArrays(leadData, selected, first, sampleCount);
+			if (timeWindow != null) {
+				numberOfPoints = sampleCount * validChannels;
+			}
+			if (!LeadSelection.isAll(selected, validChannels)) {
+				validChannels = selected.length;
+				numberOfPoints = sampleCount * validChannels;
+				leadNames = LeadSelection.select(leadNames, selected);
 			}
 			
 			return true;
@@ -82,6 +98,20 @@ public class Philips103_wrapper implements WrapperLoader{
 		return false;
 	}
 	
+	public void setLeadSelection(LeadSelection leadSelection) {
+		this.leadSelection = leadSelection;
+	}
+	
+	/** The vendor library decodes the whole recording, only the window is copied into the data array. */
+	public void setTimeWindow(TimeWindow timeWindow) {
+		this.timeWindow = timeWindow;
+	}
+	
+	/** Reads the signal characteristics and lead labels only, the waveforms are not decompressed. */
+	public RecordMetadata probe(String filePath) {
+		return PhilipsProbe.probe(filePath, aduGain);
+	}
+	
 	public int[][] getData() {
 		return data;
 	}
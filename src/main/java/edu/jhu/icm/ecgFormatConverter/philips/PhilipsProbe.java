@@ -0,0 +1,78 @@
+package edu.jhu.icm.ecgFormatConverter.philips;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.XMLStreams;
+import edu.jhu.icm.enums.LeadEnum;
+
+/** Reads the metadata of a Philips restingecgdata file (1.03 or 1.04) with StAX,
+ * stopping at the parsedwaveforms element so the XLI compressed waveforms are never read.
+ */
+class PhilipsProbe {
+
+	private PhilipsProbe() {
+	}
+
+	/**
+	 * @param filePath - full path of the Philips XML file
+	 * @param aduGain - gain reported by the wrapper
+	 * @return - the metadata, or null if the file could not be read.
+	 */
+	static RecordMetadata probe(String filePath, int aduGain) {
+		float samplingRate = 0;
+		int validChannels = 0;
+		int samples = 0;
+		List<String> leadNames = null;
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(filePath));
+			try {
+				XMLStreamReader reader = XMLStreams.open(in);
+				try {
+					while (reader.hasNext()) {
+						if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+							continue;
+						}
+						String name = reader.getLocalName();
+						if (name.equals("samplingrate")) {
+							samplingRate = Float.parseFloat(XMLStreams.text(reader));
+						} else if (name.equals("numberchannelsvalid")) {
+							validChannels = Integer.parseInt(XMLStreams.text(reader));
+						} else if (name.equals("parsedwaveforms")) {
+							String duration = reader.getAttributeValue(null, "durationperchannel"); // milliseconds
+							if (duration != null) {
+								samples = (int) Math.round(Double.parseDouble(duration) * samplingRate / 1000);
+							}
+							String labels = reader.getAttributeValue(null, "leadlabels");
+							if (labels != null) {
+								leadNames = new ArrayList<String>();
+								for (String label : labels.trim().split("\\s+")) {
+									leadNames.add(LeadEnum.normalize(label));
+								}
+							}
+							break; // only the waveforms follow
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			return null;
+		}
+		if (leadNames != null && leadNames.size() > validChannels && validChannels > 0) {
+			leadNames = leadNames.subList(0, validChannels);
+		}
+		return new RecordMetadata(validChannels, samplingRate, samples, leadNames, aduGain);
+	}
+}
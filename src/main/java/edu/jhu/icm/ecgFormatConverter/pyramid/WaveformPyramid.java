@@ -0,0 +1,322 @@
+package edu.jhu.icm.ecgFormatConverter.pyramid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+import edu.jhu.icm.ecgFormatConverter.store.HeapSampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStore;
+
+/** Per bucket minimum, maximum and mean of every channel at power-of-two decimation levels, for drawing
+ * zoomed out views of long recordings without touching every sample.<br>
+ * <br>
+ * Level k holds buckets of 2^k samples. The finest level stored is FINEST_LEVEL (16 samples per bucket):
+ * a view showing fewer samples per pixel than that is short enough to be drawn from the samples themselves.
+ * Levels are added until a single bucket covers the recording, so the pyramid takes about 3/8 of an int
+ * per sample per channel. query() picks the coarsest level with at least one bucket per pixel and merges
+ * its buckets into at most the requested number of columns, so its cost depends on the pixel width only.<br>
+ * <br>
+ * The sidecar file (see write() and read()) is big endian: "ECGP", version, channels, sampling rate,
+ * samples per channel, level count, then for each level and channel the bucket count and the min, max and mean arrays.
+ */
+public class WaveformPyramid {
+
+	public static final String EXTENSION = ".pyr";
+	public static final int FINEST_LEVEL = 4;
+
+	private static final int MAGIC = 0x45434750; // "ECGP"
+	private static final int VERSION = 1;
+	private static final int SAMPLES_PER_READ = 64 * 1024; // a whole number of finest buckets
+
+	/** Summary of part of one channel, one entry per column. */
+	public static class Summary {
+		private final int[] min;
+		private final int[] max;
+		private final int[] mean;
+		private final double startSeconds;
+		private final double secondsPerColumn;
+
+		public Summary(int[] min, int[] max, int[] mean, double startSeconds, double secondsPerColumn) {
+			this.min = min;
+			this.max = max;
+			this.mean = mean;
+			this.startSeconds = startSeconds;
+			this.secondsPerColumn = secondsPerColumn;
+		}
+
+		public int getColumns() {
+			return min.length;
+		}
+
+		public int[] getMin() {
+			return min;
+		}
+
+		public int[] getMax() {
+			return max;
+		}
+
+		public int[] getMean() {
+			return mean;
+		}
+
+		/** @return - time of the start of the first column */
+		public double getStartSeconds() {
+			return startSeconds;
+		}
+
+		public double getSecondsPerColumn() {
+			return secondsPerColumn;
+		}
+	}
+
+	private final int channels;
+	private final float samplingRate;
+	private final int samplesPerChannel;
+	// [level - FINEST_LEVEL][channel][bucket]
+	private final int[][][] min;
+	private final int[][][] max;
+	private final int[][][] mean;
+
+	private WaveformPyramid(int channels, float samplingRate, int samplesPerChannel, int[][][] min, int[][][] max, int[][][] mean) {
+		this.channels = channels;
+		this.samplingRate = samplingRate;
+		this.samplesPerChannel = samplesPerChannel;
+		this.min = min;
+		this.max = max;
+		this.mean = mean;
+	}
+
+	/** Builds the pyramid of a loaded recording in one pass over the samples; each coarser level is reduced from the one below.
+	 *
+	 * @param data - int[channel][sample], as returned by ECGformatConverter.getData()
+	 * @param samplingRate - Hz
+	 * @param samplesPerChannel - samples to summarize per channel
+	 */
+	public static WaveformPyramid build(int[][] data, float samplingRate, int samplesPerChannel) {
+		return build(new HeapSampleStore(data, samplesPerChannel), samplingRate);
+	}
+
+	/** Builds the pyramid from a SampleStore, reading each channel a block at a time, so a memory mapped recording stays off the heap.
+	 *
+	 * @param store - the samples, see ECGformatConverter.getSampleStore()
+	 * @param samplingRate - Hz
+	 */
+	public static WaveformPyramid build(SampleStore store, float samplingRate) {
+		int channels = store.getChannels();
+		int count = store.getSamplesPerChannel();
+		int levels = levelCount(count);
+		int[][][] min = new int[levels][channels][];
+		int[][][] max = new int[levels][channels][];
+		int[][][] mean = new int[levels][channels][];
+		int bucket = 1 << FINEST_LEVEL;
+		int[] samples = BufferArena.current().borrowInts(Math.min(SAMPLES_PER_READ, Math.max(count, 1)));
+		for (int c = 0; c < channels; c++) {
+			int buckets = (count + bucket - 1) / bucket;
+			int[] lo = new int[buckets];
+			int[] hi = new int[buckets];
+			long[] sum = new long[buckets];
+			int readFrom = 0, readTo = 0; // samples[] holds [readFrom, readTo) of the channel
+			for (int b = 0; b < buckets; b++) {
+				int from = b * bucket;
+				int to = Math.min(count, from + bucket);
+				if (from >= readTo) {
+					readFrom = from;
+					readTo = Math.min(count, from + samples.length);
+					store.read(c, readFrom, samples, 0, readTo - readFrom);
+				}
+				int l = samples[from - readFrom], h = l;
+				long s = 0;
+				for (int i = from - readFrom; i < to - readFrom; i++) {
+					int v = samples[i];
+					if (v < l) l = v;
+					if (v > h) h = v;
+					s += v;
+				}
+				lo[b] = l;
+				hi[b] = h;
+				sum[b] = s;
+			}
+			int bucketSize = bucket;
+			for (int level = 0; level < levels; level++) {
+				min[level][c] = lo;
+				max[level][c] = hi;
+				mean[level][c] = means(sum, bucketSize, count);
+				if (level + 1 < levels) {
+					int parents = (lo.length + 1) / 2;
+					int[] plo = new int[parents];
+					int[] phi = new int[parents];
+					long[] psum = new long[parents];
+					for (int p = 0; p < parents; p++) {
+						int a = 2 * p, b = Math.min(a + 1, lo.length - 1);
+						plo[p] = Math.min(lo[a], lo[b]);
+						phi[p] = Math.max(hi[a], hi[b]);
+						psum[p] = (a == b) ? sum[a] : sum[a] + sum[b];
+					}
+					lo = plo;
+					hi = phi;
+					sum = psum;
+					bucketSize *= 2;
+				}
+			}
+		}
+		return new WaveformPyramid(channels, samplingRate, count, min, max, mean);
+	}
+
+	/** Levels from FINEST_LEVEL up to the first one with a single bucket. */
+	private static int levelCount(int samplesPerChannel) {
+		int levels = 1;
+		long bucket = 1L << FINEST_LEVEL;
+		while (bucket < samplesPerChannel) {
+			bucket *= 2;
+			levels++;
+		}
+		return levels;
+	}
+
+	/** Bucket means; the last bucket may be partial. */
+	private static int[] means(long[] sum, int bucketSize, int count) {
+		int[] result = new int[sum.length];
+		for (int b = 0; b < sum.length; b++) {
+			int n = Math.min(bucketSize, count - b * bucketSize);
+			result[b] = (int) Math.round((double) sum[b] / n);
+		}
+		return result;
+	}
+
+	/** Summarizes a time range of one channel in at most the given number of columns, each covering the same whole number of buckets.
+	 * If the range holds fewer than 16 samples per pixel the finest level is used, giving fewer columns than pixels.
+	 *
+	 * @param channel - zero based channel index
+	 * @param startSeconds - start of the range
+	 * @param endSeconds - end of the range, past the end of the recording is clipped
+	 * @param pixels - horizontal resolution of the view
+	 * @return - the summary, with no columns for an empty range.
+	 */
+	public Summary query(int channel, double startSeconds, double endSeconds, int pixels) {
+		int from = (int) Math.max(0, Math.floor(startSeconds * samplingRate));
+		int to = (int) Math.min(samplesPerChannel, Math.ceil(endSeconds * samplingRate));
+		if (to <= from || pixels <= 0) {
+			return new Summary(new int[0], new int[0], new int[0], startSeconds, 0);
+		}
+		// coarsest level whose buckets are no wider than a pixel
+		double samplesPerPixel = (double) (to - from) / pixels;
+		int level = 0;
+		while (level + 1 < min.length && (1 << (FINEST_LEVEL + level + 1)) <= samplesPerPixel) {
+			level++;
+		}
+		int bucketSize = 1 << (FINEST_LEVEL + level);
+		int firstBucket = from / bucketSize;
+		int endBucket = (to + bucketSize - 1) / bucketSize;
+		int buckets = endBucket - firstBucket;
+		int perColumn = (buckets + pixels - 1) / pixels; // whole buckets per column, so every column spans the same time
+		int columns = (buckets + perColumn - 1) / perColumn;
+
+		int[] lo = min[level][channel], hi = max[level][channel], avg = mean[level][channel];
+		int[] cmin = new int[columns], cmax = new int[columns], cmean = new int[columns];
+		for (int col = 0; col < columns; col++) {
+			int b0 = firstBucket + col * perColumn;
+			int b1 = Math.min(endBucket, b0 + perColumn);
+			int l = lo[b0], h = hi[b0];
+			long s = 0;
+			for (int b = b0; b < b1; b++) {
+				if (lo[b] < l) l = lo[b];
+				if (hi[b] > h) h = hi[b];
+				s += avg[b];
+			}
+			cmin[col] = l;
+			cmax[col] = h;
+			cmean[col] = (int) Math.round((double) s / (b1 - b0));
+		}
+		double secondsPerColumn = (double) perColumn * bucketSize / samplingRate;
+		return new Summary(cmin, cmax, cmean, firstBucket * bucketSize / (double) samplingRate, secondsPerColumn);
+	}
+
+	/** Writes the pyramid as a sidecar file, see the class comment for the layout. */
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64*1024));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(channels);
+			out.writeFloat(samplingRate);
+			out.writeInt(samplesPerChannel);
+			out.writeInt(min.length);
+			for (int level = 0; level < min.length; level++) {
+				for (int c = 0; c < channels; c++) {
+					out.writeInt(min[level][c].length);
+					writeInts(out, min[level][c]);
+					writeInts(out, max[level][c]);
+					writeInts(out, mean[level][c]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Reads a sidecar file written by write(). */
+	public static WaveformPyramid read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64*1024));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a waveform pyramid.");
+			}
+			int channels = in.readInt();
+			float samplingRate = in.readFloat();
+			int samplesPerChannel = in.readInt();
+			int levels = in.readInt();
+			int[][][] min = new int[levels][channels][];
+			int[][][] max = new int[levels][channels][];
+			int[][][] mean = new int[levels][channels][];
+			for (int level = 0; level < levels; level++) {
+				for (int c = 0; c < channels; c++) {
+					int buckets = in.readInt();
+					min[level][c] = readInts(in, buckets);
+					max[level][c] = readInts(in, buckets);
+					mean[level][c] = readInts(in, buckets);
+				}
+			}
+			return new WaveformPyramid(channels, samplingRate, samplesPerChannel, min, max, mean);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int v : values) {
+			out.writeInt(v);
+		}
+	}
+
+	private static int[] readInts(DataInputStream in, int count) throws IOException {
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public float getSamplingRate() {
+		return samplingRate;
+	}
+
+	public int getSamplesPerChannel() {
+		return samplesPerChannel;
+	}
+
+	/** Number of stored levels, the coarsest has a single bucket. */
+	public int getLevelCount() {
+		return min.length;
+	}
+}
@@ -2,6 +2,7 @@ package edu.jhu.icm.ecgFormatConverter.rdt;
 // package nodeDataService;
 
 import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -10,10 +11,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.List;
 
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
 import edu.jhu.icm.ecgFormatConverter.WrapperLoader;
 import edu.jhu.icm.ecgFormatConverter.WrapperWriter;
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+import edu.jhu.icm.ecgFormatConverter.store.HeapSampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStores;
 
 public class RDTParser implements WrapperWriter, WrapperLoader{
 
@@ -24,14 +33,68 @@ public class RDTParser implements WrapperWriter, WrapperLoader{
 	private static final ByteOrder BYTEORDER = ByteOrder.LITTLE_ENDIAN;
 	private static final int HEADERBYTES = 4;
 	private static final int SHORTBYTES = 2;
+	private static final int BLOCKFRAMES = 16 * 1024; // frames decoded per read
 	private static final boolean verbose = false;
 	private int aduGain = 200;
 	private List<String> leadNames;
+	private LeadSelection leadSelection;
+	private TimeWindow timeWindow;
+	private long offHeapThreshold = SampleStores.NEVER;
+	private int segmentThreshold = SampleStores.NEVER_SEGMENTED;
+	private SampleStore store;
+
+	public RDTParser() {
+	}
 
 	public RDTParser(File rdtFile) {
 		this.rdtFile = rdtFile;
 	}
 
+	public void setLeadSelection(LeadSelection leadSelection) {
+		this.leadSelection = leadSelection;
+	}
+
+	/** Frames are fixed size, so the window is read by seeking straight to its first frame. */
+	public void setTimeWindow(TimeWindow timeWindow) {
+		this.timeWindow = timeWindow;
+	}
+
+	/** Sets when parse() fills a memory mapped or segmented SampleStore instead of the data array, see SampleStores.allocate()
+	 * and getSampleStore(). The body is read in blocks either way, so the heap holds only one block of the file. */
+	public void setStoreThresholds(long offHeapThreshold, int segmentThreshold) {
+		this.offHeapThreshold = offHeapThreshold;
+		this.segmentThreshold = segmentThreshold;
+	}
+
+	/** Reads the 4 byte header; the sample count follows from the file length. */
+	public RecordMetadata probe(String filePath) {
+		File file = new File(filePath);
+		if (!file.exists() || file.length() < HEADERBYTES) {
+			return null;
+		}
+		byte[] header = new byte[HEADERBYTES];
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				in.readFully(header);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return null;
+		}
+		ByteBuffer bbHead = ByteBuffer.wrap(header);
+		bbHead.order(BYTEORDER);
+		int headerChannels = bbHead.getShort();
+		int headerRate = bbHead.getShort();
+		if (headerChannels <= 0) {
+			return null;
+		}
+		long samples = (file.length() - HEADERBYTES) / (headerChannels * SHORTBYTES);
+		return new RecordMetadata(headerChannels, headerRate, (int) samples, null, aduGain);
+	}
+
 	
 	/** Opens the File object which was passed into the constructor, 
 	 *  validate it, parse out the header data, and then parse the 
@@ -49,10 +112,6 @@ public class RDTParser implements WrapperWriter, WrapperLoader{
 		}
 
 		long fileSize = rdtFile.length();
-		if (fileSize > Integer.MAX_VALUE) {
-			System.err.println("file size exceeding maximum int value.");
-			return false;
-		}
 		FileInputStream rdtFis;
 		try {
 			rdtFis = new FileInputStream(rdtFile);
@@ -88,7 +147,7 @@ public class RDTParser implements WrapperWriter, WrapperLoader{
 		}
 		
 		// Parse ECG data
-		final int REALBUFFERSIZE = (int) fileSize - HEADERBYTES;
+		final long REALBUFFERSIZE = fileSize - HEADERBYTES;
 		if (REALBUFFERSIZE % (channels * SHORTBYTES) != 0) {
 			System.err.println("rdt file is not aligned.");
 			try {
@@ -98,46 +157,70 @@ public class RDTParser implements WrapperWriter, WrapperLoader{
 			return false;
 		}
 
-		this.counts = REALBUFFERSIZE / (channels * SHORTBYTES);
-		this.data = new int[channels][counts];
+		final int FRAMEBYTES = channels * SHORTBYTES;
+		int fileCounts = (int) Math.min(Integer.MAX_VALUE, REALBUFFERSIZE / FRAMEBYTES);
+		int firstFrame = Math.min(TimeWindow.firstSample(timeWindow, samplingRate), fileCounts);
+		this.counts = TimeWindow.sampleCount(timeWindow, samplingRate, fileCounts);
+		int fileChannels = this.channels;
+		int[] selected = LeadSelection.resolve(leadSelection, null, fileChannels);
+		if (selected.length == 0) {
+			return false; // resolve() logged the leads which were not found
+		}
+		int[] targets = LeadSelection.targets(selected, fileChannels); // -1 for the columns which are skipped
+		this.channels = selected.length;
+		this.store = SampleStores.allocate(channels, counts, offHeapThreshold, segmentThreshold);
+		this.data = (store instanceof HeapSampleStore) ? ((HeapSampleStore) store).getData() : null;
 		if (verbose) {
 			System.out.println("'channels' is " + channels + " 'count' is "
 					+ this.counts);
 		}
-		byte[] body = new byte[REALBUFFERSIZE];
 		boolean ret = false;
 		try {
-			int length = rdtBis.read(body);
-			if (length != REALBUFFERSIZE) {
-				System.err.println("error while reading data into buffer");
-				try {
-					rdtBis.close();
-					rdtFis.close();
-				} catch (IOException e2) {
-				}
-				return false;
-			}
-
-			ByteBuffer bbBody = ByteBuffer.wrap(body);
+			// position the channel directly, the buffered stream has only been used for the header.
+			FileChannel rdtChannel = rdtFis.getChannel();
+			rdtChannel.position(HEADERBYTES + (long) firstFrame * FRAMEBYTES);
+			int blockFrames = Math.min(BLOCKFRAMES, Math.max(this.counts, 1));
+			BufferArena arena = BufferArena.current();
+			ByteBuffer bbBody = ByteBuffer.wrap(arena.borrowBytes(blockFrames * FRAMEBYTES));
 			bbBody.order(BYTEORDER);
+			int[][] block = arena.borrowInts(channels, blockFrames);
 			if (verbose) {
 				System.out.println("First three rows of (RDT) values:");
 			}
-			for (int index = 0; index < this.counts; index++) {
-				for (int channel = 0; channel < this.channels; channel++) {
-					short value = bbBody.getShort();
+			for (int first = 0; first < this.counts; first += blockFrames) {
+				int frames = Math.min(blockFrames, this.counts - first);
+				bbBody.clear();
+				bbBody.limit(frames * FRAMEBYTES);
+				while (bbBody.hasRemaining() && rdtChannel.read(bbBody) != -1) {
+				}
+				if (bbBody.hasRemaining()) {
+					System.err.println("error while reading data into buffer");
+					closeStore();
+					return false;
+				}
+				bbBody.flip();
+				for (int frame = 0; frame < frames; frame++) {
+					int index = first + frame;
+					for (int channel = 0; channel < fileChannels; channel++) {
+						short value = bbBody.getShort();
+						if ((index < 3) & verbose) {
+							System.out.print(value + " ");
+						}
+						if (targets[channel] >= 0) {
+							block[targets[channel]][frame] = value;
+						}
+					}
 					if ((index < 3) & verbose) {
-						System.out.print(value + " ");
+						System.out.println();
 					}
-					this.data[channel][index] = value;
 				}
-				if ((index < 3) & verbose) {
-					System.out.println();
+				for (int c = 0; c < channels; c++) {
+					store.write(c, first, block[c], 0, frames);
 				}
 			}
 			ret = true;
 		} catch (IOException e1) {
-
+			closeStore();
 		} finally {
 			try {
 				rdtBis.close();
@@ -282,10 +365,24 @@ public class RDTParser implements WrapperWriter, WrapperLoader{
 				+ "; sampling rate is " + this.samplingRate + "Hz");
 	}
 
+	/** @return - the samples, null if they were loaded into a memory mapped or segmented store (see getSampleStore()) */
 	public int[][] getData() {
 		return data;
 	}
 
+	/** The samples loaded by parse(), see setStoreThresholds(). */
+	public SampleStore getSampleStore() {
+		return store;
+	}
+
+	private void closeStore() {
+		if (store != null) {
+			store.close();
+			store = null;
+			data = null;
+		}
+	}
+
 	public void setData(int[][] dataExternal) {
 		data = dataExternal;
 	}
@@ -12,7 +12,12 @@ import org.cvrgrid.schiller.SchillerEcgFiles;
 import org.cvrgrid.schiller.jaxb.beans.ComXiriuzSemaXmlSchillerEDISchillerEDI;
 import org.cvrgrid.schiller.jaxb.beans.Wavedata;
 
+import edu.jhu.icm.ecgFormatConverter.LeadArrays;
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
 import edu.jhu.icm.ecgFormatConverter.WrapperLoader;
+import edu.jhu.icm.enums.LeadEnum;
 //import org.cvrgrid.schiller.jaxb.beans.Wavedata;
 
 public class SCHILLER_wrapper implements WrapperLoader{
@@ -25,6 +30,8 @@ public class SCHILLER_wrapper implements WrapperLoader{
 	private int sampleCount;
 	private int aduGain = 200;
 	private List<String> leadNames;
+	private LeadSelection leadSelection;
+	private TimeWindow timeWindow;
 	
 	// Initialization happens outside of the constructor since the methods called throw exceptions.
 	public void init(String filePath) throws IOException, JAXBException {
@@ -34,7 +41,7 @@ public class SCHILLER_wrapper implements WrapperLoader{
 		samplingRate = Float.valueOf(ret.getPrepSampleRate());
 		comXiriuzSemaXmlSchillerEDISchillerEDI = ret.getComXiriuzSemaXmlSchillerEDISchillerEDI();
 		leadData = ret.getDecodedLeads();
-		leadNames = ret.getLeadNames();
+		leadNames = LeadEnum.normalize(ret.getLeadNames());
 	}
 	
 	public boolean parse() {
@@ -55,20 +62,56 @@ public class SCHILLER_wrapper implements WrapperLoader{
 				}
 			}
 			
-			// Parse out each lead and add it to the data.  Allocate each new row and column size
-			// Use the Sierra library in order to get each lead row
-			data = new int[allocatedChannels][sampleCount];
-			
-			for(int i=0; i<allocatedChannels; i++) {
-				for(int j=0; j<leadData[i].size(); j++) {
-					data[i][j] = leadData[i].get(j);
-				}
+			// Parse out each selected lead and add it to the data.  Allocate each new row and column size
+			// Use the Sierra library in order to get each lead row, one unboxing pass per lead over the time window only
+			// (the library decodes into List<Integer>, there is no primitive array to copy from).
+			int[] selected = LeadSelection.resolve(leadSelection, leadNames, allocatedChannels);
+			if (selected.length == 0) {
+				return false; // resolve() logged the leads which were not found
+			}
+			int first = TimeWindow.firstSample(timeWindow, samplingRate);
+			sampleCount = TimeWindow.sampleCount(timeWindow, samplingRate, sampleCount);
+			data = LeadArrays.toIntArrays(leadData, selected, first, sampleCount);
+			if (timeWindow != null) {
+				numberOfPoints = sampleCount * allocatedChannels;
+			}
+			if (!LeadSelection.isAll(selected, allocatedChannels)) {
+				allocatedChannels = selected.length;
+				numberOfPoints = sampleCount * allocatedChannels;
+				leadNames = LeadSelection.select(leadNames, selected);
 			}
 			return true;
 		}
 		return false;
 	}
 	
+	public void setLeadSelection(LeadSelection leadSelection) {
+		this.leadSelection = leadSelection;
+	}
+	
+	/** The vendor library decodes the whole recording, only the window is copied into the data array. */
+	public void setTimeWindow(TimeWindow timeWindow) {
+		this.timeWindow = timeWindow;
+	}
+	
+	/** Not a header-only read: a Schiller file carries no sample count, the length of each lead is only known
+	 * once the library has decompressed its channel data, and SchillerEcgFiles offers nothing but the full
+	 * preprocess(). So this decodes the file like parse() does, but skips copying the leads into the data array.
+	 */
+	public RecordMetadata probe(String filePath) {
+		SCHILLER_wrapper wrapper = new SCHILLER_wrapper();
+		try {
+			wrapper.init(filePath);
+		} catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			return null;
+		}
+		if (wrapper.leadData == null || wrapper.leadData.length == 0) {
+			return null;
+		}
+		return new RecordMetadata(wrapper.leadData.length, wrapper.samplingRate, wrapper.leadData[0].size(), wrapper.leadNames, aduGain);
+	}
+	
 	public int[][] getData() {
 		return data;
 	}
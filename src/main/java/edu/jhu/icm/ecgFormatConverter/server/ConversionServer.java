@@ -0,0 +1,385 @@
+package edu.jhu.icm.ecgFormatConverter.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter;
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+import edu.jhu.icm.ecgFormatConverter.FormatDetector;
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
+import edu.jhu.icm.ecgFormatConverter.batch.AdmissionController;
+
+/** A long running local conversion service over HTTP, so callers do not pay JVM start-up for every file.<br>
+ * <br>
+ * Each worker thread keeps its own ECGformatConverter between requests. Requests wait in a bounded queue, 503 when
+ * it is full, and run within a memory budget (see AdmissionController). Requests name files on the server's own
+ * file system, so it listens on the loopback address and refuses requests from web pages.
+ * <ul>
+ * <li>POST /convert?input=/data/rec.rdt&amp;output=/data/out/&amp;format=CSV &mdash; optional parameters: inputFormat
+ * (detected from the content if omitted), signals, leads (see LeadSelection.parse()), start and duration (seconds).
+ * Answers 200 with the rows written and the output files, one per line; 400 for a bad request; 403 for a request
+ * with an Origin or a Host other than the loopback address; 422 if the conversion failed; 503 if the queue is full.</li>
+ * <li>GET /status &mdash; workers, running, queued, completed, failed and rejected requests, bytes admitted.</li>
+ * </ul>
+ * Usage: java edu.jhu.icm.ecgFormatConverter.server.ConversionServer [port [threads [queueSize]]]
+ */
+public class ConversionServer {
+	protected Logger log = Logger.getLogger(ConversionServer.class);
+
+	public static final int DEFAULT_PORT = 8089;
+
+	private final ThreadPoolExecutor workers;
+	private final AdmissionController admission;
+	private HttpServer server;
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	private final ThreadLocal<ECGformatConverter> converters = new ThreadLocal<ECGformatConverter>() {
+		@Override
+		protected ECGformatConverter initialValue() {
+			return new ECGformatConverter();
+		}
+	};
+
+	/** A parsed /convert request. */
+	private static class Conversion {
+		private File input;
+		private String outputPath;
+		private fileFormat inputFormat; // null to detect
+		private fileFormat outputFormat;
+		private int signalsRequested;
+		private LeadSelection leads;
+		private TimeWindow window;
+	}
+
+	/** Thrown for a malformed request, answered with 400. */
+	private static class BadRequestException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private BadRequestException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * @param threads - number of worker threads, zero or less means one per available processor.
+	 * @param queueSize - requests which may wait for a worker; more are rejected with 503.
+	 * @param memoryBudget - bytes the running conversions may use together, zero or less means 3/4 of the maximum heap.
+	 */
+	public ConversionServer(int threads, int queueSize, long memoryBudget) {
+		if(threads <= 0){
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		if(memoryBudget <= 0){
+			memoryBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+		}
+		admission = new AdmissionController(memoryBudget);
+		final AtomicInteger workerCount = new AtomicInteger();
+		workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						return new Thread(r, "conversion-" + workerCount.incrementAndGet());
+					}
+				});
+		workers.prestartAllCoreThreads();
+	}
+
+	/** Starts listening on the loopback address. */
+	public void start(int port) throws IOException {
+		start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/** Starts listening; the HTTP dispatcher thread only parses requests and queues them for the workers. */
+	public void start(InetSocketAddress address) throws IOException {
+		server = HttpServer.create(address, 0);
+		server.createContext("/convert", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleConvert(exchange);
+			}
+		});
+		server.createContext("/status", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleStatus(exchange);
+			}
+		});
+		server.start();
+		log.info("Conversion server listening on " + server.getAddress() + " with " + workers.getCorePoolSize() + " workers");
+	}
+
+	/** The port listened on, useful after start(0). */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/** Lets the queued conversions finish, answering new requests with 503 meanwhile, then stops listening.
+	 *
+	 * @param waitSeconds - how long to wait for the queued conversions
+	 */
+	public void stop(int waitSeconds) {
+		workers.shutdown();
+		try {
+			if (!workers.awaitTermination(waitSeconds, TimeUnit.SECONDS)) {
+				workers.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			workers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+
+	private void handleConvert(final HttpExchange exchange) throws IOException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			exchange.getResponseHeaders().set("Allow", "POST");
+			respond(exchange, 405, "Use POST.");
+			return;
+		}
+		if (!isLocalRequest(exchange)) {
+			respond(exchange, 403, "Only local requests are accepted.");
+			return;
+		}
+		final Conversion conversion;
+		try {
+			conversion = parse(exchange);
+		} catch (BadRequestException e) {
+			respond(exchange, 400, e.getMessage());
+			return;
+		}
+		try {
+			workers.execute(new Runnable() {
+				public void run() {
+					convert(exchange, conversion);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			respond(exchange, 503, workers.isShutdown() ? "Server is stopping." : "Conversion queue is full, retry later.");
+		}
+	}
+
+	private void handleStatus(HttpExchange exchange) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("workers ").append(workers.getCorePoolSize()).append('\n');
+		sb.append("running ").append(workers.getActiveCount()).append('\n');
+		sb.append("queued ").append(workers.getQueue().size()).append('\n');
+		sb.append("completed ").append(completed.get()).append('\n');
+		sb.append("failed ").append(failed.get()).append('\n');
+		sb.append("rejected ").append(rejected.get()).append('\n');
+		sb.append("bytesAdmitted ").append(admission.getBytesInUse()).append('\n');
+		sb.append("memoryBudget ").append(admission.getBudget()).append('\n');
+		respond(exchange, 200, sb.toString());
+	}
+
+	/** Runs on a worker thread, with that thread's converter. */
+	private void convert(HttpExchange exchange, Conversion conversion) {
+		try {
+			ECGformatConverter converter = converters.get();
+			converter.setLeadSelection(conversion.leads);
+			converter.setTimeWindow(conversion.window);
+			File input = conversion.input;
+			fileFormat inputFormat = conversion.inputFormat;
+			if (inputFormat == null) {
+				inputFormat = FormatDetector.detect(input).getFormat();
+				if (inputFormat == null) {
+					failed.incrementAndGet();
+					respond(exchange, 422, "Input format not recognized: " + input);
+					return;
+				}
+			}
+			RecordMetadata metadata = converter.probe(inputFormat, input.getPath());
+			long bytes = AdmissionController.estimate(inputFormat, conversion.outputFormat, metadata, input.length());
+			int rows;
+			admission.acquire(bytes);
+			try {
+				String inputPath = input.getAbsoluteFile().getParent() + File.separator;
+				rows = converter.convert(inputFormat, conversion.outputFormat, input.getName(), conversion.signalsRequested, inputPath, conversion.outputPath);
+			} finally {
+				converter.releaseRecord(); // the output file names are kept
+				admission.release(bytes);
+			}
+			if (rows < 0) {
+				failed.incrementAndGet();
+				respond(exchange, 422, "Conversion of " + input + " to " + conversion.outputFormat + " failed.");
+				return;
+			}
+			completed.incrementAndGet();
+			StringBuilder sb = new StringBuilder();
+			sb.append(rows).append('\n');
+			String[] outputs = converter.getOutputFilenames();
+			if (outputs != null) {
+				for (String output : outputs) {
+					sb.append(output).append('\n');
+				}
+			}
+			respond(exchange, 200, sb.toString());
+		} catch (InterruptedException e) { // stop() gave up waiting
+			respond(exchange, 503, "Server is stopping.");
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			log.error("Conversion of " + conversion.input + " failed.", e);
+			respond(exchange, 500, "Error: " + e.getMessage());
+		}
+	}
+
+	/** False for a request a browser sent for a web page: it has an Origin (a cross site form post or fetch),
+	 * or a Host which is not the loopback address (a DNS rebinding page talking to the local port). */
+	private static boolean isLocalRequest(HttpExchange exchange) {
+		if (exchange.getRequestHeaders().getFirst("Origin") != null) {
+			return false;
+		}
+		String host = exchange.getRequestHeaders().getFirst("Host");
+		if (host == null) {
+			return true; // HTTP/1.0 clients, browsers always send it
+		}
+		host = host.trim().toLowerCase();
+		int end = host.startsWith("[") ? host.indexOf(']') + 1 : host.indexOf(':');
+		if (end > 0) {
+			host = host.substring(0, end);
+		}
+		return host.equals("localhost") || host.equals("127.0.0.1") || host.equals("[::1]");
+	}
+
+	/** Reads the parameters from the query string and, for a form post, the body. */
+	private static Conversion parse(HttpExchange exchange) throws IOException, BadRequestException {
+		Map<String, String> params = new HashMap<String, String>();
+		parseParameters(exchange.getRequestURI().getRawQuery(), params);
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			body.write(buffer, 0, n);
+			if (body.size() > 64 * 1024) {
+				throw new BadRequestException("Request body too large.");
+			}
+		}
+		in.close();
+		parseParameters(body.toString("UTF-8"), params);
+
+		Conversion conversion = new Conversion();
+		String input = params.get("input");
+		if (input == null) {
+			throw new BadRequestException("Missing parameter: input");
+		}
+		conversion.input = new File(input);
+		if (!conversion.input.isFile()) {
+			throw new BadRequestException("Input file not found: " + input);
+		}
+		String output = params.get("output");
+		if (output == null) {
+			throw new BadRequestException("Missing parameter: output");
+		}
+		if (!output.endsWith(File.separator) && !output.endsWith("/")) {
+			output += File.separator;
+		}
+		if (!new File(output).isDirectory()) {
+			throw new BadRequestException("Output directory not found: " + output);
+		}
+		conversion.outputPath = output;
+		conversion.outputFormat = format(params.get("format"), "format");
+		if (conversion.outputFormat == null) {
+			throw new BadRequestException("Missing parameter: format");
+		}
+		conversion.inputFormat = format(params.get("inputFormat"), "inputFormat");
+		conversion.leads = LeadSelection.parse(params.get("leads"));
+		try {
+			String signals = params.get("signals");
+			conversion.signalsRequested = (signals == null) ? 0 : Integer.parseInt(signals);
+			String start = params.get("start");
+			String duration = params.get("duration");
+			if (start != null || duration != null) {
+				conversion.window = new TimeWindow((start == null) ? 0 : Double.parseDouble(start),
+						(duration == null) ? 0 : Double.parseDouble(duration));
+			}
+		} catch (NumberFormatException e) {
+			throw new BadRequestException("Not a number: " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		return conversion;
+	}
+
+	private static fileFormat format(String name, String parameter) throws BadRequestException {
+		if (name == null) {
+			return null;
+		}
+		try {
+			return fileFormat.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException("Unknown " + parameter + ": " + name);
+		}
+	}
+
+	private static void parseParameters(String query, Map<String, String> params) throws UnsupportedEncodingException {
+		if (query == null || query.length() == 0) {
+			return;
+		}
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String text) {
+		try {
+			byte[] bytes = text.getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			OutputStream out = exchange.getResponseBody();
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			log.warn("Could not send the response, the client has gone: " + e.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+		int queueSize = (args.length > 2) ? Integer.parseInt(args[2]) : 64;
+		final ConversionServer conversionServer = new ConversionServer(threads, queueSize, 0);
+		conversionServer.start(port);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				conversionServer.stop(30);
+			}
+		});
+	}
+}
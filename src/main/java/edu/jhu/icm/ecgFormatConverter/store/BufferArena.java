@@ -0,0 +1,153 @@
+package edu.jhu.icm.ecgFormatConverter.store;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Per thread pool of the transient byte[] and int[] buffers of a conversion (file bodies and blocks, base64 decode buffers,
+ * decode rows, output blocks, segmented channel chunks), so a worker converting file after file stops producing garbage
+ * once it is warmed up. Strings are not pooled: the text loaders split lines into Strings, and the CSV writer, the only
+ * writer formatting every sample as text, formats straight into a pooled byte block.<br>
+ * <br>
+ * Buffers come in power-of-two size classes: borrowBytes(n) and borrowInts(n) return an array of at least n elements,
+ * usually longer, and not zeroed. Every buffer borrowed between open() and the matching close() is taken back by
+ * that close(), so callers never return buffers themselves, but must not use them after the scope ends.
+ * Buffers borrowed outside a scope are ordinary garbage. Classes above 16M elements are not pooled, and a thread keeps
+ * at most getRetainLimit() bytes of free buffers; the rest are left to the garbage collector.<br>
+ * <br>
+ * Usage: BufferArena arena = BufferArena.current(); arena.open(); try { ... } finally { arena.close(); }
+ */
+public class BufferArena {
+
+	private static final int MIN_SHIFT = 6; // smallest class, 64 elements
+	private static final int MAX_SHIFT = 24; // largest pooled class, 16M elements
+
+	private static volatile long retainLimit = 64L * 1024 * 1024;
+
+	private static final ThreadLocal<BufferArena> ARENAS = new ThreadLocal<BufferArena>() {
+		@Override
+		protected BufferArena initialValue() {
+			return new BufferArena();
+		}
+	};
+
+	private final List<ArrayDeque<byte[]>> freeBytes = new ArrayList<ArrayDeque<byte[]>>();
+	private final List<ArrayDeque<int[]>> freeInts = new ArrayList<ArrayDeque<int[]>>();
+	private final List<byte[]> borrowedBytes = new ArrayList<byte[]>();
+	private final List<int[]> borrowedInts = new ArrayList<int[]>();
+	private int depth = 0;
+	private long retained = 0; // bytes held in the free lists
+
+	private BufferArena() {
+		for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+			freeBytes.add(new ArrayDeque<byte[]>());
+			freeInts.add(new ArrayDeque<int[]>());
+		}
+	}
+
+	/** The arena of the calling thread. */
+	public static BufferArena current() {
+		return ARENAS.get();
+	}
+
+	/** Starts a scope; scopes nest, buffers are taken back when the outermost one is closed. */
+	public void open() {
+		depth++;
+	}
+
+	/** Ends a scope; closing the outermost one takes back every buffer borrowed since it was opened. */
+	public void close() {
+		if (depth == 0) {
+			throw new IllegalStateException("BufferArena closed more often than opened.");
+		}
+		if (--depth == 0) {
+			for (byte[] buffer : borrowedBytes) {
+				if (retained + buffer.length <= retainLimit) {
+					freeBytes.get(sizeClass(buffer.length)).push(buffer);
+					retained += buffer.length;
+				}
+			}
+			for (int[] buffer : borrowedInts) {
+				if (retained + 4L * buffer.length <= retainLimit) {
+					freeInts.get(sizeClass(buffer.length)).push(buffer);
+					retained += 4L * buffer.length;
+				}
+			}
+			borrowedBytes.clear();
+			borrowedInts.clear();
+		}
+	}
+
+	/** True inside a scope, i.e. borrowed buffers will be taken back. */
+	public boolean isOpen() {
+		return depth > 0;
+	}
+
+	/** @return - a byte array of at least minLength elements, contents undefined */
+	public byte[] borrowBytes(int minLength) {
+		int sizeClass = sizeClass(minLength);
+		if (sizeClass < 0) {
+			return new byte[minLength];
+		}
+		byte[] buffer = freeBytes.get(sizeClass).poll();
+		if (buffer == null) {
+			buffer = new byte[1 << (sizeClass + MIN_SHIFT)];
+		} else {
+			retained -= buffer.length;
+		}
+		if (depth > 0) {
+			borrowedBytes.add(buffer);
+		}
+		return buffer;
+	}
+
+	/** @return - an int array of at least minLength elements, contents undefined */
+	public int[] borrowInts(int minLength) {
+		int sizeClass = sizeClass(minLength);
+		if (sizeClass < 0) {
+			return new int[minLength];
+		}
+		int[] buffer = freeInts.get(sizeClass).poll();
+		if (buffer == null) {
+			buffer = new int[1 << (sizeClass + MIN_SHIFT)];
+		} else {
+			retained -= 4L * buffer.length;
+		}
+		if (depth > 0) {
+			borrowedInts.add(buffer);
+		}
+		return buffer;
+	}
+
+	/** @return - count int arrays of at least minLength elements each, e.g. one block of rows per channel */
+	public int[][] borrowInts(int count, int minLength) {
+		int[][] buffers = new int[count][];
+		for (int i = 0; i < count; i++) {
+			buffers[i] = borrowInts(minLength);
+		}
+		return buffers;
+	}
+
+	/** Index of the smallest class holding length elements, -1 if it is too large to pool. */
+	private static int sizeClass(int length) {
+		if (length <= (1 << MIN_SHIFT)) {
+			return 0;
+		}
+		int shift = 32 - Integer.numberOfLeadingZeros(length - 1); // ceil(log2(length))
+		return (shift > MAX_SHIFT) ? -1 : shift - MIN_SHIFT;
+	}
+
+	/** Bytes of free buffers this arena holds for reuse. */
+	public long getRetainedBytes() {
+		return retained;
+	}
+
+	public static long getRetainLimit() {
+		return retainLimit;
+	}
+
+	/** @param bytes - most free buffer bytes each thread keeps between conversions, 64 MB by default */
+	public static void setRetainLimit(long bytes) {
+		retainLimit = bytes;
+	}
+}
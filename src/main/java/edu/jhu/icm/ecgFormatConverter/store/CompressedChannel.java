@@ -0,0 +1,217 @@
+package edu.jhu.icm.ecgFormatConverter.store;
+
+/** One channel of samples held compressed in memory, for keeping many records cached at once.<br>
+ * <br>
+ * The channel is cut into blocks of BLOCK_SIZE samples. A block keeps its first sample in the block index and
+ * the differences between the following samples, zigzag encoded (small negative and positive differences both
+ * become small numbers) and bit packed at the narrowest width that holds the largest of them. ECG differences
+ * usually fit in 4 to 8 bits, so a channel takes 4 to 8 times less memory than an int[]. Each block starts on a
+ * word boundary, so any block is decoded without touching the ones before it, and decoding is shifts and masks only.
+ */
+public class CompressedChannel {
+
+	public static final int BLOCK_SIZE = 128;
+
+	private final int length;
+	private final int[] firstValue; // per block
+	private final int[] wordOffset; // per block, index of its first word in words
+	private final byte[] width; // per block, bits per packed difference (0 to 32)
+	private final long[] words;
+
+	private CompressedChannel(int length, int[] firstValue, int[] wordOffset, byte[] width, long[] words) {
+		this.length = length;
+		this.firstValue = firstValue;
+		this.wordOffset = wordOffset;
+		this.width = width;
+		this.words = words;
+	}
+
+	/** Compresses samples[offset..offset+length). */
+	public static CompressedChannel encode(int[] samples, int offset, int length) {
+		Encoder encoder = new Encoder(length);
+		encoder.append(samples, offset, length);
+		return encoder.finish();
+	}
+
+	/** Compresses one channel of a SampleStore, reading it a few hundred blocks at a time. */
+	public static CompressedChannel encode(SampleStore store, int channel) {
+		int length = store.getSamplesPerChannel();
+		Encoder encoder = new Encoder(length);
+		int[] buffer = new int[Math.max(1, Math.min(length, 512 * BLOCK_SIZE))];
+		for (int first = 0; first < length; first += buffer.length) {
+			int count = Math.min(buffer.length, length - first);
+			store.read(channel, first, buffer, 0, count);
+			encoder.append(buffer, 0, count);
+		}
+		return encoder.finish();
+	}
+
+	/** Packs blocks as they are appended; every append but the last must be a whole number of blocks. */
+	private static class Encoder {
+		private final int length;
+		private final int[] firstValue;
+		private final int[] wordOffset;
+		private final byte[] width;
+		private long[] words;
+		private int wordCount = 0;
+		private int blocks = 0;
+
+		private Encoder(int length) {
+			this.length = length;
+			int blockCount = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			firstValue = new int[blockCount];
+			wordOffset = new int[blockCount];
+			width = new byte[blockCount];
+			words = new long[Math.max(16, length / 16)]; // room for 4 bits per sample, grown if needed
+		}
+
+		private void append(int[] samples, int offset, int count) {
+			for (int from = offset; from < offset + count; from += BLOCK_SIZE) {
+				appendBlock(samples, from, Math.min(BLOCK_SIZE, offset + count - from));
+			}
+		}
+
+		private void appendBlock(int[] samples, int from, int count) {
+			int bits = 0;
+			for (int i = from + 1; i < from + count; i++) {
+				bits |= zigzag(samples[i] - samples[i - 1]);
+			}
+			int w = 32 - Integer.numberOfLeadingZeros(bits); // bits of the largest difference
+			int blockWords = (int) (((long) (count - 1) * w + 63) / 64);
+			if ((long) wordCount + blockWords > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException("Channel of " + length + " samples does not compress into one array.");
+			}
+			if (wordCount + blockWords > words.length) {
+				long[] grown = new long[(int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) wordCount + blockWords, words.length * 3L / 2))];
+				System.arraycopy(words, 0, grown, 0, wordCount);
+				words = grown;
+			}
+			firstValue[blocks] = samples[from];
+			width[blocks] = (byte) w;
+			wordOffset[blocks] = wordCount;
+			if (w > 0) {
+				long bitPos = (long) wordCount * 64;
+				for (int i = from + 1; i < from + count; i++, bitPos += w) {
+					long value = zigzag(samples[i] - samples[i - 1]) & 0xFFFFFFFFL;
+					int word = (int) (bitPos >>> 6);
+					int shift = (int) (bitPos & 63);
+					words[word] |= value << shift;
+					if (shift + w > 64) {
+						words[word + 1] |= value >>> (64 - shift);
+					}
+				}
+			}
+			wordCount += blockWords;
+			blocks++;
+		}
+
+		private CompressedChannel finish() {
+			long[] packed = new long[wordCount];
+			System.arraycopy(words, 0, packed, 0, wordCount);
+			return new CompressedChannel(length, firstValue, wordOffset, width, packed);
+		}
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/** Number of samples. */
+	public int length() {
+		return length;
+	}
+
+	public int getBlockCount() {
+		return firstValue.length;
+	}
+
+	/** Decodes one block into buffer[offset..].
+	 *
+	 * @return - samples decoded, BLOCK_SIZE except for the last block.
+	 */
+	public int decodeBlock(int block, int[] buffer, int offset) {
+		int count = Math.min(BLOCK_SIZE, length - block * BLOCK_SIZE);
+		int w = width[block];
+		int value = firstValue[block];
+		buffer[offset] = value;
+		if (w == 0) {
+			for (int i = 1; i < count; i++) {
+				buffer[offset + i] = value;
+			}
+			return count;
+		}
+		long mask = (1L << w) - 1;
+		long bitPos = (long) wordOffset[block] * 64;
+		for (int i = 1; i < count; i++, bitPos += w) {
+			int word = (int) (bitPos >>> 6);
+			int shift = (int) (bitPos & 63);
+			long bits = words[word] >>> shift;
+			if (shift + w > 64) {
+				bits |= words[word + 1] << (64 - shift);
+			}
+			value += unzigzag((int) (bits & mask));
+			buffer[offset + i] = value;
+		}
+		return count;
+	}
+
+	/** Copies length samples, starting at from, into buffer[offset..], decoding only the blocks they are in. */
+	public void read(int from, int[] buffer, int offset, int length) {
+		if (from < 0 || length < 0 || (long) from + length > this.length) {
+			throw new ArrayIndexOutOfBoundsException("[" + from + ", " + ((long) from + length) + ") of " + this.length);
+		}
+		int[] decoded = null;
+		while (length > 0) {
+			int block = from / BLOCK_SIZE;
+			int pos = from - block * BLOCK_SIZE;
+			int n = Math.min(length, BLOCK_SIZE - pos);
+			if (pos == 0 && n == BLOCK_SIZE) {
+				decodeBlock(block, buffer, offset); // whole block, straight into the caller's buffer
+			} else {
+				if (decoded == null) {
+					decoded = new int[BLOCK_SIZE];
+				}
+				decodeBlock(block, decoded, 0);
+				System.arraycopy(decoded, pos, buffer, offset, n);
+			}
+			from += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/** One sample; decodes part of its block, use read() for runs of samples. */
+	public int get(int index) {
+		if (index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		int block = index / BLOCK_SIZE;
+		int steps = index - block * BLOCK_SIZE;
+		int w = width[block];
+		int value = firstValue[block];
+		if (w == 0) {
+			return value;
+		}
+		long mask = (1L << w) - 1;
+		long bitPos = (long) wordOffset[block] * 64;
+		for (int i = 0; i < steps; i++, bitPos += w) {
+			int word = (int) (bitPos >>> 6);
+			int shift = (int) (bitPos & 63);
+			long bits = words[word] >>> shift;
+			if (shift + w > 64) {
+				bits |= words[word + 1] << (64 - shift);
+			}
+			value += unzigzag((int) (bits & mask));
+		}
+		return value;
+	}
+
+	/** Approximate heap bytes used by the encoded samples and the block index. */
+	public long sizeInBytes() {
+		return 8L * words.length + 9L * firstValue.length;
+	}
+}
@@ -0,0 +1,76 @@
+package edu.jhu.icm.ecgFormatConverter.store;
+
+/** Read only SampleStore of CompressedChannels, the form in which to keep loaded records in a memory cache.
+ * Writers drain it like any other store (see CSVWriter.setSampleStore()); each read() decodes only the blocks it covers.
+ */
+public class CompressedSampleStore implements SampleStore {
+
+	private final CompressedChannel[] channels;
+	private final int samplesPerChannel;
+
+	public CompressedSampleStore(CompressedChannel[] channels) {
+		this.channels = channels;
+		this.samplesPerChannel = (channels.length == 0) ? 0 : channels[0].length();
+	}
+
+	/** Compresses every channel of a store, e.g. ECGformatConverter.getSampleStore(). */
+	public static CompressedSampleStore compress(SampleStore store) {
+		CompressedChannel[] channels = new CompressedChannel[store.getChannels()];
+		for (int c = 0; c < channels.length; c++) {
+			channels[c] = CompressedChannel.encode(store, c);
+		}
+		return new CompressedSampleStore(channels);
+	}
+
+	/** Compresses an int[channel][sample] array, as returned by ECGformatConverter.getData(). */
+	public static CompressedSampleStore compress(int[][] data, int samplesPerChannel) {
+		CompressedChannel[] channels = new CompressedChannel[data.length];
+		for (int c = 0; c < channels.length; c++) {
+			channels[c] = CompressedChannel.encode(data[c], 0, samplesPerChannel);
+		}
+		return new CompressedSampleStore(channels);
+	}
+
+	public CompressedChannel getChannel(int channel) {
+		return channels[channel];
+	}
+
+	public int getChannels() {
+		return channels.length;
+	}
+
+	public int getSamplesPerChannel() {
+		return samplesPerChannel;
+	}
+
+	public int get(int channel, int sample) {
+		return channels[channel].get(sample);
+	}
+
+	/** Not supported, the store is read only. */
+	public void set(int channel, int sample, int value) {
+		throw new UnsupportedOperationException("CompressedSampleStore is read only.");
+	}
+
+	public void read(int channel, int firstSample, int[] buffer, int offset, int length) {
+		channels[channel].read(firstSample, buffer, offset, length);
+	}
+
+	/** Not supported, the store is read only. */
+	public void write(int channel, int firstSample, int[] buffer, int offset, int length) {
+		throw new UnsupportedOperationException("CompressedSampleStore is read only.");
+	}
+
+	/** Nothing to release, the channels are ordinary heap objects. */
+	public void close() {
+	}
+
+	/** Approximate heap bytes of all channels, for sizing a cache. */
+	public long sizeInBytes() {
+		long size = 0;
+		for (CompressedChannel channel : channels) {
+			size += channel.sizeInBytes();
+		}
+		return size;
+	}
+}
@@ -0,0 +1,55 @@
+package edu.jhu.icm.ecgFormatConverter.store;
+
+/** SampleStore over an int[channel][sample] array, the layout ECGformatConverter.getData() returns. */
+public class HeapSampleStore implements SampleStore {
+
+	private int[][] data;
+	private final int samplesPerChannel;
+
+	public HeapSampleStore(int channels, int samplesPerChannel) {
+		this(new int[channels][samplesPerChannel], samplesPerChannel);
+	}
+
+	/**
+	 * @param data - int[channel][sample], used without copying
+	 * @param samplesPerChannel - samples in use per channel, the arrays may be longer
+	 */
+	public HeapSampleStore(int[][] data, int samplesPerChannel) {
+		this.data = data;
+		this.samplesPerChannel = samplesPerChannel;
+	}
+
+	/** The backing array, int[channel][sample]. */
+	public int[][] getData() {
+		return data;
+	}
+
+	public int getChannels() {
+		return data.length;
+	}
+
+	public int getSamplesPerChannel() {
+		return samplesPerChannel;
+	}
+
+	public int get(int channel, int sample) {
+		return data[channel][sample];
+	}
+
+	public void set(int channel, int sample, int value) {
+		data[channel][sample] = value;
+	}
+
+	public void read(int channel, int firstSample, int[] buffer, int offset, int length) {
+		System.arraycopy(data[channel], firstSample, buffer, offset, length);
+	}
+
+	public void write(int channel, int firstSample, int[] buffer, int offset, int length) {
+		System.arraycopy(buffer, offset, data[channel], firstSample, length);
+	}
+
+	/** Drops the reference to the array; anyone else holding it keeps it. */
+	public void close() {
+		data = null;
+	}
+}
@@ -0,0 +1,132 @@
+package edu.jhu.icm.ecgFormatConverter.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/** SampleStore in a memory mapped temp file, so a recording of any length takes no Java heap:
+ * the operating system pages the samples in and out as loaders and writers walk through them.<br>
+ * <br>
+ * Samples are stored channel after channel as native order 32 bit ints, mapped in segments of up to 1 GB
+ * (a single mapping is limited to 2 GB). The temp file is deleted by close(), so close() every store; the mapping
+ * itself is released when the store is garbage collected. Windows does not delete a file which is still mapped,
+ * there close() leaves it to File.deleteOnExit().
+ */
+public class MappedSampleStore implements SampleStore {
+	private static final Logger log = Logger.getLogger(MappedSampleStore.class);
+
+	private static final int SEGMENT_SHIFT = 28; // 2^28 ints = 1 GB per mapping
+	private static final int SEGMENT_INTS = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_INTS - 1;
+
+	private final int channels;
+	private final int samplesPerChannel;
+	private final File file;
+	private RandomAccessFile raf;
+	private IntBuffer[] segments;
+
+	/** Creates the store in a new temp file in java.io.tmpdir, all samples zero.
+	 *
+	 * @throws IOException - if the file can not be created or mapped, e.g. the disk is full.
+	 */
+	public MappedSampleStore(int channels, int samplesPerChannel) throws IOException {
+		this(channels, samplesPerChannel, null);
+	}
+
+	/**
+	 * @param directory - where the temp file is created, null for java.io.tmpdir
+	 */
+	public MappedSampleStore(int channels, int samplesPerChannel, File directory) throws IOException {
+		this.channels = channels;
+		this.samplesPerChannel = samplesPerChannel;
+		this.file = File.createTempFile("ecg", ".samples", directory);
+		long ints = (long) channels * samplesPerChannel;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(ints * 4);
+			FileChannel fileChannel = raf.getChannel();
+			segments = new IntBuffer[(int) ((ints + SEGMENT_INTS - 1) >>> SEGMENT_SHIFT)];
+			for (int s = 0; s < segments.length; s++) {
+				long first = (long) s << SEGMENT_SHIFT;
+				long size = Math.min(SEGMENT_INTS, ints - first);
+				segments[s] = fileChannel.map(FileChannel.MapMode.READ_WRITE, first * 4, size * 4)
+						.order(ByteOrder.nativeOrder()).asIntBuffer();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getSamplesPerChannel() {
+		return samplesPerChannel;
+	}
+
+	private long index(int channel, int sample) {
+		return (long) channel * samplesPerChannel + sample;
+	}
+
+	public int get(int channel, int sample) {
+		long i = index(channel, sample);
+		return segments[(int) (i >>> SEGMENT_SHIFT)].get((int) (i & SEGMENT_MASK));
+	}
+
+	public void set(int channel, int sample, int value) {
+		long i = index(channel, sample);
+		segments[(int) (i >>> SEGMENT_SHIFT)].put((int) (i & SEGMENT_MASK), value);
+	}
+
+	public void read(int channel, int firstSample, int[] buffer, int offset, int length) {
+		long i = index(channel, firstSample);
+		while (length > 0) {
+			IntBuffer view = segments[(int) (i >>> SEGMENT_SHIFT)].duplicate(); // own position, so readers may share the store
+			view.position((int) (i & SEGMENT_MASK));
+			int n = Math.min(length, view.remaining());
+			view.get(buffer, offset, n);
+			i += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	public void write(int channel, int firstSample, int[] buffer, int offset, int length) {
+		long i = index(channel, firstSample);
+		while (length > 0) {
+			IntBuffer view = segments[(int) (i >>> SEGMENT_SHIFT)].duplicate();
+			view.position((int) (i & SEGMENT_MASK));
+			int n = Math.min(length, view.remaining());
+			view.put(buffer, offset, n);
+			i += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/** Closes and deletes the temp file, or if it is still mapped (Windows) marks it to be deleted when the JVM exits.
+	 * The mapping is not released by force: a reader still holding a segment would crash the JVM.
+	 */
+	public void close() {
+		segments = null;
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				log.warn("Could not close " + file + ": " + e.getMessage());
+			}
+			raf = null;
+		}
+		if (file.exists() && !file.delete()) {
+			file.deleteOnExit();
+			log.warn("Could not delete " + file + " while it is mapped, it is deleted when the JVM exits.");
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package edu.jhu.icm.ecgFormatConverter.store;
+
+/** Signal storage of a loaded recording, channels of equal length addressed by channel and sample index.
+ * Loaders fill it and writers drain it through the block read() and write() methods, so neither depends on
+ * whether the samples are on the heap (HeapSampleStore) or in a memory mapped temp file (MappedSampleStore).
+ * See SampleStores.allocate().
+ */
+public interface SampleStore {
+
+	public int getChannels();
+
+	public int getSamplesPerChannel();
+
+	public int get(int channel, int sample);
+
+	public void set(int channel, int sample, int value);
+
+	/** Copies length samples of a channel, starting at firstSample, into buffer[offset..]. */
+	public void read(int channel, int firstSample, int[] buffer, int offset, int length);
+
+	/** Copies length samples from buffer[offset..] into a channel, starting at firstSample. */
+	public void write(int channel, int firstSample, int[] buffer, int offset, int length);
+
+	/** Releases the storage; the store must not be used afterwards. */
+	public void close();
+}
@@ -0,0 +1,51 @@
+package edu.jhu.icm.ecgFormatConverter.store;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+/** Chooses the storage for a recording by its size. */
+public class SampleStores {
+	private static final Logger log = Logger.getLogger(SampleStores.class);
+
+	/** Threshold meaning never off-heap. */
+	public static final long NEVER = Long.MAX_VALUE;
+
+	/** Threshold meaning never segmented, every channel is one int[]. */
+	public static final int NEVER_SEGMENTED = Integer.MAX_VALUE;
+
+	private SampleStores() {
+	}
+
+	/** Allocates a zeroed store, memory mapped if the recording has more than offHeapThreshold samples (over all channels).
+	 * If the temp file can not be created the samples are kept on the heap.
+	 *
+	 * @param channels - channel count
+	 * @param samplesPerChannel - samples per channel
+	 * @param offHeapThreshold - sample count above which the store is memory mapped, NEVER to always use the heap
+	 */
+	public static SampleStore allocate(int channels, int samplesPerChannel, long offHeapThreshold) {
+		return allocate(channels, samplesPerChannel, offHeapThreshold, NEVER_SEGMENTED);
+	}
+
+	/** Allocates a zeroed store: memory mapped above offHeapThreshold samples (over all channels), otherwise on the heap,
+	 * with channels longer than segmentThreshold samples split into chunks (SegmentedSampleStore).
+	 *
+	 * @param offHeapThreshold - sample count above which the store is memory mapped, NEVER to always use the heap
+	 * @param segmentThreshold - channel length above which heap channels are segmented, NEVER_SEGMENTED for plain arrays
+	 */
+	public static SampleStore allocate(int channels, int samplesPerChannel, long offHeapThreshold, int segmentThreshold) {
+		long samples = (long) channels * samplesPerChannel;
+		if (samples > offHeapThreshold) {
+			try {
+				return new MappedSampleStore(channels, samplesPerChannel);
+			} catch (IOException e) {
+				log.warn("Could not map " + samples + " samples, keeping them on the heap: " + e.getMessage());
+			}
+		}
+		if (samplesPerChannel > segmentThreshold) {
+			return new SegmentedSampleStore(channels, samplesPerChannel);
+		}
+		return new HeapSampleStore(channels, samplesPerChannel);
+	}
+}
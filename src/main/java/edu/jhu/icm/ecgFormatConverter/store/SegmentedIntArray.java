@@ -0,0 +1,83 @@
+package edu.jhu.icm.ecgFormatConverter.store;
+
+import java.util.Arrays;
+
+/** An int array of any length held as a chain of fixed size chunks (64 KB each), so a long channel never needs
+ * one contiguous allocation. With G1 an array of half a region or more (region sizes are 1 to 32 MB) is a
+ * humongous object, allocated straight into whole free regions; a few hundred thousand samples per lead reach
+ * that, and many such leads fragment the heap. Chunks stay well below the smallest humongous size.<br>
+ * <br>
+ * Indexed access costs a shift and a mask more than a plain array; use the bulk read() and write() for runs of samples.
+ * Chunks are borrowed from the thread's BufferArena, so inside an arena scope they are reused by the next record
+ * and the array must not be used after the scope ends.
+ */
+public class SegmentedIntArray {
+
+	public static final int CHUNK_SHIFT = 14;
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // 16384 ints
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final int length;
+	private final int[][] chunks;
+
+	/** Creates the array, all elements zero. */
+	public SegmentedIntArray(int length) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length: " + length);
+		}
+		this.length = length;
+		int chunkCount = (int) (((long) length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+		chunks = new int[chunkCount][];
+		BufferArena arena = BufferArena.current();
+		for (int c = 0; c < chunkCount; c++) {
+			chunks[c] = arena.borrowInts(CHUNK_SIZE);
+			Arrays.fill(chunks[c], 0);
+		}
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public int get(int index) {
+		return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+	}
+
+	public void set(int index, int value) {
+		chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK] = value;
+	}
+
+	/** Copies length elements, starting at from, into buffer[offset..]. */
+	public void read(int from, int[] buffer, int offset, int length) {
+		checkRange(from, length);
+		while (length > 0) {
+			int[] chunk = chunks[from >>> CHUNK_SHIFT];
+			int pos = from & CHUNK_MASK;
+			int n = Math.min(length, CHUNK_SIZE - pos);
+			System.arraycopy(chunk, pos, buffer, offset, n);
+			from += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/** Copies length elements from buffer[offset..] into the array, starting at from. */
+	public void write(int from, int[] buffer, int offset, int length) {
+		checkRange(from, length);
+		while (length > 0) {
+			int[] chunk = chunks[from >>> CHUNK_SHIFT];
+			int pos = from & CHUNK_MASK;
+			int n = Math.min(length, CHUNK_SIZE - pos);
+			System.arraycopy(buffer, offset, chunk, pos, n);
+			from += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	private void checkRange(int from, int count) {
+		if (from < 0 || count < 0 || (long) from + count > length) {
+			throw new ArrayIndexOutOfBoundsException("[" + from + ", " + ((long) from + count) + ") of " + length);
+		}
+	}
+}
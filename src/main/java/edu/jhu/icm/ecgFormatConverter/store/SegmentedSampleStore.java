@@ -0,0 +1,50 @@
+package edu.jhu.icm.ecgFormatConverter.store;
+
+/** SampleStore on the heap with each channel in a SegmentedIntArray, for records whose channels are too long
+ * to allocate as single arrays without fragmenting the heap. */
+public class SegmentedSampleStore implements SampleStore {
+
+	private SegmentedIntArray[] channels;
+	private final int samplesPerChannel;
+
+	public SegmentedSampleStore(int channelCount, int samplesPerChannel) {
+		this.samplesPerChannel = samplesPerChannel;
+		channels = new SegmentedIntArray[channelCount];
+		for (int c = 0; c < channelCount; c++) {
+			channels[c] = new SegmentedIntArray(samplesPerChannel);
+		}
+	}
+
+	/** The samples of one channel. */
+	public SegmentedIntArray getChannel(int channel) {
+		return channels[channel];
+	}
+
+	public int getChannels() {
+		return channels.length;
+	}
+
+	public int getSamplesPerChannel() {
+		return samplesPerChannel;
+	}
+
+	public int get(int channel, int sample) {
+		return channels[channel].get(sample);
+	}
+
+	public void set(int channel, int sample, int value) {
+		channels[channel].set(sample, value);
+	}
+
+	public void read(int channel, int firstSample, int[] buffer, int offset, int length) {
+		channels[channel].read(firstSample, buffer, offset, length);
+	}
+
+	public void write(int channel, int firstSample, int[] buffer, int offset, int length) {
+		channels[channel].write(firstSample, buffer, offset, length);
+	}
+
+	public void close() {
+		channels = null;
+	}
+}
@@ -5,9 +5,11 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Logger;
 
@@ -18,15 +20,31 @@ public abstract class ApplicationWrapper {
 	protected BufferedReader stdError = null;
 	protected Logger log = Logger.getLogger(ApplicationWrapper.class);
 	protected int lineNum = 0;
+	protected ProcessRunner runner = null;
+	protected long commandTimeout = DEFAULT_COMMAND_TIMEOUT;
+	
+	private static final long DEFAULT_COMMAND_TIMEOUT = 30 * 60 * 1000; // 30 minutes
+	private static final int BUFFER_SIZE = 64 * 1024;
 	
 	/** Executes the command and pipes the response and errors to stdInputBuffer and stdError respectively.
+	 * stderr is drained in the background while stdout is read, see ProcessRunner.
 	 * 
-	 * @param sCommand - a specified system command.
+	 * @param sCommand - a specified system command, commands separated by '|' are run as a pipeline.
 	 * @param asEnvVar - array of strings, each element of which has environment variable settings in format name=value.
 	 * @param sWorkingDir - the working directory of the subprocess, or null if the subprocess should inherit the working directory of the current process. 
 	 * @return 
 	 */
 	protected boolean executeCommand(String sCommand, String[] asEnvVar, String sWorkingDir){
+		return executeCommand(sCommand, asEnvVar, sWorkingDir, null);
+	}
+	
+	/** Executes the command, handing each line of its output to stdoutConsumer as raw bytes instead of piping it to stdInputBuffer.
+	 * The consumer runs on a ProcessRunner thread; stdErrorHandler() waits until it has seen the last line.
+	 * 
+	 * @param stdoutConsumer - receives the output lines, null to read them from stdInputBuffer.
+	 * @see #executeCommand(String, String[], String)
+	 */
+	protected boolean executeCommand(String sCommand, String[] asEnvVar, String sWorkingDir, ProcessRunner.LineConsumer stdoutConsumer){
 		
 		if(asEnvVar == null){
 			asEnvVar = new String[0];
@@ -38,34 +56,20 @@ public abstract class ApplicationWrapper {
 		boolean bRet = true;	
 		
 		try {
-			File fWorkingDir = new File(sWorkingDir); //converts the dir name to File for exec command.
-			Runtime rt = Runtime.getRuntime();
-			String[] commandArray = sCommand.split("\\|");
-			if(commandArray.length == 1 ){
-				Process process = rt.exec(sCommand, asEnvVar, fWorkingDir);
-				InputStream is = process.getInputStream();  // The input stream for this method comes from the output from rt.exec()
-				InputStreamReader isr = new InputStreamReader(is);
-				stdInputBuffer = new BufferedReader(isr);
-				InputStream errs = process.getErrorStream();
-				InputStreamReader esr = new InputStreamReader(errs);
-				stdError = new BufferedReader(esr);	
-			}else{
-				
-				Process[] processArray = new Process[commandArray.length];
-				// Start processes: ps ax | grep rbe | grep JavaVM
-				for (int i = 0; i < commandArray.length; i++) {
-					processArray[i] =  rt.exec(commandArray[i].trim(), asEnvVar, fWorkingDir);
-				}
-		        // Start piping
-		        java.io.InputStream in = Piper.pipe(processArray);
-		        
-		        // Show output of last process
-		        InputStreamReader isr = new InputStreamReader(in);
-				stdInputBuffer = new BufferedReader(isr);
-				InputStream errs = processArray[processArray.length-1].getErrorStream();
-				InputStreamReader esr = new InputStreamReader(errs);
-				stdError = new BufferedReader(esr);	
+			runner = ProcessRunner.parse(sCommand);
+			runner.setEnvironment(asEnvVar);
+			if(sWorkingDir != null){
+				runner.setWorkingDirectory(new File(sWorkingDir));
+			}
+			runner.setTimeout(commandTimeout);
+			if(stdoutConsumer != null){
+				runner.setStdoutConsumer(ProcessRunner.lines(stdoutConsumer));
 			}
+			runner.start();
+			
+			// The input stream for this method comes from the output of the last command
+			stdInputBuffer = (stdoutConsumer == null) ? new BufferedReader(new InputStreamReader(runner.getInputStream()), BUFFER_SIZE) : null;
+			stdError = null;
 			
 		} catch (IOException ioe) {
 			log.error("IOException Message: executeCommand(" + sCommand + ")" + ioe.getMessage());
@@ -206,24 +210,51 @@ public abstract class ApplicationWrapper {
 		}
 	}
 	
-	/** This function prints messages resulting from runtime problems to the system standard error
-	 * @return Boolean variable:  True if there are no errors, false if there are errors.
+	/** Waits for the command, then logs what it wrote to stderr as warnings; the WFDB tools also write notices there,
+	 * e.g. a missing annotation file, which do not fail a command.
+	 * @return Boolean variable:  True if there are no errors, false if the command exited with a non-zero status, timed out or was cancelled.
 	 * 
 	 * @throws IOException
 	 */	
 	protected boolean stdErrorHandler() throws IOException{
 		boolean bRet = true;
 		String error;
-	    lineNum = 0;
+		int errorLine = 0; // not lineNum, a stdout consumer may still be counting with it
+
+	    // whatever is left on stdout is not wanted, let the command finish.
+	    if(stdInputBuffer != null){
+	    	while (stdInputBuffer.readLine() != null);
+	    }
+	    if(runner != null){
+	    	try {
+	    		int exitCode = runner.waitFor();
+	    		if(exitCode != 0){
+	    			log.error("command exited with status " + exitCode);
+	    			bRet = false;
+	    		}
+	    	} catch (TimeoutException e) {
+	    		log.error(e.getMessage());
+	    		bRet = false;
+	    	} catch (CancellationException e) {
+	    		log.error(e.getMessage());
+	    		bRet = false;
+	    	} catch (InterruptedException e) {
+	    		Thread.currentThread().interrupt();
+	    		throw new IOException(e);
+	    	}
+	    	stdError = new BufferedReader(new StringReader(runner.getErrorOutput()));
+	    }
+	    if(stdError == null){
+	    	return bRet;
+	    }
 
 	    // read any errors from the attempted command
 	    debugPrintln("");
 	    debugPrintln("Here is the standard error of the command (if any): \"");
         while ((error = stdError.readLine()) != null) {
         	if(error.length() > 0){
-	        	log.error(lineNum + ">" + error);
-	            lineNum++;
-				bRet = false;
+	        	log.warn(errorLine + ">" + error);
+	            errorLine++;
         	}
         }
         debugPrintln("\"");
@@ -239,4 +270,15 @@ public abstract class ApplicationWrapper {
 		return outputFilenames;
 	}
 	
+	public long getCommandTimeout() {
+		return commandTimeout;
+	}
+
+	/** Sets how long each external command may run before it is destroyed.
+	 * @param commandTimeout - milliseconds, 0 for no limit.
+	 */
+	public void setCommandTimeout(long commandTimeout) {
+		this.commandTimeout = commandTimeout;
+	}
+	
 }
@@ -1,6 +1,10 @@
 package edu.jhu.icm.ecgFormatConverter.wfdb;
 
 
+/** Copies one process's stdout to the next one's stdin.
+ * @deprecated - ProcessRunner runs pipelines with concurrent stderr draining and timeouts.
+ */
+@Deprecated
 public class Piper implements Runnable{
 
     private java.io.InputStream input;
@@ -0,0 +1,506 @@
+package edu.jhu.icm.ecgFormatConverter.wfdb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/** Runs an external command, or a pipeline of commands (a | b | c), using ProcessBuilder.
+ *
+ * stdout and stderr of every stage are drained concurrently with 64K buffers, so a tool which fills
+ * its error pipe can not block. Output goes either to a StreamConsumer/LineConsumer as raw bytes, or
+ * can be read from getInputStream(). A timeout destroys the processes once the deadline passes, and
+ * cancel() does the same on demand. The number of child processes running at once in this JVM is capped
+ * by the system property "edu.jhu.icm.maxProcesses" (default: 2 per processor).
+ *
+ * Typical use:
+ * <pre>
+ * ProcessRunner runner = new ProcessRunner("rdsamp", "-r", record, "-c");
+ * runner.setTimeout(60000);
+ * runner.setStdoutConsumer(ProcessRunner.lines(myLineConsumer));
+ * int exitCode = runner.run();
+ * </pre>
+ */
+public class ProcessRunner {
+
+	/** Receives a block of output bytes. The buffer is reused after the call returns. */
+	public interface StreamConsumer {
+		public void consume(byte[] buffer, int offset, int length) throws IOException;
+	}
+
+	/** Receives one line of output, without its line terminator. The buffer is reused after the call returns. */
+	public interface LineConsumer {
+		public void line(byte[] buffer, int offset, int length) throws IOException;
+	}
+
+	private static final Logger log = Logger.getLogger(ProcessRunner.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_CAPTURED_ERROR = 64 * 1024;
+	private static final int MAX_PROCESSES = Math.max(1, Integer.getInteger("edu.jhu.icm.maxProcesses",
+			2 * Runtime.getRuntime().availableProcessors()));
+	private static final Semaphore processSlots = new Semaphore(MAX_PROCESSES, true);
+
+	private static final ThreadFactory daemonThreads = new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ProcessRunner");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+	private static final ExecutorService pumps = Executors.newCachedThreadPool(daemonThreads);
+	private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads);
+
+	private final List<List<String>> stages = new ArrayList<List<String>>();
+	private File workingDirectory = null;
+	private String[] environment = null;
+	private long timeoutMillis = 0;
+	private StreamConsumer stdoutConsumer = null;
+	private StreamConsumer stderrConsumer = null;
+
+	private Process[] processes;
+	private final List<Future<?>> pumpFutures = new ArrayList<Future<?>>();
+	private Future<Integer> reaper;
+	private ScheduledFuture<?> deadline;
+	private final ByteArrayOutputStream capturedError = new ByteArrayOutputStream();
+	private volatile boolean timedOut = false;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param command - program and its arguments, one per element.
+	 */
+	public ProcessRunner(String... command) {
+		pipeTo(command);
+	}
+
+	/**
+	 * @param command - program and its arguments, one per element.
+	 */
+	public ProcessRunner(List<String> command) {
+		pipeTo(command);
+	}
+
+	/** Builds a runner from a command line the way Runtime.exec() would, splitting on whitespace.
+	 * Commands separated by '|' are run as a pipeline.
+	 *
+	 * @param commandLine - e.g. "rdsamp -r 100 -p | head -n 10"
+	 */
+	public static ProcessRunner parse(String commandLine) {
+		ProcessRunner runner = null;
+		for (String stage : commandLine.split("\\|")) {
+			List<String> command = new ArrayList<String>();
+			StringTokenizer st = new StringTokenizer(stage);
+			while (st.hasMoreTokens()) {
+				command.add(st.nextToken());
+			}
+			if (runner == null) {
+				runner = new ProcessRunner(command);
+			} else {
+				runner.pipeTo(command);
+			}
+		}
+		return runner;
+	}
+
+	/** Adds a stage to the pipeline; its stdin is fed from the previous stage's stdout.
+	 * @return - this runner
+	 */
+	public ProcessRunner pipeTo(String... command) {
+		return pipeTo(Arrays.asList(command));
+	}
+
+	/** Adds a stage to the pipeline; its stdin is fed from the previous stage's stdout.
+	 * @return - this runner
+	 */
+	public ProcessRunner pipeTo(List<String> command) {
+		if (command.isEmpty()) {
+			throw new IllegalArgumentException("Empty command");
+		}
+		stages.add(new ArrayList<String>(command));
+		return this;
+	}
+
+	/** Starts all the stages and the threads draining their output, then returns.
+	 * Blocks while the process cap is reached.
+	 *
+	 * @throws CancellationException - if cancel() was called before, nothing is started then.
+	 */
+	public synchronized void start() throws IOException, InterruptedException {
+		if (processes != null) {
+			throw new IllegalStateException("Already started");
+		}
+		if (cancelled) {
+			throw new CancellationException(stages.get(0).get(0) + " was cancelled");
+		}
+		final int permits = Math.min(stages.size(), MAX_PROCESSES);
+		processSlots.acquire(permits);
+
+		processes = new Process[stages.size()];
+		try {
+			for (int i = 0; i < stages.size(); i++) {
+				ProcessBuilder pb = new ProcessBuilder(stages.get(i));
+				if (workingDirectory != null) {
+					pb.directory(workingDirectory);
+				}
+				if (environment != null && environment.length > 0) {
+					Map<String, String> env = pb.environment();
+					env.clear();
+					for (String nameValue : environment) {
+						int eq = nameValue.indexOf('=');
+						if (eq > 0) {
+							env.put(nameValue.substring(0, eq), nameValue.substring(eq + 1));
+						}
+					}
+				}
+				processes[i] = pb.start();
+			}
+		} catch (IOException e) {
+			destroyAll();
+			processSlots.release(permits);
+			throw e;
+		}
+		if (cancelled) { // cancel() ran while the stages were starting, it may have missed the later ones
+			destroyAll();
+		}
+
+		processes[0].getOutputStream().close(); // the pipeline reads nothing from us
+		for (int i = 0; i < processes.length; i++) {
+			if (i + 1 < processes.length) {
+				pumpFutures.add(pump(processes[i].getInputStream(), processes[i + 1].getOutputStream()));
+			} else if (stdoutConsumer != null) {
+				pumpFutures.add(pump(processes[i].getInputStream(), stdoutConsumer));
+			}
+			pumpFutures.add(pump(processes[i].getErrorStream(), stderrConsumer != null ? stderrConsumer : new ErrorCapture()));
+		}
+
+		if (timeoutMillis > 0) {
+			deadline = watchdog.schedule(new Runnable() {
+				public void run() {
+					timedOut = true;
+					destroyAll();
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+
+		// releases the process slots as soon as every stage has exited, whether or not waitFor() is called.
+		reaper = pumps.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				try {
+					int exitCode = 0;
+					for (Process p : processes) {
+						exitCode = p.waitFor();
+					}
+					return exitCode;
+				} finally {
+					if (deadline != null) {
+						deadline.cancel(false);
+					}
+					processSlots.release(permits);
+				}
+			}
+		});
+	}
+
+	/** Waits for every stage to exit and every output stream to be drained.
+	 *
+	 * @return - exit code of the last stage
+	 * @throws TimeoutException - if the timeout expired and the processes were destroyed.
+	 * @throws CancellationException - if cancel() was called.
+	 */
+	public int waitFor() throws IOException, InterruptedException, TimeoutException {
+		if (processes == null) {
+			throw new IllegalStateException("Not started");
+		}
+		int exitCode;
+		try {
+			exitCode = reaper.get();
+			for (Future<?> f : pumpFutures) {
+				f.get();
+			}
+		} catch (ExecutionException e) {
+			if (!timedOut && !cancelled) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw new IOException(cause);
+			}
+			exitCode = -1;
+		} catch (InterruptedException e) {
+			destroyAll();
+			throw e;
+		}
+		if (timedOut) {
+			throw new TimeoutException(stages.get(0).get(0) + " did not finish within " + timeoutMillis + "ms");
+		}
+		if (cancelled) {
+			throw new CancellationException(stages.get(0).get(0) + " was cancelled");
+		}
+		return exitCode;
+	}
+
+	/** Starts the command and waits for it. stdout is discarded unless a consumer was set.
+	 * @return - exit code of the last stage
+	 */
+	public int run() throws IOException, InterruptedException, TimeoutException {
+		if (stdoutConsumer == null) {
+			stdoutConsumer = new StreamConsumer() {
+				public void consume(byte[] buffer, int offset, int length) {
+				}
+			};
+		}
+		start();
+		return waitFor();
+	}
+
+	/** Runs the command on a background thread.
+	 * @return - a Future of the last stage's exit code; cancelling it destroys the processes.
+	 */
+	public Future<Integer> runAsync() {
+		final Future<Integer> future = pumps.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				return run();
+			}
+		});
+		return new Future<Integer>() {
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				ProcessRunner.this.cancel();
+				return future.cancel(mayInterruptIfRunning);
+			}
+			public boolean isCancelled() {
+				return future.isCancelled();
+			}
+			public boolean isDone() {
+				return future.isDone();
+			}
+			public Integer get() throws InterruptedException, ExecutionException {
+				return future.get();
+			}
+			public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+				return future.get(timeout, unit);
+			}
+		};
+	}
+
+	/** Destroys all the processes; waitFor() then throws CancellationException. If called before start(), start() throws it and runs nothing. */
+	public void cancel() {
+		cancelled = true;
+		destroyAll();
+	}
+
+	/** Returns stdout of the last stage, for callers which read it themselves.
+	 * Only valid after start() when no stdout consumer was set.
+	 */
+	public InputStream getInputStream() {
+		if (processes == null || stdoutConsumer != null) {
+			throw new IllegalStateException("stdout is not available");
+		}
+		return processes[processes.length - 1].getInputStream();
+	}
+
+	/** Returns what the stages wrote to stderr (at most the first 64K), when no stderr consumer was set. */
+	public String getErrorOutput() {
+		synchronized (capturedError) {
+			try {
+				return capturedError.toString("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				return capturedError.toString();
+			}
+		}
+	}
+
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/** @param workingDirectory - working directory of the processes, null to inherit ours. */
+	public void setWorkingDirectory(File workingDirectory) {
+		this.workingDirectory = workingDirectory;
+	}
+
+	/** @param environment - "name=value" settings replacing the inherited environment; null or empty to inherit ours. */
+	public void setEnvironment(String[] environment) {
+		this.environment = environment;
+	}
+
+	/** @param timeoutMillis - time allowed from start() until every stage has exited, 0 for no limit. */
+	public void setTimeout(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/** @param stdoutConsumer - receives the last stage's stdout, must be set before start(). */
+	public void setStdoutConsumer(StreamConsumer stdoutConsumer) {
+		this.stdoutConsumer = stdoutConsumer;
+	}
+
+	/** @param stderrConsumer - receives the stderr of every stage, must be set before start(). It is called from several threads for pipelines. */
+	public void setStderrConsumer(StreamConsumer stderrConsumer) {
+		this.stderrConsumer = stderrConsumer;
+	}
+
+	/** Adapts a LineConsumer to the StreamConsumer interface, splitting on \n and dropping \r. */
+	public static StreamConsumer lines(final LineConsumer consumer) {
+		return new LineSplitter(consumer);
+	}
+
+	/** Returns the maximum number of child processes which may run at once in this JVM. */
+	public static int getMaxProcesses() {
+		return MAX_PROCESSES;
+	}
+
+	private void destroyAll() {
+		if (processes != null) {
+			for (Process p : processes) {
+				if (p != null) {
+					p.destroy();
+				}
+			}
+		}
+	}
+
+	/** Copies one stage's stdout to the next stage's stdin. */
+	private Future<?> pump(final InputStream in, final OutputStream out) {
+		return pumps.submit(new Callable<Void>() {
+			public Void call() throws IOException {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				try {
+					int count;
+					while ((count = in.read(buffer)) != -1) {
+						try {
+							out.write(buffer, 0, count);
+						} catch (IOException e) {
+							// broken pipe: the next stage exited early (e.g. head). As in a shell, the writing stage
+							// gets SIGPIPE once its stdout is closed below; not a failure of the pipeline.
+							log.debug("next stage closed its input: " + e.getMessage());
+							break;
+						}
+					}
+				} catch (IOException e) {
+					if (!timedOut && !cancelled) {
+						throw e;
+					}
+				} finally {
+					in.close();
+					try {
+						out.close();
+					} catch (IOException e) {
+						// the next stage may already have exited.
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	private Future<?> pump(final InputStream in, final StreamConsumer consumer) {
+		return pumps.submit(new Callable<Void>() {
+			public Void call() throws IOException {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				try {
+					int count;
+					while ((count = in.read(buffer)) != -1) {
+						consumer.consume(buffer, 0, count);
+					}
+					if (consumer instanceof LineSplitter) {
+						((LineSplitter) consumer).finish();
+					}
+				} catch (IOException e) {
+					if (!timedOut && !cancelled) {
+						throw e;
+					}
+				} finally {
+					in.close();
+				}
+				return null;
+			}
+		});
+	}
+
+	/** Keeps the first 64K of stderr, discarding the rest. */
+	private class ErrorCapture implements StreamConsumer {
+		public void consume(byte[] buffer, int offset, int length) {
+			synchronized (capturedError) {
+				int room = MAX_CAPTURED_ERROR - capturedError.size();
+				if (room > 0) {
+					capturedError.write(buffer, offset, Math.min(room, length));
+				} else if (log.isDebugEnabled()) {
+					log.debug("stderr exceeds " + MAX_CAPTURED_ERROR + " bytes, discarding.");
+				}
+			}
+		}
+	}
+
+	/** Splits a byte stream into lines, handing each to a LineConsumer without creating Strings. */
+	private static class LineSplitter implements StreamConsumer {
+		private final LineConsumer consumer;
+		private byte[] pending = new byte[256];
+		private int pendingLength = 0;
+
+		LineSplitter(LineConsumer consumer) {
+			this.consumer = consumer;
+		}
+
+		public void consume(byte[] buffer, int offset, int length) throws IOException {
+			int end = offset + length;
+			int start = offset;
+			for (int i = offset; i < end; i++) {
+				if (buffer[i] == '\n') {
+					if (pendingLength > 0) {
+						append(buffer, start, i - start);
+						emit(pending, 0, pendingLength);
+						pendingLength = 0;
+					} else {
+						emit(buffer, start, i - start);
+					}
+					start = i + 1;
+				}
+			}
+			if (start < end) {
+				append(buffer, start, end - start);
+			}
+		}
+
+		void finish() throws IOException {
+			if (pendingLength > 0) {
+				emit(pending, 0, pendingLength);
+				pendingLength = 0;
+			}
+		}
+
+		private void emit(byte[] buffer, int offset, int length) throws IOException {
+			if (length > 0 && buffer[offset + length - 1] == '\r') {
+				length--;
+			}
+			consumer.line(buffer, offset, length);
+		}
+
+		private void append(byte[] buffer, int offset, int length) {
+			if (pendingLength + length > pending.length) {
+				pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+			}
+			System.arraycopy(buffer, offset, pending, pendingLength, length);
+			pendingLength += length;
+		}
+	}
+}
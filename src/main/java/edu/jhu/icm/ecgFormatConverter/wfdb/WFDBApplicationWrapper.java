@@ -1,22 +1,28 @@
 package edu.jhu.icm.ecgFormatConverter.wfdb;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
 import edu.jhu.icm.ecgFormatConverter.WrapperLoader;
 import edu.jhu.icm.ecgFormatConverter.WrapperWriter;
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+import edu.jhu.icm.ecgFormatConverter.store.HeapSampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStores;
+import edu.jhu.icm.enums.LeadEnum;
 
 public class WFDBApplicationWrapper extends ApplicationWrapper implements WrapperLoader, WrapperWriter{
 	
+	private static final int ROWS_PER_READ = 4 * 1024; // rows drained from the store at a time by arrayToWFDB()
 	private String filePath;
 	
 	public int fmt; /// WFDB encoding format (8,16 ...)	
@@ -32,10 +38,15 @@ public class WFDBApplicationWrapper extends ApplicationWrapper implements Wrappe
 	public String recordName;
 	public int gain = 200;
 	public String[] signalName;
-	private int[][] data;
+	private int[][] data; // null when the samples are in a memory mapped or segmented store
+	private SampleStore store;
+	private long offHeapThreshold = SampleStores.NEVER;
+	private int segmentThreshold = SampleStores.NEVER_SEGMENTED;
 	private String sep = File.separator;
 	protected String[] aSigNames;
 	private List<String> leadNames;
+	private LeadSelection leadSelection;
+	private TimeWindow timeWindow;
 	
 	public WFDBApplicationWrapper() {
 		Properties pr = System.getProperties();
@@ -47,50 +58,71 @@ public class WFDBApplicationWrapper extends ApplicationWrapper implements Wrappe
 	/** Reads the specified WFDB record into the data array
 	 * 
 	 * @param recordNm - Name of the record to read.
-	 * @param signalsRequested - Number of signals to read, starting with 1st signal.
+	 * @param signalsRequested - Number of signals to read, starting with 1st signal. Ignored if a lead selection is set.
 	 * @return samplesPerSignal
 	 */
 	public int WFDBtoArray(String recordNm, int signalsRequested) {
 		log.info("************** Running New WFDB reading process ************** ");
 		
-		try {
-		    // Execute command
-		    String command = "sampfreq -H " + filePath + recordNm;
-		    log.info("WFDBtoArray command: " + command);
-		    
-		    this.executeCommand(command, null, "/");
-		    
-		    String freq = this.stdReturnHandler(false);
-		    
-		    log.info("WFDBtoArray frequency: " + freq);
-			sampleFrequency = Float.parseFloat(freq);
-
-		} catch (IOException ioe) {
-			log.error("IOException Message: sampfreq " + ioe.getMessage());
-		} catch (Exception e) {
-			log.error("Exception Message: sampfreq " + e.getMessage());
-		}
-		
-
 		//---------------------------
 		// read data into the local array, count samplesPerSignal
 	    try{ 
 	    	
+	    	// header values (frequency, lengths, names) come from the cached .hea, no sampfreq/signame processes needed.
 	    	signalCount = getSignalCount(recordNm);
+	    	if(signalCount <= 0){
+	    		return 0;
+	    	}
+	    	log.info("WFDBtoArray frequency: " + sampleFrequency);
 	    	log.info("samplesPerSignal: " + samplesPerSignal);
-	    	data = new int[signalCount][samplesPerSignal];
 	    	
-			String command = "rdsamp -r " + filePath + recordNm + " -c -p -v -H";
-			
-			this.executeCommand(command, null, "/");
+	    	// rdsamp -s makes rdsamp output only the selected signals, in the selected order.
+	    	LeadSelection selection = leadSelection;
+	    	if(selection == null && signalsRequested > 0 && signalsRequested < signalCount){
+	    		selection = LeadSelection.first(signalsRequested);
+	    	}
+	    	int[] selected = LeadSelection.resolve(selection, leadNames, signalCount);
+	    	if(selected.length == 0){
+	    		return failLoad(); // resolve() logged the leads which were not found
+	    	}
+	    	String signalList = "";
+	    	if(!LeadSelection.isAll(selected, signalCount)){
+	    		StringBuilder sb = new StringBuilder(" -s");
+	    		for (int sig : selected) {
+	    			sb.append(' ').append(sig);
+	    		}
+	    		signalList = sb.toString();
+	    		leadNames = new ArrayList<String>(LeadSelection.select(leadNames, selected));
+	    		signalCount = selected.length;
+	    	}
+	    	// rdsamp -f/-t take sample numbers ("s" prefix); for the fixed frame formats (16, 61, 212 ...) it seeks to the start.
+	    	String window = "";
+	    	if(timeWindow != null){
+	    		int first = Math.min(TimeWindow.firstSample(timeWindow, sampleFrequency), samplesPerSignal);
+	    		samplesPerSignal = TimeWindow.sampleCount(timeWindow, sampleFrequency, samplesPerSignal);
+	    		window = " -f s" + first + " -t s" + (first + samplesPerSignal);
+	    	}
+	    	store = SampleStores.allocate(signalCount, samplesPerSignal, offHeapThreshold, segmentThreshold);
+	    	data = (store instanceof HeapSampleStore) ? ((HeapSampleStore) store).getData() : null;
+	    	
+			String command = "rdsamp -r " + filePath + recordNm + " -c -p -v -H" + signalList + window;
 			
-			this.stdReturnMethodHandler();
+			// the sample lines are parsed from the output buffer, no String per line; a failed, timed out or cancelled rdsamp fails the load.
+			RdsampOutput output = new RdsampOutput();
+			if(!this.executeCommand(command, null, "/", output) || !this.stdErrorHandler()){
+				log.error("rdsamp failed reading " + filePath + recordNm);
+				return failLoad();
+			}
+			int rows = output.getLines() - 2; // stdErrorHandler() waited for the output to be drained
+			if(rows < samplesPerSignal){
+				log.warn("rdsamp returned " + Math.max(rows, 0) + " of " + samplesPerSignal + " samples per signal, the rest are zero.");
+			}
 			
 		    if(log.isDebugEnabled()){
 		    	log.info("First 10 rows of data read:");
-			    for (int row = 0; row < 10; row++) {  // try reading the first 10 rows. 
+			    for (int row = 0; row < 10 && row < samplesPerSignal; row++) {  // try reading the first 10 rows. 
 			        for (int sig = 0; sig < signalCount; sig++) {
-						log.info(data[sig][row] + " ");
+						log.info(store.get(sig, row) + " ");
 			        }
 				}
 		    }
@@ -98,44 +130,134 @@ public class WFDBApplicationWrapper extends ApplicationWrapper implements Wrappe
 		} catch (IOException ioe) {
 			log.error("IOException Message: rdsamp " + ioe.getMessage());
 			ioe.printStackTrace();
+			return failLoad();
 		} catch (Exception e) {
 			System.err.println("Exception Message: rdsamp " + e.getMessage());
 			e.printStackTrace();
+			return failLoad();
 		}
 		
 	    return samplesPerSignal;
 	}
 	
+	/** Drops the partly read samples. @return - 0, the samplesPerSignal of a failed WFDBtoArray() */
+	private int failLoad() {
+		if(store != null){
+			store.close();
+		}
+		store = null;
+		data = null;
+		return 0;
+	}
+	
+	/** Receives rdsamp's output lines on the runner's thread, see processReturnLine(); counts them itself,
+	 * so nothing else touches the count while the command runs. */
+	private class RdsampOutput implements ProcessRunner.LineConsumer {
+		private int lines = 0;
+
+		public void line(byte[] buffer, int offset, int length) {
+			processReturnLine(buffer, offset, length, lines);
+			lines++;
+		}
+
+		/** Lines received; complete once the runner has been waited for. */
+		int getLines() {
+			return lines;
+		}
+	}
+	
 	protected void processReturnLine(String line){
-		if(lineNum==0){
-    		aSigNames = line.split(",");
-    		if(signalCount > (aSigNames.length-1)){
-    			signalCount = (aSigNames.length-1);
-    		}
-    		signalName = new String[signalCount];
-    		for(int sig=1;sig<=signalCount;sig++){ // zeroth column is time, not a signal
-    			signalName[sig-1] = aSigNames[sig];// column names to be used later to verify the order.
-    		}			    	  
-    	}else if (lineNum > 1){
+		byte[] bytes = line.getBytes();
+		processReturnLine(bytes, 0, bytes.length, lineNum);
+	}
+	
+	/** Parses one line of "rdsamp -c -p -v -H" output: the signal names, the units, then per sample the time followed by
+	 * each signal's value in millivolts, comma separated. Sample lines are parsed from the bytes, without Strings.
+	 * 
+	 * @param lineNumber - zero based line of the output
+	 */
+	private void processReturnLine(byte[] line, int offset, int length, int lineNumber){
+		if(lineNumber==0){
+    		processSignalNames(new String(line, offset, length));
+    	}else if (lineNumber > 1 && lineNumber-2 < samplesPerSignal){
 		    // data.
-    		String[] aSample = line.split(",");
-    		if(signalCount > (aSample.length-1)){
-    			signalCount = (aSample.length-1);
+    		int end = offset + length;
+    		int start = indexOf(line, offset, end, ',') + 1; // zeroth column is time, not a signal
+    		int sig = 0;
+    		while(start > 0 && sig < signalCount){
+    			int comma = indexOf(line, start, end, ',');
+    			store.set(sig, lineNumber-2, microvolts(line, start, (comma < 0) ? end : comma));
+    			sig++;
+    			start = comma + 1;
+    		}
+    		if(signalCount > sig){
+    			signalCount = sig;
     		}
-			for(int sig=1;sig<=signalCount;sig++){ // zeroth column is time, not a signal
-				float fSamp;
-				try{ // Check if value is a not a number, e.g. "-" or "na", substitute zero so rdsamp won't break; Mike Shipway (7/21/2014)
-					fSamp  = Float.parseFloat(aSample[sig]); // assumes unit is float millivolts.
-				}catch(NumberFormatException nfe){
-					fSamp = 0;
-				}
-					
-				data[sig-1][lineNum-2] = (int)(fSamp*1000);// convert float millivolts to integer microvolts.
-			}		    	  
 		}		    	  
     }
+	
+	private static int indexOf(byte[] line, int from, int end, char c) {
+		for (int i = from; i < end; i++) {
+			if(line[i] == c){
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/** Converts a millivolt value to integer microvolts, truncated toward zero.
+	 * A value which is not a number, e.g. "-" or "na", is substituted with zero so rdsamp won't break; Mike Shipway (7/21/2014)
+	 */
+	private static int microvolts(byte[] field, int from, int to) {
+		int i = from;
+		boolean negative = (i < to && field[i] == '-');
+		if(i < to && (field[i] == '-' || field[i] == '+')){
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0, decimals = 0;
+		boolean point = false;
+		for (; i < to; i++) {
+			byte b = field[i];
+			if(b >= '0' && b <= '9' && digits < 15){
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if(point){
+					decimals++;
+				}
+			}else if(b == '.' && !point){
+				point = true;
+			}else{ // exponent, more digits than a long holds, or not a number at all
+				try{
+					return (int)(Float.parseFloat(new String(field, from, to - from)) * 1000);
+				}catch(NumberFormatException nfe){
+					return 0;
+				}
+			}
+		}
+		if(digits == 0){
+			return 0;
+		}
+		long value = mantissa * 1000;
+		for (; decimals > 0; decimals--) {
+			value /= 10;
+		}
+		value = negative ? -value : value;
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+	}
+	
+	private void processSignalNames(String line){
+		aSigNames = line.split(",");
+		if(signalCount > (aSigNames.length-1)){
+			signalCount = (aSigNames.length-1);
+		}
+		signalName = new String[signalCount];
+		for(int sig=1;sig<=signalCount;sig++){ // zeroth column is time, not a signal
+			signalName[sig-1] = aSigNames[sig];// column names to be used later to verify the order.
+		}
+	}
 
-	/** Takes the ECG samples which are in the data[][] array and write them out as a WFDB file. */
+	/** Takes the ECG samples which are in the sample store (or data[][] array) and write them out as a WFDB file. */
 	public int arrayToWFDB() {
 		
 		int ret = 0;
@@ -146,12 +268,20 @@ public class WFDBApplicationWrapper extends ApplicationWrapper implements Wrappe
 		try {
 			BufferedWriter bWriter = new BufferedWriter(new FileWriter(contentFile));
 			
-			for (int i = 0; i < samplesPerSignal; i++) {
+			int rowsPerRead = Math.min(ROWS_PER_READ, Math.max(samplesPerSignal, 1));
+			int[][] rows = BufferArena.current().borrowInts(signalCount, rowsPerRead);
+			for (int first = 0; first < samplesPerSignal; first += rowsPerRead) {
+				int count = Math.min(rowsPerRead, samplesPerSignal - first);
 				for (int j = 0; j < signalCount; j++) {
-					int item = data[j][i];
-					bWriter.write(item + "\t");
+					store.read(j, first, rows[j], 0, count);
+				}
+				for (int i = 0; i < count; i++) {
+					for (int j = 0; j < signalCount; j++) {
+						int item = rows[j][i];
+						bWriter.write(item + "\t");
+					}
+					bWriter.newLine();
 				}
-				bWriter.newLine();
 			}
 			bWriter.close();
 		} catch (IOException e1) {
@@ -215,7 +345,6 @@ public class WFDBApplicationWrapper extends ApplicationWrapper implements Wrappe
 	 * 	-2 Failure: incorrect header file format
 	 */
 	public int getSignalCount(String recordNm) {
-		int count = 0;
 		File headerFile = new File(filePath + recordNm + ".hea");
 		
 		if (!headerFile.exists()) {
@@ -223,61 +352,69 @@ public class WFDBApplicationWrapper extends ApplicationWrapper implements Wrappe
 			return -1; // unable to read header file
 		}
 		
-		BufferedReader reader = null;
+		WFDBHeader header;
 		try {
-			reader = new BufferedReader(new FileReader(headerFile));
-			
-			int lineCount = 0;
-			String line = null;
-			while((line = reader.readLine()) != null){
-				if(!line.startsWith("#")) {
-					if(line.length()>0) { // first non-comment line is the record line.
-						if(lineCount == 0){
-							count = parseHeaderRecordLine(line);
-							if(count == -1){
-								return -2; // incorrect header file format
-							}
-							break;
-						}
-						lineCount++;
-					}
-					
-				}
-			}
-			reader.close();
-			
-			
-			String command = "signame -r " + filePath + recordNm;
-		    log.info("WFDBtoArray command: " + command);
-		    
-		    this.executeCommand(command, null, "/");
-		    
-		    String signameRet = this.stdReturnHandler(true);
-		    
-		    if(signameRet != null){
-		    	String[] signames = signameRet.split("\n");
-		    	for (String name : signames) {
-					leadNames.add(name.toUpperCase());
-				}
-		    }
-			
-		} catch (FileNotFoundException e) {
-			log.error(e.getMessage());
-			return -3;
+			header = WFDBHeaderCache.getHeader(headerFile);
 		} catch (IOException e) {
 			log.error(e.getMessage());
 			return -3;
-		}finally{
-			if(reader != null){
-				try {
-					reader.close();
-				} catch (IOException e) {
-					log.error(e.getMessage());
-				}
-			}
 		}
+		if(header == null){
+			return -2; // incorrect header file format
+		}
+		
+		recordName = header.getRecordName();
+		segmentCount = header.getSegmentCount();
+		signalCount = header.getSignalCount();
+		sampleFrequency = header.getSampleFrequency();
+		counterFrequency = header.getCounterFrequency();
+		counterBase = header.getCounterBase();
+		samplesPerSignal = header.getSamplesPerSignal();
+		baseTime = header.getBaseTime();
+		baseDate = header.getBaseDate();
+		
+		leadNames.clear();
+		for (int sig = 0; sig < signalCount; sig++) {
+			leadNames.add(LeadEnum.normalize(header.getLeadName(sig)));
+		}
+	
+		return signalCount;
+	}
+	
+	public void setLeadSelection(LeadSelection leadSelection) {
+		this.leadSelection = leadSelection;
+	}
 	
-		return count;
+	public void setTimeWindow(TimeWindow timeWindow) {
+		this.timeWindow = timeWindow;
+	}
+	
+	/** Reads the record's header through WFDBHeaderCache, no WFDB tools are run.
+	 * 
+	 * @param filePath - path of the record's .hea or .dat file, or of the record without extension.
+	 */
+	public RecordMetadata probe(String filePath) {
+		File file = new File(filePath);
+		String name = file.getName();
+		if (name.endsWith(".hea") || name.endsWith(".dat")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		File headerFile = new File(file.getParentFile(), name + ".hea");
+		try {
+			WFDBHeader header = WFDBHeaderCache.getHeader(headerFile);
+			if (header == null) {
+				return null;
+			}
+			List<String> names = new ArrayList<String>();
+			for (int sig = 0; sig < header.getSignalCount(); sig++) {
+				names.add(LeadEnum.normalize(header.getLeadName(sig)));
+			}
+			int aduGain = (header.getSignalCount() > 0) ? Math.round(header.getGain(0)) : gain;
+			return new RecordMetadata(header.getSignalCount(), header.getSampleFrequency(), header.getSamplesPerSignal(), names, aduGain);
+		} catch (IOException e) {
+			log.error(e.getMessage());
+			return null;
+		}
 	}
 	
 	/** reads one line from a file input stream
@@ -313,57 +450,6 @@ public class WFDBApplicationWrapper extends ApplicationWrapper implements Wrappe
 	}
 	
 	
-	/**
-	 * Parses the Record Line of a WFDB .hea file.<br/>
-	 * <br/>
-	 * Syntax of Record Line<br/>
-	 *	Record_Name[/SEG] S [FREQ[/CNTRfreq[(CNTRbase)]] [SpS [baseT [baseD]]]]<br/>
-
-	 *  Record_Name = letters, digits and underscores (‘_’) only. String<br/>
- 		SEG			= number of segments [optional] , integer<br/>
-		S			= number of signals, a value of zero is legal, positive integer.<br/>
-		FREQ		= sampling frequency (in Hz) [optional],floating-point<br/>
- 		CNTRfreq	= counter frequency (in ticks per second) [optional]if the FREQ is present, floating-point<br/>
-  		CNTRbase	= base counter value [optional]if the CNTRfreq is present, floating-point<br/>
- 		SpS			= number of samples per signal [optional]if the FREQ is present, integer<br/>
-  		baseT		= base time [optional]if the SpS is present. HH:MM:SS<br/>
-   		baseD		= base date [optional]if the baseT is present. DD/MM/YYYY<br/>
-	 * @param recordLine - the record line from a header file.
-	 * @return - total signal count.
-	 */
-	private int parseHeaderRecordLine(String recordLine) {
-		String[] sub0, sub2; // for parsing the 0th and 2nd sections of the line.
-		String[] fields = recordLine.split("[ \\t\\n\\f\\r]");
-		int fieldCount = fields.length;
-
-		if(fieldCount >=2)
-		{
-			sub0 = fields[0].split("/");
-			recordName = sub0[0];
-			if(sub0.length==2) segmentCount = Integer.parseInt(sub0[1]);
-			signalCount = Integer.parseInt(fields[1]);
-			if(fieldCount>2) {
-				sub2 = fields[2].split("[/()]");
-				sampleFrequency = Float.parseFloat(sub2[0]);
-				if(sub2.length>=2) counterFrequency = Float.parseFloat(sub2[1]);
-				if(sub2.length==3) counterBase = Float.parseFloat(sub2[2]);
-			}
-			if(fieldCount>3) { // "& sampleFrequency exists" is implied.
-				samplesPerSignal = Integer.parseInt(fields[3]);
-			}
-			if(fieldCount>4) { // "& samplesPerSignal exists" is implied.
-				baseTime = fields[3];
-			}
-			if(fieldCount>5) { // "& baseTime exists" is implied.
-				baseDate = fields[3];
-			} 
-
-			return signalCount;
-		}else {
-			return -1;
-		}
-	}
-	
 	public int getAduGain() {
 		return gain;
 	}
@@ -394,11 +480,23 @@ public class WFDBApplicationWrapper extends ApplicationWrapper implements Wrappe
 		return signalCount;
 	}
 
+	/** @return - the samples, null if they were read into a memory mapped or segmented store (see getSampleStore()) */
 	@Override
 	public int[][] getData() {
 		return data;
 	}
 
+	/** The samples read by WFDBtoArray(), see setStoreThresholds(). */
+	public SampleStore getSampleStore() {
+		return store;
+	}
+
+	/** Sets when WFDBtoArray() fills a memory mapped or segmented SampleStore instead of the data array, see SampleStores.allocate(). */
+	public void setStoreThresholds(long offHeapThreshold, int segmentThreshold) {
+		this.offHeapThreshold = offHeapThreshold;
+		this.segmentThreshold = segmentThreshold;
+	}
+
 	@Override
 	public int getNumberOfPoints() {
 		return this.getChannels() * this.getSamplesPerChannel();
@@ -423,6 +521,13 @@ public class WFDBApplicationWrapper extends ApplicationWrapper implements Wrappe
 
 	public void setData(int[][] data) {
 		this.data = data;
+		this.store = new HeapSampleStore(data, samplesPerSignal);
+	}
+
+	/** @param store - the samples arrayToWFDB() writes, instead of setData() */
+	public void setSampleStore(SampleStore store) {
+		this.store = store;
+		this.data = (store instanceof HeapSampleStore) ? ((HeapSampleStore) store).getData() : null;
 	}
 
 	@Override
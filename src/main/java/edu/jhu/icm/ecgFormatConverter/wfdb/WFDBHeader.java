@@ -0,0 +1,277 @@
+package edu.jhu.icm.ecgFormatConverter.wfdb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+/** The record and signal specifications of one WFDB .hea file, parsed once.
+ * Instances are immutable once parsed and are shared through WFDBHeaderCache.
+ */
+public class WFDBHeader {
+	private static final Logger log = Logger.getLogger(WFDBHeader.class);
+
+	private static final float DEFAULT_FREQUENCY = 250; // Hz, used by WFDB when FREQ is missing.
+	private static final float DEFAULT_GAIN = 200; // ADC units per physical unit, used by WFDB when ADCgain is missing or zero.
+
+	private final long lastModified;
+	private final long length;
+
+	private String recordName;
+	private int segmentCount;
+	private int signalCount;
+	private float sampleFrequency = DEFAULT_FREQUENCY;
+	private float counterFrequency;
+	private float counterBase;
+	private int samplesPerSignal;
+	private String baseTime = "";
+	private String baseDate = "";
+
+	private String[] fileNames;
+	private int[] formats;
+	private float[] gains;
+	private int[] baselines;
+	private String[] units;
+	private String[] descriptions;
+
+	private WFDBHeader(long lastModified, long length) {
+		this.lastModified = lastModified;
+		this.length = length;
+	}
+
+	/** Reads and parses a header file.
+	 *
+	 * @param headerFile - the record's .hea file
+	 * @return - the parsed header, or null if the record line is missing or malformed.
+	 * @throws IOException - if the file can not be read.
+	 */
+	public static WFDBHeader parse(File headerFile) throws IOException {
+		WFDBHeader header = new WFDBHeader(headerFile.lastModified(), headerFile.length());
+
+		BufferedReader reader = new BufferedReader(new FileReader(headerFile));
+		try {
+			int lineCount = 0;
+			String line = null;
+			while((line = reader.readLine()) != null){
+				line = line.trim();
+				if(line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				if(lineCount == 0){ // first non-comment line is the record line.
+					if(!header.parseRecordLine(line)){
+						return null;
+					}
+				}else if(header.segmentCount == 0 && lineCount <= header.signalCount){
+					try {
+						header.parseSignalLine(lineCount - 1, line);
+					} catch (NumberFormatException e) { // keep the other signals, this one keeps the defaults
+						log.warn(headerFile.getName() + ": skipping malformed signal line \"" + line + "\". " + e.getMessage());
+					}
+				}else{
+					break;
+				}
+				lineCount++;
+			}
+			if(lineCount == 0){
+				return null;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		} finally {
+			reader.close();
+		}
+		return header;
+	}
+
+	/**
+	 * Parses the Record Line of a WFDB .hea file.<br/>
+	 * <br/>
+	 * Syntax of Record Line<br/>
+	 *	Record_Name[/SEG] S [FREQ[/CNTRfreq[(CNTRbase)]] [SpS [baseT [baseD]]]]<br/>
+
+	 *  Record_Name = letters, digits and underscores (‘_’) only. String<br/>
+ 		SEG			= number of segments [optional] , integer<br/>
+		S			= number of signals, a value of zero is legal, positive integer.<br/>
+		FREQ		= sampling frequency (in Hz) [optional],floating-point<br/>
+ 		CNTRfreq	= counter frequency (in ticks per second) [optional]if the FREQ is present, floating-point<br/>
+  		CNTRbase	= base counter value [optional]if the CNTRfreq is present, floating-point<br/>
+ 		SpS			= number of samples per signal [optional]if the FREQ is present, integer<br/>
+  		baseT		= base time [optional]if the SpS is present. HH:MM:SS<br/>
+   		baseD		= base date [optional]if the baseT is present. DD/MM/YYYY<br/>
+	 * @param recordLine - the record line from a header file.
+	 * @return - success/fail
+	 */
+	private boolean parseRecordLine(String recordLine) {
+		String[] sub0, sub2; // for parsing the 0th and 2nd sections of the line.
+		String[] fields = recordLine.split("[ \\t\\n\\f\\r]+");
+		int fieldCount = fields.length;
+
+		if(fieldCount < 2) {
+			return false;
+		}
+		sub0 = fields[0].split("/");
+		recordName = sub0[0];
+		if(sub0.length==2) segmentCount = Integer.parseInt(sub0[1]);
+		signalCount = Integer.parseInt(fields[1]);
+		if(fieldCount>2) {
+			sub2 = fields[2].split("[/()]");
+			sampleFrequency = Float.parseFloat(sub2[0]);
+			if(sub2.length>=2) counterFrequency = Float.parseFloat(sub2[1]);
+			if(sub2.length==3) counterBase = Float.parseFloat(sub2[2]);
+		}
+		if(fieldCount>3) { // "& sampleFrequency exists" is implied.
+			samplesPerSignal = Integer.parseInt(fields[3]);
+		}
+		if(fieldCount>4) { // "& samplesPerSignal exists" is implied.
+			baseTime = fields[4];
+		}
+		if(fieldCount>5) { // "& baseTime exists" is implied.
+			baseDate = fields[5];
+		}
+
+		fileNames = new String[signalCount];
+		formats = new int[signalCount];
+		gains = new float[signalCount];
+		baselines = new int[signalCount];
+		units = new String[signalCount];
+		descriptions = new String[signalCount];
+		for (int i = 0; i < signalCount; i++) {
+			gains[i] = DEFAULT_GAIN;
+			units[i] = "mV";
+			descriptions[i] = "";
+		}
+		return true;
+	}
+
+	/**
+	 * Parses one Signal Specification Line of a WFDB .hea file.<br/>
+	 * <br/>
+	 * Syntax of Signal Line<br/>
+	 *	file_name format[xsamp][:skew][+offset] [ADCgain[(baseline)][/units] [ADCres [ADCzero [initval [checksum [blocksize [description]]]]]]]<br/>
+	 * @param signal - index of the signal
+	 * @param signalLine - the signal line from a header file.
+	 * @throws NumberFormatException - if a numeric field is malformed, the signal is then left unchanged.
+	 */
+	private void parseSignalLine(int signal, String signalLine) {
+		String[] fields = signalLine.split("[ \\t\\n\\f\\r]+", 9);
+		int fieldCount = fields.length;
+
+		int format = formats[signal];
+		float adcGain = gains[signal];
+		int baseline = baselines[signal];
+		String unit = units[signal];
+		if(fieldCount>1) {
+			format = Integer.parseInt(fields[1].split("[x:+]")[0]);
+		}
+		if(fieldCount>2) {
+			String gain = fields[2];
+			int slash = gain.indexOf('/');
+			if(slash >= 0) {
+				unit = gain.substring(slash + 1);
+				gain = gain.substring(0, slash);
+			}
+			int paren = gain.indexOf('(');
+			if(paren >= 0) {
+				int close = gain.indexOf(')', paren);
+				if(close < 0) {
+					throw new NumberFormatException("unterminated baseline: " + fields[2]);
+				}
+				baseline = Integer.parseInt(gain.substring(paren + 1, close));
+				gain = gain.substring(0, paren);
+			}
+			float parsed = Float.parseFloat(gain);
+			if(parsed != 0) {
+				adcGain = parsed;
+			}
+		}
+
+		fileNames[signal] = fields[0];
+		formats[signal] = format;
+		gains[signal] = adcGain;
+		baselines[signal] = baseline;
+		units[signal] = unit;
+		if(fieldCount>8) {
+			descriptions[signal] = fields[8].trim();
+		}
+	}
+
+	/** @return - true if the file still has the modification time and length it had when parsed. */
+	public boolean isCurrent(File headerFile) {
+		return headerFile.lastModified() == lastModified && headerFile.length() == length;
+	}
+
+	public String getRecordName() {
+		return recordName;
+	}
+
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	public int getSignalCount() {
+		return signalCount;
+	}
+
+	public float getSampleFrequency() {
+		return sampleFrequency;
+	}
+
+	public float getCounterFrequency() {
+		return counterFrequency;
+	}
+
+	public float getCounterBase() {
+		return counterBase;
+	}
+
+	public int getSamplesPerSignal() {
+		return samplesPerSignal;
+	}
+
+	public String getBaseTime() {
+		return baseTime;
+	}
+
+	public String getBaseDate() {
+		return baseDate;
+	}
+
+	/** @return - signal file name of the given signal, null for multi-segment records. */
+	public String getFileName(int signal) {
+		return fileNames[signal];
+	}
+
+	/** @return - storage format (8, 16, 61, 212 ...) of the given signal. */
+	public int getFormat(int signal) {
+		return formats[signal];
+	}
+
+	/** @return - ADC units per physical unit of the given signal. */
+	public float getGain(int signal) {
+		return gains[signal];
+	}
+
+	public int getBaseline(int signal) {
+		return baselines[signal];
+	}
+
+	public String getUnits(int signal) {
+		return units[signal];
+	}
+
+	/** @return - signal description (usually the lead name), empty if not given. */
+	public String getDescription(int signal) {
+		return descriptions[signal];
+	}
+
+	/** @return - the signal description, or "signal N" for a signal without one. Not the WFDB library's default,
+	 * "record NAME, signal N": lead names are joined and split on commas (see ECGformatConverter.getLeadNames()). */
+	public String getLeadName(int signal) {
+		if(descriptions[signal].length() > 0) {
+			return descriptions[signal];
+		}
+		return "signal " + signal;
+	}
+}
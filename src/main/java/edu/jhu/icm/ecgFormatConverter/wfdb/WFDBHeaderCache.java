@@ -0,0 +1,81 @@
+package edu.jhu.icm.ecgFormatConverter.wfdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Process wide cache of parsed WFDB header files, keyed by path.
+ * An entry is re-parsed only when the file's modification time or length changes,
+ * so repeated loads of the same record cost one stat() instead of a parse and a signame process.
+ */
+public class WFDBHeaderCache {
+
+	private static final int MAX_ENTRIES = 4096;
+
+	private static final ConcurrentHashMap<String, WFDBHeader> headers = new ConcurrentHashMap<String, WFDBHeader>();
+
+	private WFDBHeaderCache() {
+	}
+
+	/** Returns the parsed header, reading the file only if it is not cached or has changed.
+	 *
+	 * @param headerFile - the record's .hea file
+	 * @return - the parsed header, or null if the file does not exist or is malformed.
+	 * @throws IOException - if the file can not be read.
+	 */
+	public static WFDBHeader getHeader(File headerFile) throws IOException {
+		String key = headerFile.getAbsolutePath();
+		WFDBHeader header = headers.get(key);
+		if (header != null && header.isCurrent(headerFile)) {
+			return header;
+		}
+		if (!headerFile.exists()) {
+			headers.remove(key);
+			return null;
+		}
+
+		header = WFDBHeader.parse(headerFile);
+		if (header == null) {
+			headers.remove(key);
+			return null;
+		}
+		if (headers.size() >= MAX_ENTRIES) {
+			headers.clear();
+		}
+		headers.put(key, header);
+		return header;
+	}
+
+	/** Lists the files a WFDB record is read from: the header and each signal file it names, once.
+	 *
+	 * @param headerFile - the record's .hea file, signal files are resolved next to it.
+	 * @return - the header first, then the signal files in signal order; null if the header does not exist or is malformed.
+	 * @throws IOException - if the header can not be read.
+	 */
+	public static List<File> getRecordFiles(File headerFile) throws IOException {
+		WFDBHeader header = getHeader(headerFile);
+		if (header == null) {
+			return null;
+		}
+		List<File> files = new ArrayList<File>();
+		files.add(headerFile);
+		for (int i = 0; i < header.getSignalCount(); i++) {
+			String fileName = header.getFileName(i);
+			if (fileName == null) { // multi-segment record
+				continue;
+			}
+			File signalFile = new File(headerFile.getParentFile(), fileName);
+			if (!files.contains(signalFile)) {
+				files.add(signalFile);
+			}
+		}
+		return files;
+	}
+
+	/** Drops all cached headers. */
+	public static void clear() {
+		headers.clear();
+	}
+}
@@ -6,11 +6,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.Vector;
 
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
 import edu.jhu.icm.ecgFormatConverter.WrapperLoader;
 
 public class XYWrapper implements WrapperLoader{
@@ -24,6 +28,8 @@ public class XYWrapper implements WrapperLoader{
 	private double errorTolerance = .10;
 	private int aduGain = 200;
 	private List<String> leadNames;
+	private LeadSelection leadSelection;
+	private TimeWindow timeWindow;
 
 	private int[][] data; //[channel][index] or [column][row], changed from double, since the largest WFDB resolution is 16 bits.
 	private static final boolean verbose = true;
@@ -95,6 +101,7 @@ public class XYWrapper implements WrapperLoader{
 			
 			int s = 0;
 		    String[] numbers;
+		    int[] selected = null;
 		    this.sampleCount = 0;
 		    
 		    
@@ -104,18 +111,36 @@ public class XYWrapper implements WrapperLoader{
 		    double lastSec = 2.5;
 		    double firstMsec = 0;
 		    
+		    // the time window is measured from the time of the first row; rows before it are skipped, reading stops after it.
+		    double originMsec = Double.NaN;
+		    double windowStartMsec = (timeWindow == null) ? 0 : timeWindow.getStartSeconds() * 1000;
+		    double windowEndMsec = (timeWindow == null || timeWindow.isOpenEnded()) ? Double.POSITIVE_INFINITY
+		    		: windowStartMsec + timeWindow.getDurationSeconds() * 1000;
+		    
+		    double nextMsec = Double.NaN; // time of the first row after the window, if any
 		    while ((strLine = br.readLine()) != null)   {
 		    	if(strLine.length()>0) {
-					this.sampleCount++;
 			    	numbers = strLine.split(",");
 		    		firstMsec = Double.parseDouble(numbers[0]);
+		    		if (Double.isNaN(originMsec)) {
+		    			originMsec = firstMsec;
+		    		}
+		    		if (firstMsec - originMsec < windowStartMsec) {
+		    			continue;
+		    		}
+		    		if (firstMsec - originMsec >= windowEndMsec) { // the window falls between two rows
+		    			break;
+		    		}
+					this.sampleCount++;
 		    		mSecs.add(firstMsec);
-		    		this.channels = numbers.length - 1;
+		    		selected = LeadSelection.resolve(leadSelection, null, numbers.length - 1); // value columns follow the time
+		    		if (selected.length == 0) {
+		    			return false; // resolve() logged the leads which were not found
+		    		}
+		    		this.channels = selected.length;
 		    		String [] channelValues = new String[channels];
-		    		for (int c = 1; c <= channels; c++) {
-		    			if (numbers[c] != null) {
-		    				channelValues[c-1] = numbers[c];
-		    			}
+		    		for (int c = 0; c < channels; c++) {
+		    			channelValues[c] = numbers[selected[c] + 1];
 		    		}
 		    		channelVals.add(channelValues);
 		    		break;
@@ -126,28 +151,47 @@ public class XYWrapper implements WrapperLoader{
 		    
 		    while ((strLine = br.readLine()) != null)   {
 		    	if (strLine.length() > 0) {
-			    	this.sampleCount++;
 			    	numbers = strLine.split(",");
-		    		lastSec = Double.parseDouble(numbers[0])/1000;
+			    	double msec = Double.parseDouble(numbers[0]);
+			    	if (msec - originMsec >= windowEndMsec) {
+			    		nextMsec = msec;
+			    		break;
+			    	}
+			    	this.sampleCount++;
+		    		lastSec = msec/1000;
 		    		mSecs.add(lastSec * 1000);
 		    		
 		    		String [] channelValues = new String[channels];
-		    		for (int c = 1; c <= channels; c++) {
-		    			channelValues[c-1] = new String(numbers[c]);
+		    		for (int c = 0; c < channels; c++) {
+		    			channelValues[c] = numbers[selected[c] + 1];
 		    		}
 		    		channelVals.add(channelValues);
 		    	}
 		    }
 		    
-		    lastSec = lastSec - (firstMsec/1000);
-		    
-		    double hertzDecimals = (new Integer(this.sampleCount).doubleValue())/lastSec;
-		    if (useDefaultSampleRate) {
-		    	this.samplingRate = XYWrapper.DEFAULT_HERTZ;
-		    	this.sampleCount = (int) Math.round(this.samplingRate * lastSec);
+		    if (channelVals.isEmpty()) {
+		    	System.err.println(geMuseFile.getName() + ": no rows" + ((timeWindow == null) ? "." : " in the time window."));
+		    	return false;
 		    }
-		    else {
-		    	this.samplingRate = (int) Math.round(hertzDecimals);
+		    
+		    if (this.sampleCount == 1) {
+		    	// a single row spans no time; the rate comes from the gap to the next row, if the window ended before one.
+		    	if (useDefaultSampleRate || Double.isNaN(nextMsec) || nextMsec <= firstMsec) {
+		    		this.samplingRate = XYWrapper.DEFAULT_HERTZ;
+		    	} else {
+		    		this.samplingRate = (int) Math.round(1000 / (nextMsec - firstMsec));
+		    	}
+		    } else {
+			    lastSec = lastSec - (firstMsec/1000);
+			    
+			    double hertzDecimals = (new Integer(this.sampleCount).doubleValue())/lastSec;
+			    if (useDefaultSampleRate) {
+			    	this.samplingRate = XYWrapper.DEFAULT_HERTZ;
+			    	this.sampleCount = (int) Math.round(this.samplingRate * lastSec);
+			    }
+			    else {
+			    	this.samplingRate = (int) Math.round(hertzDecimals);
+			    }
 		    }
 		    
 		    double sampleIntervalMs = new Double(1000/this.samplingRate); 
@@ -291,6 +335,63 @@ public class XYWrapper implements WrapperLoader{
 		return true;
 	}
 
+	public void setLeadSelection(LeadSelection leadSelection) {
+		this.leadSelection = leadSelection;
+	}
+
+	/** Rows are selected by their time column, so the window is in the file's own time base. */
+	public void setTimeWindow(TimeWindow timeWindow) {
+		this.timeWindow = timeWindow;
+	}
+
+	/**
+	 * Counts the rows and reads only the time column of the first and last rows. 
+	 * The sampling rate is the one parse(false) would derive from them.
+	 */
+	public RecordMetadata probe(String filePath) {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(filePath));
+			String strLine;
+			String lastLine = null;
+			int rows = 0;
+			int columns = 0;
+			double firstMsec = 0;
+			while ((strLine = reader.readLine()) != null) {
+				if (strLine.length() > 0) {
+					if (rows == 0) {
+						String[] numbers = strLine.split(",");
+						columns = numbers.length - 1;
+						firstMsec = Double.parseDouble(numbers[0]);
+					}
+					lastLine = strLine;
+					rows++;
+				}
+			}
+			if (rows == 0) {
+				return null;
+			}
+			double lastSec = 2.5; // same default as parseECGdata() for a single row file
+			if (rows > 1) {
+				lastSec = Double.parseDouble(lastLine.substring(0, lastLine.indexOf(','))) / 1000;
+			}
+			lastSec = lastSec - (firstMsec / 1000);
+			int rate = (int) Math.round(rows / lastSec);
+			return new RecordMetadata(columns, rate, rows, null, aduGain);
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return null;
+	}
+
 	public int write_geMuse() {
 		String headerLine="",dataLine="", EOL = "\r\n";
 		FileOutputStream fos;
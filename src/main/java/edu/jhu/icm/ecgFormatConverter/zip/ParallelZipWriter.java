@@ -0,0 +1,417 @@
+package edu.jhu.icm.ecgFormatConverter.zip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.log4j.Logger;
+
+/** Writes a zip archive whose entries are deflated concurrently on a worker pool.<br>
+ * <br>
+ * Each entry is compressed into its own buffer (or a temp file, for large entries)
+ * and the finished segments are then spliced into the archive in the order they were added,
+ * so the result is a standard zip archive readable by any unzip tool. The archive is written to a temp file
+ * next to zipFileName and renamed when complete, so a failed finish() leaves no partial archive behind.<br>
+ * <br>
+ * Usage: addFile() for every entry, then finish().
+ */
+public class ParallelZipWriter {
+	protected Logger log = Logger.getLogger(ParallelZipWriter.class);
+
+	private static final int BUFFER = 64*1024;
+	/** Entries larger than this (uncompressed) are deflated into a temp file instead of memory. */
+	private static final long SPILL_THRESHOLD = 8*1024*1024;
+	private static final long ZIP_LIMIT = 0xFFFFFFFFL; // zip64 is not written.
+	private static final int MAX_ENTRIES = 0xFFFF;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private String zipFileName;
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private int threads;
+	private List<String[]> entries = new ArrayList<String[]>(); // {entryName, sourceFileName}
+
+	/**
+	 * @param zipFileName - path/name.zip of the archive to create.
+	 * @param compressionLevel - 0-9, or Deflater.DEFAULT_COMPRESSION
+	 * @param threads - number of compressing threads, zero or less means one per available processor.
+	 */
+	public ParallelZipWriter(String zipFileName, int compressionLevel, int threads) {
+		this.zipFileName = zipFileName;
+		this.setCompressionLevel(compressionLevel);
+		if(threads <= 0){
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.threads = threads;
+	}
+
+	public ParallelZipWriter(String zipFileName) {
+		this(zipFileName, Deflater.DEFAULT_COMPRESSION, 0);
+	}
+
+	/** Queues a file to be added to the archive.
+	 *
+	 * @param entryName - name of the entry inside the zip, using "/" as the separator.
+	 * @param sourceFileName - path/name.ext of the file to compress.
+	 */
+	public void addFile(String entryName, String sourceFileName) {
+		entries.add(new String[]{entryName, sourceFileName});
+	}
+
+	/** Queues each file using its own path (with File.separator changed to "/") as the entry name.
+	 *
+	 * @param sourceFileNames - path/name.ext of the files to compress.
+	 */
+	public void addFiles(Object[] sourceFileNames) {
+		for (Object name : sourceFileNames) {
+			addFile(((String) name).replace(File.separator, "/"), (String) name);
+		}
+	}
+
+	/** Compresses all queued entries and writes the archive.
+	 *
+	 * @return - number of entries written.
+	 * @throws IOException
+	 */
+	public int finish() throws IOException {
+		if(entries.size() > MAX_ENTRIES){
+			throw new IOException("Too many entries for a zip archive without zip64: " + entries.size());
+		}
+
+		File zipFile = new File(zipFileName).getAbsoluteFile();
+		File partFile = File.createTempFile(zipFile.getName(), ".part", zipFile.getParentFile());
+		CountingOutputStream out;
+		try {
+			out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(partFile), BUFFER));
+		} catch (IOException e) {
+			partFile.delete();
+			throw e;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		boolean complete = false;
+		ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+		int written = 0;
+		// keep a bounded window of entries in flight, so memory use does not grow with the archive.
+		LinkedList<Future<DeflatedEntry>> window = new LinkedList<Future<DeflatedEntry>>();
+
+		try {
+			int next = 0;
+			while(next < entries.size() || !window.isEmpty()){
+				while(next < entries.size() && window.size() < threads * 2){
+					String[] entry = entries.get(next++);
+					window.add(pool.submit(new DeflateTask(entry[0], entry[1], compressionLevel)));
+				}
+
+				DeflatedEntry entry = window.removeFirst().get();
+				try {
+					long headerOffset = out.getCount();
+					if(headerOffset > ZIP_LIMIT){
+						throw new IOException("Archive exceeds 4GB, zip64 is not supported: " + zipFileName);
+					}
+					writeLocalHeader(out, entry);
+					entry.writeDataTo(out);
+					writeCentralHeader(centralDirectory, entry, headerOffset);
+					written++;
+				} finally {
+					entry.dispose();
+				}
+			}
+
+			long centralOffset = out.getCount();
+			centralDirectory.writeTo(out);
+			if(out.getCount() > ZIP_LIMIT){
+				throw new IOException("Archive exceeds 4GB, zip64 is not supported: " + zipFileName);
+			}
+			writeEndOfCentralDirectory(out, written, centralDirectory.size(), centralOffset);
+			out.close();
+			Files.move(partFile.toPath(), zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			complete = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing " + zipFileName, e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			for (Runnable neverStarted : pool.shutdownNow()) {
+				((Future<?>) neverStarted).cancel(false);
+			}
+			out.close();
+			disposeAll(window);
+			if(!complete && partFile.exists() && !partFile.delete()){
+				log.warn("Could not delete the partial archive " + partFile);
+			}
+		}
+
+		log.info(written + " entries written to " + zipFileName);
+		return written;
+	}
+
+	/** Deletes the spill files of entries which were compressed but not written, after a failure.
+	 * Waits for the tasks still running, so their files are not created after this returns. */
+	private void disposeAll(LinkedList<Future<DeflatedEntry>> window) {
+		boolean interrupted = false;
+		while(!window.isEmpty()){
+			Future<DeflatedEntry> pending = window.removeFirst();
+			try {
+				pending.get().dispose();
+			} catch (InterruptedException e) {
+				interrupted = true;
+				window.addFirst(pending);
+			} catch (ExecutionException e) {
+				// the task disposed of its own entry
+			} catch (CancellationException e) {
+				// never started
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLocalHeader(OutputStream out, DeflatedEntry entry) throws IOException {
+		byte[] name = entry.name.getBytes(UTF8);
+		writeInt(out, 0x04034b50);
+		writeShort(out, 20);		// version needed to extract
+		writeShort(out, 0x0800);	// general purpose flag, UTF-8 names
+		writeShort(out, 8);			// deflated
+		writeInt(out, entry.dosTime);
+		writeInt(out, (int) entry.crc);
+		writeInt(out, (int) entry.compressedSize);
+		writeInt(out, (int) entry.size);
+		writeShort(out, name.length);
+		writeShort(out, 0);			// extra field length
+		out.write(name);
+	}
+
+	private void writeCentralHeader(OutputStream out, DeflatedEntry entry, long headerOffset) throws IOException {
+		byte[] name = entry.name.getBytes(UTF8);
+		writeInt(out, 0x02014b50);
+		writeShort(out, 20);		// version made by
+		writeShort(out, 20);		// version needed to extract
+		writeShort(out, 0x0800);
+		writeShort(out, 8);
+		writeInt(out, entry.dosTime);
+		writeInt(out, (int) entry.crc);
+		writeInt(out, (int) entry.compressedSize);
+		writeInt(out, (int) entry.size);
+		writeShort(out, name.length);
+		writeShort(out, 0);			// extra field length
+		writeShort(out, 0);			// comment length
+		writeShort(out, 0);			// disk number
+		writeShort(out, 0);			// internal attributes
+		writeInt(out, 0);			// external attributes
+		writeInt(out, (int) headerOffset);
+		out.write(name);
+	}
+
+	private void writeEndOfCentralDirectory(OutputStream out, int count, long size, long offset) throws IOException {
+		writeInt(out, 0x06054b50);
+		writeShort(out, 0);
+		writeShort(out, 0);
+		writeShort(out, count);
+		writeShort(out, count);
+		writeInt(out, (int) size);
+		writeInt(out, (int) offset);
+		writeShort(out, 0);			// comment length
+	}
+
+	private static void writeShort(OutputStream out, int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+	}
+
+	private static void writeInt(OutputStream out, int v) throws IOException {
+		writeShort(out, v & 0xFFFF);
+		writeShort(out, (v >>> 16) & 0xFFFF);
+	}
+
+	/** Converts a java time to the MS-DOS date/time format used in zip headers. */
+	private static int toDosTime(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		int year = c.get(Calendar.YEAR);
+		if(year < 1980){
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+				| c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * @param compressionLevel - 0-9, or Deflater.DEFAULT_COMPRESSION
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		if(compressionLevel != Deflater.DEFAULT_COMPRESSION && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)){
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		}
+		this.compressionLevel = compressionLevel;
+	}
+
+	public String getZipFileName() {
+		return zipFileName;
+	}
+
+	/** One compressed entry, held in memory or in a temp file until it is spliced into the archive. */
+	private static class DeflatedEntry {
+		String name;
+		long size;
+		long compressedSize;
+		long crc;
+		int dosTime;
+		ByteArrayOutputStream buffer;
+		File spillFile;
+
+		void writeDataTo(OutputStream out) throws IOException {
+			if(buffer != null){
+				buffer.writeTo(out);
+			}else{
+				InputStream in = new FileInputStream(spillFile);
+				try {
+					byte[] b = new byte[BUFFER];
+					int read;
+					while((read = in.read(b)) != -1){
+						out.write(b, 0, read);
+					}
+				} finally {
+					in.close();
+				}
+			}
+		}
+
+		void dispose() {
+			buffer = null;
+			if(spillFile != null){
+				spillFile.delete();
+			}
+		}
+	}
+
+	private static class DeflateTask implements Callable<DeflatedEntry> {
+		private String entryName;
+		private String sourceFileName;
+		private int level;
+
+		DeflateTask(String entryName, String sourceFileName, int level) {
+			this.entryName = entryName;
+			this.sourceFileName = sourceFileName;
+			this.level = level;
+		}
+
+		@Override
+		public DeflatedEntry call() throws IOException {
+			File source = new File(sourceFileName);
+			DeflatedEntry entry = new DeflatedEntry();
+			entry.name = entryName;
+			entry.dosTime = toDosTime(source.lastModified());
+
+			OutputStream sink;
+			if(source.length() > SPILL_THRESHOLD){
+				entry.spillFile = File.createTempFile("pzip", ".deflate");
+				sink = new BufferedOutputStream(new FileOutputStream(entry.spillFile), BUFFER);
+			}else{
+				entry.buffer = new ByteArrayOutputStream((int) Math.max(32, source.length() / 2));
+				sink = entry.buffer;
+			}
+
+			Deflater deflater = new Deflater(level, true); // raw deflate, as stored in zip entries.
+			CountingOutputStream counted = new CountingOutputStream(sink);
+			CRC32 crc = new CRC32();
+			boolean complete = false;
+			InputStream in = null;
+			try {
+				in = new BufferedInputStream(new FileInputStream(source), BUFFER);
+				DeflaterOutputStream dos = new DeflaterOutputStream(counted, deflater, BUFFER);
+				byte[] b = new byte[BUFFER];
+				int read;
+				while((read = in.read(b)) != -1){
+					crc.update(b, 0, read);
+					entry.size += read;
+					dos.write(b, 0, read);
+				}
+				dos.finish();
+				dos.flush();
+				complete = true;
+			} finally {
+				if(in != null){
+					in.close();
+				}
+				deflater.end();
+				sink.close();
+				if(!complete){
+					entry.dispose();
+				}
+			}
+
+			if(entry.size > ZIP_LIMIT || counted.getCount() > ZIP_LIMIT){
+				entry.dispose();
+				throw new IOException("Entry exceeds 4GB, zip64 is not supported: " + sourceFileName);
+			}
+			entry.compressedSize = counted.getCount();
+			entry.crc = crc.getValue();
+			return entry;
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		private OutputStream out;
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+}
@@ -1,7 +1,115 @@
 package edu.jhu.icm.enums;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/** Canonical ECG leads, in the order used for downstream indexing (new leads are only added at the end).<br>
+ * <br>
+ * Each lead knows its display name and its HL7 aECG (MDC) code, and fromAlias() maps any of the names
+ * the vendor formats use for it ("Lead I", "MDC_ECG_LEAD_I", WFDB's "MLII", ...) to the lead with a single
+ * lookup in a table built once, so unknown names return null instead of throwing as valueOf() does.
+ */
 public enum LeadEnum {
-	I, II, III, AVR, AVL, AVF, V1, V1R, V2, V2R, V3, V3R, V4, V4R, V5, V5R, V6, V6R, V7, VX, VY, VZ,
-	
-	MCL1
-}
\ No newline at end of file
+	I("I", "MDC_ECG_LEAD_I", "MLI", "DI"),
+	II("II", "MDC_ECG_LEAD_II", "MLII", "DII"),
+	III("III", "MDC_ECG_LEAD_III", "MLIII", "DIII"),
+	AVR("aVR", "MDC_ECG_LEAD_AVR"),
+	AVL("aVL", "MDC_ECG_LEAD_AVL"),
+	AVF("aVF", "MDC_ECG_LEAD_AVF"),
+	V1("V1", "MDC_ECG_LEAD_V1"),
+	V1R("V1R", "MDC_ECG_LEAD_V1R"),
+	V2("V2", "MDC_ECG_LEAD_V2"),
+	V2R("V2R", "MDC_ECG_LEAD_V2R"),
+	V3("V3", "MDC_ECG_LEAD_V3"),
+	V3R("V3R", "MDC_ECG_LEAD_V3R"),
+	V4("V4", "MDC_ECG_LEAD_V4"),
+	V4R("V4R", "MDC_ECG_LEAD_V4R"),
+	V5("V5", "MDC_ECG_LEAD_V5"),
+	V5R("V5R", "MDC_ECG_LEAD_V5R"),
+	V6("V6", "MDC_ECG_LEAD_V6"),
+	V6R("V6R", "MDC_ECG_LEAD_V6R"),
+	V7("V7", "MDC_ECG_LEAD_V7"),
+	VX("X", "MDC_ECG_LEAD_X"),
+	VY("Y", "MDC_ECG_LEAD_Y"),
+	VZ("Z", "MDC_ECG_LEAD_Z"),
+
+	MCL1("MCL1", "MDC_ECG_LEAD_MCL1");
+
+	private static final Map<String, LeadEnum> ALIASES = new HashMap<String, LeadEnum>();
+	static {
+		for (LeadEnum lead : values()) {
+			lead.register(lead.name());
+			lead.register(lead.displayName);
+			lead.register(lead.mdcCode);
+			for (String alias : lead.aliases) {
+				lead.register(alias);
+			}
+		}
+	}
+
+	private final String displayName;
+	private final String mdcCode;
+	private final String[] aliases;
+
+	private LeadEnum(String displayName, String mdcCode, String... aliases) {
+		this.displayName = displayName;
+		this.mdcCode = mdcCode;
+		this.aliases = aliases;
+	}
+
+	/** Adds the name plus the "Lead I" / "LEAD_I" spellings used by the vendor exports. */
+	private void register(String alias) {
+		String key = alias.toUpperCase(Locale.ENGLISH);
+		ALIASES.put(key, this);
+		ALIASES.put("LEAD " + key, this);
+		ALIASES.put("LEAD_" + key, this);
+		ALIASES.put("LEAD-" + key, this);
+	}
+
+	/** @return - conventional spelling, e.g. "aVR" */
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	/** @return - HL7 aECG code, e.g. "MDC_ECG_LEAD_AVR" */
+	public String getMdcCode() {
+		return mdcCode;
+	}
+
+	/** Looks up a lead by any known name, ignoring case and surrounding white space.
+	 *
+	 * @param name - lead name from an input file
+	 * @return - the lead, or null if the name is not known.
+	 */
+	public static LeadEnum fromAlias(String name) {
+		if (name == null) {
+			return null;
+		}
+		return ALIASES.get(name.trim().toUpperCase(Locale.ENGLISH));
+	}
+
+	/** Canonical name (the constant's name, e.g. "AVR") of a lead,
+	 * or the trimmed, upper case name itself if it is not a known lead. */
+	public static String normalize(String name) {
+		LeadEnum lead = fromAlias(name);
+		if (lead != null) {
+			return lead.name();
+		}
+		return (name == null) ? null : name.trim().toUpperCase(Locale.ENGLISH);
+	}
+
+	/** normalize() applied to every name, in order. */
+	public static List<String> normalize(List<String> names) {
+		if (names == null) {
+			return null;
+		}
+		List<String> normalized = new ArrayList<String>(names.size());
+		for (String name : names) {
+			normalized.add(normalize(name));
+		}
+		return normalized;
+	}
+}
@@ -1185,10 +1185,52 @@ public class Base64
             "Base64-encoded string must have at least four characters, but length specified was " + len );
         }   // end if
         
-        byte[] DECODABET = getDecodabet( options );
-	
         int    len34   = len * 3 / 4;       // Estimate on array size
         byte[] outBuff = new byte[ len34 ]; // Upper limit on size of output
+        int    outBuffPosn = decodeInto( source, off, len, options, outBuff );
+                                   
+        byte[] out = new byte[ outBuffPosn ];
+        System.arraycopy( outBuff, 0, out, 0, outBuffPosn ); 
+        return out;
+    }   // end decode
+    
+    
+    /**
+     * Like {@link #decode(byte[], int, int, int)}, but decodes into a buffer
+     * the caller provides, e.g. one which is reused from lead to lead.
+     *
+     * @param source The Base64 encoded data
+     * @param off    The offset of where to begin decoding
+     * @param len    The length of characters to decode
+     * @param options Can specify options such as alphabet type to use
+     * @param destination Receives the decoded bytes, at least len * 3 / 4 long
+     * @return the number of bytes decoded
+     * @throws java.io.IOException If bogus characters exist in source data
+     */
+    public static int decodeInto( byte[] source, int off, int len, int options, byte[] destination )
+    throws java.io.IOException {
+        
+        if( source == null ){
+            throw new NullPointerException( "Cannot decode null source array." );
+        }   // end if
+        if( off < 0 || off + len > source.length ){
+            throw new IllegalArgumentException( String.format(
+            "Source array with length %d cannot have offset of %d and process %d bytes.", source.length, off, len ) );
+        }   // end if
+        if( len == 0 ){
+            return 0;
+        }else if( len < 4 ){
+            throw new IllegalArgumentException( 
+            "Base64-encoded string must have at least four characters, but length specified was " + len );
+        }   // end if
+        if( destination.length < len * 3 / 4 ){
+            throw new IllegalArgumentException( String.format(
+            "Destination array with length %d cannot hold the %d bytes %d characters may decode to.", destination.length, len * 3 / 4, len ) );
+        }   // end if
+        
+        byte[] DECODABET = getDecodabet( options );
+        
+        byte[] outBuff = destination;
         int    outBuffPosn = 0;             // Keep track of where we're writing
         
         byte[] b4        = new byte[4];     // Four byte buffer from source, eliminating white space
@@ -1223,11 +1265,8 @@ public class Base64
                 "Bad Base64 input character decimal %d in array position %d", ((int)source[i])&0xFF, i ) );
             }   // end else: 
         }   // each input character
-                                   
-        byte[] out = new byte[ outBuffPosn ];
-        System.arraycopy( outBuff, 0, out, 0, outBuffPosn ); 
-        return out;
-    }   // end decode
+        return outBuffPosn;
+    }   // end decodeInto
     
     
 	
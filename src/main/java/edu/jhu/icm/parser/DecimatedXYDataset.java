@@ -0,0 +1,108 @@
+package edu.jhu.icm.parser;
+
+import org.jfree.data.DomainOrder;
+import org.jfree.data.xy.AbstractXYDataset;
+import org.jfree.data.xy.XYDataset;
+
+/**
+ * Reduces every series of an XYDataset to at most two items per horizontal pixel, the minimum and the maximum
+ * of the items falling in that pixel column, kept in their original order. Drawn as a line this gives the
+ * same picture as the full series (every peak and trough is still reached) while the renderer only draws
+ * O(width) segments. Items must be in ascending x order, as ECG samples are.<br>
+ * <br>
+ * The source is scanned once, when the dataset is created; afterwards x and y values are read through
+ * from the source, so it must not change while this view is in use.
+ */
+public class DecimatedXYDataset extends AbstractXYDataset {
+
+    private final XYDataset source;
+
+    private final int[][] items; // [series][decimated item] = item index in the source
+
+    /**
+     * @param source
+     *            dataset to decimate
+     * @param width
+     *            width of the plot area in pixels; series with at most 2*width items are passed through.
+     */
+    public DecimatedXYDataset(XYDataset source, int width) {
+        this.source = source;
+        int seriesCount = source.getSeriesCount();
+        this.items = new int[seriesCount][];
+        for (int s = 0; s < seriesCount; s++) {
+            items[s] = decimate(source, s, Math.max(1, width));
+        }
+    }
+
+    /** Indices of the min and max item of each pixel column, in item order. */
+    private static int[] decimate(XYDataset source, int series, int width) {
+        int count = source.getItemCount(series);
+        if (count <= 2 * width) {
+            return null;
+        }
+        int[] kept = new int[2 * width];
+        int keptCount = 0;
+        for (int column = 0; column < width; column++) {
+            int from = (int) ((long) column * count / width);
+            int to = (int) ((long) (column + 1) * count / width);
+            if (from >= to) {
+                continue;
+            }
+            int minItem = from, maxItem = from;
+            double min = source.getYValue(series, from), max = min;
+            for (int i = from + 1; i < to; i++) {
+                double y = source.getYValue(series, i);
+                if (y < min) {
+                    min = y;
+                    minItem = i;
+                } else if (y > max) {
+                    max = y;
+                    maxItem = i;
+                }
+            }
+            kept[keptCount++] = Math.min(minItem, maxItem);
+            if (minItem != maxItem) {
+                kept[keptCount++] = Math.max(minItem, maxItem);
+            }
+        }
+        int[] result = new int[keptCount];
+        System.arraycopy(kept, 0, result, 0, keptCount);
+        return result;
+    }
+
+    private int sourceItem(int series, int item) {
+        return (items[series] == null) ? item : items[series][item];
+    }
+
+    public DomainOrder getDomainOrder() {
+        return DomainOrder.ASCENDING;
+    }
+
+    public int getItemCount(int series) {
+        return (items[series] == null) ? source.getItemCount(series) : items[series].length;
+    }
+
+    public Number getX(int series, int item) {
+        return source.getX(series, sourceItem(series, item));
+    }
+
+    public double getXValue(int series, int item) {
+        return source.getXValue(series, sourceItem(series, item));
+    }
+
+    public Number getY(int series, int item) {
+        return source.getY(series, sourceItem(series, item));
+    }
+
+    public double getYValue(int series, int item) {
+        return source.getYValue(series, sourceItem(series, item));
+    }
+
+    public int getSeriesCount() {
+        return source.getSeriesCount();
+    }
+
+    public Comparable getSeriesKey(int series) {
+        return source.getSeriesKey(series);
+    }
+}
@@ -43,6 +43,9 @@ import org.jfree.ui.TextAnchor;
 public class DrawEcg {
     static Logger logger = Logger.getLogger(DrawEcg.class.getName());
 
+    /** Width of the PNGs written; datasets are decimated to two points per pixel of it before plotting. */
+    public static final int PLOT_WIDTH = 1200;
+
     public static void plot(XYDataset xyDataset, String fileName) {
         //logger.debug("teset");
 
@@ -50,7 +53,7 @@ public class DrawEcg {
                 // title
                 "Type", // domain axis label
                 "Value", // range axis label
-                xyDataset, // data
+                new DecimatedXYDataset(xyDataset, PLOT_WIDTH), // data, min/max per pixel column
                 PlotOrientation.VERTICAL, // orientation
                 true, // include legend
                 true, // tooltips
@@ -72,7 +75,7 @@ public class DrawEcg {
 
         try {
             fos = new FileOutputStream(new File(fileName));
-            ChartUtilities.writeChartAsPNG(fos, chart, 1200, 200);
+            ChartUtilities.writeChartAsPNG(fos, chart, PLOT_WIDTH, 200);
         } catch (FileNotFoundException e) {
             logger.error(e.getMessage());
         } catch (IOException e) {
@@ -88,18 +91,39 @@ public class DrawEcg {
     }
 
     public static JFreeChart combinedPlot(EcgLeadData ds) {
+        return combinedPlot(ds.getPagedXYDatasets(), ds.getLeadName(), ds.getPageWindow());
+    }
+
+    /**
+     * Plots a record loaded in any format, one subplot per lead, straight from its sample array.
+     * 
+     * @param ds
+     *            the leads to plot, e.g. new LeadDataset(converter.getData(), ...).getWindow(0, 5000)
+     */
+    public static JFreeChart combinedPlot(LeadDataset ds) {
+        return combinedPlot(ds.getLeadViews(), ds.getLeadNames(), ds.getDuration());
+    }
+
+    /**
+     * @param allDatasets
+     *            one single series dataset per lead
+     * @param leadNames
+     *            subplot labels
+     * @param pageWindow
+     *            minimum length of the time axis in seconds
+     */
+    private static JFreeChart combinedPlot(XYDataset[] allDatasets, String[] leadNames, double pageWindow) {
         CombinedDomainXYPlot plot = new CombinedDomainXYPlot(new NumberAxis(
                 "Time(s)"));
         plot.setGap(5);
         plot.setOrientation(PlotOrientation.VERTICAL);
        
-        XYDataset[] allDatasets = ds.getPagedXYDatasets();
         double yLowerBound = 0, yUpperBound = 0;
         
         // construct subplots and get max range
         boolean isDomainAxisSet=false;       
         for (int i = 0; i < allDatasets.length; i++) {
-            XYDataset oneDataset = allDatasets[i];
+            XYDataset oneDataset = new DecimatedXYDataset(allDatasets[i], PLOT_WIDTH);
             XYItemRenderer xyrender = new StandardXYItemRenderer();
             xyrender.setSeriesPaint(0, Color.YELLOW);
             NumberAxis rangeAxis = new NumberAxis("Voltage(uV)");
@@ -110,9 +134,9 @@ public class DrawEcg {
           
             if(!isDomainAxisSet){
                 Range xrange=subPlot.getDataRange(subPlot.getDomainAxis());
-                if(xrange.getLength()<ds.getPageWindow()){
+                if(xrange.getLength()<pageWindow){
                     double lower =  xrange.getLowerBound();
-                    double upper =lower+ds.getPageWindow();
+                    double upper =lower+pageWindow;
                     
                    xrange = new Range(lower, upper);
                 }
@@ -147,7 +171,7 @@ public class DrawEcg {
             subPlot.getRangeAxis().setUpperBound(yUpperBound);
             subPlot.getRangeAxis().setLowerBound(yLowerBound);
             XYTextAnnotation annotation = new XYTextAnnotation(
-                    ds.getLeadName()[i], subPlot.getDomainAxis().getLowerBound()+0.05, yUpperBound - 10);
+                    leadNames[i], subPlot.getDomainAxis().getLowerBound()+0.05, yUpperBound - 10);
             annotation.setTextAnchor(TextAnchor.TOP_LEFT);
             annotation.setFont(new Font("SansSerif", Font.PLAIN, 16));
             // annotation.setRotationAngle(Math.PI / 4.0);
@@ -186,7 +186,7 @@ public class EcgLeadData {
 
         try {
             int height = this.numberOfLeads * 200;
-            ChartUtilities.writeChartAsPNG(os, chart, 1200, height);
+            ChartUtilities.writeChartAsPNG(os, chart, DrawEcg.PLOT_WIDTH, height);
         } catch (FileNotFoundException e) {
 //            logger.error(e.getMessage());
         } catch (IOException e) {
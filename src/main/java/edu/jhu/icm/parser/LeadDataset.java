@@ -9,108 +9,188 @@ import org.jfree.data.xy.XYDataset;
  */
 
 /**
+ * XYDataset view over the int[channel][sample] array the format loaders produce, one series per lead,
+ * so a record read from any format can be plotted with DrawEcg without converting it to HL7 first.<br>
+ * <br>
+ * Nothing is copied: the view reads the array it was given, x is the sample time in seconds and y the
+ * sample in microvolts (ADC units * 1000 / aduGain). getXValue() and getYValue() allocate nothing; getX() and getY()
+ * have to box. getLeadView() and getWindow() return views over the same array.
+ * 
  * @author cyang
  *
  */
 public class LeadDataset implements XYDataset {
 
+	private final int[][] data;
+	private final int[] channels; // series -> channel of data
+	private final String[] leadNames; // per channel of data, may be null
+	private final double secondsPerSample;
+	private final double microvoltsPerUnit;
+	private final int offset;
+	private final int count;
+	private DatasetGroup group = new DatasetGroup();
+
+	/**
+	 * @param data - int[channel][sample], e.g. ECGformatConverter.getData()
+	 * @param samplingRate - Hz
+	 * @param aduGain - ADC units per millivolt
+	 * @param leadNames - name of each channel, null to use "Lead 1", "Lead 2", ...
+	 */
+	public LeadDataset(int[][] data, float samplingRate, int aduGain, String[] leadNames) {
+		this(data, allChannels(data.length), leadNames, 1.0 / samplingRate, 1000.0 / aduGain, 0, shortest(data));
+	}
+
+	private LeadDataset(int[][] data, int[] channels, String[] leadNames, double secondsPerSample, double microvoltsPerUnit, int offset, int count) {
+		super();
+		this.data = data;
+		this.channels = channels;
+		this.leadNames = leadNames;
+		this.secondsPerSample = secondsPerSample;
+		this.microvoltsPerUnit = microvoltsPerUnit;
+		this.offset = offset;
+		this.count = count;
+	}
+
+	private static int[] allChannels(int channelCount) {
+		int[] channels = new int[channelCount];
+		for (int i = 0; i < channelCount; i++) {
+			channels[i] = i;
+		}
+		return channels;
+	}
+
+	private static int shortest(int[][] data) {
+		int count = (data.length == 0) ? 0 : Integer.MAX_VALUE;
+		for (int[] channel : data) {
+			count = Math.min(count, channel.length);
+		}
+		return count;
+	}
+
+	/** A single series view of one lead, as DrawEcg uses for each subplot. */
+	public LeadDataset getLeadView(int series) {
+		return new LeadDataset(data, new int[]{channels[series]}, leadNames, secondsPerSample, microvoltsPerUnit, offset, count);
+	}
+
+	/** getLeadView() of every series. */
+	public LeadDataset[] getLeadViews() {
+		LeadDataset[] views = new LeadDataset[channels.length];
+		for (int i = 0; i < views.length; i++) {
+			views[i] = getLeadView(i);
+		}
+		return views;
+	}
+
+	/** A view of part of the samples, e.g. one page of a long recording.
+	 * 
+	 * @param firstSample - first sample of the window, relative to this view
+	 * @param sampleCount - samples in the window, clipped to the end of this view
+	 */
+	public LeadDataset getWindow(int firstSample, int sampleCount) {
+		int first = Math.max(0, Math.min(firstSample, count));
+		int length = Math.max(0, Math.min(sampleCount, count - first));
+		return new LeadDataset(data, channels, leadNames, secondsPerSample, microvoltsPerUnit, offset + first, length);
+	}
+
+	/** @return - name of every series, in order */
+	public String[] getLeadNames() {
+		String[] names = new String[channels.length];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = getSeriesKey(i).toString();
+		}
+		return names;
+	}
+
+	/** @return - length of the view in seconds */
+	public double getDuration() {
+		return count * secondsPerSample;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.jfree.data.xy.XYDataset#getDomainOrder()
 	 */
 	public DomainOrder getDomainOrder() {
-		// TODO Auto-generated method stub
-		return null;
+		return DomainOrder.ASCENDING;
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.xy.XYDataset#getItemCount(int)
 	 */
-	public int getItemCount(int arg0) {
-		// TODO Auto-generated method stub
-		return 0;
+	public int getItemCount(int series) {
+		return count;
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.xy.XYDataset#getX(int, int)
 	 */
-	public Number getX(int arg0, int arg1) {
-		// TODO Auto-generated method stub
-		return null;
+	public Number getX(int series, int item) {
+		return Double.valueOf(getXValue(series, item));
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.xy.XYDataset#getXValue(int, int)
 	 */
-	public double getXValue(int arg0, int arg1) {
-		// TODO Auto-generated method stub
-		return 0;
+	public double getXValue(int series, int item) {
+		return (offset + item) * secondsPerSample;
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.xy.XYDataset#getY(int, int)
 	 */
-	public Number getY(int arg0, int arg1) {
-		// TODO Auto-generated method stub
-		return null;
+	public Number getY(int series, int item) {
+		return Double.valueOf(getYValue(series, item));
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.xy.XYDataset#getYValue(int, int)
 	 */
-	public double getYValue(int arg0, int arg1) {
-		// TODO Auto-generated method stub
-		return 0;
+	public double getYValue(int series, int item) {
+		return data[channels[series]][offset + item] * microvoltsPerUnit;
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.general.SeriesDataset#getSeriesCount()
 	 */
 	public int getSeriesCount() {
-		// TODO Auto-generated method stub
-		return 0;
+		return channels.length;
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.general.SeriesDataset#getSeriesKey(int)
 	 */
-	public Comparable getSeriesKey(int arg0) {
-		// TODO Auto-generated method stub
-		return null;
+	public Comparable getSeriesKey(int series) {
+		int channel = channels[series];
+		if (leadNames != null && channel < leadNames.length && leadNames[channel] != null) {
+			return leadNames[channel];
+		}
+		return "Lead " + (channel + 1);
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.general.SeriesDataset#indexOf(java.lang.Comparable)
 	 */
-	public int indexOf(Comparable arg0) {
-		// TODO Auto-generated method stub
-		return 0;
+	public int indexOf(Comparable seriesKey) {
+		for (int i = 0; i < channels.length; i++) {
+			if (getSeriesKey(i).equals(seriesKey)) {
+				return i;
+			}
+		}
+		return -1;
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.general.Dataset#addChangeListener(org.jfree.data.general.DatasetChangeListener)
 	 */
 	public void addChangeListener(DatasetChangeListener arg0) {
-		// TODO Auto-generated method stub
-
+		// the view never changes, there is nothing to notify.
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.general.Dataset#getGroup()
 	 */
 	public DatasetGroup getGroup() {
-		// TODO Auto-generated method stub
-		return null;
+		return group;
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.general.Dataset#removeChangeListener(org.jfree.data.general.DatasetChangeListener)
 	 */
 	public void removeChangeListener(DatasetChangeListener arg0) {
-		// TODO Auto-generated method stub
-
 	}
 	/* (non-Javadoc)
 	 * @see org.jfree.data.general.Dataset#setGroup(org.jfree.data.general.DatasetGroup)
 	 */
-	public void setGroup(DatasetGroup arg0) {
-		// TODO Auto-generated method stub
-
-	}
-	/**
-	 * 
-	 */
-	public LeadDataset() {
-		super();
-		// TODO Auto-generated constructor stub
+	public void setGroup(DatasetGroup group) {
+		this.group = group;
 	}
 
 }
@@ -7,8 +7,6 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -18,6 +16,10 @@ import org.jdom.Element;
 import org.jdom.JDOMException;
 import org.jdom.input.SAXBuilder;
 
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+
 
 public class MuseBase64Parser {
 	
@@ -29,6 +31,8 @@ public class MuseBase64Parser {
 	private int allocatedChannels = 0;
 	private int numberOfPoints = 0;
 	private ArrayList<String> leadNames;
+	private LeadSelection leadSelection;
+	private TimeWindow timeWindow;
 	
 	
 	public MuseBase64Parser() {
@@ -146,56 +150,126 @@ public class MuseBase64Parser {
 	 * 
 	 */
 	private void decodeWaveformData() throws IOException {
-		boolean recheckNumberOfPoints = false;
-		for(String base64String : base64Strings) {
-			ArrayList<Integer> intList = new ArrayList<Integer>();
-			
-				byte[] encodedBytes = base64String.getBytes();
-				
-				byte[] uncodedDataByte = Base64.decode( encodedBytes );
-				ByteBuffer bb = ByteBuffer.allocate(2);
-				bb.order(ByteOrder.nativeOrder());
-				for (int t = 0, len = uncodedDataByte.length; t < len; t+=2) {
-					double doubleVal = (double)(((uncodedDataByte[t+1])<<8) | (uncodedDataByte[t] & 0xFF));
-					//doubleVal = doubleVal * 4.88;
-					int intVal = (int)doubleVal;
-					intList.add(intVal);
-				}
-				
-	            int[] payload = new int[intList.size()];
-	            
-	            for(int i=0; i<payload.length; i++) {
-	            	payload[i] = intList.get(i);
-	            }
-	            
-	            decodedData.add(payload);
-	            
-	            if(decodedData.size() == 2) {
-	            	reconstructLeads();
-	            	recheckNumberOfPoints = true;
-	            }
-				
+		int stored = base64Strings.size();
+		if(stored == 0) {
+			return;
 		}
+		boolean reconstruct = (stored >= 2);
+		int samplesPerLead = (allocatedChannels > 0) ? numberOfPoints/allocatedChannels : 0;
 		
-		if(recheckNumberOfPoints){
-			int missingLead = decodedData.size() - allocatedChannels;
-			numberOfPoints += (numberOfPoints/allocatedChannels) * missingLead;
+		// output order: the stored leads, with the derived III, aVR, aVL and aVF after I and II.
+		if(reconstruct) {
+			leadNames.add(2, "III");
+			leadNames.add(3, "AVR");
+			leadNames.add(4, "AVL");
+			leadNames.add(5, "AVF");
+		}
+		int leadCount = reconstruct ? stored + 4 : stored;
+		int[] selected = LeadSelection.resolve(leadSelection, leadNames, leadCount);
+		if(selected.length == 0) {
+			throw new IOException("None of the selected leads " + leadSelection + " is in the file.");
+		}
+		boolean[] wanted = new boolean[leadCount];
+		for (int index : selected) {
+			wanted[index] = true;
+		}
+		boolean derivedWanted = reconstruct && (wanted[2] || wanted[3] || wanted[4] || wanted[5]);
+		int first = TimeWindow.firstSample(timeWindow, samplingRate);
+		int count = TimeWindow.sampleCount(timeWindow, samplingRate, samplesPerLead);
+		
+		// only the base64 blocks of selected leads (and of I and II when a derived lead is selected) are decoded.
+		int[][] leads = new int[leadCount][];
+		for (int j = 0; j < stored; j++) {
+			int target = (reconstruct && j >= 2) ? j + 4 : j;
+			if(wanted[target] || (derivedWanted && j < 2)) {
+				leads[target] = (timeWindow == null) ? decodeLead(base64Strings.get(j)) : decodeLead(base64Strings.get(j), first, count);
+			}
+		}
+		if(derivedWanted) {
+			reconstructLeads(leads);
 		}
+		
+		for (int index : selected) {
+			decodedData.add(leads[index]);
+		}
+		leadNames = new ArrayList<String>(LeadSelection.select(leadNames, selected));
+		numberOfPoints = ((timeWindow == null) ? samplesPerLead : count) * selected.length;
+	}
+	
+	/** Decodes one WaveFormData block: base64 of little endian 16 bit samples. 
+	 * Only the returned samples are allocated, the characters and the decoded bytes are in buffers of the thread's BufferArena.
+	 */
+	private static int[] decodeLead(String base64String) throws IOException {
+		byte[] uncodedDataByte = BufferArena.current().borrowBytes(base64String.length() * 3 / 4);
+		int decodedLength = decodeBlock(base64String, 0, base64String.length(), uncodedDataByte);
+		int[] payload = new int[decodedLength / 2];
+		for (int t = 0, i = 0; i < payload.length; t+=2, i++) {
+			payload[i] = ((uncodedDataByte[t+1])<<8) | (uncodedDataByte[t] & 0xFF);
+		}
+		return payload;
+	}
+	
+	/** Decodes count samples of one WaveFormData block, starting at sample first. 
+	 * Every 4 base64 characters hold 3 bytes, so when the block has no line breaks only the characters 
+	 * covering the window are decoded. 
+	 */
+	private static int[] decodeLead(String base64String, int first, int count) throws IOException {
+		String block = base64String.trim();
+		int from = 0, to = block.length();
+		int skip = first * 2; // bytes before the window in the decoded part
+		if(isContiguous(block)) {
+			int firstQuad = (first * 2) / 3;
+			int endQuad = (int) Math.min(((long) (first + count) * 2 + 2) / 3, block.length() / 4);
+			if(firstQuad >= endQuad) {
+				return new int[0];
+			}
+			from = firstQuad * 4;
+			to = endQuad * 4;
+			skip = first * 2 - firstQuad * 3;
+		}
+		byte[] uncodedDataByte = BufferArena.current().borrowBytes((to - from) * 3 / 4);
+		int decodedLength = decodeBlock(block, from, to, uncodedDataByte);
+		int[] payload = new int[Math.max(0, Math.min(count, (decodedLength - skip) / 2))];
+		for (int t = skip, i = 0; i < payload.length; t+=2, i++) {
+			payload[i] = ((uncodedDataByte[t+1])<<8) | (uncodedDataByte[t] & 0xFF);
+		}
+		return payload;
+	}
+	
+	/** Base64 decodes the characters from to to of a block into destination, through a character buffer of the thread's BufferArena.
+	 * @return - number of bytes decoded
+	 */
+	private static int decodeBlock(String block, int from, int to, byte[] destination) throws IOException {
+		byte[] characters = BufferArena.current().borrowBytes(to - from);
+		for (int i = from; i < to; i++) {
+			char c = block.charAt(i);
+			characters[i - from] = (c < 0x80) ? (byte) c : (byte) '?'; // not base64, the decoder rejects it
+		}
+		return Base64.decodeInto(characters, 0, to - from, Base64.NO_OPTIONS, destination);
+	}
+	
+	private static boolean isContiguous(String block) {
+		for (int i = 0; i < block.length(); i++) {
+			if(Character.isWhitespace(block.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
 	}
 	
 	/**
-	 * Reconstructs leads III, aVR, aVL, and aVF.  These are not stored directly in the Muse XML file
-	 * but are derived from other leads.
+	 * Reconstructs leads III, aVR, aVL, and aVF (at index 2-5) from leads I and II (at index 0 and 1).  
+	 * These are not stored directly in the Muse XML file but are derived from other leads.
 	 * 
 	 * This does not need to be multiplied by any value, since it will already be using previously decoded values.
 	 */
-	private void reconstructLeads() {
-		int[] leadI = decodedData.get(0);
-		int[] leadII = decodedData.get(1);
-		int[] leadIII = new int[decodedData.get(0).length];
-		int[] leadAVR = new int[decodedData.get(0).length];
-		int[] leadAVL = new int[decodedData.get(0).length];
-		int[] leadAVF = new int[decodedData.get(0).length];
+	private static void reconstructLeads(int[][] leads) {
+		int[] leadI = leads[0];
+		int[] leadII = leads[1];
+		int[] leadIII = new int[leadI.length];
+		int[] leadAVR = new int[leadI.length];
+		int[] leadAVL = new int[leadI.length];
+		int[] leadAVF = new int[leadI.length];
 		
 		
 		// lead III = II - I
@@ -203,32 +277,28 @@ public class MuseBase64Parser {
 			leadIII[i] = leadII[i] - leadI[i];
 		}
 		
-		decodedData.add(leadIII);
-		leadNames.add(2, "III");
+		leads[2] = leadIII;
 
 		// lead aVR = -(I + II)/2
 		for (int i = 0; i < leadAVR.length; i++) {
 			leadAVR[i] = -((leadI[i] + leadII[i]) / 2);
 		}
 		
-		decodedData.add(leadAVR);
-		leadNames.add(3, "AVR");
+		leads[3] = leadAVR;
 
 		// lead aVL = I - II/2
 		for (int i = 0; i < leadAVL.length; i++) {
 			leadAVL[i] = ((leadI[i] - leadIII[i]) / 2);
 		}
 		
-		decodedData.add(leadAVL);
-		leadNames.add(4, "AVL");
+		leads[4] = leadAVL;
 
 		// lead aVF = II - I/2
 		for (int i = 0; i < leadAVF.length; i++) {
 			leadAVF[i] = ((leadII[i] + leadIII[i]) / 2);
 		}
 		
-		decodedData.add(leadAVF);
-		leadNames.add(5, "AVF");
+		leads[5] = leadAVF;
 		
 	}
 	
@@ -265,6 +335,16 @@ public class MuseBase64Parser {
 	public ArrayList<String> getLeadNames() {
 		return leadNames;
 	}
+
+	/** Restricts decoding to the selected leads, set before parse(). */
+	public void setLeadSelection(LeadSelection leadSelection) {
+		this.leadSelection = leadSelection;
+	}
+
+	/** Restricts decoding to the samples in the window, set before parse(). */
+	public void setTimeWindow(TimeWindow timeWindow) {
+		this.timeWindow = timeWindow;
+	}
 	
 }
 
@@ -7,6 +7,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+
 
 public class RdtParser {
 
@@ -21,7 +23,15 @@ public class RdtParser {
     }
     long fileSize = rdtFile.length();
     RdtParserSimple rps = new RdtParserSimple(rdt, fileSize);//, "doesnotmatter");
-    if (!rps.parse()) {
+    boolean parsed;
+    BufferArena arena = BufferArena.current();
+    arena.open(); // the file body goes back to the arena once it is parsed into the data array
+    try {
+        parsed = rps.parse();
+    } finally {
+        arena.close();
+    }
+    if (!parsed) {
         //logger.error("rdt file parsing failed.");
     	System.out.println("rdt file parsing failed.");
         // do something
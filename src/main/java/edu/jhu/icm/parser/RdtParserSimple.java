@@ -14,6 +14,8 @@ import java.nio.ByteOrder;
 
 import org.apache.log4j.Logger;
 
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+
 /**
  * The parsing of RDT file is enlighted by and derived from the loadrdt.m file
  * by Alois Schloegl at a.schloegl@ieee.org.
@@ -113,11 +115,12 @@ public class RdtParserSimple {
 
         logger.debug("count is " + this.counts);
 
-        byte[] body = new byte[REALBUFFERSIZE];
+        // from the thread's BufferArena, taken back when the caller's scope closes (see RdtParser)
+        byte[] body = BufferArena.current().borrowBytes(REALBUFFERSIZE);
         boolean ret = false;
         try {
 
-            int length = rdtBis.read(body);
+            int length = rdtBis.read(body, 0, REALBUFFERSIZE);
             if (length != REALBUFFERSIZE) {
                 logger.error("error while reading data into buffer");
                 try {
@@ -128,7 +131,7 @@ public class RdtParserSimple {
                 return false;
             }
 
-            ByteBuffer bbBody = ByteBuffer.wrap(body);
+            ByteBuffer bbBody = ByteBuffer.wrap(body, 0, REALBUFFERSIZE);
             bbBody.order(BYTEORDER);
             for (int index = 0; index < this.counts; index++) {
                 for (int channel = 0; channel < this.channels; channel++) {
@@ -30,6 +30,8 @@ import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlOptions;
 import org.apache.xmlbeans.XmlSimpleList;
 
+import edu.jhu.icm.enums.LeadEnum;
+
 /**
  * Wrap a rdt in an aECG xml
  * Reads a RDT formatted ECG file and
@@ -44,8 +46,11 @@ public class Writer {
 
     private static final String FILENAME = "TemplateExample1.xml";
 
-    public final static String[] LEADNAME = { "MDC_ECG_LEAD_X",
-            "MDC_ECG_LEAD_Y", "MDC_ECG_LEAD_Z" };
+    /** the template resource, parsed once per JVM; see templateCopy() */
+    private static AnnotatedECGDocument template;
+
+    public final static String[] LEADNAME = { LeadEnum.VX.getMdcCode(),
+            LeadEnum.VY.getMdcCode(), LeadEnum.VZ.getMdcCode() };
 
     /**
      * create an aecgdoc for wrapping rdt data
@@ -82,6 +87,23 @@ public class Writer {
         return aecgdoc;
     }
 
+    /**
+     * a fresh copy of the template resource. The resource is parsed on first
+     * use only, so a long running process (see ConversionServer) does not
+     * parse it again for every HL7 file.
+     * 
+     * @return aecgdoc to fill in, null if the template can not be read
+     */
+    private static synchronized AnnotatedECGDocument templateCopy() {
+        if (template == null) {
+            template = createTemplate(true);
+            if (template == null) {
+                return null;
+            }
+        }
+        return (AnnotatedECGDocument) template.copy();
+    }
+
     private static PORTMT020001SequenceSet getSequenceSet(
             AnnotatedECGDocument aecgdoc) {
         if (aecgdoc == null) {
@@ -250,7 +272,7 @@ public class Writer {
     public static void writeHL7(String fullPathOutput, int[][] data, float samplingRate) {
         initLogger();
 
-        AnnotatedECGDocument aecgdoc = createTemplate(true);
+        AnnotatedECGDocument aecgdoc = templateCopy();
         aecgdoc = createAecgDoc(data, samplingRate, aecgdoc);
         saveAecgXML(aecgdoc, fullPathOutput); // XML output filename (HL7)
         aecgdoc = null;
@@ -0,0 +1,169 @@
+package edu.jhu.icm.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.batch.AdmissionController;
+
+public class AdmissionControllerTest {
+
+	/** Acquires on its own thread, then holds the reservation until released. */
+	private static class Job extends Thread {
+		private final AdmissionController admission;
+		private final long bytes;
+		final CountDownLatch admitted = new CountDownLatch(1);
+		volatile boolean interrupted = false;
+
+		Job(AdmissionController admission, long bytes) {
+			this.admission = admission;
+			this.bytes = bytes;
+			setDaemon(true);
+			start();
+		}
+
+		public void run() {
+			try {
+				admission.acquire(bytes);
+				admitted.countDown();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		boolean isAdmitted(long millis) throws InterruptedException {
+			return admitted.await(millis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Waits until count jobs are queued, so the order of arrival is known. */
+	private static void awaitQueued(AdmissionController admission, int count) throws InterruptedException {
+		for (int i = 0; i < 500 && admission.getQueued() != count; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(count, admission.getQueued());
+	}
+
+	@Test
+	public void estimateTest(){
+		try {
+			RecordMetadata metadata = new RecordMetadata(1, 500, 100000, null, 200);
+			long base = AdmissionController.estimate(fileFormat.RDT, fileFormat.CSV, metadata, 200004);
+			Assert.assertTrue(base >= 100000 * 4);
+			// an XY row holds its values as Strings in a Vector<String[]> and its time as a Double in a Vector<Double>
+			long xy = AdmissionController.estimate(fileFormat.RAW_XY_CONST_SAMPLE, fileFormat.CSV, metadata, 1200000);
+			Assert.assertTrue(xy - base >= 100000 * 150L);
+			Assert.assertTrue(AdmissionController.estimate(fileFormat.RAW_XY_VAR_SAMPLE, fileFormat.CSV, metadata, 1200000) == xy);
+			Assert.assertEquals(base, AdmissionController.estimate(fileFormat.GEMUSE, fileFormat.CSV, metadata, 600000));
+			Assert.assertTrue(AdmissionController.estimate(fileFormat.PHILIPS103, fileFormat.CSV, metadata, 1000000) - base >= 1000000 * 8L + 100000 * 16L);
+			Assert.assertTrue(AdmissionController.estimate(fileFormat.RDT, fileFormat.HL7, metadata, 200004) - base >= 100000 * 14L);
+
+			// without a probe every byte of input may be a sample
+			long unprobed = AdmissionController.estimate(fileFormat.RAW_XY_CONST_SAMPLE, fileFormat.CSV, null, 1200000);
+			Assert.assertTrue(unprobed > xy);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void acquireReleaseTest(){
+		try {
+			AdmissionController admission = new AdmissionController(100);
+			admission.acquire(60);
+			admission.acquire(40);
+			Assert.assertEquals(100, admission.getBytesInUse());
+			Assert.assertEquals(2, admission.getRunning());
+			admission.release(60);
+			admission.release(40);
+			Assert.assertEquals(0, admission.getBytesInUse());
+			Assert.assertEquals(0, admission.getRunning());
+			Assert.assertEquals(0, admission.getQueued());
+			try {
+				new AdmissionController(0);
+				Assert.fail("a budget must be positive");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void blockingTest(){
+		try {
+			AdmissionController admission = new AdmissionController(100);
+			admission.acquire(60);
+			Job large = new Job(admission, 50);
+			awaitQueued(admission, 1);
+			Job small = new Job(admission, 10); // fits, but arrived after the large job
+			awaitQueued(admission, 2);
+			Assert.assertFalse(large.isAdmitted(100));
+			Assert.assertFalse(small.isAdmitted(100));
+			Assert.assertEquals(60, admission.getBytesInUse());
+
+			admission.release(60);
+			Assert.assertTrue(large.isAdmitted(5000));
+			Assert.assertTrue(small.isAdmitted(5000));
+			Assert.assertEquals(60, admission.getBytesInUse());
+			Assert.assertEquals(2, admission.getRunning());
+			Assert.assertEquals(0, admission.getQueued());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void oversizeTest(){
+		try {
+			AdmissionController admission = new AdmissionController(100);
+			admission.acquire(500); // larger than the budget, runs alone
+			Assert.assertEquals(500, admission.getBytesInUse());
+			Job next = new Job(admission, 10);
+			Assert.assertFalse(next.isAdmitted(200));
+			admission.release(500);
+			Assert.assertTrue(next.isAdmitted(5000));
+
+			Job oversize = new Job(admission, 500); // waits until nothing else runs
+			Assert.assertFalse(oversize.isAdmitted(200));
+			admission.release(10);
+			Assert.assertTrue(oversize.isAdmitted(5000));
+			Assert.assertEquals(1, admission.getRunning());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void interruptTest(){
+		try {
+			AdmissionController admission = new AdmissionController(100);
+			admission.acquire(100);
+			Job first = new Job(admission, 50);
+			awaitQueued(admission, 1);
+			Job second = new Job(admission, 50);
+			awaitQueued(admission, 2);
+
+			first.interrupt(); // gives up its place, nothing is reserved for it
+			first.join(5000);
+			Assert.assertTrue(first.interrupted);
+			Assert.assertEquals(1, admission.getQueued());
+			admission.release(100);
+			Assert.assertTrue(second.isAdmitted(5000));
+			Assert.assertEquals(50, admission.getBytesInUse());
+			Assert.assertEquals(1, admission.getRunning());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
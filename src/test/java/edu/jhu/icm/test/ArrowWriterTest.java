@@ -0,0 +1,297 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.arrow.ArrowWriter;
+
+/** Reads the written IPC files back with a minimal flatbuffer reader, following the Arrow columnar format spec. */
+public class ArrowWriterTest extends TempDirTest {
+
+	private static final String[] LEADS = {"I", "II", "V1"};
+
+	/** Leads I and II fit in int16, V1 does not. More than one record batch. */
+	private static int[][] record(int samples) {
+		Random random = new Random(3);
+		int[][] data = new int[3][samples];
+		for (int i = 0; i < samples; i++) {
+			data[0][i] = random.nextInt(2000) - 1000;
+			data[1][i] = (i % 2 == 0) ? Short.MIN_VALUE : Short.MAX_VALUE;
+			data[2][i] = random.nextInt();
+		}
+		return data;
+	}
+
+	private File write(String name, int[][] data, int samples, boolean stream) {
+		File file = new File(dir, name + (stream ? ArrowWriter.STREAM_EXTENSION : ArrowWriter.EXTENSION));
+		ArrowWriter writer = new ArrowWriter(file, stream);
+		writer.setChannels(data.length);
+		writer.setSamplesPerChannel(samples);
+		writer.setSamplingRate(500);
+		writer.setAduGain(200);
+		writer.setData(data);
+		writer.setLeadNames(LEADS);
+		Assert.assertEquals(samples, writer.write());
+		return file;
+	}
+
+	private static ByteBuffer readAll(File file) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[(int) raf.length()];
+			raf.readFully(bytes);
+			return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+
+	// flatbuffer access: positions are absolute in the file's buffer
+
+	private static int root(ByteBuffer bb, int start) {
+		return start + bb.getInt(start);
+	}
+
+	/** Position of a table's field, 0 if absent. */
+	private static int field(ByteBuffer bb, int table, int index) {
+		int vtable = table - bb.getInt(table);
+		if (4 + 2 * index >= bb.getShort(vtable)) {
+			return 0;
+		}
+		int offset = bb.getShort(vtable + 4 + 2 * index);
+		return (offset == 0) ? 0 : table + offset;
+	}
+
+	private static int ref(ByteBuffer bb, int table, int index) {
+		int at = field(bb, table, index);
+		Assert.assertTrue("missing field " + index, at != 0);
+		return at + bb.getInt(at);
+	}
+
+	private static String string(ByteBuffer bb, int at) {
+		byte[] bytes = new byte[bb.getInt(at)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = bb.get(at + 4 + i);
+		}
+		return new String(bytes);
+	}
+
+	/** Element i of a vector of tables. */
+	private static int element(ByteBuffer bb, int vector, int i) {
+		int at = vector + 4 + 4 * i;
+		return at + bb.getInt(at);
+	}
+
+	private static void checkSchema(ByteBuffer bb, int schema) {
+		Assert.assertEquals(0, bb.getShort(field(bb, schema, 0))); // little endian
+		int fields = ref(bb, schema, 1);
+		Assert.assertEquals(3, bb.getInt(fields));
+		int[] bitWidths = {16, 16, 32};
+		for (int c = 0; c < 3; c++) {
+			int f = element(bb, fields, c);
+			Assert.assertEquals(LEADS[c], string(bb, ref(bb, f, 0)));
+			Assert.assertEquals(2, bb.get(field(bb, f, 2))); // Type.Int
+			int type = ref(bb, f, 3);
+			Assert.assertEquals(bitWidths[c], bb.getInt(field(bb, type, 0)));
+			Assert.assertEquals(1, bb.get(field(bb, type, 1)));
+			Assert.assertEquals(0, bb.getInt(ref(bb, f, 5))); // no children
+		}
+		int metadata = ref(bb, schema, 2);
+		Map<String, String> values = new HashMap<String, String>();
+		for (int i = 0; i < bb.getInt(metadata); i++) {
+			int kv = element(bb, metadata, i);
+			values.put(string(bb, ref(bb, kv, 0)), string(bb, ref(bb, kv, 1)));
+		}
+		Assert.assertEquals("500.0", values.get("samplingRate"));
+		Assert.assertEquals("200", values.get("aduGain"));
+		Assert.assertEquals("I,II,V1", values.get("leadNames"));
+	}
+
+	/** Checks the encapsulated message at position at against the data.
+	 *
+	 * @return - position after the message and its body, and the first row of the next batch, or -1 at end of stream
+	 */
+	private static int[] checkMessage(ByteBuffer bb, int at, int firstRow, int[][] data) {
+		Assert.assertEquals(0xFFFFFFFF, bb.getInt(at));
+		int length = bb.getInt(at + 4);
+		if (length == 0) {
+			return new int[]{at + 8, -1};
+		}
+		Assert.assertEquals(0, length % 8);
+		int message = root(bb, at + 8);
+		Assert.assertEquals(4, bb.getShort(field(bb, message, 0))); // V5
+		int headerType = bb.get(field(bb, message, 1));
+		int header = ref(bb, message, 2);
+		long bodyLength = bb.getLong(field(bb, message, 3));
+		int body = at + 8 + length;
+		Assert.assertEquals(0, body % 8);
+		if (headerType == 1) {
+			checkSchema(bb, header);
+			return new int[]{body, firstRow};
+		}
+		Assert.assertEquals(3, headerType); // RecordBatch
+		int rows = (int) bb.getLong(field(bb, header, 0));
+		int nodes = ref(bb, header, 1);
+		int buffers = ref(bb, header, 2);
+		Assert.assertEquals(3, bb.getInt(nodes));
+		Assert.assertEquals(6, bb.getInt(buffers));
+		Assert.assertEquals(0, (nodes + 4) % 8); // structs of longs are aligned, flatbuffer verifiers check it
+		Assert.assertEquals(0, (buffers + 4) % 8);
+		for (int c = 0; c < 3; c++) {
+			Assert.assertEquals(rows, bb.getLong(nodes + 4 + 16 * c)); // structs follow the vector length
+			Assert.assertEquals(0, bb.getLong(nodes + 4 + 16 * c + 8));
+			int buffer = buffers + 4 + 32 * c + 16; // data buffer, after the validity buffer
+			int offset = (int) bb.getLong(buffer);
+			Assert.assertEquals(0, offset % 8);
+			int width = (int) (bb.getLong(buffer + 8) / rows);
+			for (int i = 0; i < rows; i++) {
+				int value = (width == 2) ? bb.getShort(body + offset + 2 * i) : bb.getInt(body + offset + 4 * i);
+				Assert.assertEquals(data[c][firstRow + i], value);
+			}
+		}
+		return new int[]{(int) (body + bodyLength), firstRow + rows};
+	}
+
+	// Golden bytes of a one lead "I", two sample {1, -1} record, hand checked against Schema.fbs, Message.fbs and File.fbs.
+	// Flatbuffer offsets are relative to the field holding them; a table starts with the signed offset back to its vtable.
+
+	/** The Schema table and everything it refers to, the same in the schema message and in the footer. */
+	private static final String GOLDEN_SCHEMA =
+			"0000" // padding
+			+ "0a00" + "1000" + "0600" + "0c00" + "0800" // Schema vtable: endianness at 6, fields at 12, custom_metadata at 8
+			+ "0a000000" + "0000" + "0000" + "08000000" + "9c000000" // Schema: vtable, little endian, custom_metadata, fields
+			+ "03000000" + "68000000" + "3c000000" + "0c000000" // custom_metadata: 3 KeyValues, written back to front
+			+ "0800" + "0c00" + "0800" + "0400" + "08000000" + "08000000" + "0c000000" // KeyValue vtable, KeyValue: value, key
+			+ "01000000" + "4900" + "0000" // "I"
+			+ "09000000" + "6c656164" + "4e616d6573" + "000000" // "leadNames"
+			+ "0800" + "0c00" + "0800" + "0400" + "08000000" + "08000000" + "0c000000"
+			+ "03000000" + "32303000" // "200"
+			+ "07000000" + "6164754761696e00" // "aduGain"
+			+ "0800" + "0c00" + "0800" + "0400" + "08000000" + "08000000" + "10000000"
+			+ "05000000" + "3530302e30" + "000000" // "500.0"
+			+ "0c000000" + "73616d706c696e6752617465" + "00000000" // "samplingRate"
+			+ "01000000" + "14000000" // fields: 1 Field
+			+ "1000" + "1400" + "1000" + "0700" + "0600" + "0c00" + "0000" + "0800" // Field vtable: name, nullable, type_type, type, no dictionary, children
+			+ "10000000" + "0000" + "02" + "00" + "0c000000" + "14000000" + "1c000000" // Field: vtable, type_type Int, not nullable, children, type, name
+			+ "00000000" // children: none
+			+ "0800" + "0c00" + "0800" + "0700" // Int vtable: bitWidth at 8, is_signed at 7
+			+ "08000000" + "000000" + "01" + "10000000" // Int: vtable, signed, 16 bits
+			+ "01000000" + "4900" + "0000"; // "I"
+
+	/** The encapsulated schema message at the start of the file, after "ARROW1" and its padding. */
+	private static final String GOLDEN_SCHEMA_MESSAGE =
+			"ffffffff" + "28010000" // continuation, 296 bytes of metadata
+			+ "14000000" + "00000000" // root table offset, padding
+			+ "0c00" + "1600" + "0600" + "0500" + "0800" + "0c00" // Message vtable: version at 6, header_type at 5, header at 8, bodyLength at 12
+			+ "0c000000" + "00" + "01" + "0400" + "18000000" + "0000000000000000" // Message: vtable, Schema header, V5, header, no body
+			+ GOLDEN_SCHEMA;
+
+	/** The end of the stream, the footer and the trailer of the file. */
+	private static final String GOLDEN_FOOTER =
+			"ffffffff" + "00000000" // end of stream
+			+ "10000000" // root table offset
+			+ "0c00" + "1400" + "0600" + "1000" + "0c00" + "0800" // Footer vtable: version at 6, schema at 16, dictionaries at 12, recordBatches at 8
+			+ "0c000000" + "0000" + "0400" + "0c000000" + "28000000" + "34000000" // Footer: vtable, V5, recordBatches, dictionaries, schema
+			+ "01000000" // recordBatches: 1 Block
+			+ "3801000000000000" + "90000000" + "00000000" + "4000000000000000" // Block: offset 312, metaDataLength 144, padding, bodyLength 64
+			+ "00000000" // padding that aligns the Blocks to 8 bytes
+			+ "00000000" // dictionaries: none
+			+ GOLDEN_SCHEMA
+			+ "48010000" + "4152524f5731"; // footer length 328, "ARROW1"
+
+	private static String hex(ByteBuffer bb, int from, int to) {
+		StringBuilder hex = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			hex.append(String.format("%02x", bb.get(i) & 0xff));
+		}
+		return hex.toString();
+	}
+
+	@Test
+	public void goldenBytesTest(){
+		try {
+			ArrowWriter writer = new ArrowWriter(new File(dir, "golden" + ArrowWriter.EXTENSION), false);
+			writer.setChannels(1);
+			writer.setSamplesPerChannel(2);
+			writer.setSamplingRate(500);
+			writer.setAduGain(200);
+			writer.setData(new int[][]{{1, -1}});
+			writer.setLeadNames(new String[]{"I"});
+			Assert.assertEquals(2, writer.write());
+			ByteBuffer bb = readAll(new File(dir, "golden" + ArrowWriter.EXTENSION));
+
+			Assert.assertEquals("4152524f57310000", hex(bb, 0, 8)); // "ARROW1", padding
+			int schemaEnd = 8 + GOLDEN_SCHEMA_MESSAGE.length() / 2;
+			Assert.assertEquals(GOLDEN_SCHEMA_MESSAGE, hex(bb, 8, schemaEnd));
+			// the record batch message and its 64 byte body: int16 1 and -1, then zeros
+			Assert.assertEquals(schemaEnd + 144 + 64, bb.limit() - GOLDEN_FOOTER.length() / 2);
+			Assert.assertEquals("0100ffff", hex(bb, schemaEnd + 144, schemaEnd + 148));
+			Assert.assertEquals(GOLDEN_FOOTER, hex(bb, bb.limit() - GOLDEN_FOOTER.length() / 2, bb.limit()));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void fileFormatTest(){
+		try {
+			int samples = ArrowWriter.BATCH_ROWS + 1001;
+			int[][] data = record(samples);
+			ByteBuffer bb = readAll(write("rec", data, samples, false));
+			Assert.assertEquals("ARROW1", new String(bb.array(), 0, 6));
+			int end = bb.limit();
+			Assert.assertEquals("ARROW1", new String(bb.array(), end - 6, 6));
+			int footerLength = bb.getInt(end - 10);
+			int footer = root(bb, end - 10 - footerLength);
+			checkSchema(bb, ref(bb, footer, 1));
+			int blocks = ref(bb, footer, 3);
+			Assert.assertEquals(2, bb.getInt(blocks));
+			Assert.assertEquals(0, (blocks + 4) % 8);
+			int firstRow = 0;
+			for (int b = 0; b < 2; b++) {
+				int block = blocks + 4 + 24 * b;
+				int offset = (int) bb.getLong(block);
+				int[] next = checkMessage(bb, offset, firstRow, data);
+				Assert.assertEquals(next[0], offset + bb.getInt(block + 8) + bb.getLong(block + 16));
+				firstRow = next[1];
+			}
+			Assert.assertEquals(samples, firstRow);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void streamFormatTest(){
+		try {
+			int samples = 2 * ArrowWriter.BATCH_ROWS;
+			int[][] data = record(samples);
+			ByteBuffer bb = readAll(write("rec", data, samples, true));
+			int[] at = {0, 0};
+			int messages = 0;
+			while (at[1] >= 0) {
+				int firstRow = at[1];
+				at = checkMessage(bb, at[0], firstRow, data);
+				if (at[1] >= 0) {
+					messages++;
+					Assert.assertTrue(messages == 1 || at[1] > firstRow);
+				}
+			}
+			Assert.assertEquals(3, messages); // the schema and two record batches
+			Assert.assertEquals(bb.limit(), at[0]);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package edu.jhu.icm.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+
+public class BufferArenaTest {
+
+	@Test
+	public void scopeTest(){
+		try {
+			BufferArena arena = BufferArena.current();
+			Assert.assertFalse(arena.isOpen());
+			long retained = arena.getRetainedBytes();
+
+			arena.open();
+			arena.open();
+			byte[] bytes = arena.borrowBytes(100);
+			Assert.assertEquals(128, bytes.length); // next power of two
+			arena.close();
+			Assert.assertTrue(arena.isOpen()); // taken back only by the outermost close()
+			Assert.assertEquals(retained, arena.getRetainedBytes());
+			arena.close();
+			Assert.assertFalse(arena.isOpen());
+			Assert.assertEquals(retained + 128, arena.getRetainedBytes());
+
+			// the returned buffer is handed out again
+			arena.open();
+			Assert.assertSame(bytes, arena.borrowBytes(120));
+			Assert.assertEquals(retained, arena.getRetainedBytes());
+			int[][] rows = arena.borrowInts(3, 1000);
+			Assert.assertEquals(1024, rows[2].length);
+			arena.close();
+			Assert.assertEquals(retained + 128 + 3 * 4096, arena.getRetainedBytes());
+			arena.open();
+			Assert.assertSame(rows[2], arena.borrowInts(513)); // last returned, first reused
+			arena.close();
+
+			try {
+				arena.close();
+				Assert.fail("closed more often than opened");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void outsideScopeTest(){
+		try {
+			BufferArena arena = BufferArena.current();
+			Assert.assertFalse(arena.isOpen());
+			// not taken back by a later scope: ordinary garbage, never handed out twice
+			int[] ints = arena.borrowInts(3000);
+			long retained = arena.getRetainedBytes();
+			arena.open();
+			arena.close();
+			Assert.assertEquals(retained, arena.getRetainedBytes());
+			arena.open();
+			Assert.assertNotSame(ints, arena.borrowInts(3000));
+			arena.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void retainLimitTest(){
+		long limit = BufferArena.getRetainLimit();
+		try {
+			BufferArena arena = BufferArena.current();
+			arena.open();
+			arena.borrowBytes(2048);
+			arena.borrowBytes(2048);
+			arena.borrowBytes(2048);
+			long retained = arena.getRetainedBytes();
+			BufferArena.setRetainLimit(retained + 4096);
+			arena.close();
+			Assert.assertEquals(retained + 4096, arena.getRetainedBytes()); // the third buffer is left to the garbage collector
+
+			// above the largest class, exactly the requested size and never pooled
+			BufferArena.setRetainLimit(limit);
+			arena.open();
+			byte[] large = arena.borrowBytes((1 << 24) + 1);
+			Assert.assertEquals((1 << 24) + 1, large.length);
+			arena.close();
+			Assert.assertEquals(retained + 4096, arena.getRetainedBytes());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		} finally {
+			BufferArena.setRetainLimit(limit);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package edu.jhu.icm.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.csv.CSVWriter;
+
+public class CSVWriterTest {
+
+	File csvFile;
+
+	@Before
+	public void setUp() throws Exception {
+		csvFile = File.createTempFile("csvwriter", ".csv");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		csvFile.delete();
+	}
+
+	/** Writes two rows of one lead and returns the time column of the second row. */
+	private String secondSampleTime(float samplingRate) throws Exception {
+		CSVWriter writer = new CSVWriter(csvFile);
+		writer.setChannels(1);
+		writer.setSamplesPerChannel(2);
+		writer.setSamplingRate(samplingRate);
+		writer.setData(new int[][]{{5, -5}});
+		Assert.assertEquals(2, writer.write());
+		BufferedReader in = new BufferedReader(new FileReader(csvFile));
+		try {
+			Assert.assertEquals("Time,Channel1", in.readLine());
+			Assert.assertEquals("0.000", in.readLine().split(",")[0].substring(0, 5));
+			String[] row = in.readLine().split(",");
+			Assert.assertEquals("-5", row[1]);
+			return row[0];
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void timeDecimalsTest(){
+		try {
+			Assert.assertEquals("0.002", secondSampleTime(500));
+			Assert.assertEquals("0.004", secondSampleTime(250));
+			Assert.assertEquals("0.0025", secondSampleTime(400));
+			Assert.assertEquals("0.002778", secondSampleTime(360)); // no exact decimal, rounded to the microsecond
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void nullDataTest(){
+		try {
+			CSVWriter writer = new CSVWriter(csvFile);
+			writer.setChannels(1);
+			writer.setSamplesPerChannel(2);
+			writer.setData(null);
+			Assert.assertEquals(-1, writer.write());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package edu.jhu.icm.test;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.store.CompressedChannel;
+import edu.jhu.icm.ecgFormatConverter.store.CompressedSampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.HeapSampleStore;
+
+public class CompressedChannelTest {
+
+	/** A 500Hz ECG-like random walk in ADC units. */
+	private static int[] ecgLike(int length, long seed) {
+		Random random = new Random(seed);
+		int[] samples = new int[length];
+		int value = 0;
+		for (int i = 0; i < length; i++) {
+			value += random.nextInt(21) - 10 + (int) (40 * Math.sin(i * 2 * Math.PI / 500) - 40 * Math.sin((i - 1) * 2 * Math.PI / 500));
+			samples[i] = value;
+		}
+		return samples;
+	}
+
+	@Test
+	public void roundTripTest(){
+		try {
+			int[] lengths = {0, 1, 127, 128, 129, 5000, 100003};
+			for (int length : lengths) {
+				int[] samples = ecgLike(length, length);
+				CompressedChannel channel = CompressedChannel.encode(samples, 0, length);
+				Assert.assertEquals(length, channel.length());
+				int[] decoded = new int[length];
+				channel.read(0, decoded, 0, length);
+				Assert.assertArrayEquals("length " + length, samples, decoded);
+				for (int i = 0; i < length; i += 37) {
+					Assert.assertEquals(samples[i], channel.get(i));
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void randomAccessTest(){
+		try {
+			int[] samples = ecgLike(20000, 7);
+			CompressedChannel channel = CompressedChannel.encode(samples, 0, samples.length);
+			Random random = new Random(3);
+			for (int k = 0; k < 500; k++) {
+				int from = random.nextInt(samples.length);
+				int count = random.nextInt(samples.length - from + 1);
+				int[] buffer = new int[count + 5];
+				channel.read(from, buffer, 5, count);
+				for (int i = 0; i < count; i++) {
+					Assert.assertEquals(samples[from + i], buffer[5 + i]);
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void extremeValuesTest(){
+		try {
+			int[] samples = {0, Integer.MAX_VALUE, Integer.MIN_VALUE, -1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 5, 5, 5};
+			CompressedChannel channel = CompressedChannel.encode(samples, 0, samples.length);
+			int[] decoded = new int[samples.length];
+			channel.read(0, decoded, 0, samples.length);
+			Assert.assertArrayEquals(samples, decoded);
+
+			int[] flat = new int[1000];
+			java.util.Arrays.fill(flat, -42);
+			CompressedChannel constant = CompressedChannel.encode(flat, 0, flat.length);
+			Assert.assertEquals(-42, constant.get(999));
+			Assert.assertTrue(constant.sizeInBytes() < 100);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void storeCompressionTest(){
+		try {
+			int length = 50000;
+			int[][] data = {ecgLike(length, 1), ecgLike(length, 2), ecgLike(length, 3)};
+			CompressedSampleStore store = CompressedSampleStore.compress(new HeapSampleStore(data, length));
+			Assert.assertEquals(3, store.getChannels());
+			Assert.assertEquals(length, store.getSamplesPerChannel());
+			for (int c = 0; c < 3; c++) {
+				int[] decoded = new int[length];
+				store.read(c, 0, decoded, 0, length);
+				Assert.assertArrayEquals(data[c], decoded);
+			}
+			long raw = 4L * 3 * length;
+			Assert.assertTrue("compressed " + store.sizeInBytes() + " of " + raw, store.sizeInBytes() * 4 <= raw);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter;
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+import edu.jhu.icm.ecgFormatConverter.cache.ConversionCache;
+import edu.jhu.icm.ecgFormatConverter.ecgz.ECGZWriter;
+
+public class ConversionCacheTest extends TempDirTest {
+
+	private File subdir(String name) {
+		File sub = new File(dir, name);
+		sub.mkdirs();
+		return sub;
+	}
+
+	private File write(File parent, String fileName, byte[] content) throws Exception {
+		File file = new File(parent, fileName);
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(content);
+		out.close();
+		return file;
+	}
+
+	private static byte[] read(File file) throws Exception {
+		return Files.readAllBytes(file.toPath());
+	}
+
+	private File writeRecord(File parent, String fileName, int samples, String[] leads) {
+		File file = new File(parent, fileName);
+		ECGZWriter writer = new ECGZWriter(file);
+		writer.setChannels(leads.length);
+		writer.setSamplesPerChannel(samples);
+		writer.setSamplingRate(500);
+		writer.setData(ecgRecord(leads.length, samples, 7));
+		writer.setLeadNames(leads);
+		Assert.assertEquals(samples, writer.write());
+		return file;
+	}
+
+	@Test
+	public void roundTripTest(){
+		try {
+			File out = subdir("out");
+			File a = write(out, "rec.dat", new byte[]{1, 2, 3});
+			File b = write(out, "rec.hea", "rec 1 500 3\n".getBytes("UTF-8"));
+			ConversionCache cache = new ConversionCache(subdir("cache"), 1000);
+			String key = ConversionCache.key(Arrays.asList(a), fileFormat.WFDB_16, "x");
+			Assert.assertNull(cache.get(key, out.getPath() + File.separator));
+			Assert.assertTrue(cache.put(key, new String[]{a.getPath(), b.getPath()}, 3));
+			Assert.assertEquals(1, cache.size());
+			Assert.assertEquals(3 + b.length(), cache.getTotalBytes());
+
+			File other = subdir("other");
+			ConversionCache.Result hit = cache.get(key, other.getPath() + File.separator);
+			Assert.assertEquals(3, hit.getRowsWritten());
+			Assert.assertEquals(2, hit.getOutputFilenames().length);
+			Assert.assertArrayEquals(read(a), read(new File(hit.getOutputFilenames()[0])));
+			Assert.assertArrayEquals(read(b), read(new File(other, "rec.hea")));
+
+			// writing over a hit's output in place must not reach the cached copy
+			write(other, "rec.dat", new byte[]{9});
+			hit = cache.get(key, subdir("third").getPath() + File.separator);
+			Assert.assertArrayEquals(new byte[]{1, 2, 3}, read(new File(hit.getOutputFilenames()[0])));
+
+			// another process sharing the directory
+			ConversionCache shared = new ConversionCache(new File(dir, "cache"), 1000);
+			Assert.assertEquals(1, shared.size());
+			String key2 = ConversionCache.key(Arrays.asList(b), fileFormat.WFDB_16, "x");
+			Assert.assertTrue(shared.put(key2, new String[]{a.getPath()}, 3));
+			Assert.assertNotNull(cache.get(key2, other.getPath() + File.separator)); // not registered at construction
+			Assert.assertEquals(2, cache.size());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void evictionAndCorruptionTest(){
+		try {
+			File out = subdir("out");
+			File cacheDir = subdir("cache");
+			ConversionCache cache = new ConversionCache(cacheDir, 250);
+			String[] keys = new String[3];
+			for (int i = 0; i < keys.length; i++) {
+				File output = write(out, "rec" + i + ".csv", new byte[100]);
+				keys[i] = ConversionCache.key(Arrays.asList(output), fileFormat.CSV, "" + i);
+				Assert.assertTrue(cache.put(keys[i], new String[]{output.getPath()}, i));
+				if (i == 1) {
+					Assert.assertNotNull(cache.get(keys[0], out.getPath() + File.separator)); // 0 is now used more recently than 1
+				}
+			}
+			Assert.assertEquals(2, cache.size());
+			Assert.assertEquals(200, cache.getTotalBytes());
+			Assert.assertNull(cache.get(keys[1], out.getPath() + File.separator)); // least recently used, evicted
+			Assert.assertFalse(new File(cacheDir, keys[1]).exists());
+
+			// a damaged entry is a miss, and is removed
+			Assert.assertTrue(new File(new File(cacheDir, keys[2]), "rec2.csv").delete());
+			Assert.assertNull(cache.get(keys[2], out.getPath() + File.separator));
+			Assert.assertFalse(new File(cacheDir, keys[2]).exists());
+			Assert.assertEquals(1, cache.size());
+			Assert.assertEquals(100, cache.getTotalBytes());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void convertHitTest(){
+		try {
+			File in = subdir("in");
+			File out = subdir("out");
+			String inputPath = in.getPath() + File.separator;
+			String outputPath = out.getPath() + File.separator;
+			writeRecord(in, "rec.ecgz", 1000, new String[]{"I", "II"});
+			writeRecord(in, "other.ecgz", 500, new String[]{"V1"});
+			ConversionCache cache = new ConversionCache(subdir("cache"), 1 << 20);
+
+			ECGformatConverter converter = new ECGformatConverter();
+			converter.setOutputCache(cache);
+			Assert.assertEquals(1000, converter.convert(fileFormat.ECGZ, fileFormat.CSV, "rec.ecgz", 0, inputPath, outputPath));
+			File csv = new File(out, "rec.csv");
+			byte[] converted = read(csv);
+			Assert.assertEquals(1, cache.size());
+
+			// load another record, then hit: none of the other record may show through the getters
+			Assert.assertEquals(500, converter.convert(fileFormat.ECGZ, fileFormat.CSV, "other.ecgz", 0, inputPath, outputPath));
+			Assert.assertTrue(csv.delete());
+			Assert.assertEquals(1000, converter.convert(fileFormat.ECGZ, fileFormat.CSV, "rec.ecgz", 0, inputPath, outputPath));
+			Assert.assertArrayEquals(converted, read(csv));
+			Assert.assertNull(converter.getData());
+			Assert.assertNull(converter.getLeadNames());
+			Assert.assertEquals(0, converter.getChannelCount());
+
+			// an uncached conversion to the same file name (other options) must leave the cached copy intact
+			converter.setPhysicalUnits(true);
+			Assert.assertEquals(1000, converter.convert(fileFormat.ECGZ, fileFormat.CSV, "rec.ecgz", 0, inputPath, outputPath));
+			Assert.assertFalse(Arrays.equals(converted, read(csv)));
+			converter.setPhysicalUnits(false);
+			Assert.assertEquals(1000, converter.convert(fileFormat.ECGZ, fileFormat.CSV, "rec.ecgz", 0, inputPath, outputPath));
+			Assert.assertArrayEquals(converted, read(csv));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
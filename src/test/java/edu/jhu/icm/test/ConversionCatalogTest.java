@@ -0,0 +1,113 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+import edu.jhu.icm.ecgFormatConverter.batch.ConversionCatalog;
+import edu.jhu.icm.ecgFormatConverter.batch.ConversionCatalog.Status;
+
+public class ConversionCatalogTest extends TempDirTest {
+
+	private File write(String fileName, String content) throws Exception {
+		File file = new File(dir, fileName);
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(content.getBytes("UTF-8"));
+		out.close();
+		return file;
+	}
+
+	@Test
+	public void skipTest(){
+		try {
+			File input = write("rec.xml", "<RestingECG/>");
+			File dat = write("rec.dat", "d");
+			File hea = write("rec.hea", "h");
+			File catalogFile = new File(dir, "catalog.txt");
+
+			ConversionCatalog catalog = new ConversionCatalog(catalogFile);
+			Assert.assertFalse(catalog.isUpToDate(input, fileFormat.WFDB_16)); // never converted
+			catalog.record(input, fileFormat.MUSEXML, fileFormat.WFDB_16, Status.CONVERTED, new String[]{dat.getPath(), hea.getPath()});
+			Assert.assertTrue(catalog.isUpToDate(input, fileFormat.WFDB_16));
+			Assert.assertFalse(catalog.isUpToDate(input, fileFormat.CSV)); // other output format
+			catalog.close();
+
+			// a later run reads the catalog back, the input is touched but its content is the same
+			Assert.assertTrue(input.setLastModified(input.lastModified() - 60000));
+			catalog = new ConversionCatalog(catalogFile);
+			Assert.assertEquals(1, catalog.size());
+			Assert.assertTrue(catalog.isUpToDate(input, fileFormat.WFDB_16));
+			Assert.assertEquals(2, catalog.getEntry(input).getOutputs().length);
+			catalog.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void wfdbSignalFileTest(){
+		try {
+			File hea = write("rec.hea", "rec 2 500 4\nrec.dat 16 200 16 0 0 0 0 I\nrec.dat 16 200 16 0 0 0 0 II\n");
+			File dat = write("rec.dat", "01234567");
+			long datTime = dat.lastModified() - 120000;
+			Assert.assertTrue(dat.setLastModified(datTime));
+			File out = write("out.csv", "o");
+			ConversionCatalog catalog = new ConversionCatalog(new File(dir, "catalog.txt"));
+			catalog.record(hea, fileFormat.WFDB_16, fileFormat.CSV, Status.CONVERTED, new String[]{out.getPath()});
+			Assert.assertTrue(catalog.isUpToDate(hea, fileFormat.CSV));
+
+			// touched, same content: the hash of both files decides
+			Assert.assertTrue(dat.setLastModified(datTime + 60000));
+			Assert.assertTrue(catalog.isUpToDate(hea, fileFormat.CSV));
+
+			// same length, new samples: only the .dat file changed
+			write("rec.dat", "76543210");
+			Assert.assertTrue(dat.setLastModified(datTime + 90000));
+			Assert.assertFalse(catalog.isUpToDate(hea, fileFormat.CSV));
+			catalog.record(hea, fileFormat.WFDB_16, fileFormat.CSV, Status.CONVERTED, new String[]{out.getPath()});
+			Assert.assertTrue(catalog.isUpToDate(hea, fileFormat.CSV));
+
+			Assert.assertTrue(dat.delete());
+			Assert.assertFalse(catalog.isUpToDate(hea, fileFormat.CSV));
+			catalog.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void retryTest(){
+		try {
+			File input = write("rec.xml", "<RestingECG/>");
+			File dat = write("rec.dat", "d");
+			ConversionCatalog catalog = new ConversionCatalog(new File(dir, "catalog.txt"));
+
+			catalog.record(input, fileFormat.MUSEXML, fileFormat.WFDB_16, Status.FAILED, null);
+			Assert.assertFalse(catalog.isUpToDate(input, fileFormat.WFDB_16));
+
+			// converted, but nothing was written: not up to date either
+			catalog.record(input, fileFormat.MUSEXML, fileFormat.WFDB_16, Status.CONVERTED, null);
+			Assert.assertFalse(catalog.isUpToDate(input, fileFormat.WFDB_16));
+			catalog.record(input, fileFormat.MUSEXML, fileFormat.WFDB_16, Status.CONVERTED, new String[0]);
+			Assert.assertFalse(catalog.isUpToDate(input, fileFormat.WFDB_16));
+
+			catalog.record(input, fileFormat.MUSEXML, fileFormat.WFDB_16, Status.CONVERTED, new String[]{dat.getPath()});
+			Assert.assertTrue(catalog.isUpToDate(input, fileFormat.WFDB_16));
+			Assert.assertTrue(dat.delete()); // output removed
+			Assert.assertFalse(catalog.isUpToDate(input, fileFormat.WFDB_16));
+
+			dat = write("rec.dat", "d");
+			write("rec.xml", "<RestingECG></RestingECG>"); // input changed
+			Assert.assertFalse(catalog.isUpToDate(input, fileFormat.WFDB_16));
+			catalog.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package edu.jhu.icm.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.ecgz.ECGZWriter;
+import edu.jhu.icm.ecgFormatConverter.server.ConversionServer;
+
+public class ConversionServerTest extends TempDirTest {
+
+	ConversionServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ConversionServer(1, 4, 0); // one worker, so every request reuses the same converter
+		server.start(0);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop(10);
+	}
+
+	/** Sends a request; returns the status code followed by the response body. */
+	private String request(String method, String path, String form) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+		connection.setRequestMethod(method);
+		if (form != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			OutputStream out = connection.getOutputStream();
+			out.write(form.getBytes("UTF-8"));
+			out.close();
+		}
+		int status = connection.getResponseCode();
+		InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while (in != null && (n = in.read(buffer)) > 0) {
+			body.write(buffer, 0, n);
+		}
+		connection.disconnect();
+		return status + " " + body.toString("UTF-8");
+	}
+
+	/** Posts form to /convert with the given Host and Origin (null to leave out), which HttpURLConnection does not
+	 * let a caller set; returns the status line. */
+	private String post(String host, String origin, String form) throws Exception {
+		Socket socket = new Socket("127.0.0.1", server.getPort());
+		try {
+			byte[] body = form.getBytes("UTF-8");
+			StringBuilder sb = new StringBuilder("POST /convert HTTP/1.1\r\n");
+			if (host != null) {
+				sb.append("Host: ").append(host).append("\r\n");
+			}
+			if (origin != null) {
+				sb.append("Origin: ").append(origin).append("\r\n");
+			}
+			sb.append("Content-Type: application/x-www-form-urlencoded\r\n");
+			sb.append("Content-Length: ").append(body.length).append("\r\nConnection: close\r\n\r\n");
+			OutputStream out = socket.getOutputStream();
+			out.write(sb.toString().getBytes("US-ASCII"));
+			out.write(body);
+			out.flush();
+			return new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII")).readLine();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/** Writes two leads, I and II, at 500Hz. */
+	private File writeRecord(int samples) {
+		int[][] data = new int[2][samples];
+		for (int i = 0; i < samples; i++) {
+			data[0][i] = i % 100;
+			data[1][i] = -i % 50;
+		}
+		File input = new File(dir, "rec" + ECGZWriter.EXTENSION);
+		ECGZWriter writer = new ECGZWriter(input);
+		writer.setChannels(2);
+		writer.setSamplesPerChannel(samples);
+		writer.setSamplingRate(500);
+		writer.setData(data);
+		writer.setLeadNames(new String[]{"I", "II"});
+		Assert.assertEquals(samples, writer.write());
+		return input;
+	}
+
+	private static String firstLine(File file) throws Exception {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			return in.readLine();
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void convertTest(){
+		try {
+			int samples = 5000;
+			File input = writeRecord(samples);
+
+			String form = "input=" + URLEncoder.encode(input.getPath(), "UTF-8") + "&output=" + URLEncoder.encode(dir.getPath(), "UTF-8")
+					+ "&format=csv&start=1&duration=2";
+			String response = request("POST", "/convert", form);
+			Assert.assertTrue(response, response.startsWith("200 1000\n"));
+			Assert.assertTrue(response, new File(dir, "rec.csv").isFile());
+
+			// the worker's converter is reused, the previous request's window must not stick
+			response = request("POST", "/convert", "input=" + URLEncoder.encode(input.getPath(), "UTF-8")
+					+ "&output=" + URLEncoder.encode(dir.getPath(), "UTF-8") + "&format=TSV");
+			Assert.assertTrue(response, response.startsWith("200 " + samples + "\n"));
+
+			String status = request("GET", "/status", null);
+			Assert.assertTrue(status, status.contains("completed 2\n"));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void leadNamesTest(){
+		try {
+			File named = writeRecord(1000);
+			File unnamed = new File(dir, "xy.txt"); // XY files have no lead names
+			FileWriter out = new FileWriter(unnamed);
+			for (int row = 0; row < 100; row++) {
+				out.write((2 * row) + "," + row + "," + (-row) + "\n");
+			}
+			out.close();
+			File outputDir = new File(dir, "out");
+			Assert.assertTrue(outputDir.mkdir());
+			String output = "&output=" + URLEncoder.encode(outputDir.getPath(), "UTF-8") + "&format=CSV";
+
+			String response = request("POST", "/convert", "input=" + URLEncoder.encode(named.getPath(), "UTF-8") + output);
+			Assert.assertTrue(response, response.startsWith("200 1000\n"));
+			Assert.assertEquals("Time,I,II", firstLine(new File(outputDir, "rec.csv")));
+
+			response = request("POST", "/convert", "input=" + URLEncoder.encode(unnamed.getPath(), "UTF-8")
+					+ "&inputFormat=RAW_XY_CONST_SAMPLE" + output);
+			Assert.assertTrue(response, response.startsWith("200 100\n"));
+			Assert.assertEquals("Time,Channel1,Channel2", firstLine(new File(outputDir, "xy.csv")));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void badRequestTest(){
+		try {
+			Assert.assertTrue(request("POST", "/convert", "format=CSV").startsWith("400 Missing parameter: input"));
+			File missing = new File(dir, "missing.rdt");
+			Assert.assertTrue(request("POST", "/convert?input=" + URLEncoder.encode(missing.getPath(), "UTF-8") + "&output=x&format=CSV", null)
+					.startsWith("400 Input file not found"));
+			Assert.assertTrue(request("GET", "/convert", null).startsWith("405"));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void crossSiteTest(){
+		try {
+			File input = writeRecord(1000);
+			String form = "input=" + URLEncoder.encode(input.getPath(), "UTF-8") + "&output=" + URLEncoder.encode(dir.getPath(), "UTF-8") + "&format=CSV";
+			int port = server.getPort();
+
+			// a form post from a web page, and a DNS rebinding page whose host name resolves to the loopback address
+			Assert.assertEquals("HTTP/1.1 403 Forbidden", post("127.0.0.1:" + port, "http://example.com", form));
+			Assert.assertEquals("HTTP/1.1 403 Forbidden", post("example.com:" + port, null, form));
+			Assert.assertEquals("HTTP/1.1 403 Forbidden", post("localhost.example.com", null, form));
+			Assert.assertFalse(new File(dir, "rec.csv").exists());
+
+			Assert.assertEquals("HTTP/1.1 200 OK", post("localhost:" + port, null, form));
+			Assert.assertEquals("HTTP/1.1 200 OK", post("[::1]:" + port, null, form));
+			Assert.assertTrue(new File(dir, "rec.csv").isFile());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package edu.jhu.icm.test;
+
+import org.jfree.data.xy.XYDataset;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.parser.DecimatedXYDataset;
+import edu.jhu.icm.parser.DrawEcg;
+
+public class DecimatedXYDatasetTest {
+
+	private static final int WIDTH = DrawEcg.PLOT_WIDTH;
+
+	/** One series per lead, x in milliseconds at 500Hz. */
+	private static XYSeriesCollection dataset(int[][] leads) {
+		XYSeriesCollection dataset = new XYSeriesCollection();
+		for (int c = 0; c < leads.length; c++) {
+			XYSeries series = new XYSeries("lead " + c);
+			for (int i = 0; i < leads[c].length; i++) {
+				series.add(i * 2.0, leads[c][i]);
+			}
+			dataset.addSeries(series);
+		}
+		return dataset;
+	}
+
+	@Test
+	public void minMaxTest(){
+		try {
+			int samples = 30000; // 60 seconds, 25 samples per pixel column
+			int[][] leads = TempDirTest.ecgRecord(2, samples, 7);
+			leads[1][12345] = 5000; // a single sample spike must survive
+			leads[1][23456] = -5000;
+			XYSeriesCollection source = dataset(leads);
+			XYDataset decimated = new DecimatedXYDataset(source, WIDTH);
+
+			Assert.assertEquals(2, decimated.getSeriesCount());
+			for (int s = 0; s < 2; s++) {
+				int count = decimated.getItemCount(s);
+				Assert.assertTrue("items " + count, count <= 2 * WIDTH);
+				Assert.assertTrue("items " + count, count >= WIDTH);
+				for (int i = 1; i < count; i++) {
+					Assert.assertTrue(decimated.getXValue(s, i - 1) < decimated.getXValue(s, i)); // original order
+				}
+
+				// the min and max of every column's items are among the kept items of that column
+				int item = 0;
+				for (int column = 0; column < WIDTH; column++) {
+					int from = (int) ((long) column * samples / WIDTH);
+					int to = (int) ((long) (column + 1) * samples / WIDTH);
+					double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+					for (int i = from; i < to; i++) {
+						min = Math.min(min, leads[s][i]);
+						max = Math.max(max, leads[s][i]);
+					}
+					double keptMin = Double.MAX_VALUE, keptMax = -Double.MAX_VALUE;
+					while (item < count && decimated.getXValue(s, item) < to * 2.0) {
+						Assert.assertTrue(decimated.getXValue(s, item) >= from * 2.0);
+						// a kept item is a source item, x and y unchanged
+						Assert.assertEquals(leads[s][(int) (decimated.getXValue(s, item) / 2)], decimated.getYValue(s, item), 0);
+						keptMin = Math.min(keptMin, decimated.getYValue(s, item));
+						keptMax = Math.max(keptMax, decimated.getYValue(s, item));
+						item++;
+					}
+					Assert.assertEquals("column " + column + " min", min, keptMin, 0);
+					Assert.assertEquals("column " + column + " max", max, keptMax, 0);
+				}
+				Assert.assertEquals(count, item);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void passThroughTest(){
+		try {
+			// a 2 second strip (1000 samples) and exactly two items per column, both shorter than the limit
+			int[][] leads = new int[][]{TempDirTest.ecgRecord(1, 1000, 3)[0], TempDirTest.ecgRecord(1, 2 * WIDTH, 4)[0]};
+			XYSeriesCollection source = dataset(leads);
+			XYDataset decimated = new DecimatedXYDataset(source, WIDTH);
+
+			for (int s = 0; s < leads.length; s++) {
+				Assert.assertEquals(source.getItemCount(s), decimated.getItemCount(s));
+				for (int i = 0; i < leads[s].length; i++) {
+					Assert.assertEquals(source.getXValue(s, i), decimated.getXValue(s, i), 0);
+					Assert.assertEquals(source.getYValue(s, i), decimated.getYValue(s, i), 0);
+				}
+			}
+			Assert.assertEquals(source.getSeriesKey(1), decimated.getSeriesKey(1));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
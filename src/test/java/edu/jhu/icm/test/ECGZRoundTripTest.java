@@ -0,0 +1,178 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+import edu.jhu.icm.ecgFormatConverter.FormatDetector;
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
+import edu.jhu.icm.ecgFormatConverter.ecgz.ECGZReader;
+import edu.jhu.icm.ecgFormatConverter.ecgz.ECGZWriter;
+
+public class ECGZRoundTripTest extends TempDirTest {
+
+	private static final String[] LEADS = {"I", "II", "III", "aVR", "aVL", "aVF", "V1", "V2", "V3", "V4", "V5", "V6"};
+
+	private File write(String name, int[][] data, int samples) {
+		File file = new File(dir, name + ECGZWriter.EXTENSION);
+		ECGZWriter writer = new ECGZWriter(file);
+		writer.setChannels(data.length);
+		writer.setSamplesPerChannel(samples);
+		writer.setSamplingRate(500);
+		writer.setAduGain(200);
+		writer.setData(data);
+		writer.setLeadNames(LEADS);
+		Assert.assertEquals(samples, writer.write());
+		return file;
+	}
+
+	@Test
+	public void roundTripTest(){
+		try {
+			int samples = 30001;
+			int[][] data = ecgRecord(LEADS.length, samples, 11);
+			File file = write("rec", data, samples);
+
+			ECGZReader reader = new ECGZReader(file);
+			Assert.assertTrue(reader.parse());
+			Assert.assertEquals(12, reader.getChannels());
+			Assert.assertEquals(samples, reader.getSamplesPerChannel());
+			Assert.assertEquals(500, reader.getSamplingRate(), 0);
+			Assert.assertEquals(200, reader.getAduGain());
+			Assert.assertEquals("aVR", reader.getLeadNames().get(3));
+			for (int c = 0; c < 12; c++) {
+				Assert.assertArrayEquals(data[c], reader.getData()[c]);
+			}
+			// at least 3 times smaller than 2 bytes per sample (WFDB format 16)
+			Assert.assertTrue("size " + file.length(), file.length() * 3 < 2L * 12 * samples);
+
+			RecordMetadata metadata = new ECGZReader().probe(file.getPath());
+			Assert.assertEquals(12, metadata.getChannels());
+			Assert.assertEquals(samples, metadata.getSamplesPerChannel());
+			Assert.assertEquals(fileFormat.ECGZ, FormatDetector.detect(file).getFormat());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void windowAndLeadsTest(){
+		try {
+			int samples = 20000;
+			int[][] data = ecgRecord(LEADS.length, samples, 11);
+			File file = write("win", data, samples);
+
+			ECGZReader reader = new ECGZReader(file);
+			reader.setLeadSelection(LeadSelection.byName("V5", "II"));
+			reader.setTimeWindow(new TimeWindow(9.5, 2)); // samples 4750 to 5750, across a block boundary
+			Assert.assertTrue(reader.parse());
+			Assert.assertEquals(2, reader.getChannels());
+			Assert.assertEquals(1000, reader.getSamplesPerChannel());
+			Assert.assertEquals("V5", reader.getLeadNames().get(0));
+			for (int i = 0; i < 1000; i++) {
+				Assert.assertEquals(data[10][4750 + i], reader.getData()[0][i]);
+				Assert.assertEquals(data[1][4750 + i], reader.getData()[1][i]);
+			}
+
+			// none of the selected leads is in the file: the load fails instead of reading all of them
+			reader = new ECGZReader(file);
+			reader.setLeadSelection(LeadSelection.byName("V9", "-aVR"));
+			Assert.assertFalse(reader.parse());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void extremeValuesTest(){
+		try {
+			int samples = 9000;
+			Random random = new Random(5);
+			int[][] data = new int[2][samples];
+			for (int i = 0; i < samples; i++) {
+				data[0][i] = random.nextInt(); // no correlation at all, every residual escapes
+				data[1][i] = (i % 3 == 0) ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+			}
+			File file = write("extreme", data, samples);
+			ECGZReader reader = new ECGZReader(file);
+			Assert.assertTrue(reader.parse());
+			Assert.assertArrayEquals(data[0], reader.getData()[0]);
+			Assert.assertArrayEquals(data[1], reader.getData()[1]);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void corruptFileTest(){
+		try {
+			File file = write("good", ecgRecord(2, 9000, 3), 9000);
+			byte[] good = new byte[(int) file.length()];
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			raf.readFully(good);
+			raf.close();
+			Assert.assertTrue(parses(good));
+
+			ByteBuffer buffer = ByteBuffer.wrap(good);
+			int indexOffset = (int) buffer.getLong(good.length - 12);
+			int firstBlock = (int) buffer.getLong(indexOffset);
+
+			byte[] bytes = good.clone();
+			bytes[firstBlock] = 3; // predictor order
+			Assert.assertFalse(parses(bytes));
+
+			bytes = good.clone();
+			bytes[firstBlock + 1] = 40; // Rice parameter
+			Assert.assertFalse(parses(bytes));
+
+			bytes = good.clone();
+			ByteBuffer.wrap(bytes).putInt(indexOffset + 8, 2); // shorter than 4096 samples can be
+			Assert.assertFalse(parses(bytes));
+
+			bytes = good.clone();
+			ByteBuffer.wrap(bytes).putInt(indexOffset + 8, 2 + 4096 / 8); // the codes run past the end of the block
+			Assert.assertFalse(parses(bytes));
+
+			bytes = good.clone();
+			ByteBuffer.wrap(bytes).putLong(indexOffset, good.length); // block past the end of the file
+			Assert.assertFalse(parses(bytes));
+
+			bytes = good.clone();
+			ByteBuffer.wrap(bytes).putLong(good.length - 12, good.length - 100); // index offset
+			Assert.assertFalse(parses(bytes));
+
+			bytes = good.clone();
+			ByteBuffer.wrap(bytes).putInt(16, Integer.MAX_VALUE); // samples per channel, more than the index holds
+			Assert.assertFalse(parses(bytes));
+
+			// truncated, with and without the trailer
+			bytes = new byte[good.length / 2];
+			System.arraycopy(good, 0, bytes, 0, bytes.length);
+			Assert.assertFalse(parses(bytes));
+			System.arraycopy(good, good.length - 12, bytes, bytes.length - 12, 12);
+			Assert.assertFalse(parses(bytes));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	private boolean parses(byte[] bytes) throws Exception {
+		File file = new File(dir, "corrupt" + ECGZWriter.EXTENSION);
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(bytes);
+		out.close();
+		return new ECGZReader(file).parse();
+	}
+}
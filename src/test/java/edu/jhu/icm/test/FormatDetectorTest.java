@@ -0,0 +1,78 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+import edu.jhu.icm.ecgFormatConverter.FormatDetector;
+
+public class FormatDetectorTest extends TempDirTest {
+
+	@Test
+	public void xmlRootTest(){
+		try {
+			assertFormat(fileFormat.MUSEXML, "muse.xml", "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<!DOCTYPE RestingECG SYSTEM \"restecg.dtd\">\n<RestingECG>\n<MuseInfo>");
+			assertFormat(fileFormat.PHILIPS103, "p103.xml", "<?xml version=\"1.0\"?>\n<!-- exported -->\n<restingecgdata xmlns=\"http://www3.medical.philips.com\">\n<documentinfo><documentname>x</documentname><documentversion>1.03</documentversion>");
+			assertFormat(fileFormat.PHILIPS104, "p104.xml", "<?xml version=\"1.0\"?>\n<restingecgdata>\n<documentinfo><documentversion>1.04.01</documentversion>");
+			assertFormat(fileFormat.SCHILLER, "schiller.xml", "<?xml version=\"1.0\"?><SchillerEDI><patdata>");
+			assertFormat(fileFormat.HL7, "hl7.xml", "<?xml version=\"1.0\"?>\n<AnnotatedECG xmlns=\"urn:hl7-org:v3\"><id root=\"1\"/>");
+			assertFormat(null, "other.xml", "<?xml version=\"1.0\"?>\n<project><modelVersion>4.0.0</modelVersion>");
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void textFormatTest(){
+		try {
+			assertFormat(fileFormat.GEMUSE, "muse_10sec.txt", "\r\n\r\n\r\n\r\nRhythm signal: 5000 X 12 \r\n\r\n1 2 3 4 5 6 7 8 9 10 11 12 \r\n");
+			assertFormat(fileFormat.WFDB_16, "rec.hea", "# comment\nrec 2 500 5000\nrec.dat 16 200/mV 16 0 0 0 0 I\nrec.dat 16 200/mV 16 0 0 0 0 II\n");
+			assertFormat(fileFormat.WFDB_212, "100.hea", "100 2 360 650000\n100.dat 212 200 11 1024 995 -22131 0 MLII\n100.dat 212 200 11 1024 1011 20052 0 V5\n");
+			assertFormat(fileFormat.RAW_XY_CONST_SAMPLE, "const.csv", "0,10,20\n2,11,21\n4,12,22\n6,13,23\n");
+			assertFormat(fileFormat.RAW_XY_VAR_SAMPLE, "var.csv", "0,10,20\n2,11,21\n5,12,22\n6,13,23\n");
+
+			write("100.dat", new byte[]{1, 2, 3, 4});
+			Assert.assertEquals(fileFormat.WFDB_212, FormatDetector.detect(new File(dir, "100.dat")).getFormat());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void rdtTest(){
+		try {
+			// 3 channels at 500Hz, then 10 rows of 16 bit samples
+			byte[] rdt = new byte[4 + 10 * 3 * 2];
+			rdt[0] = 3;
+			rdt[2] = (byte) (500 & 0xff);
+			rdt[3] = (byte) (500 >> 8);
+			write("jhu109.rdt", rdt);
+			FormatDetector.Detection d = FormatDetector.detect(new File(dir, "jhu109.rdt"));
+			Assert.assertEquals(fileFormat.RDT, d.getFormat());
+			Assert.assertTrue(d.getConfidence() > 0.5f);
+
+			// same header, body not aligned to the channel count
+			write("bad.rdt", new byte[]{3, 0, (byte) 0xf4, 1, 0, 0, 0});
+			Assert.assertFalse(FormatDetector.detect(new File(dir, "bad.rdt")).isRecognized());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	private void assertFormat(fileFormat expected, String fileName, String content) throws Exception {
+		write(fileName, content.getBytes("ISO-8859-1"));
+		Assert.assertEquals(fileName, expected, FormatDetector.detect(new File(dir, fileName)).getFormat());
+	}
+
+	private void write(String fileName, byte[] content) throws Exception {
+		FileOutputStream out = new FileOutputStream(new File(dir, fileName));
+		out.write(content);
+		out.close();
+	}
+}
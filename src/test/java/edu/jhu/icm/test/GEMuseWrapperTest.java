@@ -0,0 +1,44 @@
+package edu.jhu.icm.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.muse.GEMuse_wrapper;
+
+public class GEMuseWrapperTest {
+
+	@Test
+	public void extraAndShortLinesTest(){
+		try {
+			GEMuse_wrapper rhythm = new GEMuse_wrapper();
+			Assert.assertTrue(rhythm.parseHeaderLine("Rhythm signal: 3 X 2"));
+			Assert.assertTrue(rhythm.parseSampleLine("10 -10"));
+			Assert.assertTrue(rhythm.parseSampleLine("7")); // too few values, ignored
+			Assert.assertTrue(rhythm.parseSampleLine(""));
+			Assert.assertTrue(rhythm.parseSampleLine("11 -11"));
+			Assert.assertTrue(rhythm.parseSampleLine("12 -12"));
+			Assert.assertTrue(rhythm.parseSampleLine("13 -13")); // beyond the 3 samples of the header, ignored
+			Assert.assertTrue(rhythm.parseSampleLine("14 -14"));
+
+			Assert.assertEquals(3, rhythm.getSamplesPerChannel());
+			Assert.assertArrayEquals(new int[]{10, 11, 12}, rhythm.getData()[0]);
+			Assert.assertArrayEquals(new int[]{-10, -11, -12}, rhythm.getData()[1]);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void badLinesTest(){
+		try {
+			GEMuse_wrapper rhythm = new GEMuse_wrapper();
+			Assert.assertFalse(rhythm.parseSampleLine("1 2")); // no header yet
+			Assert.assertTrue(rhythm.parseHeaderLine("Rhythm signal: 3 X 2"));
+			Assert.assertFalse(rhythm.parseSampleLine("1 x"));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
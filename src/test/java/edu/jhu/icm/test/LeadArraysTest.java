@@ -0,0 +1,35 @@
+package edu.jhu.icm.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.LeadArrays;
+
+public class LeadArraysTest {
+
+	@Test
+	public void toIntArrayTest(){
+		try {
+			List<Integer> lead = new ArrayList<Integer>(Arrays.asList(5, -3, 7, 0, 12));
+			Assert.assertArrayEquals(new int[]{5, -3, 7}, LeadArrays.toIntArray(lead, 3));
+			Assert.assertArrayEquals(new int[]{5, -3, 7, 0, 12, 0, 0}, LeadArrays.toIntArray(new LinkedList<Integer>(lead), 7));
+			Assert.assertArrayEquals(new int[]{7, 0, 12, 0}, LeadArrays.toIntArray(lead, 2, 4));
+			Assert.assertArrayEquals(new int[]{0, 0}, LeadArrays.toIntArray(lead, 9, 2));
+
+			@SuppressWarnings("unchecked")
+			List<Integer>[] leads = new List[]{lead, Arrays.asList(1, 2, 3, 4, 5)};
+			int[][] data = LeadArrays.toIntArrays(leads, new int[]{1, 0, 2}, 1, 2);
+			Assert.assertArrayEquals(new int[]{2, 3}, data[0]);
+			Assert.assertArrayEquals(new int[]{-3, 7}, data[1]);
+			Assert.assertArrayEquals(new int[]{0, 0}, data[2]); // no such lead
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
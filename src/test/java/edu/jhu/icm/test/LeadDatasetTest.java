@@ -0,0 +1,59 @@
+package edu.jhu.icm.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.parser.LeadDataset;
+
+public class LeadDatasetTest {
+
+	@Test
+	public void viewTest(){
+		try {
+			int[][] data = {{200, -400, 100, 0, 50}, {1, 2, 3, 4, 5, 6}};
+			LeadDataset dataset = new LeadDataset(data, 250, 200, new String[]{"I"});
+			Assert.assertEquals(2, dataset.getSeriesCount());
+			Assert.assertEquals(5, dataset.getItemCount(1)); // the shortest channel
+			Assert.assertArrayEquals(new String[]{"I", "Lead 2"}, dataset.getLeadNames());
+			Assert.assertEquals(1, dataset.indexOf("Lead 2"));
+			Assert.assertEquals(-1, dataset.indexOf("V1"));
+			Assert.assertEquals(0.02, dataset.getDuration(), 1e-12);
+			Assert.assertEquals(0.008, dataset.getXValue(0, 2), 1e-12);
+			Assert.assertEquals(1000, dataset.getYValue(0, 0), 1e-9); // 200 units at 200 units/mV
+			Assert.assertEquals(-2000, dataset.getY(0, 1).doubleValue(), 1e-9);
+
+			data[0][2] = 300; // a view, nothing is copied
+			Assert.assertEquals(1500, dataset.getYValue(0, 2), 1e-9);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void windowAndLeadViewTest(){
+		try {
+			int[][] data = {{0, 10, 20, 30, 40, 50}, {0, -10, -20, -30, -40, -50}};
+			LeadDataset dataset = new LeadDataset(data, 1000, 1000, new String[]{"II", "V5"});
+
+			LeadDataset window = dataset.getWindow(2, 3);
+			Assert.assertEquals(3, window.getItemCount(0));
+			Assert.assertEquals(0.002, window.getXValue(0, 0), 1e-12); // times stay those of the recording
+			Assert.assertEquals(-20, window.getYValue(1, 0), 1e-9);
+
+			LeadDataset inner = window.getWindow(1, 100); // relative to the window, clipped to its end
+			Assert.assertEquals(2, inner.getItemCount(0));
+			Assert.assertEquals(30, inner.getYValue(0, 0), 1e-9);
+			Assert.assertEquals(0, dataset.getWindow(10, 5).getItemCount(0));
+
+			LeadDataset[] leads = window.getLeadViews();
+			Assert.assertEquals(2, leads.length);
+			Assert.assertEquals(1, leads[1].getSeriesCount());
+			Assert.assertEquals("V5", leads[1].getSeriesKey(0));
+			Assert.assertEquals(-40, leads[1].getYValue(0, 2), 1e-9);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package edu.jhu.icm.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.enums.LeadEnum;
+import edu.jhu.icm.parser.Constants;
+
+public class LeadEnumTest {
+
+	@Test
+	public void fromAliasTest(){
+		try {
+			// case and surrounding white space are ignored
+			Assert.assertEquals(LeadEnum.AVR, LeadEnum.fromAlias("aVR"));
+			Assert.assertEquals(LeadEnum.AVR, LeadEnum.fromAlias("AVR"));
+			Assert.assertEquals(LeadEnum.AVR, LeadEnum.fromAlias("avr"));
+			Assert.assertEquals(LeadEnum.AVR, LeadEnum.fromAlias(" aVR\t"));
+			Assert.assertEquals(LeadEnum.AVR, LeadEnum.fromAlias("Lead aVR"));
+			Assert.assertEquals(LeadEnum.AVR, LeadEnum.fromAlias("LEAD_AVR"));
+			Assert.assertEquals(LeadEnum.AVR, LeadEnum.fromAlias("MDC_ECG_LEAD_AVR"));
+			Assert.assertEquals(LeadEnum.II, LeadEnum.fromAlias("MLII"));
+			Assert.assertEquals(LeadEnum.VX, LeadEnum.fromAlias("x"));
+
+			// -aVR is the inverted lead, not an alias of aVR
+			Assert.assertNull(LeadEnum.fromAlias("-aVR"));
+			Assert.assertNull(LeadEnum.fromAlias("a VR"));
+			Assert.assertNull(LeadEnum.fromAlias("V9"));
+			Assert.assertNull(LeadEnum.fromAlias(""));
+			Assert.assertNull(LeadEnum.fromAlias(null));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void normalizeTest(){
+		try {
+			Assert.assertEquals("AVR", LeadEnum.normalize("aVR"));
+			Assert.assertEquals("AVR", LeadEnum.normalize(" Lead-aVR "));
+			Assert.assertEquals("I", LeadEnum.normalize("DI"));
+			// unknown names are only trimmed and upper cased
+			Assert.assertEquals("-AVR", LeadEnum.normalize(" -aVR"));
+			Assert.assertEquals("SIGNAL 1", LeadEnum.normalize("signal 1"));
+			Assert.assertNull(LeadEnum.normalize((String) null));
+
+			Assert.assertEquals(Arrays.asList("I", "AVR", "-AVR", "V9"), LeadEnum.normalize(Arrays.asList("i", "aVR", "-aVR", "v9")));
+			Assert.assertNull(LeadEnum.normalize((List<String>) null));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void mdcCodeTest(){
+		try {
+			// the HL7 writer's constants and the enum must agree
+			Assert.assertEquals(Constants.codeI, LeadEnum.I.getMdcCode());
+			Assert.assertEquals(Constants.codeIII, LeadEnum.III.getMdcCode());
+			Assert.assertEquals(Constants.codeAVR, LeadEnum.AVR.getMdcCode());
+			Assert.assertEquals(Constants.codeAVL, LeadEnum.AVL.getMdcCode());
+			Assert.assertEquals(Constants.codeAVF, LeadEnum.AVF.getMdcCode());
+			Assert.assertEquals(Constants.codeV6, LeadEnum.V6.getMdcCode());
+			Assert.assertEquals("aVR", LeadEnum.AVR.getDisplayName());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
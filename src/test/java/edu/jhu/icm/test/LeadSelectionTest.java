@@ -0,0 +1,52 @@
+package edu.jhu.icm.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.LeadSelection;
+
+public class LeadSelectionTest {
+
+	private static final List<String> FILE_LEADS = Arrays.asList("I", "II", "aVR", "V1", "V5");
+
+	@Test
+	public void byNameTest(){
+		try {
+			// any alias, in the requested order
+			Assert.assertArrayEquals(new int[]{4, 1}, LeadSelection.resolve(LeadSelection.byName("Lead V5", "MDC_ECG_LEAD_II"), FILE_LEADS, 5));
+			Assert.assertArrayEquals(new int[]{2}, LeadSelection.resolve(LeadSelection.parse("avr, AVR"), FILE_LEADS, 5));
+			// the names which are not found are left out
+			Assert.assertArrayEquals(new int[]{3}, LeadSelection.resolve(LeadSelection.byName("V9", "V1", "III"), FILE_LEADS, 5));
+			// none found: empty, the loader fails the record
+			Assert.assertArrayEquals(new int[0], LeadSelection.resolve(LeadSelection.byName("V9", "-aVR"), FILE_LEADS, 5));
+
+			// without lead names 12 channels are taken as the standard 12 leads, other counts ignore a name selection
+			Assert.assertArrayEquals(new int[]{6, 3}, LeadSelection.resolve(LeadSelection.byName("V1", "aVR"), null, 12));
+			Assert.assertArrayEquals(new int[]{0, 1, 2}, LeadSelection.resolve(LeadSelection.byName("V1"), null, 3));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void byIndexTest(){
+		try {
+			Assert.assertArrayEquals(new int[]{0, 1, 2, 3, 4}, LeadSelection.resolve(null, FILE_LEADS, 5));
+			Assert.assertArrayEquals(new int[]{4, 0}, LeadSelection.resolve(LeadSelection.parse("4,0,4"), FILE_LEADS, 5));
+			Assert.assertArrayEquals(new int[]{1}, LeadSelection.resolve(LeadSelection.byIndex(7, 1, -1), null, 5));
+			Assert.assertArrayEquals(new int[0], LeadSelection.resolve(LeadSelection.byIndex(5, 6), null, 5));
+			Assert.assertArrayEquals(new int[]{0, 1}, LeadSelection.resolve(LeadSelection.first(2), null, 5));
+
+			Assert.assertTrue(LeadSelection.isAll(new int[]{0, 1, 2}, 3));
+			Assert.assertFalse(LeadSelection.isAll(new int[0], 3));
+			Assert.assertArrayEquals(new int[]{1, -1, 0}, LeadSelection.targets(new int[]{2, 0}, 3));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
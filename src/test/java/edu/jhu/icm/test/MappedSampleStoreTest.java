@@ -0,0 +1,67 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.store.MappedSampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStores;
+
+public class MappedSampleStoreTest extends TempDirTest {
+
+	@Test
+	public void storeTest(){
+		try {
+			int samples = 10000;
+			int[][] data = ecgRecord(3, samples, 5);
+			MappedSampleStore store = new MappedSampleStore(3, samples, dir);
+			File[] files = dir.listFiles();
+			Assert.assertEquals(1, files.length);
+			Assert.assertEquals(3L * samples * 4, files[0].length());
+			Assert.assertEquals(3, store.getChannels());
+			Assert.assertEquals(samples, store.getSamplesPerChannel());
+			Assert.assertEquals(0, store.get(2, samples - 1)); // zeroed
+
+			for (int c = 0; c < 3; c++) {
+				store.write(c, 0, data[c], 0, 4000);
+				for (int i = 4000; i < samples; i++) {
+					store.set(c, i, data[c][i]);
+				}
+			}
+			int[] buffer = new int[samples + 2];
+			for (int c = 0; c < 3; c++) {
+				store.read(c, 0, buffer, 2, samples);
+				for (int i = 0; i < samples; i++) {
+					Assert.assertEquals(data[c][i], buffer[i + 2]);
+				}
+				Assert.assertEquals(data[c][1234], store.get(c, 1234));
+			}
+			store.read(1, samples - 5, buffer, 0, 5); // the end of one channel does not run into the next
+			Assert.assertEquals(data[1][samples - 1], buffer[4]);
+
+			store.close();
+			Assert.assertFalse(files[0].exists()); // deleted at once, not on exit
+			Assert.assertEquals(0, dir.listFiles().length);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void allocateTest(){
+		try {
+			SampleStore mapped = SampleStores.allocate(2, 1000, 1999);
+			Assert.assertTrue(mapped instanceof MappedSampleStore);
+			mapped.close();
+			SampleStore heap = SampleStores.allocate(2, 1000, 2000);
+			Assert.assertFalse(heap instanceof MappedSampleStore);
+			heap.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package edu.jhu.icm.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.zip.ParallelZipWriter;
+
+public class ParallelZipWriterTest extends TempDirTest {
+
+	byte[][] contents;
+
+	@Before
+	public void setUp() throws Exception {
+
+		Random random = new Random(42);
+		contents = new byte[12][];
+		for (int i = 0; i < contents.length; i++) {
+			// a mix of empty, small and multi-megabyte entries
+			contents[i] = new byte[i == 0 ? 0 : (i % 4 == 0 ? 3000000 : 1000 * i)];
+			for (int j = 0; j < contents[i].length; j++) {
+				contents[i][j] = (byte) ('0' + random.nextInt(10));
+			}
+			FileOutputStream out = new FileOutputStream(new File(dir, "rec" + i + ".dat"));
+			out.write(contents[i]);
+			out.close();
+		}
+	}
+
+	@Test
+	public void roundTripTest(){
+
+		try {
+			String zipFileName = new File(dir, "bundle.zip").getPath();
+
+			ParallelZipWriter writer = new ParallelZipWriter(zipFileName, 6, 4);
+			for (int i = 0; i < contents.length; i++) {
+				writer.addFile("records/rec" + i + ".dat", new File(dir, "rec" + i + ".dat").getPath());
+			}
+			Assert.assertEquals(contents.length, writer.finish());
+			Assert.assertEquals(contents.length + 1, dir.list().length); // the temp file was renamed
+
+			ZipFile zip = new ZipFile(zipFileName);
+			try {
+				for (int i = 0; i < contents.length; i++) {
+					ZipEntry entry = zip.getEntry("records/rec" + i + ".dat");
+					Assert.assertNotNull("missing entry " + i, entry);
+					Assert.assertEquals(contents[i].length, entry.getSize());
+					Assert.assertArrayEquals(contents[i], read(zip.getInputStream(entry)));
+				}
+			} finally {
+				zip.close();
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void storedLevelTest(){
+
+		try {
+			String zipFileName = new File(dir, "stored.zip").getPath();
+
+			ParallelZipWriter writer = new ParallelZipWriter(zipFileName, 0, 2);
+			writer.addFile("rec5.dat", new File(dir, "rec5.dat").getPath());
+			writer.finish();
+
+			ZipFile zip = new ZipFile(zipFileName);
+			try {
+				Assert.assertArrayEquals(contents[5], read(zip.getInputStream(zip.getEntry("rec5.dat"))));
+			} finally {
+				zip.close();
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void failureCleanupTest(){
+
+		try {
+			// entries over 8MB are compressed into temp files, which must not outlive a failed archive
+			byte[] big = new byte[9 * 1024 * 1024];
+			for (int i = 0; i < 3; i++) {
+				FileOutputStream out = new FileOutputStream(new File(dir, "big" + i + ".dat"));
+				out.write(big);
+				out.close();
+			}
+			int spillFilesBefore = spillFiles();
+
+			ParallelZipWriter writer = new ParallelZipWriter(new File(dir, "failed.zip").getPath(), 1, 4);
+			writer.addFile("missing.dat", new File(dir, "missing.dat").getPath());
+			for (int i = 0; i < 3; i++) {
+				writer.addFile("big" + i + ".dat", new File(dir, "big" + i + ".dat").getPath());
+			}
+			try {
+				writer.finish();
+				Assert.fail("finish() should fail on the missing file");
+			} catch (IOException e) {
+				// expected
+			}
+			Assert.assertEquals(spillFilesBefore, spillFiles());
+			// no partial archive at the destination, nor its temp file
+			Assert.assertFalse(new File(dir, "failed.zip").exists());
+			Assert.assertEquals(contents.length + 3, dir.list().length);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	private static int spillFiles() throws IOException {
+		File probe = File.createTempFile("pzip", ".probe");
+		probe.delete();
+		String[] names = probe.getParentFile().list();
+		int count = 0;
+		for (String name : names) {
+			if (name.startsWith("pzip") && name.endsWith(".deflate")) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static byte[] read(InputStream in) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, count);
+		}
+		in.close();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,102 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.wfdb.ApplicationWrapper;
+import edu.jhu.icm.ecgFormatConverter.wfdb.ProcessRunner;
+
+/** Runs standard POSIX tools (yes, head, touch, false, sh). */
+public class ProcessRunnerTest extends TempDirTest {
+
+	/** Runs a command line the way the WFDB wrapper does. */
+	private static class CommandWrapper extends ApplicationWrapper {
+		int lines;
+
+		boolean run(String command) throws Exception {
+			lines = 0;
+			return executeCommand(command, null, null, new ProcessRunner.LineConsumer() {
+				public void line(byte[] buffer, int offset, int length) {
+					lines++;
+				}
+			}) && stdErrorHandler();
+		}
+
+		protected void processReturnLine(String line) {
+		}
+	}
+
+	private String script(String name, String content) throws Exception {
+		File file = new File(dir, name);
+		FileWriter out = new FileWriter(file);
+		out.write(content);
+		out.close();
+		return file.getPath();
+	}
+
+	@Test
+	public void brokenPipeTest(){
+		try {
+			// head exits after 5 lines, yes then writes into a closed pipe
+			ProcessRunner runner = new ProcessRunner("yes").pipeTo("head", "-n", "5");
+			final int[] lines = {0};
+			runner.setStdoutConsumer(ProcessRunner.lines(new ProcessRunner.LineConsumer() {
+				public void line(byte[] buffer, int offset, int length) {
+					Assert.assertEquals("y", new String(buffer, offset, length));
+					lines[0]++;
+				}
+			}));
+			runner.setTimeout(60000);
+			Assert.assertEquals(0, runner.run());
+			Assert.assertEquals(5, lines[0]);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void cancelBeforeStartTest(){
+		try {
+			File touched = new File(dir, "touched");
+			ProcessRunner runner = new ProcessRunner("touch", touched.getPath());
+			runner.cancel();
+			try {
+				runner.run();
+				Assert.fail("a cancelled runner must not start");
+			} catch (CancellationException e) {
+				// expected
+			}
+			Thread.sleep(100);
+			Assert.assertFalse(touched.exists());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void exitStatusTest(){
+		try {
+			CommandWrapper wrapper = new CommandWrapper();
+			Assert.assertTrue(wrapper.run("yes | head -n 3"));
+			Assert.assertEquals(3, wrapper.lines);
+			Assert.assertFalse(wrapper.run("false")); // no stderr, but a non-zero exit status
+
+			// notices on stderr (rdsamp: a missing annotation file ...) do not fail a command which exits with 0
+			Assert.assertTrue(wrapper.run("sh " + script("notice.sh", "echo 'init: can not open annotation file' >&2\necho 1\necho 2\n")));
+			Assert.assertEquals(2, wrapper.lines);
+			Assert.assertFalse(wrapper.run("sh " + script("error.sh", "echo failed >&2\nexit 3\n")));
+
+			wrapper.setCommandTimeout(200);
+			Assert.assertFalse(wrapper.run("yes")); // never ends, destroyed by the timeout
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.hl7.HL7_wrapper;
+import edu.jhu.icm.ecgFormatConverter.muse.MuseXML_wrapper;
+import edu.jhu.icm.ecgFormatConverter.philips.Philips103_wrapper;
+import edu.jhu.icm.ecgFormatConverter.philips.Philips104_wrapper;
+
+public class RecordProbeTest extends TempDirTest {
+
+	@Test
+	public void museXMLTest(){
+		try {
+			StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<!DOCTYPE RestingECG SYSTEM \"restecg.dtd\">\n<RestingECG>\n");
+			// the Median waveform comes first and must not be counted
+			xml.append("<Waveform><WaveformType>Median</WaveformType><SampleBase>500</SampleBase>");
+			xml.append(leadData("I", 600, "4.88"));
+			xml.append("</Waveform>\n");
+			xml.append("<Waveform><WaveformType>Rhythm</WaveformType><SampleBase>250</SampleBase>");
+			for (String lead : new String[]{"I", "II", "V1", "V2", "V3", "V4", "V5", "V6"}) {
+				xml.append(leadData(lead, 2500, "4.88"));
+			}
+			xml.append("</Waveform>\n</RestingECG>\n");
+			write("muse.xml", xml.toString());
+
+			RecordMetadata metadata = new MuseXML_wrapper().probe(new File(dir, "muse.xml").getPath());
+			Assert.assertNotNull(metadata);
+			// III, aVR, aVL and aVF are derived from I and II, after them
+			Assert.assertEquals(12, metadata.getChannels());
+			Assert.assertEquals(Arrays.asList("I", "II", "III", "AVR", "AVL", "AVF", "V1", "V2", "V3", "V4", "V5", "V6"), metadata.getLeadNames());
+			Assert.assertEquals(250f, metadata.getSamplingRate(), 0f);
+			Assert.assertEquals(2500, metadata.getSamplesPerChannel());
+			Assert.assertEquals(205, metadata.getAduGain()); // 1000 / 4.88 uV per bit
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void hl7Test(){
+		try {
+			String xml = "<?xml version=\"1.0\"?>\n<AnnotatedECG xmlns=\"urn:hl7-org:v3\"><component><series><component><sequenceSet>\n"
+					+ "<component><sequence><code code=\"TIME_ABSOLUTE\"/><value><head value=\"20020101\"/><increment value=\"0.002\" unit=\"s\"/></value></sequence></component>\n"
+					+ "<component><sequence><code code=\"MDC_ECG_LEAD_I\"/><value><origin value=\"0\" unit=\"uV\"/><scale value=\"5\" unit=\"uV\"/>"
+					+ "<digits>12 -4  7\n\t103 0 -22 5</digits></value></sequence></component>\n"
+					+ "<component><sequence><code code=\"MDC_ECG_LEAD_AVR\"/><value><digits>1 2 3</digits></value></sequence></component>\n"
+					+ "</sequenceSet></component></series></component>\n"
+					+ "<component><sequenceSet><component><sequence><code code=\"MDC_ECG_LEAD_V1\"/></sequence></component></sequenceSet></component>\n"
+					+ "</AnnotatedECG>\n";
+			write("hl7.xml", xml);
+
+			RecordMetadata metadata = new HL7_wrapper().probe(new File(dir, "hl7.xml").getPath());
+			Assert.assertNotNull(metadata);
+			// only the first sequenceSet, the sample count is the number of digits in the first lead
+			Assert.assertEquals(2, metadata.getChannels());
+			Assert.assertEquals(Arrays.asList("I", "AVR"), metadata.getLeadNames());
+			Assert.assertEquals(500f, metadata.getSamplingRate(), 0.01f);
+			Assert.assertEquals(7, metadata.getSamplesPerChannel());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void philipsTest(){
+		try {
+			String xml = "<?xml version=\"1.0\"?>\n<restingecgdata xmlns=\"http://www3.medical.philips.com\">\n"
+					+ "<dataacquisition><signalcharacteristics><samplingrate>250</samplingrate>"
+					+ "<numberchannelsvalid>3</numberchannelsvalid></signalcharacteristics></dataacquisition>\n"
+					+ "<waveforms><parsedwaveforms durationperchannel=\"10000\" leadlabels=\"I II aVR V1\">"
+					+ "AAECAwQFBgcICQ==</parsedwaveforms></waveforms>\n</restingecgdata>\n";
+			write("philips.xml", xml);
+
+			// both versions share the probe, samples = durationperchannel (ms) * samplingrate
+			RecordMetadata[] probes = new RecordMetadata[]{
+					new Philips103_wrapper().probe(new File(dir, "philips.xml").getPath()),
+					new Philips104_wrapper().probe(new File(dir, "philips.xml").getPath())};
+			for (RecordMetadata metadata : probes) {
+				Assert.assertNotNull(metadata);
+				Assert.assertEquals(3, metadata.getChannels());
+				Assert.assertEquals(Arrays.asList("I", "II", "AVR"), metadata.getLeadNames());
+				Assert.assertEquals(250f, metadata.getSamplingRate(), 0f);
+				Assert.assertEquals(2500, metadata.getSamplesPerChannel());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	private static String leadData(String lead, int samples, String unitsPerBit) {
+		return "<LeadData><LeadByteCountTotal>" + (samples * 2) + "</LeadByteCountTotal>"
+				+ "<LeadSampleCountTotal>" + samples + "</LeadSampleCountTotal>"
+				+ "<LeadAmplitudeUnitsPerBit>" + unitsPerBit + "</LeadAmplitudeUnitsPerBit>"
+				+ "<LeadID>" + lead + "</LeadID>"
+				+ "<WaveFormData>AAECAwQFBgcICQ==\nAAECAwQFBgcICQ==</WaveFormData></LeadData>";
+	}
+
+	private void write(String fileName, String content) throws Exception {
+		FileOutputStream out = new FileOutputStream(new File(dir, fileName));
+		out.write(content.getBytes("ISO-8859-1"));
+		out.close();
+	}
+}
@@ -0,0 +1,153 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter;
+import edu.jhu.icm.ecgFormatConverter.ECGformatConverter.fileFormat;
+import edu.jhu.icm.ecgFormatConverter.rdt.RDTParser;
+import edu.jhu.icm.ecgFormatConverter.store.BufferArena;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStore;
+import edu.jhu.icm.ecgFormatConverter.store.SampleStores;
+import edu.jhu.icm.ecgFormatConverter.store.SegmentedIntArray;
+import edu.jhu.icm.ecgFormatConverter.store.SegmentedSampleStore;
+
+public class SegmentedSampleStoreTest extends TempDirTest {
+
+	@Test
+	public void segmentedIntArrayTest(){
+		try {
+			int length = 2 * SegmentedIntArray.CHUNK_SIZE + 100; // the last chunk is partly used
+			SegmentedIntArray array = new SegmentedIntArray(length);
+			Assert.assertEquals(length, array.length());
+			int[] values = new int[length];
+			for (int i = 0; i < length; i++) {
+				values[i] = i * 7 - 50000;
+			}
+			array.write(0, values, 0, length);
+			Assert.assertEquals(values[SegmentedIntArray.CHUNK_SIZE - 1], array.get(SegmentedIntArray.CHUNK_SIZE - 1));
+			Assert.assertEquals(values[SegmentedIntArray.CHUNK_SIZE], array.get(SegmentedIntArray.CHUNK_SIZE));
+			Assert.assertEquals(values[length - 1], array.get(length - 1));
+
+			// a run across a chunk boundary, into an offset
+			int from = SegmentedIntArray.CHUNK_SIZE - 10;
+			int[] buffer = new int[33];
+			array.read(from, buffer, 3, 30);
+			for (int i = 0; i < 30; i++) {
+				Assert.assertEquals(values[from + i], buffer[3 + i]);
+			}
+			array.set(SegmentedIntArray.CHUNK_SIZE, 42);
+			Assert.assertEquals(42, array.get(SegmentedIntArray.CHUNK_SIZE));
+			array.write(from, new int[]{1, 2, 3, 4}, 1, 3);
+			Assert.assertEquals(2, array.get(from));
+			Assert.assertEquals(values[from + 3], array.get(from + 3));
+
+			try {
+				array.read(length - 5, buffer, 0, 6);
+				Assert.fail("reading past the end");
+			} catch (ArrayIndexOutOfBoundsException e) {
+				// expected
+			}
+			Assert.assertEquals(0, new SegmentedIntArray(0).length());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void reusedChunksTest(){
+		try {
+			BufferArena arena = BufferArena.current();
+			arena.open();
+			try {
+				SegmentedIntArray array = new SegmentedIntArray(SegmentedIntArray.CHUNK_SIZE);
+				for (int i = 0; i < array.length(); i++) {
+					array.set(i, -1);
+				}
+			} finally {
+				arena.close();
+			}
+			arena.open();
+			try {
+				SegmentedIntArray array = new SegmentedIntArray(SegmentedIntArray.CHUNK_SIZE); // gets the chunk back, zeroed
+				for (int i = 0; i < array.length(); i++) {
+					Assert.assertEquals(0, array.get(i));
+				}
+			} finally {
+				arena.close();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void storeTest(){
+		try {
+			int samples = 40000;
+			SampleStore store = SampleStores.allocate(3, samples, SampleStores.NEVER, samples - 1);
+			Assert.assertTrue(store instanceof SegmentedSampleStore);
+			Assert.assertFalse(SampleStores.allocate(3, samples, SampleStores.NEVER, samples) instanceof SegmentedSampleStore);
+			Assert.assertEquals(3, store.getChannels());
+			Assert.assertEquals(samples, store.getSamplesPerChannel());
+
+			int[][] data = ecgRecord(3, samples, 6);
+			for (int c = 0; c < 3; c++) {
+				store.write(c, 0, data[c], 0, samples);
+			}
+			store.set(1, 20000, 12345);
+			data[1][20000] = 12345;
+			int[] buffer = new int[samples];
+			for (int c = 0; c < 3; c++) {
+				store.read(c, 0, buffer, 0, samples);
+				Assert.assertArrayEquals(data[c], buffer);
+				Assert.assertEquals(data[c][samples - 1], store.get(c, samples - 1));
+			}
+			Assert.assertEquals(samples, ((SegmentedSampleStore) store).getChannel(2).length());
+			store.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void convertTest(){
+		try {
+			int samples = 3 * SegmentedIntArray.CHUNK_SIZE;
+			RDTParser rdt = new RDTParser(new File(dir, "rec.rdt"));
+			rdt.setChannels(2);
+			rdt.setSamplesPerChannel(samples);
+			rdt.setSamplingRate(500);
+			rdt.setData(ecgRecord(2, samples, 8));
+			Assert.assertEquals(samples, rdt.writeRDT());
+			String path = dir.getPath() + File.separator;
+
+			ECGformatConverter converter = new ECGformatConverter();
+			Assert.assertEquals(samples, converter.convert(fileFormat.RDT, fileFormat.CSV, "rec.rdt", 0, path, path));
+			byte[] plain = Files.readAllBytes(new File(dir, "rec.csv").toPath());
+
+			converter.setSegmentThreshold(SegmentedIntArray.CHUNK_SIZE);
+			Assert.assertEquals(samples, converter.convert(fileFormat.RDT, fileFormat.CSV, "rec.rdt", 0, path, path));
+			Assert.assertTrue(Arrays.equals(plain, Files.readAllBytes(new File(dir, "rec.csv").toPath())));
+			// the chunks went back to the arena with the end of convert(), the converter must not hand them out
+			Assert.assertNull(converter.getData());
+			Assert.assertNull(converter.getSampleStore());
+
+			// read() keeps the store until the next record
+			Assert.assertTrue(converter.read(fileFormat.RDT, "rec.rdt", 0, path, "rec"));
+			Assert.assertTrue(converter.getSampleStore() instanceof SegmentedSampleStore);
+			Assert.assertEquals(samples, converter.getSampleStore().getSamplesPerChannel());
+			converter.releaseRecord();
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
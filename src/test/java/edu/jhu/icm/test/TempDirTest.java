@@ -0,0 +1,49 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+
+/** Base class of the tests that write files: each test gets its own empty directory, removed afterwards. */
+public abstract class TempDirTest {
+
+	File dir;
+
+	@Before
+	public void createTempDir() throws Exception {
+		dir = File.createTempFile(getClass().getSimpleName(), "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void deleteTempDir() throws Exception {
+		delete(dir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/** An ECG-like random walk in ADC units, 500Hz, each lead with its own phase. */
+	static int[][] ecgRecord(int channels, int samples, long seed) {
+		Random random = new Random(seed);
+		int[][] data = new int[channels][samples];
+		for (int c = 0; c < channels; c++) {
+			int value = 0;
+			for (int i = 0; i < samples; i++) {
+				value += random.nextInt(9) - 4;
+				data[c][i] = value + (int) (300 * Math.sin(i * 2 * Math.PI / 500 + c));
+			}
+		}
+		return data;
+	}
+}
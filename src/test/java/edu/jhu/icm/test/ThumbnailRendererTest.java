@@ -0,0 +1,60 @@
+package edu.jhu.icm.test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.batch.ThumbnailRenderer;
+import edu.jhu.icm.ecgFormatConverter.ecgz.ECGZWriter;
+
+public class ThumbnailRendererTest extends TempDirTest {
+
+	private File write(String name, String[] leads, int samples) {
+		File file = new File(dir, name + ECGZWriter.EXTENSION);
+		ECGZWriter writer = new ECGZWriter(file);
+		writer.setChannels(leads.length);
+		writer.setSamplesPerChannel(samples);
+		writer.setSamplingRate(500);
+		writer.setAduGain(200);
+		writer.setData(ecgRecord(leads.length, samples, 5));
+		writer.setLeadNames(leads);
+		Assert.assertEquals(samples, writer.write());
+		return file;
+	}
+
+	@Test
+	public void renderTest(){
+		try {
+			File rec = write("rec", new String[]{"I", "II", "V1"}, 6000);
+			File noLeadII = write("chest", new String[]{"V1", "V2"}, 3000); // drawn with its first lead
+			File broken = new File(dir, "broken.ecgz");
+			FileOutputStream out = new FileOutputStream(broken);
+			out.write(new byte[]{1, 2, 3});
+			out.close();
+
+			File outputDir = new File(dir, "png");
+			ThumbnailRenderer renderer = new ThumbnailRenderer(2);
+			renderer.setImageSize(300, 80);
+			Assert.assertEquals(2, renderer.renderAll(Arrays.asList(rec, broken, noLeadII), outputDir));
+
+			for (String name : new String[]{"rec", "chest"}) {
+				File png = new File(outputDir, name + ThumbnailRenderer.EXTENSION);
+				Assert.assertTrue(png.getName(), png.length() > 0);
+				BufferedImage image = ImageIO.read(png);
+				Assert.assertNotNull(png.getName(), image);
+				Assert.assertEquals(300, image.getWidth());
+				Assert.assertEquals(80, image.getHeight());
+			}
+			Assert.assertFalse(new File(outputDir, "broken" + ThumbnailRenderer.EXTENSION).exists());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.RecordMetadata;
+import edu.jhu.icm.ecgFormatConverter.wfdb.WFDBApplicationWrapper;
+import edu.jhu.icm.ecgFormatConverter.wfdb.WFDBHeader;
+
+public class WFDBHeaderTest extends TempDirTest {
+
+	private File write(String fileName, String content) throws Exception {
+		File file = new File(dir, fileName);
+		FileWriter out = new FileWriter(file);
+		out.write(content);
+		out.close();
+		return file;
+	}
+
+	@Test
+	public void signalLinesTest(){
+		try {
+			File hea = write("rec.hea", "rec 3 500 5000\n"
+					+ "rec.dat 16 400(12)/uV 16 0 0 0 0 II\n"
+					+ "rec.dat 16 x200/mV 16 0 0 0 0 V1\n" // malformed gain
+					+ "rec.dat 16 200/mV 16 0 0 0 0\n"); // no description
+			WFDBHeader header = WFDBHeader.parse(hea);
+			Assert.assertNotNull(header);
+			Assert.assertEquals(3, header.getSignalCount());
+			Assert.assertEquals(400, header.getGain(0), 0);
+			Assert.assertEquals(12, header.getBaseline(0));
+			Assert.assertEquals("uV", header.getUnits(0));
+			Assert.assertEquals("II", header.getLeadName(0));
+			Assert.assertEquals(200, header.getGain(1), 0); // the skipped line keeps the defaults
+			Assert.assertEquals("", header.getDescription(1));
+			Assert.assertEquals("", header.getDescription(2));
+			Assert.assertEquals("signal 2", header.getLeadName(2)); // no comma, names are joined with commas
+
+			Assert.assertNull(WFDBHeader.parse(write("bad.hea", "bad x 500 5000\n")));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void probeTest(){
+		try {
+			write("probe.hea", "probe 2 360 650000\n"
+					+ "probe.dat 212 100 11 1024 995 -22131 0 MLII\n"
+					+ "probe.dat 212 100 11 1024 1011 20052 0\n");
+			RecordMetadata metadata = new WFDBApplicationWrapper().probe(new File(dir, "probe.dat").getPath());
+			Assert.assertEquals(2, metadata.getChannels());
+			Assert.assertEquals(100, metadata.getAduGain());
+			Assert.assertEquals(Arrays.asList("II", "SIGNAL 1"), metadata.getLeadNames()); // MLII is an alias of II, other names are upper cased
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.pyramid.WaveformPyramid;
+
+public class WaveformPyramidTest extends TempDirTest {
+
+	/** Checks each column against the samples it covers. */
+	private static void assertSummary(int[] samples, float samplingRate, WaveformPyramid.Summary summary) {
+		for (int col = 0; col < summary.getColumns(); col++) {
+			int from = (int) Math.round((summary.getStartSeconds() + col * summary.getSecondsPerColumn()) * samplingRate);
+			int to = Math.min(samples.length, (int) Math.round((summary.getStartSeconds() + (col + 1) * summary.getSecondsPerColumn()) * samplingRate));
+			int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+			for (int i = from; i < to; i++) {
+				min = Math.min(min, samples[i]);
+				max = Math.max(max, samples[i]);
+			}
+			Assert.assertEquals("min of column " + col, min, summary.getMin()[col]);
+			Assert.assertEquals("max of column " + col, max, summary.getMax()[col]);
+			Assert.assertTrue("mean of column " + col, summary.getMean()[col] >= min && summary.getMean()[col] <= max);
+		}
+	}
+
+	@Test
+	public void queryTest(){
+		try {
+			int samples = 100003; // not a whole number of buckets
+			int[][] data = ecgRecord(2, samples, 3);
+			WaveformPyramid pyramid = WaveformPyramid.build(data, 500, samples);
+			Assert.assertEquals(2, pyramid.getChannels());
+			Assert.assertEquals(samples, pyramid.getSamplesPerChannel());
+			Assert.assertEquals(14, pyramid.getLevelCount()); // 16 to 128K samples per bucket
+
+			WaveformPyramid.Summary whole = pyramid.query(1, 0, 1000, 800);
+			Assert.assertTrue(whole.getColumns() > 400 && whole.getColumns() <= 800);
+			assertSummary(data[1], 500, whole);
+
+			WaveformPyramid.Summary strip = pyramid.query(0, 10.01, 12.5, 1000); // fewer than 16 samples per pixel: the finest level
+			Assert.assertEquals(16 / 500.0, strip.getSecondsPerColumn(), 1e-9);
+			Assert.assertTrue(strip.getStartSeconds() <= 10.01);
+			assertSummary(data[0], 500, strip);
+
+			WaveformPyramid.Summary single = pyramid.query(0, 0, 1000, 1);
+			Assert.assertEquals(1, single.getColumns());
+			assertSummary(data[0], 500, single);
+
+			Assert.assertEquals(0, pyramid.query(0, 300, 400, 100).getColumns()); // past the end
+			Assert.assertEquals(0, pyramid.query(0, 5, 5, 100).getColumns());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void sidecarTest(){
+		try {
+			int samples = 5000;
+			int[][] data = ecgRecord(3, samples, 4);
+			WaveformPyramid pyramid = WaveformPyramid.build(data, 250, samples);
+			File file = new File(dir, "rec" + WaveformPyramid.EXTENSION);
+			pyramid.write(file);
+
+			WaveformPyramid read = WaveformPyramid.read(file);
+			Assert.assertEquals(3, read.getChannels());
+			Assert.assertEquals(250, read.getSamplingRate(), 0);
+			Assert.assertEquals(samples, read.getSamplesPerChannel());
+			Assert.assertEquals(pyramid.getLevelCount(), read.getLevelCount());
+			for (int c = 0; c < 3; c++) {
+				WaveformPyramid.Summary expected = pyramid.query(c, 1, 15, 123);
+				WaveformPyramid.Summary actual = read.query(c, 1, 15, 123);
+				Assert.assertArrayEquals(expected.getMin(), actual.getMin());
+				Assert.assertArrayEquals(expected.getMax(), actual.getMax());
+				Assert.assertArrayEquals(expected.getMean(), actual.getMean());
+			}
+
+			File notPyramid = new File(dir, "rec.csv");
+			new FileOutputStream(notPyramid).close();
+			try {
+				WaveformPyramid.read(notPyramid);
+				Assert.fail("an empty file is not a pyramid");
+			} catch (IOException e) {
+				// expected
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}
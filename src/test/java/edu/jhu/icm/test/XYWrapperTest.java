@@ -0,0 +1,76 @@
+package edu.jhu.icm.test;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.jhu.icm.ecgFormatConverter.TimeWindow;
+import edu.jhu.icm.ecgFormatConverter.xy.XYWrapper;
+
+public class XYWrapperTest extends TempDirTest {
+
+	/** Ten rows 2ms apart (500Hz), the first at 100ms: time,row*10,-row */
+	private File writeRows() throws Exception {
+		File file = new File(dir, "xy.csv");
+		FileWriter out = new FileWriter(file);
+		for (int row = 0; row < 10; row++) {
+			out.write((100 + 2 * row) + "," + (row * 10) + "," + (-row) + "\n");
+		}
+		out.close();
+		return file;
+	}
+
+	private XYWrapper parse(File file, TimeWindow window) {
+		XYWrapper xy = new XYWrapper(file);
+		xy.setTimeWindow(window);
+		Assert.assertTrue(xy.parse(false));
+		return xy;
+	}
+
+	@Test
+	public void windowTest(){
+		try {
+			File file = writeRows();
+			XYWrapper xy = parse(file, new TimeWindow(0.004, 0.006)); // rows 2, 3 and 4
+			Assert.assertEquals(3, xy.getSamplesPerChannel());
+			Assert.assertEquals(2, xy.getChannels());
+			Assert.assertArrayEquals(new int[]{20, 30, 40}, xy.getData()[0]);
+			Assert.assertArrayEquals(new int[]{-2, -3, -4}, xy.getData()[1]);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void windowEdgesTest(){
+		try {
+			File file = writeRows();
+
+			// one row, the rate comes from the gap to the next one
+			XYWrapper xy = parse(file, new TimeWindow(0.004, 0.001));
+			Assert.assertEquals(1, xy.getSamplesPerChannel());
+			Assert.assertEquals(500, xy.getSamplingRate(), 0);
+			Assert.assertEquals(20, xy.getData()[0][0]);
+
+			// the last row, no next row to measure
+			xy = parse(file, new TimeWindow(0.018, 1));
+			Assert.assertEquals(1, xy.getSamplesPerChannel());
+			Assert.assertEquals(90, xy.getData()[0][0]);
+			Assert.assertTrue(xy.getSamplingRate() > 0);
+
+			// past the last row, or between two rows
+			xy = new XYWrapper(file);
+			xy.setTimeWindow(new TimeWindow(1, 1));
+			Assert.assertFalse(xy.parse(false));
+			xy = new XYWrapper(file);
+			xy.setTimeWindow(new TimeWindow(0.0045, 0.001));
+			Assert.assertFalse(xy.parse(false));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+}